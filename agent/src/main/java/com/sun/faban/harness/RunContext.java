@@ -405,6 +405,28 @@ public class RunContext {
         return CmdService.getHandle().get(hostName, fileName, localFileName);
     }
 
+    /**
+     * Gets/copies a file from each of the remote hosts, in parallel. This
+     * is the way to collect the logs of many hosts. Relative paths given
+     * for localFileNames are placed in the current run output directory.
+     * @param hostNames The remote host names
+     * @param fileNames The file name on each remote host
+     * @param localFileNames The target file name on the local host, for
+     *                       each remote host
+     * @return Whether each file was copied
+     */
+    public static boolean[] getFiles(String[] hostNames, String[] fileNames,
+                                     String[] localFileNames) {
+        String[] destFiles = new String[localFileNames.length];
+        for (int i = 0; i < destFiles.length; i++) {
+            destFiles[i] = localFileNames[i];
+            if (!new File(destFiles[i]).isAbsolute())
+                destFiles[i] = getOutDir() + destFiles[i];
+        }
+        return CmdService.getHandle().getAll(hostNames, fileNames,
+                                             destFiles);
+    }
+
     /**
      * Checks whether the given remote file exists.
      * @param hostName The host name to check.
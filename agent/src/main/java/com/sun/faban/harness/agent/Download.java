@@ -24,31 +24,73 @@
 package com.sun.faban.harness.agent;
 
 import com.sun.faban.harness.common.Config;
+import com.sun.faban.harness.util.ContentManifest;
 import com.sun.faban.harness.util.FileHelper;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
 import java.net.URL;
+import java.security.MessageDigest;
 import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.logging.Logger;
 import org.apache.commons.httpclient.HttpClient;
 import org.apache.commons.httpclient.HttpStatus;
+import org.apache.commons.httpclient.MultiThreadedHttpConnectionManager;
 import org.apache.commons.httpclient.methods.GetMethod;
+import org.apache.commons.httpclient.params.HttpConnectionManagerParams;
 
 /**
  * The benchmark loader is called by the command agent to download benchmarks
  * to the agent machine in order to drive the workload without manually having
- * to cope with distributing benchmark code.
+ * to cope with distributing benchmark code.<p>
+ *
+ * The master publishes a content manifest with the hash of each file. The
+ * agent keeps the downloaded files by hash in a content cache that lasts
+ * across runs, fetches only the content it does not have yet, in
+ * parallel over keep-alive connections, and updates just the changed
+ * files of its copy. Each copy keeps its manifest in META-INF, and content
+ * no longer listed in any of them is pruned from the cache after each
+ * update. Agents on the same machine share the cache, taking turns
+ * through a file lock. The cache can be deleted at any time. Masters not publishing
+ * manifests are crawled file by file as before.
  *
  * @author Akara Sucharitakul
  */
 public class Download {
 
     static Logger logger = Logger.getLogger(Download.class.getName());
+
+    /** The number of parallel file downloads. */
+    static final int THREADS =
+            Math.max(1, Integer.getInteger("faban.download.threads", 4));
+
+    /** The file in META-INF keeping the manifest of a downloaded copy. */
+    static final String MANIFEST = "ContentManifest";
+
+    /** The file in the cache locked while updating or pruning it. */
+    static final String LOCK = ".lock";
+
+    // Serializes cache updates and pruning in this agent. Agents sharing
+    // the cache on the same machine lock the LOCK file.
+    private static final Object cacheLock = new Object();
+
     byte[] buffer = new byte[8192];
 
+    private HttpClient client;
+
     /**
      * Downloads benchmark.
      * @param benchmarkName
@@ -103,10 +145,282 @@ public class Download {
                 return; // Recent RunID file means the directory is shared.
                         // Don't download.
 
-            FileHelper.recursiveDelete(dir);
         }
         URL url = new URL(context + src + name + '/');
-        downloadDir(url, dir);
+        List<ContentManifest.Entry> manifest = getManifest(url);
+        if (manifest == null) { // The master does not publish manifests.
+            if (dir.exists())
+                FileHelper.recursiveDelete(dir);
+            downloadDir(url, dir);
+        } else {
+            synchronized (cacheLock) {
+                File cache = new File(Config.DOWNLOAD_CACHE_DIR);
+                if (!cache.isDirectory() && !cache.mkdirs())
+                    throw new IOException("Cannot create download cache " +
+                                          cache);
+                RandomAccessFile lock = new RandomAccessFile(
+                        new File(cache, LOCK), "rw");
+                try {
+                    lock.getChannel().lock(); // Released by close.
+                    sync(url, manifest, dir, cache);
+                    prune(cache, new File[] {
+                            new File(Config.BENCHMARK_DIR),
+                            new File(Config.SERVICE_DIR) });
+                } finally {
+                    lock.close();
+                }
+            }
+        }
+    }
+
+    /**
+     * Obtains the client shared by all downloads of this loader. The
+     * connections are kept alive.
+     */
+    private synchronized HttpClient getClient() {
+        if (client == null) {
+            MultiThreadedHttpConnectionManager manager =
+                    new MultiThreadedHttpConnectionManager();
+            HttpConnectionManagerParams params = manager.getParams();
+            params.setDefaultMaxConnectionsPerHost(THREADS);
+            params.setMaxTotalConnections(THREADS);
+            params.setConnectionTimeout(2000);
+            client = new HttpClient(manager);
+        }
+        return client;
+    }
+
+    private List<ContentManifest.Entry> getManifest(URL url)
+            throws IOException {
+        GetMethod get = new GetMethod(url.toString() + "?manifest");
+        try {
+            int status = getClient().executeMethod(get);
+            if (status != HttpStatus.SC_OK)
+                throw new IOException("Download request for " + url +
+                        " returned " + HttpStatus.getStatusText(status) + '.');
+            InputStream stream = get.getResponseBodyAsStream();
+            if (stream == null)
+                return null;
+            return ContentManifest.read(stream);
+        } finally {
+            get.releaseConnection();
+        }
+    }
+
+    /**
+     * Brings the directory up to date with the manifest. Content missing
+     * in the cache is fetched first, then files removed from the manifest
+     * are deleted and changed files are copied from the cache. A file is
+     * unchanged if it has the size and modification time of its cached
+     * content, as set when copied.
+     */
+    private void sync(URL url, List<ContentManifest.Entry> manifest,
+                      File dir, File cache) throws IOException {
+        Set<String> hashes = new HashSet<String>();
+        List<ContentManifest.Entry> missing =
+                new ArrayList<ContentManifest.Entry>();
+        for (ContentManifest.Entry e : manifest) {
+            File cached = new File(cache, e.hash);
+            if ((!cached.isFile() || cached.length() != e.size) &&
+                    hashes.add(e.hash))
+                missing.add(e);
+        }
+        fetch(url, missing, cache);
+
+        Set<String> paths = new HashSet<String>();
+        for (ContentManifest.Entry e : manifest)
+            paths.add(e.path);
+        if (!dir.isDirectory() && !dir.mkdirs())
+            throw new IOException("Cannot create directory " + dir);
+        int removed = removeStale(dir, "", paths);
+
+        int copied = 0;
+        for (ContentManifest.Entry e : manifest) {
+            File cached = new File(cache, e.hash);
+            File file = new File(dir, e.path);
+            if (file.isFile() && file.length() == e.size &&
+                    file.lastModified() == cached.lastModified())
+                continue;
+            File parent = file.getParentFile();
+            if (!parent.isDirectory() && !parent.mkdirs())
+                throw new IOException("Cannot create directory " + parent);
+            if (!FileHelper.copyFile(cached.getPath(), file.getPath(), false))
+                throw new IOException("Cannot copy " + cached + " to " + file);
+            file.setLastModified(cached.lastModified());
+            ++copied;
+        }
+
+        File metaInf = new File(dir, "META-INF");
+        if (!metaInf.isDirectory() && !metaInf.mkdirs())
+            throw new IOException("Cannot create directory " + metaInf);
+        FileOutputStream out = new FileOutputStream(
+                new File(metaInf, MANIFEST));
+        try {
+            ContentManifest.write(dir.getName(), manifest, out);
+        } finally {
+            out.close();
+        }
+        logger.fine("Synchronized " + dir + " from " + url + ": " +
+                missing.size() + " fetched, " + copied + " updated, " +
+                removed + " removed, " + (manifest.size() - copied) +
+                " unchanged.");
+    }
+
+    /**
+     * Deletes the cached content not listed in the manifest of any copy
+     * in the given directories, including partial downloads. Manifests
+     * that cannot be read are ignored, the content they list is fetched
+     * again when needed. The caller holds the cache lock, so no other
+     * agent is downloading into the cache.
+     * @param cache The cache directory
+     * @param roots The directories holding the downloaded copies
+     * @return The number of files deleted
+     */
+    static int prune(File cache, File[] roots) {
+        File[] cached = cache.listFiles();
+        if (cached == null)
+            return 0;
+        Set<String> hashes = new HashSet<String>();
+        for (File root : roots) {
+            File[] dirs = root.listFiles();
+            if (dirs == null)
+                continue;
+            for (File dir : dirs) {
+                File file = new File(new File(dir, "META-INF"), MANIFEST);
+                if (!file.isFile())
+                    continue;
+                try {
+                    FileInputStream in = new FileInputStream(file);
+                    try {
+                        List<ContentManifest.Entry> manifest =
+                                ContentManifest.read(in);
+                        if (manifest != null)
+                            for (ContentManifest.Entry e : manifest)
+                                hashes.add(e.hash);
+                    } finally {
+                        in.close();
+                    }
+                } catch (IOException e) {
+                    logger.warning("Cannot read " + file + ": " +
+                                   e.getMessage());
+                }
+            }
+        }
+        int removed = 0;
+        for (File file : cached)
+            if (file.isFile() && !hashes.contains(file.getName()) &&
+                    !LOCK.equals(file.getName()) && file.delete())
+                ++removed;
+        if (removed > 0)
+            logger.fine("Pruned " + removed + " files from " + cache + '.');
+        return removed;
+    }
+
+    /**
+     * Deletes the files not in the manifest, and directories left empty.
+     * META-INF directories are not in the manifest and are kept.
+     * @return The number of files deleted
+     */
+    private int removeStale(File dir, String prefix, Set<String> paths) {
+        File[] files = dir.listFiles();
+        if (files == null)
+            return 0;
+        int removed = 0;
+        for (File file : files) {
+            String path = prefix + file.getName();
+            if (file.isDirectory()) {
+                if ("META-INF".equals(file.getName()))
+                    continue;
+                removed += removeStale(file, path + '/', paths);
+                String[] left = file.list();
+                if (left != null && left.length == 0)
+                    file.delete();
+            } else if (!paths.contains(path) && file.delete()) {
+                ++removed;
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * Fetches the content into the cache, in parallel.
+     */
+    private void fetch(final URL url, List<ContentManifest.Entry> missing,
+                       final File cache) throws IOException {
+        if (missing.isEmpty())
+            return;
+        ExecutorService executor = Executors.newFixedThreadPool(
+                Math.min(THREADS, missing.size()));
+        List<Future<Object>> results = new ArrayList<Future<Object>>();
+        for (final ContentManifest.Entry e : missing)
+            results.add(executor.submit(new Callable<Object>() {
+                public Object call() throws IOException {
+                    fetchFile(new URL(url, e.path), e, cache);
+                    return null;
+                }
+            }));
+        executor.shutdown();
+        try {
+            for (Future<Object> result : results)
+                result.get();
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            throw new InterruptedIOException("Interrupted downloading " +
+                                             url);
+        } catch (ExecutionException e) {
+            executor.shutdownNow();
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException)
+                throw (IOException) cause;
+            throw new IOException("Failed downloading " + url + ": " + cause);
+        }
+    }
+
+    /**
+     * Fetches a file into the cache, checking its hash.
+     */
+    private void fetchFile(URL url, ContentManifest.Entry e, File cache)
+            throws IOException {
+        logger.finer("Downloading file " + url.toString());
+        GetMethod get = new GetMethod(url.toString());
+        try {
+            int status = getClient().executeMethod(get);
+            if (status != HttpStatus.SC_OK)
+                throw new IOException("Download request for " + url +
+                        " returned " + HttpStatus.getStatusText(status) + '.');
+            File part = File.createTempFile(e.hash, ".part", cache);
+            MessageDigest md = ContentManifest.newDigest();
+            InputStream in = get.getResponseBodyAsStream();
+            FileOutputStream out = new FileOutputStream(part);
+            try {
+                if (in != null) {
+                    byte[] b = new byte[8192];
+                    int length;
+                    while ((length = in.read(b)) != -1) {
+                        md.update(b, 0, length);
+                        out.write(b, 0, length);
+                    }
+                }
+            } finally {
+                out.close();
+            }
+            if (!e.hash.equals(ContentManifest.toHex(md.digest()))) {
+                part.delete();
+                throw new IOException("Content of " + url +
+                                      " changed during download.");
+            }
+            File cached = new File(cache, e.hash);
+            if (!part.renameTo(cached)) {
+                cached.delete(); // Some platforms do not replace on rename.
+                if (!part.renameTo(cached)) {
+                    part.delete();
+                    throw new IOException("Cannot move " + part + " to " +
+                                          cached);
+                }
+            }
+        } finally {
+            get.releaseConnection();
+        }
     }
 
     private void downloadDir(URL url, File dir) throws IOException {
@@ -116,10 +430,7 @@ public class Download {
         dir.mkdir();
 
         GetMethod get = new GetMethod(url.toString());
-        HttpClient client = new HttpClient();
-        client.getHttpConnectionManager().getParams().
-                setConnectionTimeout(2000);
-        int status = client.executeMethod(get);
+        int status = getClient().executeMethod(get);
         if (status != HttpStatus.SC_OK)
             throw new IOException("Download request for " + url + " returned " +
                                     HttpStatus.getStatusText(status) + '.');
@@ -161,10 +472,7 @@ public class Download {
     private void downloadFile(URL url, File file) throws IOException {
         logger.finer("Downloading file " + url.toString());
         GetMethod get = new GetMethod(url.toString());
-        HttpClient client = new HttpClient();
-        client.getHttpConnectionManager().getParams().
-                setConnectionTimeout(2000);
-        int status = client.executeMethod(get);
+        int status = getClient().executeMethod(get);
         if (status != HttpStatus.SC_OK)
             throw new IOException("Download request for " + url + " returned " +
                                     HttpStatus.getStatusText(status) + '.');
@@ -103,6 +103,19 @@ public interface FileAgent extends Remote {
     boolean removeFiles(String dirName,
                                com.sun.faban.harness.FileFilter filter)
             throws RemoteException;
+
+    /**
+     * Lists the files in a directory matched by the filter.
+     * @param dirName The directory path name
+     * @param filter The filter, or null for all files
+     * @return The path names of the files, or null if the directory
+     *         does not exist
+     * @throws RemoteException A communications error occurred.
+     */
+    String[] listFiles(String dirName,
+                       com.sun.faban.harness.FileFilter filter)
+            throws RemoteException;
+
     /**
      * Gets a property from a given file.
      * @param configFile The config file name
@@ -137,12 +150,22 @@ public interface FileAgent extends Remote {
      */
     boolean isDirectory(String fileName) throws RemoteException;
 
+    /**
+     * Obtains the length of the given remote file. This is where a push
+     * broken off by a communications error resumes.
+     * @param fileName The file name
+     * @return The length of the file, or 0 if it does not exist
+     * @throws RemoteException A communications error occurred.
+     */
+    long getFileLength(String fileName) throws RemoteException;
+
     /**
      * Pushes a file, as encapsulated in the FileTransfer, from a the master
      * to this agent. The serialization of the FileTransfer causes the file
      * to be copied from src to dest over the wire.
      * @param transfer The file transfer description
-     * @return The number of bytes transferred
+     * @return The length of the valid destination file, equal to the file
+     *         size if the transfer succeeded
      * @throws RemoteException If there is an error in the transfer
      */
     long push(FileTransfer transfer) throws RemoteException;
@@ -157,4 +180,18 @@ public interface FileAgent extends Remote {
      */
     FileTransfer get(String srcFile, String destFile)
             throws IOException;
+
+    /**
+     * Gets a file from the local system to the master, starting at an
+     * offset into the file. This resumes a failed transfer at its
+     * transfer size.
+     * @param srcFile The source file on the host the agent is running on
+     * @param destFile The destination file on the master
+     * @param offset The offset to start the transfer at
+     * @param compress Whether to compress the content
+     * @return The FileTransfer causing this transfer
+     * @throws IOException If there is an error reading or transferring
+     */
+    FileTransfer get(String srcFile, String destFile, long offset,
+                     boolean compress) throws IOException;
 }
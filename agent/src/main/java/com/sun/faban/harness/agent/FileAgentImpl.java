@@ -240,6 +240,29 @@ public class FileAgentImpl extends UnicastRemoteObject
         return FileHelper.delete(new File(dirName), filter);
     }
 
+    /**
+     * Lists the files in a directory matched by the filter.
+     * @param dirName The directory path name
+     * @param filter The filter, or null for all files
+     * @return The path names of the files, or null if the directory
+     *         does not exist
+     */
+    public String[] listFiles(String dirName,
+                              com.sun.faban.harness.FileFilter filter) {
+        dirName = Utilities.convertPath(dirName);
+        File[] files = new File(dirName).listFiles(filter);
+        if (files == null)
+            return null;
+        int count = 0;
+        String[] names = new String[files.length];
+        for (File file : files)
+            if (file.isFile())
+                names[count++] = file.getAbsolutePath();
+        String[] result = new String[count];
+        System.arraycopy(names, 0, result, 0, count);
+        return result;
+    }
+
     /**
      * Checks whether the given remote file exists.
      *
@@ -276,13 +299,27 @@ public class FileAgentImpl extends UnicastRemoteObject
         return file.isDirectory();
     }
 
+    /**
+     * Obtains the length of the given remote file. This is where a push
+     * broken off by a communications error resumes.
+     *
+     * @param fileName The file name
+     * @return The length of the file, or 0 if it does not exist
+     */
+    public long getFileLength(String fileName) {
+        fileName = Utilities.convertPath(fileName);
+        File file = new File(fileName);
+        return file.length();
+    }
+
     /**
      * Pushes a file, as encapsulated in the FileTransfer, from a the master
      * to this agent. The serialization of the FileTransfer causes the file
      * to be copied from src to dest over the wire.
      *
      * @param transfer The file transfer description
-     * @return The number of bytes transferred
+     * @return The length of the valid destination file, equal to the file
+     *         size if the transfer succeeded
      * @throws java.rmi.RemoteException If there is an error in the transfer
      */
     public long push(FileTransfer transfer) throws RemoteException {
@@ -294,7 +331,7 @@ public class FileAgentImpl extends UnicastRemoteObject
                     transfer.getDest() + ", " +
                     transfer.getTransferSize() + " out of " +
                     transfer.getSize() + " bytes");
-        return transfer.getSize();
+        return transfer.getTransferSize();
     }
 
     /**
@@ -318,6 +355,29 @@ public class FileAgentImpl extends UnicastRemoteObject
         return t;
     }
 
+    /**
+     * Gets a file from the local system to the master, starting at an
+     * offset into the file. This resumes a failed transfer at its
+     * transfer size.
+     *
+     * @param srcFile  The source file on the host the agent is running on
+     * @param destFile The destination file on the master
+     * @param offset The offset to start the transfer at
+     * @param compress Whether to compress the content
+     * @return The FileTransfer causing this transfer
+     * @throws IOException If there is an error reading or transferring
+     */
+    public FileTransfer get(String srcFile, String destFile, long offset,
+                            boolean compress) throws IOException {
+        srcFile = Utilities.convertPath(srcFile);
+        FileTransfer t = new FileTransfer(srcFile, destFile, offset,
+                                          compress);
+        logger.fine("Transferring " + t.getSource() + "->" + t.getDest() +
+                    " size " + t.getTransferSize() + " bytes from offset " +
+                    offset + '.');
+        return t;
+    }
+
     // Registration for RMI serving - used only for stand-alone testing.
 
     /**
@@ -32,6 +32,7 @@ import javax.xml.xpath.XPathConstants;
 import javax.xml.xpath.XPathFactory;
 import java.io.ByteArrayInputStream;
 import java.io.File;
+import java.io.Flushable;
 import java.io.IOException;
 import java.net.MalformedURLException;
 import java.net.URL;
@@ -203,6 +204,9 @@ public class Config {
     /** The directory containing user profiles. */
     public static String PROFILES_DIR;
 
+    /** The directory caching downloaded files by content hash. */
+    public static String DOWNLOAD_CACHE_DIR;
+
     // space before and after string are required in next line
     // Constant used by engine.CmdService
 
@@ -224,6 +228,13 @@ public class Config {
     /** Generic thread pool. */
     public static ExecutorService THREADPOOL;
 
+    /**
+     * The writer of the log records received from remote machines, if
+     * any. The run daemon flushes it, holding its lock, when moving the
+     * log to another file.
+     */
+    public static Flushable LOG_WRITER;
+
     // Configuration from the file
     /** Whether or not security is enabled. */
     public static boolean SECURITY_ENABLED = false;
@@ -410,6 +421,8 @@ public class Config {
         BENCHMARK_DIR = FABAN_HOME + "benchmarks" + File.separator;
         SERVICE_DIR = FABAN_HOME + "services" + File.separator;
         PROFILES_DIR = CONFIG_DIR + "profiles" + File.separator;
+        DOWNLOAD_CACHE_DIR = FABAN_HOME + "cache" + File.separator +
+                             "downloads" + File.separator;
 
         String[] emptyDirs = { BENCHMARK_DIR, SERVICE_DIR, OUT_DIR, RUNQ_DIR, PROFILES_DIR,
                               FABAN_HOME + "logs",
@@ -43,6 +43,9 @@ import java.rmi.RemoteException;
 import java.text.SimpleDateFormat;
 import java.util.*;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
@@ -88,6 +91,22 @@ final public class CmdService { 	// The final keyword prevents clones
     public static final int PARALLEL = 2;
 
     private static Logger logger = Logger.getLogger(CmdService.class.getName());
+
+    /** The maximum number of hosts served in parallel by getAll. */
+    static final int TRANSFER_THREADS =
+            Math.max(1, Integer.getInteger("faban.transfer.threads", 8));
+
+    /**
+     * The time to wait for the registry and for each agent to register,
+     * in milliseconds.
+     */
+    static final long AGENT_TIMEOUT =
+            Integer.getInteger("faban.agent.timeout", 120) * 1000l;
+
+    /** Whether push and get compress the content, true by default. */
+    static final boolean COMPRESS_TRANSFERS = Boolean.parseBoolean(
+            System.getProperty("faban.transfer.compress", "true"));
+
     private static CmdService cmds;
 
     private ArrayList<CmdAgent> cmdp = new ArrayList<CmdAgent>();
@@ -96,6 +115,7 @@ final public class CmdService { 	// The final keyword prevents clones
     /** List of all machines. */
     private ArrayList<String> machinesList = new ArrayList<String>();
     private Properties hostInterfaces = new Properties();
+    private HashMap<String, Long> agentStartTimes = new HashMap<String, Long>();
     private Registry registry;
     private String master;	// Name of faban master machine
     private String masterAddress; // ip of faban master machine
@@ -316,19 +336,29 @@ final public class CmdService { 	// The final keyword prevents clones
             usrOpts.add(disableEGC);
         jvmOptions.addAll(usrOpts);
 
-        // RMI registry takes a bit of time to startup. So sleep for some time
-        try {
-            logger.fine("Waiting for RMI registry and Registry to startup");
-            Thread.sleep(10000);
-        } catch (InterruptedException e) {
-        }
-
-        try {
-            registry = RegistryLocator.getRegistry(Config.RMI_PORT);
-        } catch (Exception e) {
-            logger.log(Level.SEVERE, "Unable to connect to Registry.", e);
-            return false;
+        // RMI registry takes a bit of time to startup. So poll until it's up.
+        logger.fine("Waiting for RMI registry and Registry to startup");
+        long registryStart = System.currentTimeMillis();
+        for (;;) {
+            try {
+                registry = RegistryLocator.getRegistry(Config.RMI_PORT);
+                break;
+            } catch (Exception e) {
+                if (System.currentTimeMillis() - registryStart >=
+                        AGENT_TIMEOUT) {
+                    logger.log(Level.SEVERE, "Unable to connect to Registry.",
+                               e);
+                    return false;
+                }
+            }
+            try {
+                Thread.sleep(250);
+            } catch (InterruptedException e) {
+                return false;
+            }
         }
+        logger.fine("Registry started in " +
+                (System.currentTimeMillis() - registryStart) + " ms.");
 
         // an agent needs to be started on the master machine
         // first since configuration of agents on other machines
@@ -495,10 +525,7 @@ final public class CmdService { 	// The final keyword prevents clones
                 machinesList.add(machines[i]);
             }
         }
-        try {
-            Thread.sleep(20000);
-        } catch (InterruptedException e) {
-        }
+        // The agents register when ready. We wait for them in getCmdAgent.
         for (int i = 0; i < machinesList.size(); i++) {
             if (!getCmdAgent((String) machinesList.get(i))) {
                 return false;
@@ -595,16 +622,15 @@ final public class CmdService { 	// The final keyword prevents clones
     private boolean getCmdAgent(String mach) {
 
         try {
+            // The agents were started in parallel, wait for each one until
+            // the timeout counted from its start.
+            Long started = agentStartTimes.get(mach);
+            long start = started == null ? System.currentTimeMillis() :
+                                           started;
             String s = Config.CMD_AGENT + "@" + mach;
             logger.fine("CmdService: Connecting to " + s);
-            int retry = 1;
-            CmdAgent c = (CmdAgent) registry.getService(s);
-            for (; c == null && retry <= 10; retry++) {
-                Thread.sleep(10000);
-                logger.warning("Retry connecting to " + s + ", count " +
-                        retry + '.');
-                c = (CmdAgent) registry.getService(s);
-            }
+            CmdAgent c = (CmdAgent) registry.waitForService(s,
+                    start + AGENT_TIMEOUT - System.currentTimeMillis());
             if (c == null) {
                 logger.severe("Could not connect to " + s);
                 return (false);
@@ -619,18 +645,13 @@ final public class CmdService { 	// The final keyword prevents clones
              * 4. Create and register file agent
              * So it may take quite some time between the registration of
              * the command agent and the file agent. But we can be pretty
-             * sure it'll happen. So just wait. Timeout after 100 retries.             
+             * sure it'll happen. So just wait, up to the timeout.
              */
             s = Config.FILE_AGENT + "@" + mach;
             logger.fine("FileService: Connecting to " + s);
-            retry = 1;
-            FileAgent f = (FileAgent) registry.getService(s);
-            for (; f == null && retry <= 100; retry++) {
-                Thread.sleep(1000);
-                logger.fine("Retry obtaining file service from " + s +
-                        ", count " + retry + '.');
-                f = (FileAgent) registry.getService(s);
-            }
+            FileAgent f = (FileAgent) registry.waitForService(s,
+                    Math.max(start + AGENT_TIMEOUT -
+                             System.currentTimeMillis(), 1l));
             if (f == null) {
                 logger.severe("Timed out obtaining file service from " + s);
                 return (false);
@@ -639,7 +660,8 @@ final public class CmdService { 	// The final keyword prevents clones
 
             // Added by Ramesh to get the real hostnames of the servers
             logger.info("CmdService: Configured " + s + " on server " +
-                    c.getHostName());
+                    c.getHostName() + " in " +
+                    (System.currentTimeMillis() - start) + " ms.");
             return true;
 
         } catch (Exception e) {
@@ -656,6 +678,7 @@ final public class CmdService { 	// The final keyword prevents clones
             String interfaceAddress) {
 
         hostInterfaces.setProperty(mach, interfaceAddress);
+        agentStartTimes.put(mach, System.currentTimeMillis());
         List<String> cmd = new ArrayList<String>();
 
         List<String> agentParams = new ArrayList<String>();
@@ -1320,7 +1343,7 @@ final public class CmdService { 	// The final keyword prevents clones
      * @param destfile The destination file name
      * @return true if successful, false otherwise
      */
-    public synchronized boolean push(String srcfile,
+    public boolean push(String srcfile,
             String destmachine, String destfile) {
         int didx = machinesList.indexOf(destmachine);
         if (didx == -1) {
@@ -1352,18 +1375,43 @@ final public class CmdService { 	// The final keyword prevents clones
 
         FileAgent destf = filep.get(didx);
         try {
-            FileTransfer transfer = new FileTransfer(srcfile, destfile);
+            FileTransfer transfer = new FileTransfer(srcfile, destfile, 0l,
+                    COMPRESS_TRANSFERS);
+            long size = transfer.getTransferSize();
             logger.fine("Transferring " + transfer.getSource() + "->" +
-                    transfer.getDest() + " size " +
-                    transfer.getSize() + " bytes.");
-            if (destf.push(transfer) != transfer.getSize()) {
+                    transfer.getDest() + " size " + size + " bytes.");
+            long start = System.nanoTime();
+            long valid;
+            boolean broken = false;
+            try {
+                valid = destf.push(transfer);
+            } catch (RemoteException e) {
+                if (!isResumable(e))
+                    throw e;
+                // Keep what made it to the remote file.
+                logger.log(Level.WARNING, "CmdService: Pushing - " +
+                        "transfer of " + srcfile + " broken off", e);
+                broken = true;
+                valid = destf.getFileLength(destfile);
+            }
+            if (valid < size && (valid > 0 || broken)) {
+                logger.warning("CmdService: Pushing - resuming " + srcfile +
+                        " at " + valid + " out of " + size + " bytes");
+                transfer = new FileTransfer(srcfile, destfile, valid,
+                        COMPRESS_TRANSFERS);
+                valid = destf.push(transfer);
+            }
+            if (valid != size) {
                 throw new IOException("Invalid transfer size");
             }
+            logThroughput("Pushed", transfer.getSource(),
+                    destmachine + ':' + transfer.getDest(), size, start);
         } catch (RemoteException e) {
             Throwable t = e;
             Throwable cause = t.getCause();
             while (cause != null) {
                 t = cause;
+                cause = t.getCause();
             }
 
             logger.log(Level.SEVERE, "CmdService: Pushing - " +
@@ -1384,7 +1432,7 @@ final public class CmdService { 	// The final keyword prevents clones
      * @param destfile The destination file name, always full path
      * @return true if successful, false otherwise
      */
-    public synchronized boolean get(String srcmachine, String srcfile,
+    public boolean get(String srcmachine, String srcfile,
             String destfile) {
         int sidx = machinesList.indexOf(srcmachine);
         if (sidx == -1) {
@@ -1409,18 +1457,47 @@ final public class CmdService { 	// The final keyword prevents clones
 
         FileAgent srcf = filep.get(sidx);
         try {
-            FileTransfer transfer = srcf.get(srcfile, destfile);
+            long start = System.nanoTime();
+            // Start without a local file, so any content found after a
+            // broken transfer was written by this transfer.
+            File local = new File(Utilities.convertPath(destfile));
+            if (local.exists() && !local.delete())
+                throw new IOException("Cannot replace " + local);
+            FileTransfer transfer = null;
+            long valid;
+            try {
+                transfer = srcf.get(srcfile, destfile, 0l,
+                        COMPRESS_TRANSFERS);
+                valid = transfer.getTransferSize();
+            } catch (RemoteException e) {
+                if (!isResumable(e))
+                    throw e;
+                // Keep what made it to the local file, or start over.
+                logger.log(Level.WARNING, "CmdService: Getting - " +
+                        "transfer of " + srcfile + " broken off", e);
+                valid = local.length();
+            }
+            if (transfer == null ||
+                    (valid > 0 && valid < transfer.getSize())) {
+                logger.warning("CmdService: Getting - resuming " + srcfile +
+                        " at " + valid + " bytes");
+                transfer = srcf.get(srcfile, destfile, valid,
+                        COMPRESS_TRANSFERS);
+            }
             if (transfer.getSize() != transfer.getTransferSize()) {
                 throw new IOException("Received " + transfer.getSource() +
                         "->" + transfer.getDest() + ", " +
                         transfer.getTransferSize() + " out of " +
                         transfer.getSize() + " bytes");
             }
+            logThroughput("Got", srcmachine + ':' + transfer.getSource(),
+                    transfer.getDest(), transfer.getSize(), start);
         } catch (RemoteException e) {
             Throwable t = e;
             Throwable cause = t.getCause();
             while (cause != null) {
                 t = cause;
+                cause = t.getCause();
             }
 
             logger.log(Level.SEVERE, "CmdService: Getting - " +
@@ -1434,6 +1511,152 @@ final public class CmdService { 	// The final keyword prevents clones
         return true;
     }
 
+    /**
+     * Gets a file from each of the hosts to the Faban master. The hosts are
+     * served in parallel, using up to faban.transfer.threads threads
+     * (default 8). A host may be listed more than once, for several files.
+     * @param hosts The source machines
+     * @param srcfiles The source file name on each host
+     * @param destfiles The destination file name for each host, always
+     *                  full path
+     * @return Whether each file was transferred
+     */
+    public boolean[] getAll(final String[] hosts, final String[] srcfiles,
+                            final String[] destfiles) {
+        return forEachHost(hosts, "Getting", new HostTask() {
+            public boolean run(int i) {
+                return get(hosts[i], srcfiles[i], destfiles[i]);
+            }
+        });
+    }
+
+    /**
+     * Gets the files matched by the filter in a directory on each of the
+     * hosts to the Faban master. The files of each host are placed in a
+     * subdirectory of the destination directory named after the host, as
+     * files from different hosts often have the same names. The hosts are
+     * served in parallel, using up to faban.transfer.threads threads
+     * (default 8). Transfers from one host are done in sequence.
+     * @param hosts The source machines
+     * @param srcdir The source directory on each host
+     * @param filter The filter selecting the files, or null for all files
+     * @param destdir The destination directory, always full path
+     * @return true if all files were transferred, false otherwise
+     */
+    public boolean getAll(final String[] hosts, final String srcdir,
+                          final com.sun.faban.harness.FileFilter filter,
+                          final String destdir) {
+        boolean[] results = forEachHost(hosts, "Getting", new HostTask() {
+            public boolean run(int i) throws IOException {
+                String host = hosts[i];
+                String[] files = findFileAgent(host).listFiles(srcdir,
+                                                               filter);
+                if (files == null || files.length == 0)
+                    return true;
+                File dir = new File(destdir, host);
+                if (!dir.isDirectory() && !dir.mkdirs()) {
+                    logger.severe("CmdService: Cannot create " +
+                            "directory " + dir);
+                    return false;
+                }
+                boolean success = true;
+                for (String file : files) {
+                    String name = file.substring(Math.max(
+                            file.lastIndexOf('/'),
+                            file.lastIndexOf('\\')) + 1);
+                    success &= get(host, file, new File(dir, name).
+                            getAbsolutePath());
+                }
+                return success;
+            }
+        });
+        for (boolean result : results)
+            if (!result)
+                return false;
+        return true;
+    }
+
+    /**
+     * The work done for one host by forEachHost.
+     */
+    interface HostTask {
+
+        /**
+         * Runs the task for one host.
+         * @param i The index of the host
+         * @return Whether the task succeeded
+         * @throws IOException If the task failed
+         */
+        boolean run(int i) throws IOException;
+    }
+
+    /**
+     * Runs a task for each host, using up to faban.transfer.threads
+     * threads. A task failing with an exception, e.g. for an unknown host,
+     * is logged and counted as failed, without affecting the other hosts.
+     * @param hosts The hosts
+     * @param action The action, for logging
+     * @param task The task
+     * @return Whether the task succeeded for each host
+     */
+    static boolean[] forEachHost(String[] hosts, String action,
+                                 final HostTask task) {
+        boolean[] results = new boolean[hosts.length];
+        if (hosts.length == 0)
+            return results;
+        ExecutorService executor = Executors.newFixedThreadPool(
+                Math.min(hosts.length, TRANSFER_THREADS));
+        ArrayList<Future<Boolean>> futures =
+                new ArrayList<Future<Boolean>>(hosts.length);
+        try {
+            for (int i = 0; i < hosts.length; i++) {
+                final int index = i;
+                futures.add(executor.submit(new Callable<Boolean>() {
+                    public Boolean call() throws IOException {
+                        return task.run(index);
+                    }
+                }));
+            }
+        } finally {
+            executor.shutdown();
+        }
+        for (int i = 0; i < hosts.length; i++) {
+            try {
+                results[i] = futures.get(i).get();
+            } catch (InterruptedException e) {
+                executor.shutdownNow();
+                Thread.currentThread().interrupt();
+                break;
+            } catch (ExecutionException e) {
+                logger.log(Level.SEVERE, "CmdService: " + action +
+                        " - failed on " + hosts[i], e.getCause());
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Checks whether a failed transfer can be resumed. A transfer failing
+     * to connect never reached the other side, so the destination file
+     * may be an old one.
+     * @param e The failure
+     * @return Whether the transfer can be resumed
+     */
+    private static boolean isResumable(RemoteException e) {
+        return !(e instanceof java.rmi.ConnectException ||
+                 e instanceof java.rmi.ConnectIOException);
+    }
+
+    private static void logThroughput(String action, String src, String dest,
+                                      long size, long start) {
+        if (!logger.isLoggable(Level.FINE))
+            return;
+        double millis = (System.nanoTime() - start) / 1000000d;
+        logger.fine(action + ' ' + src + "->" + dest + ", " + size +
+                " bytes in " + Math.round(millis) + " ms, " +
+                Math.round(size / Math.max(millis, 1d)) + " KB/s.");
+    }
+
     /**
      * Copy a file from one remote machine to another
      * This method essentially does the work of 'rcp'
@@ -1545,7 +1768,7 @@ final public class CmdService { 	// The final keyword prevents clones
      * @param srcfile The file name
      * @return true if the file has been deleted, false otherwise
      */
-    public synchronized boolean delete(String srcmachine, String srcfile) {
+    public boolean delete(String srcmachine, String srcfile) {
         try {
             return findFileAgent(srcmachine).removeFile(srcfile);
         } catch (Exception ie) {
@@ -1564,7 +1787,7 @@ final public class CmdService { 	// The final keyword prevents clones
      * @param filter The file filter to use
      * @return true if akk files selected by the filter has been removed
      */
-    public synchronized boolean delete(String srcmachine, String dir,
+    public boolean delete(String srcmachine, String dir,
             com.sun.faban.harness.FileFilter filter) {
         try {
             return findFileAgent(srcmachine).removeFiles(dir, filter);
@@ -1582,7 +1805,7 @@ final public class CmdService { 	// The final keyword prevents clones
      * @param srcfile The file name
      * @return true if the file has been deleted, false otherwise
      */
-    public synchronized boolean truncate(String srcmachine, String srcfile) {
+    public boolean truncate(String srcmachine, String srcfile) {
         try {
             return findFileAgent(srcmachine).truncateFile(srcfile);
         } catch (Exception ie) {
@@ -1603,7 +1826,7 @@ final public class CmdService { 	// The final keyword prevents clones
      * @param stream The stream to copy the content to
      * @return true/false if copy was successful/failed
      */
-    public synchronized boolean copyToStream(String srcmachine, String srcfile,
+    public boolean copyToStream(String srcmachine, String srcfile,
             OutputStream stream) {
         FileService srcfilep = null;
         byte[] buf = null;
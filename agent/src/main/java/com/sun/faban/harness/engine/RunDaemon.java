@@ -37,6 +37,7 @@ import com.sun.faban.harness.webclient.TagEngine;
 import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.Flushable;
 import java.io.IOException;
 import java.util.Arrays;
 import java.util.Comparator;
@@ -559,16 +560,17 @@ public class RunDaemon implements Runnable {
                 }
             }
             is.close();
-            LogManager.getLogManager().readConfiguration(
-                    new ByteArrayInputStream(sb.toString().getBytes()));
-
-            FileHandler fileHandler = new FileHandler(logFile);
-            fileHandler.setFormatter(new XMLFormatter());
-            Logger rootLogger = Logger.getLogger("");
-            rootLogger.addHandler(fileHandler);
-
-            // Set system property so that SocketHandler can write the logs from remote machines
-            System.setProperty("faban.log.file", logFile);
+            Flushable logWriter = Config.LOG_WRITER;
+            if (logWriter == null) {
+                switchLog(logFile, sb.toString());
+            } else {
+                // Hold back the remote records while switching, so none
+                // land after the end of the old log.
+                synchronized (logWriter) {
+                    logWriter.flush();
+                    switchLog(logFile, sb.toString());
+                }
+            }
         } catch(IOException e) {
             System.err.println("Exception setting log properties.");
             e.printStackTrace();
@@ -576,6 +578,20 @@ public class RunDaemon implements Runnable {
         }
     }
 
+    private void switchLog(String logFile, String props) throws IOException {
+        // Closing the old file handler ends the old log.
+        LogManager.getLogManager().readConfiguration(
+                new ByteArrayInputStream(props.getBytes()));
+
+        FileHandler fileHandler = new FileHandler(logFile);
+        fileHandler.setFormatter(new XMLFormatter());
+        Logger rootLogger = Logger.getLogger("");
+        rootLogger.addHandler(fileHandler);
+
+        // Set system property so that SocketHandler can write the logs from remote machines
+        System.setProperty("faban.log.file", logFile);
+    }
+
     private class ComparatorImpl implements Comparator {
 
         public int compare(Object o1, Object o2) {
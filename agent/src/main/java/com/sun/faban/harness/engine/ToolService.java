@@ -33,6 +33,9 @@ import com.sun.faban.harness.tools.MasterToolContext;
 
 import java.rmi.RemoteException;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -93,8 +96,6 @@ final public class ToolService {
     public boolean setup(ParamRepository par, String outDir,
                          ServiceManager serviceMgr) {
 
-        CmdService cmds = CmdService.getHandle();
-
         /* Get tool related parameters */
 
         List<ParamRepository.HostConfig> hostConfigs;
@@ -176,36 +177,48 @@ final public class ToolService {
         hostNames = new String[hostSet.size()];
         hostNames = hostSet.toArray(hostNames);
 
-        // Start the tools.
-        try {
-            for (String hostName : hostNames) {
-                logger.info("Setting up tools on machine " + hostName);
-                cmds.startAgent(hostName, ToolAgentImpl.class,
-                        Config.TOOL_AGENT);
-            }
-        } catch (Exception e) {
-            logger.log(Level.WARNING, "Failed to setup tools.", e);
-            return (false);
+        // Start the tool agents on all hosts in parallel.
+        final CmdService cmds = CmdService.getHandle();
+        long[] startTimes = new long[hostNames.length];
+        ArrayList<Future<Boolean>> starts =
+                new ArrayList<Future<Boolean>>(hostNames.length);
+        for (int i = 0; i < hostNames.length; i++) {
+            final String hostName = hostNames[i];
+            logger.info("Setting up tools on machine " + hostName);
+            startTimes[i] = System.currentTimeMillis();
+            starts.add(Config.THREADPOOL.submit(new Callable<Boolean>() {
+                public Boolean call() throws Exception {
+                    return cmds.startAgent(hostName, ToolAgentImpl.class,
+                                           Config.TOOL_AGENT);
+                }
+            }));
         }
-
         try {
-            Thread.sleep(5000);
+            for (Future<Boolean> start : starts)
+                start.get();
         } catch (InterruptedException ie) {
             kill();
             return (false);
+        } catch (ExecutionException e) {
+            logger.log(Level.WARNING, "Failed to setup tools.", e.getCause());
+            return (false);
         }
 
+        // The agents register when ready, wait for each of them.
         toolAgents = new ToolAgent[hostNames.length];
         try {
             for (int i = 0; i < hostNames.length; i++) {
                 String serviceName = Config.TOOL_AGENT + "@" + hostNames[i];
                 logger.fine("Connecting to " + serviceName);
-                toolAgents[i] = (ToolAgent) CmdService.getHandle().
-                        getRegistry().getService(serviceName);
+                toolAgents[i] = (ToolAgent) cmds.getRegistry().waitForService(
+                        serviceName, startTimes[i] + CmdService.AGENT_TIMEOUT -
+                        System.currentTimeMillis());
                 if (toolAgents[i] == null) {
                     logger.warning("Could not connect to " + serviceName);
                     continue;
                 }
+                logger.info("Tool agent on " + hostNames[i] + " ready in " +
+                        (System.currentTimeMillis() - startTimes[i]) + " ms.");
                 // Send toolslist
                 logger.fine("Configuring ToolAgent at " + serviceName);
 
@@ -219,6 +232,9 @@ final public class ToolService {
 
         } catch (RemoteException re) {
             logger.log(Level.WARNING, "RemoteException in ToolAgent.", re);
+        } catch (InterruptedException ie) {
+            kill();
+            return (false);
         } catch (Exception e) {
             logger.log(Level.WARNING, "Exception starting tools.", e);
             return (false);
@@ -22,6 +22,8 @@
 package com.sun.faban.harness.services;
 
 import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.logging.Logger;
 
 /**
@@ -45,6 +47,15 @@ public class ServiceDescription implements Serializable {
     /** The deploy location. The name of the deploy jar. */
     public String location;
 
+    /**
+     * The ids of the services this service depends on. In a run, this
+     * service starts after and stops before the services it depends on.
+     */
+    public List<String> dependencies = new ArrayList<String>();
+
+    /** The timeout of each lifecycle phase, in seconds, or 0 for none. */
+    public int timeout;
+
     /**
      * Constructs a service description.
      * @param id The service identifier
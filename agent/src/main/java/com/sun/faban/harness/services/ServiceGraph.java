@@ -0,0 +1,305 @@
+/* The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://www.sun.com/cddl/cddl.html or
+ * install_dir/legal/LICENSE
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at install_dir/legal/LICENSE.
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ *
+ * $Id$
+ *
+ * Copyright 2005-2009 Sun Microsystems Inc. All Rights Reserved
+ */
+package com.sun.faban.harness.services;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The service graph runs a lifecycle phase on all services of a run in
+ * parallel, as far as the dependencies between the services allow. In
+ * forward phases, a service waits for the services it depends on. In
+ * reverse phases, a service waits for the services depending on it.
+ * A service taking longer than its timeout is left running and no longer
+ * waited for. In forward phases, the services depending on a service that
+ * failed or timed out are not run. Dependency cycles are reported and
+ * broken in list order. The faban.services.threads property limits the
+ * number of services running a phase at the same time.
+ */
+class ServiceGraph {
+
+    /** The time of a service that had nothing to do in a phase. */
+    static final long NOT_RUN = -1l;
+
+    /** The time of a service that timed out in a phase. */
+    static final long TIMED_OUT = -2l;
+
+    /** The default number of services running a phase in parallel. */
+    static final int THREADS = 8;
+
+    private static Logger logger =
+            Logger.getLogger(ServiceGraph.class.getName());
+
+    /**
+     * An action runs a phase on one service.
+     */
+    interface Action {
+
+        /**
+         * Runs the phase on a service.
+         * @param node The index of the service
+         * @return Whether the phase applies to the service
+         * @throws Exception Error running the phase on the service
+         */
+        boolean run(int node) throws Exception;
+    }
+
+    private final String[] names;
+    private final int[][] dependencies;
+    private final int[][] dependents;
+    private final long[] timeouts;
+
+    /**
+     * Creates the service graph. Dependencies on services not in the
+     * list are ignored. A service id used by several entries, for several
+     * roles, makes a dependency on all of them.
+     * @param names The service ids
+     * @param dependencies The service ids each service depends on
+     * @param timeouts The timeout of each service in milliseconds, or 0
+     */
+    ServiceGraph(String[] names, List<? extends Collection<String>>
+                 dependencies, long[] timeouts) {
+        int n = names.length;
+        this.names = names;
+        this.timeouts = timeouts;
+        HashMap<String, List<Integer>> nodes =
+                new HashMap<String, List<Integer>>();
+        for (int i = 0; i < n; i++) {
+            List<Integer> list = nodes.get(names[i]);
+            if (list == null) {
+                list = new ArrayList<Integer>();
+                nodes.put(names[i], list);
+            }
+            list.add(i);
+        }
+        List<LinkedHashSet<Integer>> forward =
+                new ArrayList<LinkedHashSet<Integer>>(n);
+        List<LinkedHashSet<Integer>> reverse =
+                new ArrayList<LinkedHashSet<Integer>>(n);
+        for (int i = 0; i < n; i++) {
+            forward.add(new LinkedHashSet<Integer>());
+            reverse.add(new LinkedHashSet<Integer>());
+        }
+        for (int i = 0; i < n; i++)
+            for (String dependency : dependencies.get(i)) {
+                List<Integer> list = nodes.get(dependency);
+                if (list == null) {
+                    logger.fine("Service " + names[i] + " depends on " +
+                                dependency + ", not in this run.");
+                    continue;
+                }
+                for (int j : list)
+                    if (j != i) {
+                        forward.get(i).add(j);
+                        reverse.get(j).add(i);
+                    }
+            }
+        this.dependencies = toArrays(forward);
+        this.dependents = toArrays(reverse);
+    }
+
+    private static int[][] toArrays(List<LinkedHashSet<Integer>> sets) {
+        int[][] arrays = new int[sets.size()][];
+        for (int i = 0; i < arrays.length; i++) {
+            arrays[i] = new int[sets.get(i).size()];
+            int j = 0;
+            for (int node : sets.get(i))
+                arrays[i][j++] = node;
+        }
+        return arrays;
+    }
+
+    /**
+     * Runs a phase on all services and waits for it to finish.
+     * @param phase The phase name, for logging
+     * @param reverse Whether dependents run before their dependencies
+     * @param action The action running the phase
+     * @return The time each service took in milliseconds, or NOT_RUN, or
+     *         TIMED_OUT
+     */
+    long[] run(String phase, boolean reverse, final Action action) {
+        int n = names.length;
+        long[] times = new long[n];
+        int[][] waitFor = reverse ? dependents : dependencies;
+        int[][] release = reverse ? dependencies : dependents;
+        int[] pending = new int[n];
+        for (int i = 0; i < n; i++)
+            pending[i] = waitFor[i].length;
+        boolean[] started = new boolean[n];
+        boolean[] ended = new boolean[n];
+        long[] startTimes = new long[n];
+        Map<Future<Boolean>, Integer> running =
+                new HashMap<Future<Boolean>, Integer>();
+
+        int threads = Math.max(1, Math.min(n, Integer.getInteger(
+                "faban.services.threads", THREADS)));
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads,
+                0l, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>());
+        CompletionService<Boolean> completion =
+                new ExecutorCompletionService<Boolean>(executor);
+        int finished = 0;
+        try {
+            while (finished < n) {
+                for (int i = 0; i < n; i++)
+                    if (!started[i] && pending[i] == 0) {
+                        started[i] = true;
+                        startTimes[i] = System.nanoTime();
+                        running.put(completion.submit(task(action, i)), i);
+                    }
+                if (running.isEmpty()) { // Only cycles left.
+                    int i = 0;
+                    while (started[i])
+                        ++i;
+                    logger.warning("Dependency cycle at service " +
+                            names[i] + ", running " + phase + " regardless.");
+                    pending[i] = 0;
+                    continue;
+                }
+
+                // Wait for the next service to finish or time out.
+                long now = System.nanoTime();
+                long wait = Long.MAX_VALUE;
+                for (int i : running.values())
+                    if (timeouts[i] > 0)
+                        wait = Math.min(wait, startTimes[i] +
+                                timeouts[i] * 1000000l - now);
+                Future<Boolean> future;
+                if (wait == Long.MAX_VALUE)
+                    future = completion.take();
+                else
+                    future = completion.poll(Math.max(wait, 0l),
+                                             TimeUnit.NANOSECONDS);
+
+                ArrayList<Integer> done = new ArrayList<Integer>();
+                ArrayList<Integer> failed = new ArrayList<Integer>();
+                if (future != null) {
+                    Integer i = running.remove(future);
+                    if (i == null) // Timed out before.
+                        continue;
+                    times[i] = elapsed(startTimes[i]);
+                    try {
+                        if (!future.get())
+                            times[i] = NOT_RUN;
+                    } catch (ExecutionException e) {
+                        logger.log(Level.WARNING, "Failed to " + phase +
+                                " service " + names[i], e.getCause());
+                        failed.add(i);
+                    }
+                    done.add(i);
+                } else {
+                    now = System.nanoTime();
+                    for (Map.Entry<Future<Boolean>, Integer> entry :
+                            running.entrySet()) {
+                        int i = entry.getValue();
+                        if (timeouts[i] > 0 && now - startTimes[i] >=
+                                timeouts[i] * 1000000l) {
+                            entry.getKey().cancel(true);
+                            logger.warning("Timed out running " + phase +
+                                    " of service " + names[i] + " after " +
+                                    timeouts[i] + " ms.");
+                            times[i] = TIMED_OUT;
+                            done.add(i);
+                            failed.add(i);
+                        }
+                    }
+                    running.values().removeAll(done);
+
+                    // The timed out services may keep their threads.
+                    executor.setMaximumPoolSize(threads += done.size());
+                    executor.setCorePoolSize(threads);
+                }
+                for (int i : done) {
+                    ended[i] = true;
+                    ++finished;
+                    if (reverse || !failed.contains(i))
+                        for (int j : release[i])
+                            --pending[j];
+                }
+                for (int i : failed)
+                    if (!reverse)
+                        finished += skipDependents(phase, i, started, ended,
+                                                   times);
+            }
+        } catch (InterruptedException e) {
+            for (Future<Boolean> future : running.keySet())
+                future.cancel(true);
+            for (int i = 0; i < n; i++)
+                if (!ended[i])
+                    times[i] = NOT_RUN;
+            Thread.currentThread().interrupt();
+        } finally {
+            executor.shutdown();
+        }
+        return times;
+    }
+
+    /**
+     * Marks the services depending on a failed service, directly or
+     * through other services, as not run.
+     * @return The number of services newly marked
+     */
+    private int skipDependents(String phase, int failed, boolean[] started,
+                               boolean[] ended, long[] times) {
+        int count = 0;
+        for (int j : dependents[failed])
+            if (!started[j]) {
+                started[j] = true;
+                ended[j] = true;
+                times[j] = NOT_RUN;
+                ++count;
+                logger.warning("Not running " + phase + " of service " +
+                        names[j] + ", depending on service " +
+                        names[failed] + '.');
+                count += skipDependents(phase, j, started, ended, times);
+            }
+        return count;
+    }
+
+    private static Callable<Boolean> task(final Action action,
+                                          final int node) {
+        return new Callable<Boolean>() {
+            public Boolean call() throws Exception {
+                return action.run(node);
+            }
+        };
+    }
+
+    private static long elapsed(long start) {
+        return (System.nanoTime() - start) / 1000000l;
+    }
+}
@@ -57,6 +57,13 @@ public class ServiceManager {
 
     private static ServiceManager instance = null;
 
+    /**
+     * The timeout of each service lifecycle phase in seconds, for services
+     * not declaring their own, or 0 for none.
+     */
+    static final int DEFAULT_TIMEOUT =
+            Integer.getInteger("faban.service.timeout", 0);
+
     private List<ServiceWrapper> loadedServicesList = 
             new ArrayList<ServiceWrapper>();
     private List<ServiceContext> ctxList = new ArrayList<ServiceContext>();
@@ -80,6 +87,11 @@ public class ServiceManager {
 
     private Run run;
 
+    private ServiceGraph graph;
+
+    private LinkedHashMap<String, long[]> phaseTimes =
+            new LinkedHashMap<String, long[]>();
+
     /**
      * Obtains the set of active services and tools deployments used in the
      * current run.
@@ -124,6 +136,19 @@ public class ServiceManager {
                                                             loadedServicesList);
         this.ctxList = Collections.unmodifiableList(ctxList);
 
+        int n = ctxList.size();
+        String[] names = new String[n];
+        List<List<String>> dependencies = new ArrayList<List<String>>(n);
+        long[] timeouts = new long[n];
+        for (int i = 0; i < n; i++) {
+            ServiceDescription desc = ctxList.get(i).desc;
+            names[i] = desc.id;
+            dependencies.add(desc.dependencies);
+            timeouts[i] = (desc.timeout > 0 ? desc.timeout :
+                           DEFAULT_TIMEOUT) * 1000l;
+        }
+        graph = new ServiceGraph(names, dependencies, timeouts);
+
         instance = this;
     }
   
@@ -203,6 +228,25 @@ public class ServiceManager {
                                 ServiceDescription desc =
                                         new ServiceDescription(id,
                                                 loadableClass, type, dir);
+                                for (String depends :
+                                        reader.getValues("depends", se)) {
+                                    StringTokenizer st =
+                                            new StringTokenizer(depends, ";");
+                                    while (st.hasMoreTokens())
+                                        desc.dependencies.add(
+                                                st.nextToken().trim());
+                                }
+                                String timeout =
+                                        reader.getValue("timeout", se).trim();
+                                try {
+                                    if (timeout.length() > 0)
+                                        desc.timeout =
+                                                Integer.parseInt(timeout);
+                                } catch (NumberFormatException e) {
+                                    logger.warning("Ignoring invalid " +
+                                            "timeout " + timeout +
+                                            " of service " + id);
+                                }
                                 serviceMap.put(id, desc);
                             }
                         }
@@ -617,47 +661,85 @@ public class ServiceManager {
         return toolList;
     }
 
+    /**
+     * Runs a lifecycle phase on the services and records the times taken.
+     */
+    private void runPhase(String phase, boolean reverse,
+                          ServiceGraph.Action action) {
+        long[] times = graph.run(phase, reverse, action);
+        long[] total = phaseTimes.get(phase);
+        if (total == null) {
+            phaseTimes.put(phase, times);
+        } else {
+            for (int i = 0; i < times.length; i++)
+                if (times[i] != ServiceGraph.NOT_RUN)
+                    total[i] = times[i];
+        }
+    }
+
     /**
      * Configures the service.
      */
     public void configure() {
-        for(ServiceWrapper sw : loadedServicesList)
-            sw.configure();
+        runPhase("configure", false, new ServiceGraph.Action() {
+            public boolean run(int node) throws Exception {
+                loadedServicesList.get(node).configure();
+                return true;
+            }
+        });
     }
 
     /**
      * Obtains the configuration of a service.
      */
     public void getConfig() {
-        for(ServiceWrapper sw : loadedServicesList)
-            sw.getConfig();
+        runPhase("getConfig", false, new ServiceGraph.Action() {
+            public boolean run(int node) {
+                loadedServicesList.get(node).getConfig();
+                return true;
+            }
+        });
     }
 
     /**
      * Obtains the logs of a service.
      */
     public void getLogs() {
-        for(ServiceWrapper sw : loadedServicesList)
-            sw.getLogs();
+        runPhase("getLogs", false, new ServiceGraph.Action() {
+            public boolean run(int node) {
+                loadedServicesList.get(node).getLogs();
+                return true;
+            }
+        });
     }
 
     /**
      * Starts a service. If the service is marked for restart,
-     * this will shutdown the service and restart it.
+     * this will shutdown the service and restart it. Services start after
+     * the services they depend on and stop before them.
      */
     public void startup() {
-        // Use two separate loops to leave some time
+        // Use two separate phases to leave some time
         // between shutdown and startup.
-        for(ServiceWrapper sw : loadedServicesList) {
-            if (sw.ctx.restart)
-                sw.shutdown();
-            sw.clearLogs();
-        }
+        runPhase("restart", true, new ServiceGraph.Action() {
+            public boolean run(int node) {
+                ServiceWrapper sw = loadedServicesList.get(node);
+                if (sw.ctx.restart)
+                    sw.shutdown();
+                sw.clearLogs();
+                return true;
+            }
+        });
 
-        for(ServiceWrapper sw : loadedServicesList) {
-            if (sw.ctx.restart)
+        runPhase("startup", false, new ServiceGraph.Action() {
+            public boolean run(int node) throws Exception {
+                ServiceWrapper sw = loadedServicesList.get(node);
+                if (!sw.ctx.restart)
+                    return false;
                 sw.startup();
-        }
+                return true;
+            }
+        });
     }
 
     /**
@@ -673,10 +755,56 @@ public class ServiceManager {
                     runIdFile.delete();
             }
         }
-        for(ServiceWrapper sw : loadedServicesList){
-            if (sw.ctx.restart)
+        runPhase("shutdown", true, new ServiceGraph.Action() {
+            public boolean run(int node) {
+                ServiceWrapper sw = loadedServicesList.get(node);
+                if (!sw.ctx.restart)
+                    return false;
                 sw.shutdown();
-        }
+                return true;
+            }
+        });
+        writeTimes();
         instance = null;
     }
+
+    /**
+     * Writes the times each service took in each phase to the
+     * services.times file in the run output directory.
+     */
+    private void writeTimes() {
+        if (ctxList.isEmpty())
+            return;
+        Formatter f = new Formatter();
+        f.format("%-32s", "Service (role) / ms");
+        for (String phase : phaseTimes.keySet())
+            f.format(" %10s", phase);
+        f.format("%n");
+        for (int i = 0; i < ctxList.size(); i++) {
+            ServiceContext ctx = ctxList.get(i);
+            f.format("%-32s", ctx.desc.id + " (" + ctx.role + ')');
+            for (long[] times : phaseTimes.values()) {
+                if (times[i] == ServiceGraph.NOT_RUN)
+                    f.format(" %10s", "-");
+                else if (times[i] == ServiceGraph.TIMED_OUT)
+                    f.format(" %10s", "timeout");
+                else
+                    f.format(" %10d", times[i]);
+            }
+            f.format("%n");
+        }
+        String times = f.toString();
+        logger.fine("Service phase times:\n" + times);
+        try {
+            FileWriter writer = new FileWriter(run.getOutDir() +
+                                               "services.times");
+            try {
+                writer.write(times);
+            } finally {
+                writer.close();
+            }
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Cannot write service times.", e);
+        }
+    }
 }
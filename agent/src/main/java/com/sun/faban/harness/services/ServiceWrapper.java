@@ -165,16 +165,12 @@ public class ServiceWrapper {
 
     /**
      * Invokes service's method annotated by @Configure.
+     * @throws Exception Error configuring the service
      */
-    void configure() {
-        try {
-            Invoker.invoke(service, configureMethod, ctx.servicePath);
-            configured = true;
-            logger.info("Configured " + ctx.desc.id + " service.");
-        } catch (Exception e) {
-            logger.log(Level.WARNING, "Failed to configure service " +
-                    ctx.desc.id, e);
-        }
+    void configure() throws Exception {
+        Invoker.invoke(service, configureMethod, ctx.servicePath);
+        configured = true;
+        logger.info("Configured " + ctx.desc.id + " service.");
     }
 
     /**
@@ -207,16 +203,13 @@ public class ServiceWrapper {
 
     /**
      * Invokes service's method annotated by @Startup.
+     * @throws Exception Error starting the service
      */
-    void startup() {
-        if (configured)
-            try {
-                Invoker.invoke(service, startupMethod, ctx.servicePath);
-                logger.info("Started " + ctx.desc.id + " service.");
-            } catch (Exception e) {
-                logger.log(Level.WARNING, "Failed to startup service " +
-                        ctx.desc.id, e);
-            }
+    void startup() throws Exception {
+        if (configured) {
+            Invoker.invoke(service, startupMethod, ctx.servicePath);
+            logger.info("Started " + ctx.desc.id + " service.");
+        }
     }
 
     /**
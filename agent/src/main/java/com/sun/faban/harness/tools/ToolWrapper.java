@@ -351,7 +351,7 @@ public class ToolWrapper {
                         continue;
                     }
                     String outFile = outDir + toolName + '-' + key + ext + host;
-                    transfer[idx++] = new FileTransfer(path, outFile);
+                    transfer[idx++] = new FileTransfer(path, outFile, 0l, true);
                 }
             } else {
                 transfer = new FileTransfer[1];
@@ -361,7 +361,7 @@ public class ToolWrapper {
                             " not found.");
                     return;
                 }
-                transfer[0] = new FileTransfer(logfile, outfile);
+                transfer[0] = new FileTransfer(logfile, outfile, 0l, true);
             }
 
             String s = Config.FILE_AGENT;
@@ -0,0 +1,261 @@
+/* The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://www.sun.com/cddl/cddl.html or
+ * install_dir/legal/LICENSE
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at install_dir/legal/LICENSE.
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ *
+ * $Id$
+ *
+ * Copyright 2005-2009 Sun Microsystems Inc. All Rights Reserved
+ */
+package com.sun.faban.harness.util;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * The content manifest lists the files of a benchmark or service
+ * directory with their size and SHA-1 hash, so agents can fetch only the
+ * files they do not have yet. META-INF directories are not listed, they
+ * are not downloaded. The manifest is a text file starting with a
+ * header line, followed by one line per file:<pre>
+ *  Manifest: name
+ * hash size path
+ * </pre>
+ * Paths are relative to the directory and separated by '/'. Hashes of
+ * files are cached by path, size, and modification time, so a manifest
+ * of unchanged files is built without reading the files again.
+ */
+public class ContentManifest {
+
+    /** The header starting each manifest. */
+    public static final String HEADER = " Manifest: ";
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private static final HashMap<String, Entry> hashCache =
+            new HashMap<String, Entry>();
+
+    /**
+     * A file in the manifest.
+     */
+    public static class Entry {
+
+        /** The path, relative to the directory. */
+        public final String path;
+
+        /** The file size, in bytes. */
+        public final long size;
+
+        /** The SHA-1 hash of the file content, in hex. */
+        public final String hash;
+
+        // The modification time the hash was taken at, for the cache.
+        final long lastModified;
+
+        Entry(String path, long size, String hash, long lastModified) {
+            this.path = path;
+            this.size = size;
+            this.hash = hash;
+            this.lastModified = lastModified;
+        }
+    }
+
+    /**
+     * Lists the files in the directory and its subdirectories, except
+     * META-INF directories.
+     * @param dir The directory
+     * @return The entries, sorted by path
+     * @throws IOException If reading a file failed
+     */
+    public static List<Entry> build(File dir) throws IOException {
+        ArrayList<Entry> entries = new ArrayList<Entry>();
+        build(dir, "", entries);
+        Collections.sort(entries, new Comparator<Entry>() {
+            public int compare(Entry e1, Entry e2) {
+                return e1.path.compareTo(e2.path);
+            }
+        });
+        return entries;
+    }
+
+    private static void build(File dir, String prefix, List<Entry> entries)
+            throws IOException {
+        File[] files = dir.listFiles();
+        if (files == null)
+            throw new IOException("Cannot list directory " + dir);
+        for (File file : files) {
+            String name = file.getName();
+            if (file.isDirectory()) {
+                if (!"META-INF".equals(name))
+                    build(file, prefix + name + '/', entries);
+            } else if (file.isFile()) {
+                Entry e = hash(file);
+                entries.add(new Entry(prefix + name, e.size, e.hash,
+                                      e.lastModified));
+            }
+        }
+    }
+
+    /**
+     * Obtains the hash of a file, from the cache if the file did not
+     * change since it was hashed.
+     */
+    private static Entry hash(File file) throws IOException {
+        String key = file.getAbsolutePath();
+        long size = file.length();
+        long lastModified = file.lastModified();
+        synchronized (hashCache) {
+            Entry e = hashCache.get(key);
+            if (e != null && e.size == size && e.lastModified == lastModified)
+                return e;
+        }
+        Entry e = new Entry(key, size, hash(file, new byte[8192]),
+                            lastModified);
+        synchronized (hashCache) {
+            hashCache.put(key, e);
+        }
+        return e;
+    }
+
+    /**
+     * Calculates the SHA-1 hash of a file.
+     * @param file The file
+     * @param buffer The buffer to read into
+     * @return The hash, in hex
+     * @throws IOException If reading the file failed
+     */
+    public static String hash(File file, byte[] buffer) throws IOException {
+        MessageDigest md = newDigest();
+        FileInputStream in = new FileInputStream(file);
+        try {
+            int length;
+            while ((length = in.read(buffer)) != -1)
+                md.update(buffer, 0, length);
+        } finally {
+            in.close();
+        }
+        return toHex(md.digest());
+    }
+
+    /**
+     * Creates a SHA-1 digest, for hashing content while it is read.
+     * @return The digest
+     */
+    public static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-1 not available.", e);
+        }
+    }
+
+    /**
+     * Formats a digest in hex.
+     * @param digest The digest
+     * @return The hex string
+     */
+    public static String toHex(byte[] digest) {
+        char[] c = new char[digest.length * 2];
+        for (int i = 0; i < digest.length; i++) {
+            c[2 * i] = HEX[(digest[i] >> 4) & 0xf];
+            c[2 * i + 1] = HEX[digest[i] & 0xf];
+        }
+        return new String(c);
+    }
+
+    /**
+     * Writes the manifest.
+     * @param name The name of the directory
+     * @param entries The entries
+     * @param out The stream to write to, left open
+     * @throws IOException If writing failed
+     */
+    public static void write(String name, List<Entry> entries,
+                             OutputStream out) throws IOException {
+        StringBuilder b = new StringBuilder(HEADER.length() + name.length() +
+                                            entries.size() * 80);
+        // We use '\n' so the manifest is the same on all platforms.
+        b.append(HEADER).append(name).append('\n');
+        for (Entry e : entries)
+            b.append(e.hash).append(' ').append(e.size).append(' ').
+                    append(e.path).append('\n');
+        out.write(b.toString().getBytes("UTF-8"));
+    }
+
+    /**
+     * Reads a manifest.
+     * @param in The stream to read from, left open
+     * @return The entries, or null if the data is not a manifest
+     * @throws IOException If reading failed or the manifest is corrupt
+     */
+    public static List<Entry> read(InputStream in) throws IOException {
+        BufferedReader reader = new BufferedReader(
+                new InputStreamReader(in, "UTF-8"));
+        String line = reader.readLine();
+        if (line == null || !line.startsWith(HEADER))
+            return null;
+        ArrayList<Entry> entries = new ArrayList<Entry>();
+        while ((line = reader.readLine()) != null) {
+            if (line.length() == 0)
+                continue;
+            int s1 = line.indexOf(' ');
+            int s2 = line.indexOf(' ', s1 + 1);
+            if (s1 <= 0 || s2 <= s1 + 1 || s2 == line.length() - 1)
+                throw new IOException("Bad manifest line: " + line);
+            long size;
+            try {
+                size = Long.parseLong(line.substring(s1 + 1, s2));
+            } catch (NumberFormatException e) {
+                throw new IOException("Bad manifest line: " + line);
+            }
+            String hash = line.substring(0, s1);
+            if (!isHash(hash))
+                throw new IOException("Bad manifest hash: " + hash);
+            String path = line.substring(s2 + 1);
+            if (path.startsWith("/") || path.equals("..") ||
+                    path.startsWith("../") || path.indexOf("/../") >= 0 ||
+                    path.endsWith("/.."))
+                throw new IOException("Bad manifest path: " + path);
+            entries.add(new Entry(path, size, hash, 0l));
+        }
+        return entries;
+    }
+
+    // Hashes name files in the agent cache, so only hex is accepted.
+    private static boolean isHash(String hash) {
+        if (hash.length() != 40)
+            return false;
+        for (int i = 0; i < hash.length(); i++) {
+            char c = hash.charAt(i);
+            if ((c < '0' || c > '9') && (c < 'a' || c > 'f'))
+                return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,93 @@
+package com.sun.faban.harness.agent;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import com.sun.faban.harness.util.ContentManifest;
+import com.sun.faban.harness.util.FileHelper;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests pruning the download cache.
+ */
+public class DownloadTest {
+
+    static final String H1 = "1111111111111111111111111111111111111111";
+    static final String H2 = "2222222222222222222222222222222222222222";
+    static final String H3 = "3333333333333333333333333333333333333333";
+
+    File dir;
+    File cache;
+    File benchmarks;
+    File services;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = File.createTempFile("download", "");
+        dir.delete();
+        cache = new File(dir, "cache");
+        benchmarks = new File(dir, "benchmarks");
+        services = new File(dir, "services");
+        cache.mkdirs();
+        for (String name : new String[] { H1, H2, H3, H1 + "123.part",
+                                          Download.LOCK })
+            new File(cache, name).createNewFile();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        FileHelper.recursiveDelete(dir);
+    }
+
+    private void writeManifest(File root, String name, String content)
+            throws IOException {
+        File metaInf = new File(new File(root, name), "META-INF");
+        metaInf.mkdirs();
+        FileOutputStream out = new FileOutputStream(
+                new File(metaInf, Download.MANIFEST));
+        try {
+            out.write(content.getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+    }
+
+    @Test
+    public void testPrune() throws Exception {
+        writeManifest(benchmarks, "bench", ContentManifest.HEADER + "bench\n" +
+                      H1 + " 0 a.txt\n");
+        writeManifest(services, "service", ContentManifest.HEADER +
+                      "service\n" + H2 + " 0 lib/b.jar\n");
+        new File(benchmarks, "crawled").mkdirs();
+        assertEquals(2, Download.prune(cache,
+                new File[] { benchmarks, services }));
+        assertTrue(new File(cache, H1).isFile());
+        assertTrue(new File(cache, H2).isFile());
+        assertFalse(new File(cache, H3).exists());
+        assertFalse(new File(cache, H1 + "123.part").exists());
+        assertTrue(new File(cache, Download.LOCK).isFile());
+    }
+
+    @Test
+    public void testPruneBadManifest() throws Exception {
+        writeManifest(benchmarks, "bench", ContentManifest.HEADER + "bench\n" +
+                      H1 + " 0 a.txt\n");
+        writeManifest(benchmarks, "bad", ContentManifest.HEADER + "bad\n" +
+                      "bad line\n");
+        assertEquals(3, Download.prune(cache,
+                new File[] { benchmarks, services }));
+        assertTrue(new File(cache, H1).isFile());
+        assertEquals(2, cache.list().length);
+    }
+
+    @Test
+    public void testPruneNoCache() throws Exception {
+        FileHelper.recursiveDelete(cache);
+        assertEquals(0, Download.prune(cache, new File[] { benchmarks }));
+    }
+}
@@ -0,0 +1,69 @@
+package com.sun.faban.harness.agent;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.rmi.server.UnicastRemoteObject;
+import java.util.Arrays;
+
+import com.sun.faban.harness.FileFilter;
+import com.sun.faban.harness.util.FileHelper;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests the file agent operations on the local file system.
+ */
+public class FileAgentImplTest {
+
+    /** Matches the log files. */
+    static class LogFilter implements FileFilter {
+        public boolean accept(File file) {
+            return file.getName().endsWith(".log");
+        }
+    }
+
+    File dir;
+    FileAgentImpl agent;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = File.createTempFile("fileagent", "");
+        dir.delete();
+        new File(dir, "sub.log").mkdirs();
+        for (String name : new String[] {"a.log", "b.log", "c.txt"})
+            new File(dir, name).createNewFile();
+        agent = new FileAgentImpl();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        UnicastRemoteObject.unexportObject(agent, true);
+        FileHelper.recursiveDelete(dir);
+    }
+
+    @Test
+    public void testListFiles() throws Exception {
+        String[] files = agent.listFiles(dir.getPath(), new LogFilter());
+        Arrays.sort(files);
+        assertArrayEquals(new String[] {
+                    new File(dir, "a.log").getAbsolutePath(),
+                    new File(dir, "b.log").getAbsolutePath() }, files);
+        assertEquals(3, agent.listFiles(dir.getPath(), null).length);
+        assertNull(agent.listFiles(new File(dir, "none").getPath(), null));
+    }
+
+    @Test
+    public void testGetFileLength() throws Exception {
+        File file = new File(dir, "a.log");
+        FileOutputStream out = new FileOutputStream(file);
+        out.write(new byte[5]);
+        out.close();
+        assertEquals(5l, agent.getFileLength(file.getPath()));
+        assertEquals(0l, agent.getFileLength(
+                new File(dir, "none").getPath()));
+    }
+}
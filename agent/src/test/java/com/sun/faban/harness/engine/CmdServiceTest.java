@@ -0,0 +1,51 @@
+package com.sun.faban.harness.engine;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+import com.sun.faban.harness.FabanHostUnknownException;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests the file transfers to many hosts.
+ */
+public class CmdServiceTest {
+
+    @Test
+    public void testForEachHost() {
+        String[] hosts = {"ok", "failed", "unknown", "error", "ok2"};
+        boolean[] results = CmdService.forEachHost(hosts, "Testing",
+                new CmdService.HostTask() {
+            public boolean run(int i) throws IOException {
+                if (i == 1)
+                    return false;
+                if (i == 2)
+                    throw new FabanHostUnknownException("Host unknown");
+                if (i == 3)
+                    throw new IOException("Transfer failed");
+                return true;
+            }
+        });
+        assertEquals("[true, false, false, false, true]",
+                     Arrays.toString(results));
+        assertEquals(0, CmdService.forEachHost(new String[0], "Testing",
+                                               null).length);
+    }
+
+    @Test
+    public void testGetAllUnknownHosts() {
+        CmdService cmds = new CmdService();
+        String[] hosts = {"nohost1", "nohost2"};
+        File dest = new File(System.getProperty("java.io.tmpdir"));
+        assertFalse(cmds.getAll(hosts, "/tmp", null, dest.getPath()));
+        assertTrue(cmds.getAll(new String[0], "/tmp", null, dest.getPath()));
+        boolean[] copied = cmds.getAll(hosts,
+                new String[] {"/tmp/a.log", "/tmp/b.log"},
+                new String[] {new File(dest, "a.log").getPath(),
+                              new File(dest, "b.log").getPath()});
+        assertEquals("[false, false]", Arrays.toString(copied));
+    }
+}
@@ -0,0 +1,151 @@
+package com.sun.faban.harness.services;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests the ordering, parallelism, timeouts, and failures of the service
+ * graph.
+ */
+public class ServiceGraphTest {
+
+    private static List<List<String>> deps(String... deps) {
+        List<List<String>> list = new ArrayList<List<String>>();
+        for (String d : deps)
+            list.add(d.length() == 0 ? Collections.<String>emptyList() :
+                     Arrays.asList(d.split(",")));
+        return list;
+    }
+
+    /**
+     * Records the order the services finish in, sleeping a while in each.
+     */
+    private static class Recorder implements ServiceGraph.Action {
+        final List<Integer> order =
+                Collections.synchronizedList(new ArrayList<Integer>());
+        final long sleep;
+
+        Recorder(long sleep) {
+            this.sleep = sleep;
+        }
+
+        public boolean run(int node) {
+            try {
+                Thread.sleep(sleep);
+            } catch (InterruptedException e) {
+                return true;
+            }
+            order.add(node);
+            return true;
+        }
+    }
+
+    @Test
+    public void testOrder() {
+        // web depends on db and cache, db is used by two roles.
+        String[] names = { "web", "db", "cache", "db" };
+        ServiceGraph graph = new ServiceGraph(names,
+                deps("db,cache,unknown", "", "", ""), new long[4]);
+
+        Recorder forward = new Recorder(50);
+        long start = System.currentTimeMillis();
+        long[] times = graph.run("startup", false, forward);
+        long elapsed = System.currentTimeMillis() - start;
+        assertEquals(3, forward.order.indexOf(0));
+        assertTrue("Took " + elapsed + " ms", elapsed < 180);
+        for (long time : times)
+            assertTrue(time >= 40);
+
+        Recorder reverse = new Recorder(50);
+        graph.run("shutdown", true, reverse);
+        assertEquals(0, reverse.order.indexOf(0));
+    }
+
+    @Test
+    public void testTimeoutAndNotRun() {
+        String[] names = { "slow", "fast", "after" };
+        ServiceGraph graph = new ServiceGraph(names, deps("", "", "slow"),
+                                              new long[] { 50, 0, 0 });
+        long[] times = graph.run("startup", false, new ServiceGraph.Action() {
+            public boolean run(int node) {
+                if (node == 0)
+                    try {
+                        Thread.sleep(10000);
+                    } catch (InterruptedException e) {
+                        return true;
+                    }
+                return node != 1;
+            }
+        });
+        assertEquals(ServiceGraph.TIMED_OUT, times[0]);
+        assertEquals(ServiceGraph.NOT_RUN, times[1]);
+        assertEquals(ServiceGraph.NOT_RUN, times[2]);
+    }
+
+    @Test
+    public void testFailure() {
+        // b depends on a, c on b, d on nothing.
+        String[] names = { "a", "b", "c", "d" };
+        ServiceGraph graph = new ServiceGraph(names, deps("", "a", "b", ""),
+                                              new long[4]);
+        ServiceGraph.Action fail = new Recorder(0) {
+            public boolean run(int node) {
+                if (node == 0)
+                    throw new IllegalStateException("Failing a");
+                return super.run(node);
+            }
+        };
+        long[] times = graph.run("startup", false, fail);
+        assertEquals(Arrays.asList(3), ((Recorder) fail).order);
+        assertTrue(times[0] >= 0);
+        assertEquals(ServiceGraph.NOT_RUN, times[1]);
+        assertEquals(ServiceGraph.NOT_RUN, times[2]);
+        assertTrue(times[3] >= 0);
+
+        // Stopping a failed service still stops the services it depends on.
+        fail = new Recorder(0) {
+            public boolean run(int node) {
+                if (node == 2)
+                    throw new IllegalStateException("Failing c");
+                return super.run(node);
+            }
+        };
+        graph.run("shutdown", true, fail);
+        List<Integer> order = ((Recorder) fail).order;
+        assertEquals(3, order.size());
+        assertTrue(order.indexOf(1) < order.indexOf(0));
+    }
+
+    @Test
+    public void testThreads() {
+        String[] names = { "a", "b", "c", "d" };
+        ServiceGraph graph = new ServiceGraph(names, deps("", "", "", ""),
+                                              new long[4]);
+        System.setProperty("faban.services.threads", "2");
+        try {
+            long start = System.currentTimeMillis();
+            graph.run("startup", false, new Recorder(50));
+            long elapsed = System.currentTimeMillis() - start;
+            assertTrue("Took " + elapsed + " ms", elapsed >= 100);
+        } finally {
+            System.clearProperty("faban.services.threads");
+        }
+    }
+
+    @Test
+    public void testCycle() {
+        String[] names = { "a", "b", "c" };
+        ServiceGraph graph = new ServiceGraph(names, deps("b", "a", "a"),
+                                              new long[3]);
+        Recorder recorder = new Recorder(0);
+        graph.run("configure", false, recorder);
+        // The cycle is broken at a, the first in the list.
+        assertEquals(3, recorder.order.size());
+        assertEquals(0, (int) recorder.order.get(0));
+    }
+}
@@ -0,0 +1,89 @@
+package com.sun.faban.harness.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.List;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests building, writing, and reading content manifests.
+ */
+public class ContentManifestTest {
+
+    private static void write(File file, String content) throws IOException {
+        file.getParentFile().mkdirs();
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(content.getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+    }
+
+    private static List<ContentManifest.Entry> parse(String manifest)
+            throws IOException {
+        return ContentManifest.read(
+                new ByteArrayInputStream(manifest.getBytes("UTF-8")));
+    }
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        File dir = File.createTempFile("manifest", "");
+        dir.delete();
+        try {
+            write(new File(dir, "b.txt"), "hello");
+            write(new File(dir, "lib/a.jar"), "");
+            write(new File(dir, "META-INF/RunID"), "1");
+
+            List<ContentManifest.Entry> entries = ContentManifest.build(dir);
+            assertEquals(2, entries.size());
+            assertEquals("b.txt", entries.get(0).path);
+            assertEquals(5, entries.get(0).size);
+            assertEquals("aaf4c61ddcc5e8a2dabede0f3b482cd9aea9434d",
+                         entries.get(0).hash);
+            assertEquals("lib/a.jar", entries.get(1).path);
+            assertEquals("da39a3ee5e6b4b0d3255bfef95601890afd80709",
+                         entries.get(1).hash);
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            ContentManifest.write("bench", entries, out);
+            List<ContentManifest.Entry> read = ContentManifest.read(
+                    new ByteArrayInputStream(out.toByteArray()));
+            assertEquals(entries.size(), read.size());
+            for (int i = 0; i < entries.size(); i++) {
+                assertEquals(entries.get(i).path, read.get(i).path);
+                assertEquals(entries.get(i).size, read.get(i).size);
+                assertEquals(entries.get(i).hash, read.get(i).hash);
+            }
+        } finally {
+            FileHelper.recursiveDelete(dir);
+        }
+    }
+
+    @Test
+    public void testNotManifest() throws Exception {
+        assertNull(parse(" Directory: bench\n"));
+        assertNull(parse(""));
+    }
+
+    @Test
+    public void testBadEntries() throws Exception {
+        String hash = "da39a3ee5e6b4b0d3255bfef95601890afd80709";
+        String[] bad = { hash + " 0 ../x", hash + " 0 a/../../x",
+                         hash + " 0 /etc/x", hash + " x a",
+                         hash.toUpperCase() + " 0 a", "../x 0 a" };
+        for (String line : bad) {
+            try {
+                parse(ContentManifest.HEADER + "bench\n" + line + '\n');
+                fail("Accepted " + line);
+            } catch (IOException e) {
+                // Expected.
+            }
+        }
+    }
+}
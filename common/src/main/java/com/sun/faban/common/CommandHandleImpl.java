@@ -185,7 +185,8 @@ public class CommandHandleImpl implements CommandHandle {
                     "StreamHandling is TRICKLE_LOG");
         synchronized (this) {
             if (readers[streamId] == null)
-                return new FileTransfer(command.outputFile[streamId], destFile);
+                return new FileTransfer(command.outputFile[streamId], destFile,
+                                        0l, true);
 
             else
                 return readers[streamId].fetchOutput(destFile);
@@ -462,7 +463,7 @@ public class CommandHandleImpl implements CommandHandle {
                 transfer = new FileTransfer(buffer, 0, offset, destFile);
                 logger.fine(this + ": Constructing transfer from buffer to " + destFile);
             } else {
-                transfer = new FileTransfer(outputFile, destFile);
+                transfer = new FileTransfer(outputFile, destFile, 0l, true);
                 logger.fine(this + ": Constructing transfer " + outputFile + " -> " + destFile);
             }
             return transfer;
@@ -26,6 +26,10 @@ package com.sun.faban.common;
 import java.io.*;
 import java.util.logging.Logger;
 import java.util.logging.Level;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
 
 /**
  * The FileTransfer class represents a file to be transferred via RMI from
@@ -34,21 +38,35 @@ import java.util.logging.Level;
  * memory bloat. This is useful for transferring large files over RMI.
  * As this object gets serialized, deserialized, the file transfer happens
  * internally and the destination file gets created as a result of the
- * deserialization. The file size limit is Long.MAX_VALUE (64bit).
+ * deserialization. The file size limit is Long.MAX_VALUE (64bit).<p>
+ *
+ * The content is sent in chunks, each optionally deflated. Compression
+ * stops at the first chunk that does not shrink enough, so compressing
+ * binary files costs one chunk only. A CRC-32 checksum of the content
+ * is verified on the receiving side. A transfer may start at an offset
+ * into the file, to resume a transfer that failed. The receiving side
+ * keeps the destination file up to the offset and reports the length of
+ * the valid destination file as the transfer size.
  *
  * @author Akara Sucharitakul
  */
 public class FileTransfer implements Externalizable {
 
-    private static final long serialVersionUID = 20090812L;    
+    private static final long serialVersionUID = 20261017L;
+
+    private static final int CHUNK_SIZE = 65536;
+
+    // Compression stops at a chunk saving less than 1/8 of its size.
+    private static final int MIN_SAVINGS_SHIFT = 3;
 
-    private static final int MAX_BUFFER_SIZE = 8192;
     private static final Logger logger =
                             Logger.getLogger(FileTransfer.class.getName());
 
     private String src;
     private String dest;
     private long size; // Size only gets populated once file transfer happens.
+    private long offset;
+    private boolean compress;
 
     private transient long transferSize;
     private transient byte[] buffer;
@@ -61,8 +79,25 @@ public class FileTransfer implements Externalizable {
      * @exception IOException Error reading the file to be transferred
      */
     public FileTransfer(String src, String dest) throws IOException {
+        this(src, dest, 0l, false);
+    }
+
+    /**
+     * Creates a file transfer object starting at an offset into the file,
+     * usually the transfer size reported by a failed transfer.
+     * Compression pays off for text files such as logs and tool outputs.
+     * @param src The source file name
+     * @param dest The destination file name
+     * @param offset The offset to start the transfer at
+     * @param compress Whether to compress the content
+     * @exception IOException Error reading the file to be transferred
+     */
+    public FileTransfer(String src, String dest, long offset,
+                        boolean compress) throws IOException {
         this.src = src;
         this.dest = dest;
+        this.offset = offset;
+        this.compress = compress;
 
         // Ensure the file is really there and readable.
         File srcFile = new File(src);
@@ -73,25 +108,38 @@ public class FileTransfer implements Externalizable {
         if (transferSize < 0)
             throw new IOException(srcFile.getAbsolutePath() +
                     ": Invalid file size of " + transferSize);
+        if (offset < 0 || offset > transferSize)
+            throw new IOException(srcFile.getAbsolutePath() +
+                    ": Invalid offset of " + offset + " for size " +
+                    transferSize);
 
         dataIn = new FileInputStream(srcFile);
-        buffer = new byte[transferSize < MAX_BUFFER_SIZE ?
-                                (int) transferSize : MAX_BUFFER_SIZE];
+        long remainder = transferSize - offset;
+        buffer = new byte[remainder < CHUNK_SIZE ?
+                                (int) remainder : CHUNK_SIZE];
 
         // Fill the first full buffer now, in order to detect I/O issues
         // now and not during serialization.
-        int idx = 0;
-        while (idx < buffer.length) {
-            int readCount = dataIn.read(buffer, idx, buffer.length - idx);
-            if (readCount < 0)
-                throw new IOException("Error reading file " +
-                        srcFile.getAbsolutePath() + ". Size: " + transferSize +
-                        ", Read: " + idx);
-            idx += readCount;
+        try {
+            if (offset > 0)
+                dataIn.getChannel().position(offset);
+            int idx = 0;
+            while (idx < buffer.length) {
+                int readCount = dataIn.read(buffer, idx, buffer.length - idx);
+                if (readCount < 0)
+                    throw new IOException("Error reading file " +
+                            srcFile.getAbsolutePath() + ". Size: " +
+                            transferSize + ", Read: " + (offset + idx));
+                idx += readCount;
+            }
+        } catch (IOException e) {
+            dataIn.close();
+            throw e;
         }
 
-        if (buffer.length == transferSize) { // We have read everything now.
+        if (buffer.length == remainder) { // We have read everything now.
             dataIn.close();
+            dataIn = null;
         }
     }
 
@@ -144,8 +192,18 @@ public class FileTransfer implements Externalizable {
     }
 
     /**
-     * Obtains the size to be transferred on the sending side, or the size
-     * really transferred on the receiving side.
+     * Obtains the offset the transfer starts at.
+     * @return The offset
+     */
+    public long getOffset() {
+        return offset;
+    }
+
+    /**
+     * Obtains the size to be transferred on the sending side, or the
+     * length of the valid destination file on the receiving side. The
+     * transfer is complete if this equals the size. Otherwise, it is the
+     * offset to resume the transfer at.
      * @return The transfer size
      */
     public long getTransferSize() {
@@ -154,40 +212,79 @@ public class FileTransfer implements Externalizable {
 
     public void writeExternal(ObjectOutput out) throws IOException {
 
-        // Flush headers and the first chunk.
+        // Flush headers, then the data in chunks.
         size = transferSize;
         out.writeObject(src);
         out.writeObject(dest);
         out.writeLong(size);
-        out.write(buffer);
-
-        // Then stream the rest, if any
-        if (size > buffer.length) {
-            // Write the rest of the data stream, one buffer at a time.
-            long remainder = size - buffer.length;
-            while (remainder > 0) {
-                int chunkSize = remainder < buffer.length ?
-                        (int) remainder : buffer.length;
-                if (dataIn != null) {
-                    // Even if we have or had errors, we need to transfer
-                    // the whole agreed upon bytes, valid or not.
-                    // This is not to corrupt the stream.
+        out.writeLong(offset);
+        out.writeBoolean(compress);
+
+        CRC32 crc = new CRC32();
+        Deflater deflater = null;
+        byte[] packed = null;
+        if (compress && buffer.length > 0) {
+            deflater = new Deflater(Deflater.BEST_SPEED);
+            packed = new byte[Math.min(buffer.length, CHUNK_SIZE)];
+        }
+        try {
+            // A buffer given by the caller may hold several chunks.
+            int pos = 0;
+            int limit = buffer.length;
+            long remainder = size - offset;
+            while (pos < limit) {
+                int chunkSize = Math.min(limit - pos, CHUNK_SIZE);
+                crc.update(buffer, pos, chunkSize);
+                int packedSize = chunkSize;
+                if (deflater != null) {
+                    deflater.reset();
+                    deflater.setInput(buffer, pos, chunkSize);
+                    deflater.finish();
+                    int n = deflater.deflate(packed, 0, chunkSize -
+                            (chunkSize >> MIN_SAVINGS_SHIFT));
+                    if (deflater.finished()) {
+                        packedSize = n;
+                    } else { // Not compressible, send the rest as is.
+                        deflater.end();
+                        deflater = null;
+                    }
+                }
+                out.writeInt(chunkSize);
+                out.writeInt(packedSize);
+                if (packedSize < chunkSize)
+                    out.write(packed, 0, packedSize);
+                else
+                    out.write(buffer, pos, chunkSize);
+                pos += chunkSize;
+                remainder -= chunkSize;
+                if (pos < limit)
+                    continue;
+
+                // Read the next chunk. On errors, we end the transfer
+                // early. The receiver finds the transfer size short.
+                pos = 0;
+                limit = 0;
+                while (dataIn != null && remainder > 0 && limit == 0) {
                     try {
-                        chunkSize = dataIn.read(buffer, 0, chunkSize);
+                        limit = dataIn.read(buffer, 0,
+                                remainder < buffer.length ?
+                                (int) remainder : buffer.length);
                     } catch (IOException e) {
                         logger.log(Level.WARNING,
                                     "Error reading from file " + src, e);
-                        dataIn = null;
+                        limit = -1;
+                    }
+                    if (limit < 0) {
+                        limit = 0;
+                        break;
                     }
                 }
-                if (chunkSize < 0) {
-                    break;
-                } else if (chunkSize == 0) {
-                    continue;
-                }
-                out.write(buffer, 0, chunkSize);
-                remainder -= chunkSize;
             }
+            out.writeInt(0); // End of data.
+            out.writeLong(crc.getValue());
+        } finally {
+            if (deflater != null)
+                deflater.end();
             if (dataIn != null)
                 try {
                     dataIn.close();
@@ -195,6 +292,7 @@ public class FileTransfer implements Externalizable {
                     logger.log(Level.WARNING, "Error closing file " +
                                                 src, e);
                 }
+            dataIn = null;
             buffer = null;
         }
     }
@@ -206,61 +304,103 @@ public class FileTransfer implements Externalizable {
         src = (String) in.readObject();
         dest = (String) in.readObject();
         size = in.readLong();
+        offset = in.readLong();
+        compress = in.readBoolean();
 
         // Convert destination file name to OS path name
         dest = Utilities.convertPath(dest);
 
         // We need to ensure we read everything out in order not to
         // cause an rmi stream corruption, even if our file write bails.
-        // Create the file
-        FileOutputStream dataOut = null;
+        // Open the file, keeping the content up to the offset.
+        RandomAccessFile dataOut = null;
         try {
-            dataOut = new FileOutputStream(dest);
+            dataOut = new RandomAccessFile(dest, "rw");
+            if (offset > dataOut.length())
+                throw new IOException("Cannot resume at offset " + offset +
+                        ", file size is " + dataOut.length());
+            dataOut.setLength(offset);
+            dataOut.seek(offset);
         } catch (IOException e) {
             logger.log(Level.WARNING, "Error opening file " + dest, e);
+            close(dataOut);
+            dataOut = null;
         }
 
-        // Then, read the data stream and save to file, one buffer at a time.
-        if (buffer == null)
-            buffer = new byte[size < MAX_BUFFER_SIZE ? (int) size :
-                                                        MAX_BUFFER_SIZE];
-        long remainder = size;
-        while (remainder > 0) {
-            int chunkSize =
-                    remainder < buffer.length ? (int) remainder : buffer.length;
-            chunkSize = in.read(buffer, 0, chunkSize);
-            if (chunkSize < 0) {
-                break;
-            } else if (chunkSize == 0) {
-                continue;
-            }
-            if (dataOut != null)
-                // We still have to clear the stream,
-                // even if we cannot write it to file.
-                try {
-                    dataOut.write(buffer, 0, chunkSize);
-                } catch (IOException e) {
-                    logger.log(Level.WARNING, "Error writing to file " +
-                                            dest, e);
-                    dataOut = null;
+        // Then, read the chunks and save to file, one at a time.
+        CRC32 crc = new CRC32();
+        Inflater inflater = null;
+        byte[] packed = null;
+        long written = dataOut == null ? 0l : offset;
+        try {
+            for (;;) {
+                int chunkSize = in.readInt();
+                if (chunkSize == 0)
+                    break;
+                int packedSize = in.readInt();
+                if (chunkSize < 0 || chunkSize > CHUNK_SIZE ||
+                        packedSize <= 0 || packedSize > chunkSize)
+                    throw new StreamCorruptedException("Invalid chunk of " +
+                            packedSize + '/' + chunkSize + " bytes");
+                if (buffer == null || buffer.length < chunkSize)
+                    buffer = new byte[chunkSize];
+                if (packedSize < chunkSize) {
+                    if (inflater == null) {
+                        inflater = new Inflater();
+                        packed = new byte[chunkSize];
+                    } else if (packed.length < packedSize) {
+                        packed = new byte[chunkSize];
+                    }
+                    in.readFully(packed, 0, packedSize);
+                    inflater.reset();
+                    inflater.setInput(packed, 0, packedSize);
+                    try {
+                        if (inflater.inflate(buffer, 0, chunkSize) !=
+                                chunkSize || !inflater.finished())
+                            throw new StreamCorruptedException(
+                                    "Invalid compressed chunk");
+                    } catch (DataFormatException e) {
+                        throw new StreamCorruptedException(e.getMessage());
+                    }
+                } else {
+                    in.readFully(buffer, 0, chunkSize);
                 }
-            remainder -= chunkSize;
-        }
-        transferSize = size - remainder;
-        if (dataOut != null) {
-            try {
-                dataOut.flush();
-            } catch (IOException e) {
-                logger.log(Level.WARNING, "Error flushing data to file " +
-                                            dest, e);
+                crc.update(buffer, 0, chunkSize);
+                if (dataOut != null)
+                    // We still have to clear the stream,
+                    // even if we cannot write it to file.
+                    try {
+                        dataOut.write(buffer, 0, chunkSize);
+                        written += chunkSize;
+                    } catch (IOException e) {
+                        logger.log(Level.WARNING, "Error writing to file " +
+                                                dest, e);
+                        close(dataOut);
+                        dataOut = null;
+                    }
             }
+            if (in.readLong() == crc.getValue()) {
+                transferSize = written;
+            } else {
+                logger.warning("Checksum mismatch transferring " + src +
+                               "->" + dest);
+                transferSize = Math.min(offset, written);
+            }
+        } finally {
+            if (inflater != null)
+                inflater.end();
+            close(dataOut);
+            buffer = null;
+        }
+    }
+
+    private void close(RandomAccessFile file) {
+        if (file != null)
             try {
-                dataOut.close();
+                file.close();
             } catch (IOException e) {
                 logger.log(Level.WARNING, "Error closing file " +
                                             dest, e);
             }
-        }
-        buffer = null;
     }
 }
@@ -146,6 +146,18 @@ public interface Registry extends Remote {
      * @throws RemoteException A network error occurred
      */
     public Remote getService(String type, String name) throws RemoteException;
+
+    /**
+     * Waits for a service to register with the registry. This lets
+     * clients starting a service learn when it is ready, without polling.
+     * @param name public driverName of service
+     * @param timeout The maximum time to wait, in milliseconds
+     * @return remote reference, or null if the wait timed out
+     * @throws RemoteException A network error occurred
+     * @throws InterruptedException The wait got interrupted
+     */
+    public Remote waitForService(String name, long timeout)
+            throws RemoteException, InterruptedException;
     
     /**
      * Get all references to a type of services from registry.
@@ -140,6 +140,7 @@ public class RegistryImpl extends UnicastRemoteObject implements Registry {
                 " on machine " + getCaller());
         if (servicesTable.get(name) == null) {
             servicesTable.put(name, service);
+            notifyAll();
             return true;
         } else {
             logger.fine("Failed registering. Service " + name +
@@ -198,6 +199,7 @@ public class RegistryImpl extends UnicastRemoteObject implements Registry {
         logger.fine("Registry: Registering " + name +
                 " on machine " + getCaller());
         servicesTable.put(name, service);
+        notifyAll();
     }
 
     /**
@@ -273,6 +275,26 @@ public class RegistryImpl extends UnicastRemoteObject implements Registry {
         return servicesTable.get(name);
     }
 
+    /**
+      * Waits for a service to register with the registry.
+      * @param name public driverName of service
+      * @param timeout The maximum time to wait, in milliseconds
+      * @return remote reference, or null if the wait timed out
+      * @throws InterruptedException The wait got interrupted
+      */
+    public synchronized Remote waitForService(String name, long timeout)
+            throws InterruptedException {
+        long end = System.currentTimeMillis() + timeout;
+        Remote service;
+        while ((service = servicesTable.get(name)) == null) {
+            long wait = end - System.currentTimeMillis();
+            if (wait <= 0)
+                break;
+            wait(wait);
+        }
+        return service;
+    }
+
     /**
       * get reference to service from Registry
       * The registry searches in its list of registered services
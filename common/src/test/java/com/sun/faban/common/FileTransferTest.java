@@ -0,0 +1,141 @@
+package com.sun.faban.common;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests file transfers by serializing them through a byte stream.
+ */
+public class FileTransferTest {
+
+    private static byte[] readFile(File file) throws IOException {
+        byte[] b = new byte[(int) file.length()];
+        FileInputStream in = new FileInputStream(file);
+        try {
+            int off = 0;
+            while (off < b.length)
+                off += in.read(b, off, b.length - off);
+        } finally {
+            in.close();
+        }
+        return b;
+    }
+
+    private static void writeFile(File file, byte[] b) throws IOException {
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(b);
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Serializes the transfer and returns the deserialized transfer,
+     * along with the size of the serialized form.
+     */
+    private static FileTransfer transfer(FileTransfer t, int[] wireSize)
+            throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(t);
+        out.close();
+        wireSize[0] = bytes.size();
+        ObjectInputStream in = new ObjectInputStream(
+                new ByteArrayInputStream(bytes.toByteArray()));
+        return (FileTransfer) in.readObject();
+    }
+
+    private static File tempFile() throws IOException {
+        File file = File.createTempFile("transfer", ".tmp");
+        file.deleteOnExit();
+        return file;
+    }
+
+    @Test
+    public void testCompressedText() throws Exception {
+        StringBuilder b = new StringBuilder();
+        for (int i = 0; i < 20000; i++)
+            b.append("12:00:").append(i % 60).append(" cpu idle 42\n");
+        byte[] data = b.toString().getBytes("UTF-8");
+        File src = tempFile();
+        File dest = tempFile();
+        writeFile(src, data);
+
+        int[] wireSize = new int[1];
+        FileTransfer t = transfer(new FileTransfer(src.getPath(),
+                dest.getPath(), 0l, true), wireSize);
+        assertEquals(data.length, t.getSize());
+        assertEquals(data.length, t.getTransferSize());
+        assertTrue(wireSize[0] < data.length / 4);
+        assertArrayEquals(data, readFile(dest));
+    }
+
+    @Test
+    public void testBinaryResume() throws Exception {
+        byte[] data = new byte[300000];
+        new Random(42).nextBytes(data);
+        File src = tempFile();
+        File dest = tempFile();
+        writeFile(src, data);
+        // A partial transfer, with garbage after the valid part.
+        byte[] partial = Arrays.copyOf(data, 100000);
+        Arrays.fill(partial, 70000, partial.length, (byte) 0);
+        writeFile(dest, partial);
+
+        int[] wireSize = new int[1];
+        FileTransfer t = transfer(new FileTransfer(src.getPath(),
+                dest.getPath(), 70000l, true), wireSize);
+        assertEquals(data.length, t.getSize());
+        assertEquals(data.length, t.getTransferSize());
+        assertTrue(wireSize[0] < (data.length - 70000) * 1.02);
+        assertArrayEquals(data, readFile(dest));
+    }
+
+    @Test
+    public void testEmptyAndBuffer() throws Exception {
+        File src = tempFile();
+        File dest = tempFile();
+        writeFile(dest, new byte[10]);
+        int[] wireSize = new int[1];
+        FileTransfer t = transfer(new FileTransfer(src.getPath(),
+                dest.getPath()), wireSize);
+        assertEquals(0, t.getTransferSize());
+        assertEquals(0, dest.length());
+
+        byte[] data = "hello world".getBytes("UTF-8");
+        t = transfer(new FileTransfer(data, 6, 5, dest.getPath()), wireSize);
+        assertEquals(5, t.getTransferSize());
+        assertEquals("world", new String(readFile(dest), "UTF-8"));
+    }
+
+    @Test
+    public void testLargeBuffer() throws Exception {
+        File dest = tempFile();
+        byte[] data = new byte[200000];
+        new Random(7).nextBytes(data);
+        int[] wireSize = new int[1];
+        FileTransfer t = transfer(new FileTransfer(data, 1, data.length - 1,
+                dest.getPath()), wireSize);
+        assertEquals(data.length - 1, t.getTransferSize());
+        assertArrayEquals(Arrays.copyOfRange(data, 1, data.length),
+                          readFile(dest));
+    }
+
+    @Test(expected = IOException.class)
+    public void testBadOffset() throws Exception {
+        File src = tempFile();
+        new FileTransfer(src.getPath(), src.getPath(), 1l, false);
+    }
+}
@@ -0,0 +1,130 @@
+package com.sun.faban.common;
+
+import java.lang.reflect.Constructor;
+import java.rmi.Remote;
+import java.rmi.server.UnicastRemoteObject;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests waiting for services to register.
+ */
+public class RegistryImplTest {
+
+    private RegistryImpl registry;
+    private Logger logger;
+    private Level level;
+
+    @Before
+    public void setUp() throws Exception {
+        // The caller host is logged, and missing outside RMI calls.
+        logger = Logger.getLogger(RegistryImpl.class.getName());
+        level = logger.getLevel();
+        logger.setLevel(Level.OFF);
+        Constructor<RegistryImpl> c =
+                RegistryImpl.class.getDeclaredConstructor();
+        c.setAccessible(true);
+        registry = c.newInstance();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        UnicastRemoteObject.unexportObject(registry, true);
+        logger.setLevel(level);
+    }
+
+    /**
+     * Registers services after a delay, one after the other.
+     */
+    private Thread register(final long delay, final String[] names,
+                            final Remote[] services) {
+        Thread t = new Thread() {
+            public void run() {
+                try {
+                    for (int i = 0; i < names.length; i++) {
+                        Thread.sleep(delay);
+                        registry.register(names[i], services[i]);
+                    }
+                } catch (InterruptedException e) {
+                    // The test is over.
+                }
+            }
+        };
+        t.start();
+        return t;
+    }
+
+    @Test
+    public void testRegistered() throws Exception {
+        Remote service = new Remote() {};
+        registry.register("a", service);
+        assertSame(service, registry.waitForService("a", 0));
+    }
+
+    @Test
+    public void testRegisteredInTime() throws Exception {
+        Remote service = new Remote() {};
+        Thread t = register(100, new String[] { "a" },
+                            new Remote[] { service });
+        long start = System.currentTimeMillis();
+        assertSame(service, registry.waitForService("a", 5000));
+        long elapsed = System.currentTimeMillis() - start;
+        assertTrue("Took " + elapsed + " ms", elapsed < 5000);
+        t.join();
+    }
+
+    @Test
+    public void testTimeout() throws Exception {
+        long start = System.currentTimeMillis();
+        assertNull(registry.waitForService("a", 200));
+        long elapsed = System.currentTimeMillis() - start;
+        assertTrue("Took " + elapsed + " ms", elapsed >= 200);
+    }
+
+    @Test
+    public void testOtherService() throws Exception {
+        // Registering b wakes up the wait for a, which keeps waiting.
+        Thread t = register(100, new String[] { "b" },
+                            new Remote[] { new Remote() {} });
+        long start = System.currentTimeMillis();
+        assertNull(registry.waitForService("a", 300));
+        long elapsed = System.currentTimeMillis() - start;
+        assertTrue("Took " + elapsed + " ms", elapsed >= 300);
+        t.join();
+
+        Remote service = new Remote() {};
+        t = register(100, new String[] { "c", "a" },
+                     new Remote[] { new Remote() {}, service });
+        start = System.currentTimeMillis();
+        assertSame(service, registry.waitForService("a", 5000));
+        elapsed = System.currentTimeMillis() - start;
+        assertTrue("Took " + elapsed + " ms", elapsed >= 200);
+        t.join();
+    }
+
+    @Test(expected = InterruptedException.class)
+    public void testInterrupted() throws Exception {
+        final Thread waiter = Thread.currentThread();
+        Thread t = new Thread() {
+            public void run() {
+                try {
+                    Thread.sleep(100);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                waiter.interrupt();
+            }
+        };
+        t.start();
+        try {
+            registry.waitForService("a", 5000);
+        } finally {
+            t.join();
+        }
+    }
+}
@@ -23,10 +23,15 @@
  */
 package com.sun.faban.driver;
 
+import com.sun.faban.driver.transport.util.BodySink;
+import com.sun.faban.driver.transport.util.ResponseMatcher;
+import com.sun.faban.driver.util.ContentSizeStats;
+
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.Reader;
 import java.net.URL;
+import java.nio.charset.Charset;
 import java.util.Map;
 import java.util.logging.Logger;
 import java.util.logging.Level;
@@ -41,13 +46,15 @@ import java.util.logging.Level;
  *     which the content is irrelevant to the benchmark driver implementation.
  *     For example, tests where the server send large chunks of binary data,
  *     i.e. images do not care about the content. Using these methods will save
- *     both memory and cpu cycles on the driver side.</li>
+ *     both memory and cpu cycles on the driver side. The read methods taking
+ *     a BodySink keep a size, checksum or the first bytes of the data.</li>
  * <li>Methods starting with "fetch..." actually read and keep a copy of the
  *     data for further analysis. These methods only work properly with text
  *     data as the result is saved to a java.lang.StringBuilder.</li>
  * <li>Methods starting with "match.." internally fetch the data just like the
  *     "fetch..." methods. In addition, they perform analysis on the data
- *     received.</li>
+ *     received. The match methods taking a ResponseMatcher instead match
+ *     the data while reading and do not keep a copy.</li>
  * </ul>
  * Currenly, the HttpTransport class does not provide a way to keep binary data
  * for further analysis. This function can and will be added if there is a use
@@ -309,6 +316,62 @@ public class HttpTransport {
         return delegate.readURL(url, postRequest, headers);
     }
 
+    /**
+     * Reads data from the URL into the sink. The sink keeps as much of the
+     * data as needed, from nothing to a digest or the first bytes, without
+     * decoding. The content size is the size in bytes.
+     * @param url The URL to read from
+     * @param sink The sink receiving the data
+     * @param headers The request headers
+     * @return The number of bytes read
+     * @throws IOException
+     * @see BodySink
+     */
+    public int readURL(URL url, BodySink sink, Map<String, String> headers)
+            throws IOException {
+        return delegate.readURL(url, sink, headers);
+    }
+
+    /**
+     * Reads data from the URL into the sink.
+     * @param url The URL to read from
+     * @param sink The sink receiving the data
+     * @return The number of bytes read
+     * @throws IOException
+     * @see #readURL(URL, BodySink, Map)
+     */
+    public int readURL(URL url, BodySink sink) throws IOException {
+        return readURL(url, sink, null);
+    }
+
+    /**
+     * Reads data from the URL into the sink.
+     * @param url The URL to read from
+     * @param sink The sink receiving the data
+     * @return The number of bytes read
+     * @throws IOException
+     * @see #readURL(URL, BodySink, Map)
+     */
+    public int readURL(String url, BodySink sink) throws IOException {
+        return readURL(new URL(url), sink, null);
+    }
+
+    /**
+     * Makes a POST request to the URL and reads the data back into the
+     * sink. Note that the POST request will be URL encoded.
+     * @param url The URL to read from
+     * @param postRequest The post request string
+     * @param sink The sink receiving the data
+     * @param headers The request headers, or null
+     * @return The number of bytes read
+     * @throws IOException
+     * @see #readURL(URL, BodySink, Map)
+     */
+    public int readURL(URL url, String postRequest, BodySink sink,
+                       Map<String, String> headers) throws IOException {
+        return delegate.readURL(url, postRequest, sink, headers);
+    }
+
     /**
      * Reads data from the URL and returns the data read. Note that this
      * method only works with text data as it does the byte-to-char
@@ -470,14 +533,18 @@ public class HttpTransport {
     }
 
     /**
-     * Method not implemented. Makes a POST request. Fetches the main page
-     * and all other image or resource pages based on the given URLs.
+     * Fetches the main page, with a POST request if a post string is given,
+     * and then reads all other image or resource pages based on the given
+     * URLs, as a browser would. Transports read the resources concurrently
+     * where they can. The respond time is the end of the last resource.
+     * The response code, headers and content size are those of the page.
      *
      * @param page The page URL
      * @param images The image or other resource URLs to fetch with page
-     * @param postRequest The post string
+     * @param postRequest The post string, or null for a GET request
      * @return The buffer of the main page
      * @throws IOException If an I/O error occurred
+     * @see #setContentSizeStats(ContentSizeStats)
      */
 	public StringBuilder fetchURL(URL page, URL[] images, String postRequest)
             throws IOException {
@@ -490,15 +557,25 @@ public class HttpTransport {
      *
      * @param page The page URL
      * @param images The image or other resource URLs to fetch with page
-     * @param postRequest The post string
+     * @param postRequest The post string, or null for a GET request
      * @return The buffer of the main page
      * @throws IOException If an I/O error occurred
+     * @see #fetchURL(URL, URL[], String)
      */
     public StringBuilder fetchPage(String page, String[] images,
                                   String postRequest) throws IOException {
         return delegate.fetchPage(page, images, postRequest);
     }
 
+    /**
+     * Sets the stats to add the sizes of the resources read by fetchPage
+     * to. The sizes are added in steady state only.
+     * @param stats The stats, or null to not collect resource sizes
+     */
+    public void setContentSizeStats(ContentSizeStats stats) {
+        delegate.setContentSizeStats(stats);
+    }
+
     /**
      * Obtains the size of the last read page or resource. The result is in
      * bytes for non-decoded content and in characters for decoded content.
@@ -675,6 +752,83 @@ public class HttpTransport {
         return delegate.matchURL(url, postRequest, regex, headers);
     }
 
+    /**
+     * Matches the data read from the stream while reading, without keeping
+     * the data. The data is decoded with the platform default charset
+     * where needed.
+     * @param stream The source of the data
+     * @param matcher The compiled matcher
+     * @return True if the match succeeds, false otherwise
+     * @throws IOException
+     */
+    public boolean matchResponse(InputStream stream, ResponseMatcher matcher)
+            throws IOException {
+        matcher.read(stream, Charset.defaultCharset());
+        return matcher.isMatched();
+    }
+
+    /**
+     * Matches the response fetched from the URL while the response arrives.
+     * Unlike the other match methods, the response is not kept in the
+     * response buffer. The rest of the response is still read after a
+     * match, so the response time covers the whole response. Only text
+     * responses are matched. The content size is the size in bytes.
+     * @param url The source of the data
+     * @param matcher The compiled matcher
+     * @param headers The request headers
+     * @return True if the match succeeds, false otherwise
+     * @throws IOException
+     * @see ResponseMatcher
+     * @see #addTextType(String)
+     */
+    public boolean matchURL(URL url, ResponseMatcher matcher,
+                            Map<String, String> headers) throws IOException {
+        return delegate.matchURL(url, matcher, headers);
+    }
+
+    /**
+     * Matches the response fetched from the URL while the response arrives.
+     * @param url The source of the data
+     * @param matcher The compiled matcher
+     * @return True if the match succeeds, false otherwise
+     * @throws IOException
+     * @see #matchURL(URL, ResponseMatcher, Map)
+     */
+    public boolean matchURL(URL url, ResponseMatcher matcher)
+            throws IOException {
+        return matchURL(url, matcher, null);
+    }
+
+    /**
+     * Matches the response fetched from the URL while the response arrives.
+     * @param url The source of the data
+     * @param matcher The compiled matcher
+     * @return True if the match succeeds, false otherwise
+     * @throws IOException
+     * @see #matchURL(URL, ResponseMatcher, Map)
+     */
+    public boolean matchURL(String url, ResponseMatcher matcher)
+            throws IOException {
+        return matchURL(new URL(url), matcher, null);
+    }
+
+    /**
+     * Matches the response fetched from the post request made to the URL
+     * while the response arrives.
+     * @param url The source of the data
+     * @param postRequest The post request string
+     * @param matcher The compiled matcher
+     * @param headers The request headers, or null
+     * @return True if the match succeeds, false otherwise
+     * @throws IOException
+     * @see #matchURL(URL, ResponseMatcher, Map)
+     */
+    public boolean matchURL(URL url, String postRequest,
+                            ResponseMatcher matcher,
+                            Map<String, String> headers) throws IOException {
+        return delegate.matchURL(url, postRequest, matcher, headers);
+    }
+
     /**
      * Obtains the list of cookie values by the name of the cookies.
      * @param name The cookie name
@@ -78,6 +78,7 @@ public class AgentImpl extends UnicastRemoteObject
     CountDownLatch postRunLatch;
     private boolean runAborted = false;
     StatsCollector statsCollector;
+    ArrivalDispatcher arrivals;
 
     // Time to wake up and switch the number of active threads.
     volatile long loadSwitchTime = 1l;
@@ -163,6 +164,12 @@ public class AgentImpl extends UnicastRemoteObject
 
         threadStartLatch = new CountDownLatch(runInfo.agentInfo.threads);
         timeSetLatch = new CountDownLatch(1);
+        if (runInfo.driverConfig.arrivalRate != null) {
+            arrivals = new ArrivalDispatcher(runInfo.driverConfig.arrivalRate,
+                                             runInfo.driverConfig.numAgents);
+        } else {
+            arrivals = null;
+        }
         if (runInfo.shouldRunPre()) {
             preRunLatch = new CountDownLatch(1);
             startLatch = new CountDownLatch(1);
@@ -408,6 +415,9 @@ public class AgentImpl extends UnicastRemoteObject
         runInfo.benchStartTime = time;
         startTime = timer.toAbsNanos(time);
         runInfo.start = timer.toAbsMillis(time);
+        if (arrivals != null) {
+            arrivals.start(startTime);
+        }
         timeSetLatch.countDown();
         if (runInfo.runtimeStatsEnabled) {
             statsCollector = new StatsCollector();
@@ -678,7 +688,10 @@ public class AgentImpl extends UnicastRemoteObject
         }
 
         public void add(RuntimeMetrics instance, int idx) {
-            instance.add(agentThreads[idx].metrics);
+            // Add from a consistent copy, it can be retried.
+            RuntimeMetrics rtm = getMutableMetrics(idx);
+            instance.add(rtm);
+            recycle(rtm);
         }
 
         public Class getComponentClass() {
@@ -126,6 +126,26 @@ public abstract class AgentThread extends Thread {
 
     boolean stopped = false;
 
+    /**
+     * Constructs the thread with the stack size configured in the
+     * run configuration, if any.
+     */
+    AgentThread() {
+        super(null, null, "AgentThread", stackSize());
+    }
+
+    /**
+     * Obtains the configured driver thread stack size.
+     * @return The stack size in bytes, or 0 for the JVM default
+     */
+    static long stackSize() {
+        RunInfo runInfo = RunInfo.getInstance();
+        if (runInfo == null) {
+            return 0l;
+        }
+        return runInfo.threadStackSize * 1024l;
+    }
+
     /**
      * Factory method for instantiating the right type of AgentThread.
      * @param type The type of this agent
@@ -141,7 +161,10 @@ public abstract class AgentThread extends Thread {
         AgentThread agentThread = null;
         switch (driverConfig.runControl) {
            case TIME :
-               if (driverConfig.mix[1] != null) {
+               if (driverConfig.arrivalRate != null) {
+                   agentThread = new ArrivalRateThread();
+               }
+               else if (driverConfig.mix[1] != null) {
                    agentThread = new TimeThreadWithBackground();
                }
                else {
@@ -174,7 +197,12 @@ public abstract class AgentThread extends Thread {
         this.timer = timer;
         this.runInfo = RunInfo.getInstance();
         this.agent = agent;
-        random = new Random(System.nanoTime() + hashCode());
+        if (runInfo.randomSeed != 0l && agent != null) {
+            random = new Random(Random.seed(runInfo.randomSeed,
+                                            agent.driverType, id));
+        } else {
+            random = new Random(System.nanoTime() + hashCode());
+        }
         className = getClass().getName();
         driverConfig = runInfo.driverConfig;
         name = type + '[' + agentId + "]." + id;
@@ -0,0 +1,297 @@
+/* The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://www.sun.com/cddl/cddl.html or
+ * install_dir/legal/LICENSE
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at install_dir/legal/LICENSE.
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ *
+ * $Id$
+ *
+ * Copyright 2005-2009 Sun Microsystems Inc. All Rights Reserved
+ */
+package com.sun.faban.driver.engine;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Compact binary encoding of the stats arrays sent from the agents to the
+ * master. Histograms are mostly empty and are written sparse, as the
+ * gaps between non-zero buckets and their counts. Graphs change little
+ * from one bucket to the next and are written as deltas, up to their last
+ * non-zero bucket. All numbers are written as variable length integers,
+ * 7 bits per byte, so small values take a single byte. Null arrays are
+ * supported.
+ */
+final class ArrayCodec {
+
+    private ArrayCodec() {
+    }
+
+    /**
+     * Writes an int as a variable length, unsigned value.
+     * @param out The output
+     * @param v The value
+     * @throws IOException Error writing
+     */
+    static void writeVarInt(DataOutput out, int v) throws IOException {
+        while ((v & ~0x7f) != 0) {
+            out.writeByte((v & 0x7f) | 0x80);
+            v >>>= 7;
+        }
+        out.writeByte(v);
+    }
+
+    /**
+     * Reads an int written by writeVarInt.
+     * @param in The input
+     * @return The value
+     * @throws IOException Error reading
+     */
+    static int readVarInt(DataInput in) throws IOException {
+        int v = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            int b = in.readUnsignedByte();
+            v |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return v;
+            }
+        }
+        throw new IOException("Malformed variable length int");
+    }
+
+    /**
+     * Writes a long as a variable length, unsigned value.
+     * @param out The output
+     * @param v The value
+     * @throws IOException Error writing
+     */
+    static void writeVarLong(DataOutput out, long v) throws IOException {
+        while ((v & ~0x7fl) != 0l) {
+            out.writeByte((int) (v & 0x7f) | 0x80);
+            v >>>= 7;
+        }
+        out.writeByte((int) v);
+    }
+
+    /**
+     * Reads a long written by writeVarLong.
+     * @param in The input
+     * @return The value
+     * @throws IOException Error reading
+     */
+    static long readVarLong(DataInput in) throws IOException {
+        long v = 0l;
+        for (int shift = 0; shift < 70; shift += 7) {
+            int b = in.readUnsignedByte();
+            v |= (long) (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return v;
+            }
+        }
+        throw new IOException("Malformed variable length long");
+    }
+
+    /**
+     * Writes the dimensions of an array, 0 for null.
+     */
+    private static void writeLength(DataOutput out, Object[] a)
+            throws IOException {
+        writeVarInt(out, a == null ? 0 : a.length + 1);
+    }
+
+    /**
+     * Reads the dimensions of an array.
+     * @return The length, or -1 for null
+     */
+    private static int readLength(DataInput in) throws IOException {
+        return readVarInt(in) - 1;
+    }
+
+    /**
+     * Writes a histogram, only the non-zero buckets.
+     * @param out The output
+     * @param a The histogram, by operation and bucket
+     * @throws IOException Error writing
+     */
+    static void writeSparse(DataOutput out, int[][] a) throws IOException {
+        writeLength(out, a);
+        if (a == null) {
+            return;
+        }
+        for (int[] row : a) {
+            writeVarInt(out, row.length);
+            int count = 0;
+            for (int v : row) {
+                if (v != 0) {
+                    ++count;
+                }
+            }
+            writeVarInt(out, count);
+            int last = -1;
+            for (int j = 0; j < row.length; j++) {
+                if (row[j] != 0) {
+                    writeVarInt(out, j - last - 1);
+                    writeVarInt(out, row[j]);
+                    last = j;
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads a histogram written by writeSparse.
+     * @param in The input
+     * @return The histogram
+     * @throws IOException Error reading
+     */
+    static int[][] readSparse(DataInput in) throws IOException {
+        int rows = readLength(in);
+        if (rows < 0) {
+            return null;
+        }
+        int[][] a = new int[rows][];
+        for (int i = 0; i < rows; i++) {
+            int[] row = new int[readVarInt(in)];
+            int count = readVarInt(in);
+            int j = -1;
+            for (int k = 0; k < count; k++) {
+                j += readVarInt(in) + 1;
+                if (j >= row.length) {
+                    throw new IOException("Histogram bucket " + j +
+                            " out of range");
+                }
+                row[j] = readVarInt(in);
+            }
+            a[i] = row;
+        }
+        return a;
+    }
+
+    /**
+     * Writes a graph as the deltas between buckets.
+     * @param out The output
+     * @param a The graph, by operation and bucket
+     * @throws IOException Error writing
+     */
+    static void writeDelta(DataOutput out, int[][] a) throws IOException {
+        writeLength(out, a);
+        if (a == null) {
+            return;
+        }
+        for (int[] row : a) {
+            int used = row.length;
+            while (used > 0 && row[used - 1] == 0) {
+                --used;
+            }
+            writeVarInt(out, row.length);
+            writeVarInt(out, used);
+            int previous = 0;
+            for (int j = 0; j < used; j++) {
+                int delta = row[j] - previous;
+                writeVarInt(out, (delta << 1) ^ (delta >> 31));
+                previous = row[j];
+            }
+        }
+    }
+
+    /**
+     * Reads a graph written by writeDelta.
+     * @param in The input
+     * @return The graph
+     * @throws IOException Error reading
+     */
+    static int[][] readDeltaInts(DataInput in) throws IOException {
+        int rows = readLength(in);
+        if (rows < 0) {
+            return null;
+        }
+        int[][] a = new int[rows][];
+        for (int i = 0; i < rows; i++) {
+            int[] row = new int[readVarInt(in)];
+            int used = readUsed(in, row.length);
+            int value = 0;
+            for (int j = 0; j < used; j++) {
+                int zigzag = readVarInt(in);
+                value += (zigzag >>> 1) ^ -(zigzag & 1);
+                row[j] = value;
+            }
+            a[i] = row;
+        }
+        return a;
+    }
+
+    /**
+     * Writes a graph as the deltas between buckets.
+     * @param out The output
+     * @param a The graph, by operation and bucket
+     * @throws IOException Error writing
+     */
+    static void writeDelta(DataOutput out, long[][] a) throws IOException {
+        writeLength(out, a);
+        if (a == null) {
+            return;
+        }
+        for (long[] row : a) {
+            int used = row.length;
+            while (used > 0 && row[used - 1] == 0l) {
+                --used;
+            }
+            writeVarInt(out, row.length);
+            writeVarInt(out, used);
+            long previous = 0l;
+            for (int j = 0; j < used; j++) {
+                long delta = row[j] - previous;
+                writeVarLong(out, (delta << 1) ^ (delta >> 63));
+                previous = row[j];
+            }
+        }
+    }
+
+    /**
+     * Reads a graph written by writeDelta.
+     * @param in The input
+     * @return The graph
+     * @throws IOException Error reading
+     */
+    static long[][] readDeltaLongs(DataInput in) throws IOException {
+        int rows = readLength(in);
+        if (rows < 0) {
+            return null;
+        }
+        long[][] a = new long[rows][];
+        for (int i = 0; i < rows; i++) {
+            long[] row = new long[readVarInt(in)];
+            int used = readUsed(in, row.length);
+            long value = 0l;
+            for (int j = 0; j < used; j++) {
+                long zigzag = readVarLong(in);
+                value += (zigzag >>> 1) ^ -(zigzag & 1l);
+                row[j] = value;
+            }
+            a[i] = row;
+        }
+        return a;
+    }
+
+    private static int readUsed(DataInput in, int length) throws IOException {
+        int used = readVarInt(in);
+        if (used > length) {
+            throw new IOException("Graph length " + used + " out of range");
+        }
+        return used;
+    }
+}
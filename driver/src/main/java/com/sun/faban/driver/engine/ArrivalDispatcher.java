@@ -0,0 +1,82 @@
+/* The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://www.sun.com/cddl/cddl.html or
+ * install_dir/legal/LICENSE
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at install_dir/legal/LICENSE.
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ *
+ * $Id$
+ *
+ * Copyright 2005-2009 Sun Microsystems Inc. All Rights Reserved
+ */
+package com.sun.faban.driver.engine;
+
+import com.sun.faban.driver.util.Random;
+
+/**
+ * Hands out the scheduled arrival times of an open-loop agent to its
+ * driver threads. Each free thread takes the next arrival in order and
+ * waits for it. When all threads are busy, arrivals are not dropped. The
+ * next thread to become free takes the oldest pending arrival late, and
+ * the arrival is counted as missed.
+ */
+class ArrivalDispatcher {
+
+    private final ArrivalRate arrivalRate;
+    private final int agents;
+    private final Random random;
+    private long startTime = Long.MIN_VALUE;
+    private long nextArrival;
+
+    /**
+     * Constructs the dispatcher for one agent.
+     * @param arrivalRate The arrival rate of the driver
+     * @param agents The number of agents sharing the rate
+     */
+    ArrivalDispatcher(ArrivalRate arrivalRate, int agents) {
+        this.arrivalRate = arrivalRate;
+        this.agents = agents < 1 ? 1 : agents;
+        random = new Random(System.nanoTime() + hashCode());
+    }
+
+    /**
+     * Starts the schedule. The first arrival is at the start of rampup.
+     * Agents start their schedules at a random offset within the first
+     * interval so they do not all send their first operation at once.
+     * @param startTime The start of rampup, in ns
+     */
+    synchronized void start(long startTime) {
+        this.startTime = startTime;
+        long first = arrivalRate.next(0l, agents, random);
+        if (first != Long.MAX_VALUE && !arrivalRate.poisson) {
+            first = random.lrandom(0l, first);
+        }
+        nextArrival = first;
+    }
+
+    /**
+     * Obtains the next scheduled arrival.
+     * @return The intended invoke time in ns, or Long.MAX_VALUE if there
+     *         are no more arrivals or the schedule has not started
+     */
+    synchronized long next() {
+        if (startTime == Long.MIN_VALUE || nextArrival == Long.MAX_VALUE) {
+            return Long.MAX_VALUE;
+        }
+        long arrival = nextArrival;
+        nextArrival = arrivalRate.next(arrival, agents, random);
+        return startTime + arrival;
+    }
+}
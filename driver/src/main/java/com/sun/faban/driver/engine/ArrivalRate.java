@@ -0,0 +1,115 @@
+/* The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://www.sun.com/cddl/cddl.html or
+ * install_dir/legal/LICENSE
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at install_dir/legal/LICENSE.
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ *
+ * $Id$
+ *
+ * Copyright 2005-2009 Sun Microsystems Inc. All Rights Reserved
+ */
+package com.sun.faban.driver.engine;
+
+import com.sun.faban.driver.util.Random;
+
+import java.io.Serializable;
+
+/**
+ * The target arrival rate of an open-loop driver. Operations are
+ * scheduled at this rate regardless of how fast the system under test
+ * responds, instead of each thread waiting for its previous operation.
+ * The rate is either constant or stepped, changing to the next rate after
+ * each step duration. Arrivals are either evenly spaced or Poisson, with
+ * exponentially distributed inter-arrival times.
+ */
+public class ArrivalRate implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Whether arrivals follow a Poisson process. */
+    boolean poisson;
+
+    /** The arrival rates in operations per second, for all agents. */
+    double[] rates;
+
+    /** The duration of each rate step, in ns. */
+    long stepDuration;
+
+    /**
+     * Constructs the arrival rate.
+     * @param poisson True for Poisson arrivals, false for even spacing
+     * @param rates The rates per step, in operations per second
+     * @param stepDuration The duration of each step, in seconds
+     */
+    public ArrivalRate(boolean poisson, double[] rates, int stepDuration) {
+        this.poisson = poisson;
+        this.rates = rates;
+        this.stepDuration = stepDuration * 1000000000l;
+    }
+
+    /**
+     * Obtains the rate in effect at a given time.
+     * @param elapsed The time from the start of rampup, in ns
+     * @return The rate in operations per second
+     */
+    double getRate(long elapsed) {
+        return rates[getStep(elapsed)];
+    }
+
+    private int getStep(long elapsed) {
+        if (rates.length == 1 || elapsed <= 0l) {
+            return 0;
+        }
+        long step = elapsed / stepDuration;
+        if (step >= rates.length) {
+            return rates.length - 1;
+        }
+        return (int) step;
+    }
+
+    /**
+     * Calculates the next arrival time of one agent after a given arrival.
+     * The agents of a driver share the load evenly.
+     * @param elapsed The time of the previous arrival from the start of
+     *        rampup, in ns
+     * @param agents The number of agents of this driver
+     * @param random The random number generator for Poisson arrivals
+     * @return The time of the next arrival from the start of rampup, in ns,
+     *         or Long.MAX_VALUE if there are no more arrivals
+     */
+    long next(long elapsed, int agents, Random random) {
+        int step = getStep(elapsed);
+        double rate = rates[step];
+        if (rate <= 0d) {
+            // Nothing arrives in this step, skip to the next non-idle one.
+            for (int i = step + 1; i < rates.length; i++) {
+                if (rates[i] > 0d) {
+                    return i * stepDuration;
+                }
+            }
+            return Long.MAX_VALUE;
+        }
+        double interval = 1e9d * agents / rate;
+        if (poisson) {
+            double x = random.drandom(0.0, 1.0);
+            if (x == 0) {
+                x = 1e-20d;
+            }
+            interval *= -Math.log(x);
+        }
+        return elapsed + Math.round(interval);
+    }
+}
@@ -0,0 +1,170 @@
+/* The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://www.sun.com/cddl/cddl.html or
+ * install_dir/legal/LICENSE
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at install_dir/legal/LICENSE.
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ *
+ * $Id$
+ *
+ * Copyright 2005-2009 Sun Microsystems Inc. All Rights Reserved
+ */
+package com.sun.faban.driver.engine;
+
+import com.sun.faban.driver.FatalException;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.logging.Level;
+
+/**
+ * A time-controlled driver thread for open-loop runs. Operations are not
+ * started after the previous operation plus a think time, but at the
+ * arrival times handed out by the agent's arrival dispatcher. The threads
+ * only bound the number of operations in flight. Response times are
+ * measured from the scheduled arrival, so time spent waiting for a free
+ * thread is part of the response time.
+ */
+public class ArrivalRateThread extends TimeThread {
+
+    /**
+     * Each thread executes in the doRun method until the benchmark time is
+     * up. The main loop takes the next arrival from the dispatcher, chooses
+     * a tx. type according to the mix and calls the appropriate transaction
+     * method to do the job.
+     * @see Metrics
+     */
+    @Override
+	void doRun() {
+        driverContext = new DriverContext(this, timer);
+
+        try {
+            driver = driverClass.newInstance();
+        }
+        catch (Throwable t) {
+            Throwable cause = t.getCause();
+            while (cause != null) {
+                t = cause;
+                cause = t.getCause();
+            }
+            logger.log(Level.SEVERE, name + ": Error initializing driver object.", t);
+            agent.abortRun();
+            return; // Terminate this thread immediately
+        }
+
+        // Call the preRun.
+        preRun();
+
+        // Notify the agent that we have started successfully.
+        agent.threadStartLatch.countDown();
+
+        selector = new Mix.Selector[1];
+        selector[0] = driverConfig.mix[0].selector(random);
+
+        // The schedule is based on the start time, so we need it even if
+        // the threads do not start simultaneously.
+        try {
+            agent.timeSetLatch.await();
+        }
+        catch (InterruptedException e) { // Run is killed.
+            throw new FatalException(e);
+        }
+        startTimeSet = true;
+        endRampUp = agent.startTime + runInfo.rampUp * 1000000000l;
+        endStdyState = endRampUp + runInfo.stdyState * 1000000000l;
+        endRampDown = endStdyState + runInfo.rampDown * 1000000000l;
+
+        logger.fine(name + ": Start of run.");
+
+        while (!stopped) {
+
+            // Save the previous operation
+            previousOperation[0] = currentOperation;
+
+            // Select the operation
+            currentOperation = selector[0].select();
+            Operation op = driverConfig.operations[currentOperation];
+
+            long invokeTime = agent.arrivals.next();
+            if (invokeTime >= endRampDown) {
+                break;
+            }
+
+            // If the arrival is already due, no thread was free for it.
+            boolean missed = System.nanoTime() > invokeTime;
+
+            if (logger.isLoggable(Level.FINEST)) {
+                logger.finest(String.format("%s: Invoking %s at time %s. Ramp down ends at time %s.", name, op.getName(), invokeTime, endRampDown));
+            }
+
+            driverContext.setInvokeTime(invokeTime);
+
+            // Invoke the operation
+            try {
+                op.getInvoker().invoke(driver);
+                validateTimeCompletion(op);
+                measureFromArrival();
+                checkRamp();
+                metrics.recordTx();
+            }
+            catch (InvocationTargetException e) {
+                // An invocation target exception is caused by another
+                // exception thrown by the operation directly.
+                Throwable cause = e.getCause();
+                checkFatal(cause, op);
+
+                TimingInfo timingInfo = driverContext.timingInfo;
+                if (!timingInfo.hasRespondTime() && timingInfo.hasLastRespondTime()) {
+                    logger.fine(String.format("Potential open request in operation %s.", op.getMethod().getName()));
+                    timingInfo.setRespondTime(timingInfo.getLastRespondTime());
+                }
+                if (!timingInfo.hasInvokeTime()) {
+                    // Failed before the critical section. Count it at the
+                    // arrival or now, whichever is later.
+                    long time = Math.max(System.nanoTime(), invokeTime);
+                    timingInfo.setInvokeTime(time);
+                    timingInfo.setRespondTime(time);
+                }
+                else if (!timingInfo.hasRespondTime()) {
+                    timingInfo.setRespondTime(System.nanoTime());
+                }
+                measureFromArrival();
+                checkRamp();
+                metrics.recordError();
+                logError(cause, op);
+            }
+            catch (IllegalAccessException e) {
+                logger.log(Level.SEVERE, String.format("%s.%s: %s", name, op.getMethod().getName(), e.getMessage()), e);
+                agent.abortRun();
+                return;
+            }
+
+            if (missed) {
+                metrics.recordMissedArrival();
+            }
+        }
+        logger.fine(name + ": End of run.");
+    }
+
+    /**
+     * Moves the invoke time of the last operation back to its scheduled
+     * arrival, if it started late.
+     */
+    private void measureFromArrival() {
+        TimingInfo timingInfo = driverContext.timingInfo;
+        if (timingInfo.getInvokeTime() > timingInfo.getIntendedInvokeTime()) {
+            timingInfo.setInvokeTime(timingInfo.getIntendedInvokeTime());
+        }
+    }
+}
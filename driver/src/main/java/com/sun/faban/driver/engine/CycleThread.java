@@ -118,7 +118,7 @@ public class CycleThread extends AgentThread {
 
             // Invoke the operation
             try {
-                op.getMethod().invoke(driver);
+                op.getInvoker().invoke(driver);
                 validateTimeCompletion(op);
                 checkRamp();
                 metrics.recordTx();
@@ -627,6 +627,18 @@ public class DriverContext extends com.sun.faban.driver.DriverContext {
      * @return The recorded time - system nanotime, or TIME_NOT_SET if not set
      */
     public long recordEndTime() {
+        return recordEndTime(System.nanoTime());
+    }
+
+    /**
+     * Records the end time of an operation as taken by the transport,
+     * for transports receiving the response on another thread. This
+     * method is not exposed through the interface and is only used by
+     * the transport facilities.
+     * @param time The time the response was received, in system nanotime
+     * @return The recorded time - system nanotime, or TIME_NOT_SET if not set
+     */
+    public long recordEndTime(long time) {
         long tstamp = TimingInfo.TIME_NOT_SET;
         // Not in an operation, don't record time.
         if (agentThread.currentOperation != -1) {
@@ -643,7 +655,7 @@ public class DriverContext extends com.sun.faban.driver.DriverContext {
                     logger.warning("Read before write! Some input may still be in the buffer from previous operation " + name + ". Ignoring such input.");
                 }
                 else {
-                    tstamp = System.nanoTime();
+                    tstamp = time;
                     timingInfo.setRespondTime(tstamp);
                 }
             }
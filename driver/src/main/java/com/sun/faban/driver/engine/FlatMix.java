@@ -331,11 +331,10 @@ public class FlatMix extends Mix {
          */
 		public int select() {
             double val = random.drandom(0, 1);
-            for (int i = 0; i < selectMix.length; i++) {
-				if (val <= selectMix[i]) {
-					return i;
-				}
-			}
+            int i = search(selectMix, val);
+            if (i < selectMix.length) {
+                return i;
+            }
             return -1;
         }
 
@@ -329,11 +329,7 @@ public class FlatSequenceMix extends Mix {
             if (curIndex == operationSequences[curSequence].length) {
                 curIndex = 0;
                 double val = random.drandom(0, 1);
-                for (curSequence = 0; curSequence < selectMix.length; curSequence++) {
-					if (val <= selectMix[curSequence]) {
-						break;
-					}
-				}
+                curSequence = search(selectMix, val);
             }
             return operationSequences[curSequence][curIndex++];
         }
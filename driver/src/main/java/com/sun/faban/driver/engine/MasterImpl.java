@@ -38,7 +38,15 @@ import java.rmi.Remote;
 import java.rmi.RemoteException;
 import java.rmi.server.UnicastRemoteObject;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.logging.FileHandler;
@@ -157,6 +165,12 @@ public class MasterImpl extends UnicastRemoteObject implements Master {
 
     StatsWriter statsWriter;
 
+    /** The default number of agents to gather results from at once. */
+    static final int RESULTS_THREADS = 16;
+
+    /** The default time to gather the results from one agent, in secs. */
+    static final int RESULTS_TIMEOUT = 120;
+
     /**
      * Creates and exports a new Master.
      *
@@ -884,10 +898,6 @@ public class MasterImpl extends UnicastRemoteObject implements Master {
             metrices = new ArrayList<Metrics>();
         }
 
-        private MetricsProvider(int count) {
-            metrices = new ArrayList<Metrics>(count);
-        }
-
         public void add(Metrics m) {
             metrices.add(m);
         }
@@ -900,7 +910,7 @@ public class MasterImpl extends UnicastRemoteObject implements Master {
             instance.add(metrices.get(idx));
         }
 
-        public Class getComponentClass() {
+        public Class<Metrics> getComponentClass() {
             return Metrics.class;
         }
 
@@ -911,71 +921,177 @@ public class MasterImpl extends UnicastRemoteObject implements Master {
 
     private Map<String, Metrics> getDriverMetrics(int driverType) {
 
-        LinkedHashMap<String, MetricsProvider> hostProviders =
-                                   new LinkedHashMap<String, MetricsProvider>();
         LinkedHashMap<String, Metrics> hostMetrics =
                                    new LinkedHashMap<String, Metrics>();
-        try {
-            if (runInfo.driverConfigs[driverType].numAgents > 0) {
-                Agent[] agents = agentRefs[driverType];
-                logger.info("Gathering " +
-                        benchDef.drivers[driverType].name + "Stats ...");
-
-                // Add the results on a per-host basis and grand summary
-                MetricsProvider grandSumProvider = new MetricsProvider(
-                        runInfo.driverConfigs[driverType].numAgents);
+        if (runInfo.driverConfigs[driverType].numAgents <= 0)
+            return hostMetrics;
+
+        final Agent[] agents = agentRefs[driverType];
+        String driverName = benchDef.drivers[driverType].name;
+        logger.info("Gathering " + driverName + "Stats ...");
+
+        // Fetch from all agents concurrently. Aggregate the results on a
+        // per-host basis and the grand summary as they arrive.
+        LinkedHashMap<String, PairwiseAggregator<Metrics>> hostAggregators =
+                new LinkedHashMap<String, PairwiseAggregator<Metrics>>();
+        MetricsProvider provider = new MetricsProvider();
+        PairwiseAggregator<Metrics> grandSumAggregator =
+                new PairwiseAggregator<Metrics>(provider);
+
+        int threads = Math.min(agents.length, Integer.getInteger(
+                "faban.results.threads", RESULTS_THREADS));
+        long timeout = Integer.getInteger("faban.results.timeout",
+                RESULTS_TIMEOUT) * 1000l;
+        threads = Math.max(threads, 1);
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads,
+                0l, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(),
+                new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "ResultsCollector");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        CompletionService<Metrics> completion =
+                new ExecutorCompletionService<Metrics>(executor);
+        HashMap<Future<Metrics>, ResultsFetcher> fetchers =
+                new HashMap<Future<Metrics>, ResultsFetcher>(agents.length);
+        for (int i = 0; i < agents.length; i++) {
+            ResultsFetcher fetcher = new ResultsFetcher(agents[i]);
+            fetchers.put(completion.submit(fetcher), fetcher);
+        }
 
-                for (Agent agent : agents) {
-                    Metrics r = agent.getResults();
-                    if (r == null)
+        try {
+            for (int pending = agents.length; pending > 0;) {
+                // Abandon the fetches taking too long. Cancelling does not
+                // unblock a thread stuck in an RMI call, so the thread is
+                // written off and replaced to keep the others going.
+                long now = System.currentTimeMillis();
+                long wait = 1000l;
+                Iterator<Map.Entry<Future<Metrics>, ResultsFetcher>> iter =
+                        fetchers.entrySet().iterator();
+                while (iter.hasNext()) {
+                    Map.Entry<Future<Metrics>, ResultsFetcher> entry =
+                            iter.next();
+                    ResultsFetcher fetcher = entry.getValue();
+                    long started = fetcher.started;
+                    if (started <= 0l)
+                        continue;
+                    long left = started + timeout - now;
+                    if (left > 0l) {
+                        wait = Math.min(wait, left);
                         continue;
-                    MetricsProvider hostResult = hostProviders.get(r.host);
-                    if (hostResult == null) {
-                        hostResult = new MetricsProvider();
-                        hostProviders.put(r.host, hostResult);
-                    } 
-                    hostResult.add(r);
-                    grandSumProvider.add(r);
-
-                    // Once we have the metrics, we have to set it's start time
-                    // Since this is set after all threads have started, it will
-                    // be 0 in all the metrices we receive.
-                    r.startTime = runInfo.start;
+                    }
+                    iter.remove();
+                    --pending;
+                    fetcher.abandoned = true;
+                    entry.getKey().cancel(true);
+                    executor.setMaximumPoolSize(
+                            executor.getMaximumPoolSize() + 1);
+                    executor.setCorePoolSize(executor.getCorePoolSize() + 1);
+                    logger.warning("Timed out gathering stats from " +
+                            driverName + "Agent[" +
+                            indexOf(agents, fetcher.agent) + "]. Ignoring.");
+                }
+                if (pending <= 0)
+                    break;
 
+                Future<Metrics> f = completion.poll(wait,
+                                                    TimeUnit.MILLISECONDS);
+                if (f == null)
+                    continue;
+                ResultsFetcher fetcher = fetchers.remove(f);
+                if (fetcher == null) // Abandoned before.
+                    continue;
+                --pending;
+                Metrics r;
+                try {
+                    r = f.get();
+                } catch (CancellationException e) {
+                    continue;
+                } catch (ExecutionException e) {
+                    logger.log(Level.WARNING, "Error gathering stats from " +
+                            driverName + "Agent[" +
+                            indexOf(agents, fetcher.agent) + "]. Ignoring.",
+                            e.getCause());
+                    continue;
                 }
+                if (r == null)
+                    continue;
 
-                Metrics result = null;
+                // Once we have the metrics, we have to set it's start time
+                // Since this is set after all threads have started, it will
+                // be 0 in all the metrices we receive.
+                r.startTime = runInfo.start;
 
-                // Aggregate the per driver host metrics, calculate results.
-                for (MetricsProvider r : hostProviders.values()) {
-                    PairwiseAggregator<Metrics> aggregator = new
-                            PairwiseAggregator<Metrics>(r.metrices.size(), r);
-                    result = aggregator.collectStats();
-                    hostMetrics.put(result.host, result);
+                PairwiseAggregator<Metrics> hostAggregator =
+                        hostAggregators.get(r.host);
+                if (hostAggregator == null) {
+                    hostAggregator = new PairwiseAggregator<Metrics>(provider);
+                    hostAggregators.put(r.host, hostAggregator);
                 }
+                // The aggregators modify what they get, so each gets its
+                // own copy.
+                hostAggregator.add((Metrics) r.clone());
+                grandSumAggregator.add(r);
+            }
+        } catch (InterruptedException e) {
+            logger.log(Level.WARNING, "Interrupted gathering " + driverName +
+                    " stats. Results may be incomplete.", e);
+        } finally {
+            executor.shutdownNow();
+        }
 
-                // Aggregate the final metrics, calculate results.
-                if (grandSumProvider.metrices.size() > 0) {
-                    PairwiseAggregator<Metrics> aggregator =
-                            new PairwiseAggregator<Metrics>(
-                                    grandSumProvider.metrices.size(),
-                                    grandSumProvider);
-
-                    result = aggregator.collectStats();
+        // Calculate the per driver host metrics.
+        for (PairwiseAggregator<Metrics> aggregator :
+                hostAggregators.values()) {
+            Metrics result = aggregator.getResult();
+            hostMetrics.put(result.host, result);
+        }
 
-                    // And finally set it for the final result, too.
-					result.startTime =  runInfo.start;
-                    // Set it in the map, under the name __MASTER__
-                    // This is an invalid host name so it will never conflict.
-                    hostMetrics.put("__MASTER__", result);
-				}
-            }
-        } catch (RemoteException re) {
-            logger.log(Level.WARNING, "Master: RemoteException got " + re, re);
+        // Calculate the final metrics.
+        Metrics result = grandSumAggregator.getResult();
+        if (result != null) {
+            // And finally set it for the final result, too.
+            result.startTime =  runInfo.start;
+            // Set it in the map, under the name __MASTER__
+            // This is an invalid host name so it will never conflict.
+            hostMetrics.put("__MASTER__", result);
         }
         return hostMetrics;
     }
 
+    private static int indexOf(Agent[] agents, Agent agent) {
+        for (int i = 0; i < agents.length; i++)
+            if (agents[i] == agent)
+                return i;
+        return -1;
+    }
+
+    /**
+     * Fetches the results from one agent, recording when it started so
+     * fetches taking too long can be abandoned. The results of an
+     * abandoned fetch are dropped.
+     */
+    private static class ResultsFetcher implements Callable<Metrics> {
+
+        final Agent agent;
+        volatile long started;
+        volatile boolean abandoned;
+
+        ResultsFetcher(Agent agent) {
+            this.agent = agent;
+        }
+
+        public Metrics call() throws RemoteException {
+            if (abandoned)
+                return null;
+            started = System.currentTimeMillis();
+            Metrics r = agent.getResults();
+            return abandoned ? null : r;
+        }
+    }
+
     private Metrics[] getHostMetrics(List<Map<String, Metrics>> results,
                                      String host) {
         Metrics[] thResults = new Metrics[results.size()];
@@ -1219,7 +1335,11 @@ public class MasterImpl extends UnicastRemoteObject implements Master {
         LinkedBlockingQueue<RuntimeMetrics> queue =
                 new LinkedBlockingQueue<RuntimeMetrics>();
 
+        RuntimeStatsExporter exporter;
+
         private StatsWriter() {
+            exporter = new RuntimeStatsExporter(runInfo.resultsDir,
+                    runInfo.runtimeStatsPort);
             setName("StatsWriter");
             setDaemon(true);
             start();
@@ -1293,6 +1413,7 @@ public class MasterImpl extends UnicastRemoteObject implements Master {
                             "metrics. Stats writer terminating!", e);
                 }
             }
+            exporter.close();
         }
 
         void dumpStats(int type, RuntimeMetrics[] previous,
@@ -1303,15 +1424,22 @@ public class MasterImpl extends UnicastRemoteObject implements Master {
                 return;
 
             double[][] s = current[type].getResults(runInfo, previous[type]);
+            String[] operations =
+                    new String[benchDef.drivers[type].operations.length];
+            for (int j = 0; j < operations.length; j++)
+                operations[j] = benchDef.drivers[type].operations[j].getName();
+            exporter.export(current[type].timestamp,
+                    benchDef.drivers[type].name, operations, s);
+
             StringBuilder b = new StringBuilder();
             Formatter formatter = new Formatter(b);
 
             formatter.format("%.02f", current[type].timestamp / 1000d);
             b.append("s - ").append(benchDef.drivers[type].name).append(": ");
-            b.append(benchDef.drivers[type].operations[0].getName());
-            for (int j = 1; j < benchDef.drivers[type].operations.length; j++) {
+            b.append(operations[0]);
+            for (int j = 1; j < operations.length; j++) {
                 b.append('/');
-                b.append(benchDef.drivers[type].operations[j].getName());
+                b.append(operations[j]);
             }
 
             for (int i = 0; i < s.length; i++) {
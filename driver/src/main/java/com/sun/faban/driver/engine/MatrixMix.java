@@ -480,13 +480,7 @@ public class MatrixMix extends Mix {
                 op = 0;
             } else { // Any subsequent selection
                 double val = random.drandom(0, 1);
-                int i;
-                for (i = 0; i < selectMix.length; i++) {
-					if (val <= selectMix[op][i]) {
-						break;
-					}
-				}
-                op = i;
+                op = search(selectMix[op], val);
             }
             return op;
         }
@@ -31,7 +31,12 @@ import com.sun.faban.driver.CustomTableMetrics;
 import com.sun.faban.driver.CycleType;
 import com.sun.faban.driver.RunControl;
 
+import com.sun.faban.driver.util.LogLinearHistogram;
 import com.sun.faban.driver.util.PairwiseAggregator;
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.util.Date;
 import java.util.Formatter;
@@ -51,7 +56,10 @@ import java.util.logging.Level;
 public class Metrics implements Serializable, Cloneable,
         PairwiseAggregator.Aggregable<Metrics> {
 
-	private static final long serialVersionUID = 32009l;
+	private static final long serialVersionUID = 32012l;
+
+    /** The version of the compact array format. */
+    static final int FORMAT_VERSION = 1;
 
     /*
     Response Histogram
@@ -83,6 +91,12 @@ public class Metrics implements Serializable, Cloneable,
     /** Number of delay time buckets in histogram. */
     public static final int DELAYBUCKETS = 100;
 
+    /**
+     * The tail percentiles reported for each operation in addition
+     * to the percentiles set for the driver.
+     */
+    static final String[] TAIL_PERCENTILES = { "99", "99.9", "99.99" };
+
     // We use double here to prevent cumulative errors
 
     /** Size of the fine response time bucket. */
@@ -147,6 +161,12 @@ public class Metrics implements Serializable, Cloneable,
      */
     protected int[] delayCntStdy;
 
+    /**
+     * Number of arrivals during steady state that were started late
+     * because no thread was free. Only used for arrival rate runs.
+     */
+    protected int[] missedCntStdy;
+
     /**
      * Sum of response times during steady state.
      * This is used for final reporting and runtime reporting of averages.
@@ -181,6 +201,9 @@ public class Metrics implements Serializable, Cloneable,
     /** Targeted delay times. */
     protected long[] targetedDelaySum;
 
+    /** Sum of the absolute differences of actual and targeted delays. */
+    protected long[] delayErrorSum;
+
     /** Maximum delay times. */
     protected long[] delayMax;
 
@@ -191,13 +214,37 @@ public class Metrics implements Serializable, Cloneable,
     protected long cycleSum = 0;
 
     /** Response time histogram. */
-    protected int[][] respHist;
+    protected transient int[][] respHist;
+
+    /**
+     * Log-linear response time histogram, used for calculating the
+     * percentiles. Unlike respHist, this histogram does not depend on the
+     * max percentile setting and has a bounded relative error. Each
+     * thread keeps its own, allocated by the ranges in use. Null if the
+     * histogram of some thread was missing.
+     * @see LogLinearHistogram
+     */
+    protected transient int[][][] respPctHist;
 
     /** Histogram of actual delay times. */
-    protected int[][] delayHist;
+    protected transient int[][] delayHist;
+
+    /**
+     * Update sequence, a seqlock for the runtime stats. It is odd while
+     * the driver thread updates the counters read by RuntimeMetrics and
+     * even otherwise. The stats collector repeats its copy if the sequence
+     * changed during the copy, so it never sees torn counters and the
+     * driver thread never waits.
+     * @see #beginUpdate()
+     * @see #beginSnapshot()
+     */
+    private transient volatile int updateSeq;
+
+    /** Written by the snapshot reader to order its reads. */
+    private transient volatile int snapshotSeq;
 
     /** Histogram of selected delay times. */
-    protected int[][] targetedDelayHist;
+    protected transient int[][] targetedDelayHist;
 
     /** Start time as absolute time, in ms. */
     protected long startTime;
@@ -213,14 +260,14 @@ public class Metrics implements Serializable, Cloneable,
      * in steady state. The graph accumulates tx count during the run. The
      * final results need to be divided by the graph bucket size.
      */
-    protected int[][] thruputGraph;	/* Thruput graph */
+    protected transient int[][] thruputGraph;	/* Thruput graph */
 
     /**
      * Graph of accumulated response times over the course of the run.
      * This data need to be divided by the accumulated tx count for the
      * bucket to get the avg response time in that bucket.
      */
-    protected long[][] respGraph;
+    protected transient long[][] respGraph;
 
     /** The attached custom metrics. */
     protected LinkedHashMap<String, CustomMetrics> metricAttachments = null;
@@ -285,6 +332,7 @@ public class Metrics implements Serializable, Cloneable,
         errCntStdy = new int[txTypes];
         errCntTotal = new int[txTypes];
         delayCntStdy = new int[txTypes];
+        missedCntStdy = new int[txTypes];
         respSumStdy = new double[txTypes];
         respSumTotal = new double[txTypes];
         hiRespSumStdy = new double[txTypes];
@@ -298,7 +346,12 @@ public class Metrics implements Serializable, Cloneable,
 			delayMin[i] = Integer.MAX_VALUE; // init to the largest number
 		}
         targetedDelaySum = new long[txTypes];
+        delayErrorSum = new long[txTypes];
         respHist = new int[txTypes][RESPBUCKETS];
+        respPctHist = new int[txTypes][][];
+        for (int i = 0; i < txTypes; i++) {
+            respPctHist[i] = LogLinearHistogram.create();
+        }
         delayHist = new int[txTypes][DELAYBUCKETS];
         targetedDelayHist = new int[txTypes][DELAYBUCKETS];
 
@@ -374,6 +427,7 @@ public class Metrics implements Serializable, Cloneable,
             }
         }
 
+        beginUpdate();
         txCntTotal[txType]++;
         respSumTotal[txType] += responseTime;
         sumSquaresTotal[txType] = addSumSquare(sumSquaresTotal[txType], txCntTotal[txType], respSumTotal[txType], responseTime);
@@ -396,11 +450,13 @@ public class Metrics implements Serializable, Cloneable,
                 hiRespSumStdy[txType] += responseTime;
             }
             respHist[txType][bucket]++;
+            LogLinearHistogram.record(respPctHist[txType], responseTime);
 
             if (responseTime > respMax[txType]) {
 				respMax[txType] = responseTime;
 			}
         }
+        endUpdate();
     }
 
     /**
@@ -414,17 +470,77 @@ public class Metrics implements Serializable, Cloneable,
 
         int txType = thread.currentOperation;
 
+        beginUpdate();
         errCntTotal[txType]++;
 
         if (!thread.inRamp) {
             errCntStdy[txType]++;
 		}
+        endUpdate();
 
         if (thread.driverContext.timingInfo.hasRespondTime()) {
             endTimeNanos = thread.driverContext.timingInfo.getRespondTime();
         }
     }
 
+    /**
+     * Records an operation of an arrival rate run that was started after
+     * its scheduled arrival time.
+     */
+    public void recordMissedArrival() {
+        if (!thread.inRamp) {
+            ++missedCntStdy[thread.currentOperation];
+        }
+    }
+
+    /**
+     * Marks the start of a counter update by the driver thread.
+     */
+    private void beginUpdate() {
+        int seq = updateSeq + 1;
+        updateSeq = seq;
+        // The volatile load keeps the following stores after the
+        // volatile store above.
+        if (updateSeq != seq) {
+            throw new IllegalStateException(
+                    "Metrics updated by more than one thread");
+        }
+    }
+
+    /**
+     * Marks the end of a counter update by the driver thread.
+     */
+    private void endUpdate() {
+        updateSeq = updateSeq + 1;
+    }
+
+    /**
+     * Starts a consistent snapshot of the counters, waiting for an
+     * update in progress to finish.
+     * @return The sequence to pass to validateSnapshot
+     * @see #validateSnapshot(int)
+     */
+    int beginSnapshot() {
+        int seq;
+        while (((seq = updateSeq) & 1) != 0) {
+            Thread.yield();
+        }
+        return seq;
+    }
+
+    /**
+     * Checks whether the counters read since beginSnapshot are
+     * consistent. If not, the snapshot has to be taken again.
+     * @param seq The sequence returned from beginSnapshot
+     * @return true if the counters were not updated in the meantime
+     */
+    boolean validateSnapshot(int seq) {
+        // The volatile store keeps the preceding loads before the
+        // volatile load below.
+        snapshotSeq = seq;
+        return updateSeq == seq;
+    }
+
     /**
      * Records the delay (think/cycle) time. The delay time is recorded
      * regardless of whether a transaction succeeds or fails.
@@ -476,7 +592,8 @@ public class Metrics implements Serializable, Cloneable,
         ++delayCntStdy[txType];
         delaySum[txType] += actualDelayTime;
         targetedDelaySum[txType] += thread.delayTime[thread.mixId];
-
+        delayErrorSum[txType] +=
+                Math.abs(actualDelayTime - thread.delayTime[thread.mixId]);
 
         if (actualDelayTime > delayMax[txType]) {
             delayMax[txType] = actualDelayTime;
@@ -539,11 +656,13 @@ public class Metrics implements Serializable, Cloneable,
             errCntStdy[i] += s.errCntStdy[i];
             errCntTotal[i] += s.errCntTotal[i];
             delayCntStdy[i] += s.delayCntStdy[i];
+            missedCntStdy[i] += s.missedCntStdy[i];
 			respSumStdy[i] += s.respSumStdy[i];
             respSumTotal[i] += s.respSumTotal[i];
             hiRespSumStdy[i] += s.hiRespSumStdy[i];
 			delaySum[i] += s.delaySum[i];
 			targetedDelaySum[i] += s.targetedDelaySum[i];
+			delayErrorSum[i] += s.delayErrorSum[i];
 			if (s.respMax[i] > respMax[i]) {
 				respMax[i] = s.respMax[i];
 			}
@@ -558,6 +677,11 @@ public class Metrics implements Serializable, Cloneable,
 			for (int j = 0; j < RESPBUCKETS; j++) {
 				respHist[i][j] += s.respHist[i][j];
 			}
+            if (s.respPctHist == null) {
+                respPctHist = null; // The percentiles are unknown.
+            } else if (respPctHist != null) {
+                LogLinearHistogram.add(respPctHist[i], s.respPctHist[i]);
+            }
 			for (int j = 0; j < graphBuckets; j++) {
 				thruputGraph[i][j] += s.thruputGraph[i][j];
                 respGraph[i][j] += s.respGraph[i][j];
@@ -776,18 +900,27 @@ public class Metrics implements Serializable, Cloneable,
             clone.errCntStdy = errCntStdy.clone();
             clone.errCntTotal = errCntTotal.clone();
             clone.delayCntStdy = delayCntStdy.clone();
+            clone.missedCntStdy = missedCntStdy.clone();
             clone.respSumStdy = respSumStdy.clone();
             clone.respSumTotal = respSumTotal.clone();
             clone.hiRespSumStdy = hiRespSumStdy.clone();
             clone.respMax = respMax.clone();
             clone.delaySum = delaySum.clone();
             clone.targetedDelaySum = targetedDelaySum.clone();
+            clone.delayErrorSum = delayErrorSum.clone();
             clone.delayMax = delayMax.clone();
             clone.delayMin = delayMin.clone();
             clone.respHist = new int[respHist.length][];
             for (int i = 0; i < respHist.length; i++) {
                 clone.respHist[i] = respHist[i].clone();
 			}
+            if (respPctHist != null) {
+                clone.respPctHist = new int[respPctHist.length][][];
+                for (int i = 0; i < respPctHist.length; i++) {
+                    clone.respPctHist[i] =
+                            LogLinearHistogram.copy(respPctHist[i]);
+                }
+            }
             clone.delayHist = new int[delayHist.length][];
             for (int i = 0; i < delayHist.length; i++) {
                 clone.delayHist[i] = delayHist[i].clone();
@@ -828,6 +961,64 @@ public class Metrics implements Serializable, Cloneable,
         return clone;
     }
 
+    /**
+     * Writes the histograms and graphs in the compact array format after
+     * the other fields.
+     * @param out The object output
+     * @throws IOException Error writing
+     * @see ArrayCodec
+     */
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        out.defaultWriteObject();
+        out.writeByte(FORMAT_VERSION);
+        ArrayCodec.writeSparse(out, respHist);
+        int[][] pctHist = null;
+        if (respPctHist != null) {
+            pctHist = new int[respPctHist.length][];
+            for (int i = 0; i < pctHist.length; i++) {
+                pctHist[i] = LogLinearHistogram.toArray(respPctHist[i]);
+            }
+        }
+        ArrayCodec.writeSparse(out, pctHist);
+        ArrayCodec.writeSparse(out, delayHist);
+        ArrayCodec.writeSparse(out, targetedDelayHist);
+        ArrayCodec.writeDelta(out, thruputGraph);
+        ArrayCodec.writeDelta(out, respGraph);
+    }
+
+    /**
+     * Reads the metrics written by writeObject.
+     * @param in The object input
+     * @throws IOException Error reading or unsupported format
+     * @throws ClassNotFoundException Class of a field not found
+     */
+    private void readObject(ObjectInputStream in)
+            throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        int version = in.readUnsignedByte();
+        if (version != FORMAT_VERSION) {
+            throw new InvalidObjectException(
+                    "Unsupported Metrics format version " + version);
+        }
+        respHist = ArrayCodec.readSparse(in);
+        int[][] pctHist = ArrayCodec.readSparse(in);
+        respPctHist = null;
+        if (pctHist != null) {
+            respPctHist = new int[pctHist.length][][];
+            try {
+                for (int i = 0; i < pctHist.length; i++) {
+                    respPctHist[i] = LogLinearHistogram.fromArray(pctHist[i]);
+                }
+            } catch (IllegalArgumentException e) {
+                throw new InvalidObjectException(e.getMessage());
+            }
+        }
+        delayHist = ArrayCodec.readSparse(in);
+        targetedDelayHist = ArrayCodec.readSparse(in);
+        thruputGraph = ArrayCodec.readDeltaInts(in);
+        respGraph = ArrayCodec.readDeltaLongs(in);
+    }
+
     /**
      * Calculates the aggregate TPS from the current stats.
      * @return The current aggregate TPS
@@ -912,12 +1103,15 @@ public class Metrics implements Serializable, Cloneable,
         boolean success = true;
         double avg, tavg;
         long respPct, resp99;
-        int sumtx, cntPct, cnt99;
         RunInfo runInfo = RunInfo.getInstance();
         Formatter formatter = new Formatter(buffer);
         double[] ckSD = null;
 
         Logger logger = Logger.getLogger(Metrics.class.getName());
+        if (respPctHist == null) {
+            logger.warning("Response time histogram missing for " +
+                    driverName + ", percentiles not reported.");
+        }
         Level crosscheck = Level.FINE;
         if (logger.isLoggable(crosscheck)) {
             ckSD = new double[txTypes];
@@ -1013,6 +1207,10 @@ public class Metrics implements Serializable, Cloneable,
                     append("</successes>\n");
             space(16, buffer).append("<failures>").append(errCntStdy[i]).
                     append("</failures>\n");
+            if (runInfo.driverConfigs[driverType].arrivalRate != null) {
+                space(16, buffer).append("<missedArrivals>").
+                        append(missedCntStdy[i]).append("</missedArrivals>\n");
+            }
             space(16, buffer);
             formatter.format("<mix>%.04f</mix>\n", result.mixRatio[i]);
             space(16, buffer);
@@ -1079,30 +1277,10 @@ public class Metrics implements Serializable, Cloneable,
                     ckSD[i] = estimateStdev(i, result.avgResp[i], precision);
                 }
 
-                int k;
                 if (driver.percentiles.length > 0) {
                     for (int j = 0; j < driver.percentiles.length; j++) {
                         double pct = driver.percentiles[j];
-                        sumtx = 0;
-                        cntPct = (int)(txCntStdy[i] * (pct / 100d));
-                        k = 0;
-                        for (; k < respHist[i].length; k++) {
-                            sumtx += respHist[i][k];
-                            if (sumtx >= cntPct)	{	/* n% of tx. got */
-                                break;
-                            }
-                        }
-                        // We report the base of the next bucket.
-                        ++k;
-                        if (k < FINE_RESPBUCKETS)
-                            respPct = k * fineRespBucketSize;
-                        else if (k < RESPBUCKETS)
-                            respPct = (k - FINE_RESPBUCKETS) *
-                                    coarseRespBucketSize + fineRespHistMax;
-                        else // Report the overflow bucket.
-                             // Ensure no mistakes due to floating point errors.
-                            respPct =
-                                  2 * coarseRespBucketSize + coarseRespHistMax;
+                        respPct = getPercentile(i, pct);
 
                         double limit = driver.operations[i].getPercentileLimits()[j];
                         String limitString = "";
@@ -1112,18 +1290,26 @@ public class Metrics implements Serializable, Cloneable,
 
                         space(16, buffer);
 
-                        String indicator;
-                        if (respPct > coarseRespHistMax + coarseRespBucketSize){
-                            result.percentiles[i][j] =
-                                                coarseRespHistMax / precision;
-                            indicator = "&gt; ";
-                        } else {
-                            result.percentiles[i][j] = respPct / precision;
-                            indicator = "";
-                        }
                         String pctSuffix = driver.pctSuffix[j];
                         if (pctSuffix == null)
                             pctSuffix = getSuffix(driver.pctString[j]);
+                        if (respPct < 0l) {
+                            // Unknown, fails any limit.
+                            formatter.format("<percentile nth=\"%s\" " +
+                                    "suffix=\"%s\"%s/>\n",
+                                    driver.pctString[j], pctSuffix,
+                                    limitString);
+                            if (limit > 0d) {
+                                passPct = false;
+                                success = false;
+                            }
+                            continue;
+                        }
+                        String indicator = "";
+                        if (LogLinearHistogram.isOverflow(respPct)) {
+                            indicator = "&gt; ";
+                        }
+                        result.percentiles[i][j] = respPct / precision;
                         formatter.format("<percentile nth=\"%s\" " +
                                 "suffix=\"%s\"%s>%s%5.3f</percentile>\n",
                                 driver.pctString[j], pctSuffix, limitString,
@@ -1137,32 +1323,19 @@ public class Metrics implements Serializable, Cloneable,
                             }
                         }
                     }
+                    printTailPercentiles(buffer, formatter, i,
+                                         driver.percentiles, precision);
                     space(16, buffer).append("<passed>").append(passPct).
                             append("</passed>\n");
                 } else {
-                    sumtx = 0;
-                    cntPct = (int)(txCntStdy[i] * .90d);
-                    k = 0;
-                    for (; k < respHist[i].length; k++) {
-                        sumtx += respHist[i][k];
-                        if (sumtx >= cntPct)	{	/* 90% of tx. got */
-                            break;
-                        }
-                    }
-                    // We report the base of the next bucket.
-                    ++k;
-                    if (k < FINE_RESPBUCKETS)
-                        respPct = k * fineRespBucketSize;
-                    else if (k < RESPBUCKETS)
-                        respPct = (k - FINE_RESPBUCKETS) *
-                                coarseRespBucketSize + fineRespHistMax;
-                    else // Report the overflow bucket.
-                         // Ensure no mistakes due to floating point errors.
-                        respPct = 2 * coarseRespBucketSize + coarseRespHistMax;
+                    respPct = getPercentile(i, 90d);
 
                     space(16, buffer);
-                    if (respPct > coarseRespHistMax + coarseRespBucketSize) {
-                        result.p90Resp[i] = coarseRespHistMax / precision;
+                    if (respPct < 0l) {
+                        // Unknown, fails the limit.
+                        buffer.append("<p90th/>\n");
+                    } else if (LogLinearHistogram.isOverflow(respPct)) {
+                        result.p90Resp[i] = respPct / precision;
                         formatter.format("<p90th>&gt; %5.3f</p90th>\n",
                                          result.p90Resp[i]);
                     } else {
@@ -1170,7 +1343,7 @@ public class Metrics implements Serializable, Cloneable,
                         formatter.format("<p90th>%5.3f</p90th>\n",
                                          result.p90Resp[i]);
                     }
-                    if (respPct > max90nanos) {
+                    if (respPct < 0l || respPct > max90nanos) {
                         passPct = false;
                         success = false;
                     }
@@ -1178,34 +1351,20 @@ public class Metrics implements Serializable, Cloneable,
                             append("</passed>\n");
 
                     // 99th% hack for Berkeley.
-                    sumtx = 0;
-                    cnt99 = (int)(txCntStdy[i] * .99d);
-                    k = 0;
-                    for (; k < respHist[i].length; k++) {
-                        sumtx += respHist[i][k];
-                        if (sumtx >= cnt99)	{	/* 90% of tx. got */
-                            break;
-                        }
-                    }
-                    // We report the base of the next bucket.
-                    ++k;
-                    if (k < FINE_RESPBUCKETS)
-                        resp99 = k * fineRespBucketSize;
-                    else if (k < RESPBUCKETS)
-                        resp99 = (k - FINE_RESPBUCKETS) * coarseRespBucketSize +
-                                fineRespHistMax;
-                    else // Report the overflow bucket
-                    // Ensure no mistakes due to floating point errors.
-                        resp99 = 2 * coarseRespBucketSize + coarseRespHistMax;
+                    resp99 = getPercentile(i, 99d);
 
                     space(16, buffer);
-                    if (resp99 > coarseRespHistMax + coarseRespBucketSize)
+                    if (resp99 < 0l)
+                        buffer.append("<p99th/>\n");
+                    else if (LogLinearHistogram.isOverflow(resp99))
                         formatter.format("<p99th>&gt; %5.3f</p99th>\n",
-                                coarseRespHistMax / precision);
+                                resp99 / precision);
                     else
                         formatter.format("<p99th>%5.3f</p99th>\n",
                                 resp99 / precision);
                     // end hack.
+                    printTailPercentiles(buffer, formatter, i,
+                                         new double[] { 99d }, precision);
                 }
             } else {
                 space(16, buffer).append("<avg/>\n");
@@ -1262,6 +1421,9 @@ public class Metrics implements Serializable, Cloneable,
                 space(16, buffer);
                 formatter.format("<actualAvg>%.3f</actualAvg>\n", avg);
                 space(16, buffer);
+                formatter.format("<avgError>%.6f</avgError>\n",
+                        delayErrorSum[i] / (delayCntStdy[i] * 1e9d));
+                space(16, buffer);
                 formatter.format("<min>%.3f</min>\n", delayMin[i]/1e9d);
                 space(16, buffer);
                 formatter.format("<max>%.3f</max>\n", delayMax[i]/1e9d);
@@ -1283,6 +1445,7 @@ public class Metrics implements Serializable, Cloneable,
             } else {
                 space(16, buffer).append("<targetedAvg/>\n");
                 space(16, buffer).append("<actualAvg/>\n");
+                space(16, buffer).append("<avgError/>\n");
                 space(16, buffer).append("<min/>\n");
                 space(16, buffer).append("<max/>\n");
                 space(16, buffer).append("<passed/>\n");
@@ -1405,6 +1568,55 @@ public class Metrics implements Serializable, Cloneable,
         return success;
     }
 
+    /**
+     * Obtains a response time percentile of an operation from the
+     * log-linear response time histogram.
+     * @param type The operation type
+     * @param pct The percentile
+     * @return The response time percentile, in ns, or -1 if unknown
+     */
+    long getPercentile(int type, double pct) {
+        if (respPctHist == null) {
+            return -1l;
+        }
+        return LogLinearHistogram.percentile(respPctHist[type],
+                txCntStdy[type], pct, respMax[type]);
+    }
+
+    /**
+     * Prints the tail percentiles not already reported for an operation.
+     * @param buffer The buffer for outputting the summary
+     * @param formatter The formatter on the buffer
+     * @param type The operation type
+     * @param reported The percentiles already reported
+     * @param precision The time unit precision being used
+     */
+    private void printTailPercentiles(StringBuilder buffer,
+            Formatter formatter, int type, double[] reported,
+            double precision) {
+        tailLoop:
+        for (String pctString : TAIL_PERCENTILES) {
+            double pct = Double.parseDouble(pctString);
+            for (double r : reported) {
+                if (r == pct) {
+                    continue tailLoop;
+                }
+            }
+            long respPct = getPercentile(type, pct);
+            if (respPct < 0l) {
+                continue;
+            }
+            String indicator = "";
+            if (LogLinearHistogram.isOverflow(respPct)) {
+                indicator = "&gt; ";
+            }
+            space(16, buffer);
+            formatter.format("<percentile nth=\"%s\" suffix=\"%s\">" +
+                    "%s%5.3f</percentile>\n", pctString, getSuffix(pctString),
+                    indicator, respPct / precision);
+        }
+    }
+
     private String getSuffix(String pct) {
         String suffix;
         // When we have decimals, suffix is th
@@ -233,6 +233,29 @@ public abstract class Mix implements Serializable, Cloneable {
          */
         public abstract int select();
 
+        /**
+         * Finds the first entry in a cumulative mix that is greater than
+         * or equal to the given value, using a binary search. This selects
+         * the same entry as a linear scan from the start.
+         * @param cumulativeMix The cumulative mix, in ascending order
+         * @param val The random value
+         * @return The entry index, or the mix length if val is greater
+         *         than all entries
+         */
+        static int search(double[] cumulativeMix, double val) {
+            int low = 0;
+            int high = cumulativeMix.length;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (val <= cumulativeMix[mid]) {
+                    high = mid;
+                } else {
+                    low = mid + 1;
+                }
+            }
+            return low;
+        }
+
         /**
          * Resets the selector's state to start at the first op,
          * if applicable.
@@ -16,6 +16,7 @@ public class Operation implements Serializable, Cloneable {
 	private final boolean countToMetric;
 	private Cycle cycle;
 	private transient Method method;
+	private transient OperationInvoker invoker;
 
     public Operation(String name, double[] percentileLimits, double max90th, Timing timing, boolean countToMetric)
     {
@@ -75,9 +76,21 @@ public class Operation implements Serializable, Cloneable {
         return method;
     }
 
+    /**
+     * Sets the operation method and binds the invoker used by the driver
+     * threads to call it.
+     *
+     * @param method The operation method
+     */
     public void setMethod(Method method)
     {
         this.method = method;
+        this.invoker = method == null ? null : OperationInvoker.getInstance(method);
+    }
+
+    public OperationInvoker getInvoker()
+    {
+        return invoker;
     }
 
     /**
@@ -95,7 +108,8 @@ public class Operation implements Serializable, Cloneable {
 	public Object clone() throws CloneNotSupportedException {
         Operation op = new Operation(name, percentileLimits, max90th, timing, countToMetric);
         op.setCycle(cycle);
-        op.setMethod(method);
+        op.method = method;
+        op.invoker = invoker;
         return op;
     }
 }
\ No newline at end of file
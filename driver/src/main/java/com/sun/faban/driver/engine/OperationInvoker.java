@@ -0,0 +1,333 @@
+/* The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://www.sun.com/cddl/cddl.html or
+ * install_dir/legal/LICENSE
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at install_dir/legal/LICENSE.
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ *
+ * $Id$
+ *
+ * Copyright 2005-2009 Sun Microsystems Inc. All Rights Reserved
+ */
+package com.sun.faban.driver.engine;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * An OperationInvoker calls a benchmark operation on a driver instance.
+ * Invokers are bound to the operation method once, when the operation is
+ * resolved, so the driver loop does not go through Method.invoke for
+ * every operation. For public, no-arg operations on public driver classes
+ * a tiny invoker class calling the method directly is generated. All other
+ * methods use a reflective invoker.<p>
+ * Both kinds of invokers report exceptions thrown by the operation wrapped
+ * in an InvocationTargetException, just like Method.invoke does.
+ */
+public abstract class OperationInvoker {
+
+    private static final Logger logger = Logger.getLogger(OperationInvoker.class.getName());
+
+    private static final AtomicInteger generatedCount = new AtomicInteger();
+
+    /**
+     * Constructs an invoker. This needs to be accessible to the
+     * generated subclasses living in their own class loaders.
+     */
+    protected OperationInvoker() {
+    }
+
+    /**
+     * Invokes the operation on the given driver instance.
+     * @param driver The driver instance
+     * @throws InvocationTargetException The operation threw an exception
+     * @throws IllegalAccessException The operation is not accessible
+     */
+    public abstract void invoke(Object driver) throws InvocationTargetException, IllegalAccessException;
+
+    /**
+     * Obtains an invoker for the given operation method. A generated
+     * invoker is returned whenever possible, otherwise the method is
+     * called reflectively.
+     * @param method The operation method
+     * @return The invoker for this method
+     */
+    public static OperationInvoker getInstance(Method method) {
+        if (isGeneratable(method)) {
+            try {
+                return generate(method);
+            }
+            catch (Throwable t) {
+                // Linkage problems with exotic class loaders, for instance.
+                // We just fall back to reflection in these cases.
+                logger.log(Level.FINE, "Cannot generate invoker for " + method.toGenericString() + ", using reflection.", t);
+            }
+        }
+        return new Reflective(method);
+    }
+
+    private static boolean isGeneratable(Method method) {
+        Class<?> declaringClass = method.getDeclaringClass();
+        return Modifier.isPublic(method.getModifiers()) &&
+               !Modifier.isStatic(method.getModifiers()) &&
+               method.getParameterTypes().length == 0 &&
+               Modifier.isPublic(declaringClass.getModifiers()) &&
+               !declaringClass.isInterface() &&
+               declaringClass.getClassLoader() != null;
+    }
+
+    private static OperationInvoker generate(Method method) throws Exception {
+        Class<?> declaringClass = method.getDeclaringClass();
+        String className = OperationInvoker.class.getName() + "$Generated" + generatedCount.incrementAndGet();
+        byte[] classBytes = generateClass(className.replace('.', '/'), method);
+        InvokerClassLoader loader = new InvokerClassLoader(declaringClass.getClassLoader());
+        Class<?> invokerClass = loader.define(className, classBytes);
+        return invokerClass.asSubclass(OperationInvoker.class).newInstance();
+    }
+
+    /**
+     * Generates the class file for an invoker. The generated class is
+     * equivalent to:<pre>
+     * public final class ... extends OperationInvoker {
+     *     public void invoke(Object driver) throws InvocationTargetException {
+     *         try {
+     *             ((DriverClass) driver).operation();
+     *         }
+     *         catch (Throwable t) {
+     *             throw new InvocationTargetException(t);
+     *         }
+     *     }
+     * }</pre>
+     * The class file version is 49 so the class does not need stack maps.
+     * @param internalName The internal name of the class to generate
+     * @param method The method to invoke
+     * @return The class file bytes
+     * @throws IOException Should never happen writing to a byte array
+     */
+    static byte[] generateClass(String internalName, Method method) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(512);
+        DataOutputStream out = new DataOutputStream(bytes);
+
+        Class<?> returnType = method.getReturnType();
+        String superName = OperationInvoker.class.getName().replace('.', '/');
+        String targetName = method.getDeclaringClass().getName().replace('.', '/');
+        String exceptionName = InvocationTargetException.class.getName().replace('.', '/');
+
+        out.writeInt(0xCAFEBABE);
+        out.writeShort(0);  // minor version
+        out.writeShort(49); // major version
+
+        // Constant pool, the comments show the entry index.
+        out.writeShort(23); // Pool count, one more than the entries.
+        writeUtf8(out, internalName);                   // 1
+        writeRef(out, 7, 1);                            // 2 this class
+        writeUtf8(out, superName);                      // 3
+        writeRef(out, 7, 3);                            // 4 super class
+        writeUtf8(out, "<init>");                       // 5
+        writeUtf8(out, "()V");                          // 6
+        writeRef(out, 12, 5, 6);                        // 7 <init>()V
+        writeRef(out, 10, 4, 7);                        // 8 super.<init>
+        writeUtf8(out, "invoke");                       // 9
+        writeUtf8(out, "(Ljava/lang/Object;)V");        // 10
+        writeUtf8(out, "Code");                         // 11
+        writeUtf8(out, targetName);                     // 12
+        writeRef(out, 7, 12);                           // 13 driver class
+        writeUtf8(out, method.getName());               // 14
+        writeUtf8(out, "()" + descriptor(returnType));  // 15
+        writeRef(out, 12, 14, 15);                      // 16 operation
+        writeRef(out, 10, 13, 16);                      // 17 driver.operation
+        writeUtf8(out, exceptionName);                  // 18
+        writeRef(out, 7, 18);                           // 19 exception class
+        writeUtf8(out, "(Ljava/lang/Throwable;)V");     // 20
+        writeRef(out, 12, 5, 20);                       // 21 <init>(Throwable)
+        writeRef(out, 10, 19, 21);                      // 22 exception.<init>
+
+        out.writeShort(0x0031); // ACC_PUBLIC | ACC_FINAL | ACC_SUPER
+        out.writeShort(2);      // this class
+        out.writeShort(4);      // super class
+        out.writeShort(0);      // interfaces
+        out.writeShort(0);      // fields
+        out.writeShort(2);      // methods
+
+        // The constructor, just calls super().
+        byte[] code = {
+            0x2a,                         // aload_0
+            (byte) 0xb7, 0, 8,            // invokespecial super.<init>
+            (byte) 0xb1                   // return
+        };
+        writeMethod(out, 5, 6, 1, 1, code, null);
+
+        // The invoke method.
+        int popSize = 0;
+        byte pop = 0;
+        if (returnType == long.class || returnType == double.class) {
+            popSize = 1;
+            pop = 0x58;                   // pop2
+        }
+        else if (returnType != void.class) {
+            popSize = 1;
+            pop = 0x57;                   // pop
+        }
+        ByteArrayOutputStream codeBytes = new ByteArrayOutputStream(32);
+        codeBytes.write(0x2b);            // aload_1
+        codeBytes.write(0xc0);            // checkcast driver class
+        codeBytes.write(0);
+        codeBytes.write(13);
+        codeBytes.write(0xb6);            // invokevirtual driver.operation
+        codeBytes.write(0);
+        codeBytes.write(17);
+        if (popSize > 0) {
+            codeBytes.write(pop);
+        }
+        int tryEnd = codeBytes.size();
+        codeBytes.write(0xb1);            // return
+        int handler = codeBytes.size();
+        codeBytes.write(0x4d);            // astore_2
+        codeBytes.write(0xbb);            // new InvocationTargetException
+        codeBytes.write(0);
+        codeBytes.write(19);
+        codeBytes.write(0x59);            // dup
+        codeBytes.write(0x2c);            // aload_2
+        codeBytes.write(0xb7);            // invokespecial exception.<init>
+        codeBytes.write(0);
+        codeBytes.write(22);
+        codeBytes.write(0xbf);            // athrow
+
+        // Exception table entry: start, end, handler, catch any.
+        int[] exceptionEntry = { 0, tryEnd, handler, 0 };
+        writeMethod(out, 9, 10, 3, 3, codeBytes.toByteArray(), exceptionEntry);
+
+        out.writeShort(0);      // class attributes
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private static void writeUtf8(DataOutputStream out, String s) throws IOException {
+        out.writeByte(1);
+        out.writeUTF(s);
+    }
+
+    private static void writeRef(DataOutputStream out, int tag, int... indexes) throws IOException {
+        out.writeByte(tag);
+        for (int index : indexes) {
+            out.writeShort(index);
+        }
+    }
+
+    private static void writeMethod(DataOutputStream out, int name, int descriptor, int maxStack, int maxLocals, byte[] code, int[] exceptionEntry) throws IOException {
+        int exceptionTableSize = exceptionEntry == null ? 0 : 8;
+        out.writeShort(0x0001); // ACC_PUBLIC
+        out.writeShort(name);
+        out.writeShort(descriptor);
+        out.writeShort(1);      // attributes, just Code
+        out.writeShort(11);     // "Code"
+        out.writeInt(12 + code.length + exceptionTableSize);
+        out.writeShort(maxStack);
+        out.writeShort(maxLocals);
+        out.writeInt(code.length);
+        out.write(code);
+        if (exceptionEntry == null) {
+            out.writeShort(0);
+        }
+        else {
+            out.writeShort(1);
+            for (int value : exceptionEntry) {
+                out.writeShort(value);
+            }
+        }
+        out.writeShort(0);      // Code attributes
+    }
+
+    private static String descriptor(Class<?> type) {
+        if (type.isArray()) {
+            return type.getName().replace('.', '/');
+        }
+        if (type == void.class) {
+            return "V";
+        }
+        if (type == boolean.class) {
+            return "Z";
+        }
+        if (type == byte.class) {
+            return "B";
+        }
+        if (type == char.class) {
+            return "C";
+        }
+        if (type == short.class) {
+            return "S";
+        }
+        if (type == int.class) {
+            return "I";
+        }
+        if (type == long.class) {
+            return "J";
+        }
+        if (type == float.class) {
+            return "F";
+        }
+        if (type == double.class) {
+            return "D";
+        }
+        return 'L' + type.getName().replace('.', '/') + ';';
+    }
+
+    /**
+     * The class loader for generated invokers. Each invoker gets its own
+     * loader delegating to the driver's class loader, so the invoker can
+     * see the driver class and gets collected with it.
+     */
+    private static class InvokerClassLoader extends ClassLoader {
+
+        InvokerClassLoader(ClassLoader parent) {
+            super(parent);
+        }
+
+        Class<?> define(String name, byte[] classBytes) {
+            return defineClass(name, classBytes, 0, classBytes.length);
+        }
+    }
+
+    /**
+     * The fallback invoker, calling the method through reflection.
+     */
+    static class Reflective extends OperationInvoker {
+
+        private final Method method;
+
+        Reflective(Method method) {
+            this.method = method;
+            try {
+                // Saves the access checks on each call.
+                method.setAccessible(true);
+            }
+            catch (SecurityException e) {
+                logger.log(Level.FINE, "Cannot suppress access checks for " + method.toGenericString(), e);
+            }
+        }
+
+        @Override
+        public void invoke(Object driver) throws InvocationTargetException, IllegalAccessException {
+            method.invoke(driver);
+        }
+    }
+}
@@ -32,6 +32,7 @@ import org.w3c.dom.Element;
 
 import javax.xml.xpath.XPath;
 import javax.xml.xpath.XPathConstants;
+import javax.xml.xpath.XPathExpressionException;
 import java.io.*;
 import java.net.MalformedURLException;
 import java.net.URL;
@@ -97,6 +98,9 @@ public class RunInfo implements Serializable {
      * Milliseconds between thread start.
      */
     public int msBetweenThreadStart = 200;
+
+    /** Stack size of the driver threads in KB, 0 for the JVM default. */
+    public int threadStackSize = 0;
   
     /** The benchmark start time, relative to the timer. */
     public int benchStartTime = Integer.MAX_VALUE;
@@ -116,6 +120,15 @@ public class RunInfo implements Serializable {
     /** Interval for runtime stats. */
     public int runtimeStatsInterval = 10;
 
+    /** HTTP port serving the runtime stats, 0 for none. */
+    public int runtimeStatsPort = 0;
+
+    /**
+     * Seed for the driver threads' random generators, 0 for a different
+     * seed each run. Each thread derives its own seed from it.
+     */
+    public long randomSeed = 0l;
+
     /** The current driver config object. */
     public DriverConfig driverConfig;
 
@@ -323,6 +336,9 @@ public class RunInfo implements Serializable {
         /** Driver level variable load file. */
         public String variableLoadFile;
 
+        /** The target arrival rate for open-loop runs, or null. */
+        public ArrivalRate arrivalRate;
+
         /** Property element of the configuration DOM tree. */
         public Element properties;
 
@@ -1087,6 +1103,11 @@ public class RunInfo implements Serializable {
                 }
 			}
 
+            v = xp.evaluate("fd:threadStart/fd:stackSize", runConfigNode);
+            if (v != null && v.length() > 0) {
+				runInfo.threadStackSize = parseStackSize(v);
+			}
+
             v = xp.evaluate("fd:threadStart/fd:simultaneous", runConfigNode);
             if (v != null && v.length() > 0) {
 				try {
@@ -1147,6 +1168,30 @@ public class RunInfo implements Serializable {
                 }
 			}
 
+            v = xp.evaluate("fd:runtimeStats/fd:httpPort", runConfigNode);
+            if (v != null && v.length() > 0) {
+                try {
+                    runInfo.runtimeStatsPort = Integer.parseInt(v.trim());
+                } catch (NumberFormatException e) {
+                    throw new ConfigurationException(
+                            "<httpPort> must be an integer.");
+                }
+                if (runInfo.runtimeStatsPort < 0 ||
+                        runInfo.runtimeStatsPort > 65535)
+                    throw new ConfigurationException(
+                            "<httpPort> must be between 0 and 65535.");
+            }
+
+            v = xp.evaluate("fd:randomSeed", runConfigNode);
+            if (v != null && v.length() > 0) {
+                try {
+                    runInfo.randomSeed = Long.parseLong(v.trim());
+                } catch (NumberFormatException e) {
+                    throw new ConfigurationException(
+                            "<randomSeed> must be a long integer.");
+                }
+            }
+
             runInfo.driverConfigs = new DriverConfig[benchDef.drivers.length];
             for (int i = 0; i < benchDef.drivers.length; i++) {
                 DriverConfig driverConfig =
@@ -1244,6 +1289,13 @@ public class RunInfo implements Serializable {
                 }
 
 
+                Element arrivalNode = (Element) xp.evaluate("fd:arrivalRate",
+                        driverConfigNode, XPathConstants.NODE);
+                if (arrivalNode != null) {
+                    driverConfig.arrivalRate =
+                            parseArrivalRate(arrivalNode, driverConfig);
+                }
+
                 driverConfig.rootElement = rootElement;
                 driverConfig.properties = (Element) xp.evaluate("fd:properties",
                         driverConfigNode, XPathConstants.NODE);
@@ -1302,6 +1354,99 @@ public class RunInfo implements Serializable {
             return runInfo;
         }
 
+        /**
+         * Parses the arrival rate of an open-loop driver. The rate element
+         * holds one or more rates in operations per second. Multiple rates
+         * are stepped through, each lasting stepDuration seconds.
+         * @param arrivalNode The arrivalRate element
+         * @param driverConfig The driver config
+         * @return The arrival rate
+         * @throws XPathExpressionException Error evaluating the config
+         * @throws ConfigurationException Invalid arrival rate
+         */
+        private ArrivalRate parseArrivalRate(Element arrivalNode,
+                                             DriverConfig driverConfig)
+                throws XPathExpressionException, ConfigurationException {
+            if (driverConfig.runControl != RunControl.TIME) {
+                throw new ConfigurationException("<arrivalRate> requires " +
+                        "a time controlled run.");
+            }
+            if (driverConfig.mix[1] != null) {
+                throw new ConfigurationException("<arrivalRate> is not " +
+                        "supported for drivers with a background mix.");
+            }
+
+            boolean poisson;
+            String v = arrivalNode.getAttribute("distribution").trim();
+            if (v.length() == 0 || "constant".equalsIgnoreCase(v)) {
+                poisson = false;
+            } else if ("poisson".equalsIgnoreCase(v)) {
+                poisson = true;
+            } else {
+                throw new ConfigurationException("<arrivalRate " +
+                        "distribution=[constant|poisson]>");
+            }
+
+            StringTokenizer t = new StringTokenizer(
+                    xp.evaluate("fd:rate", arrivalNode), " ,");
+            double[] rates = new double[t.countTokens()];
+            if (rates.length == 0) {
+                throw new ConfigurationException("Element <rate> not " +
+                        "found in <arrivalRate>.");
+            }
+            for (int i = 0; i < rates.length; i++) {
+                try {
+                    rates[i] = Double.parseDouble(t.nextToken());
+                } catch (NumberFormatException e) {
+                    throw new ConfigurationException(
+                            "<rate> must be a list of numbers.");
+                }
+                if (rates[i] < 0d || Double.isNaN(rates[i]) ||
+                        Double.isInfinite(rates[i])) {
+                    throw new ConfigurationException(
+                            "<rate> must not be negative.");
+                }
+            }
+
+            int stepDuration = 0;
+            v = xp.evaluate("fd:stepDuration", arrivalNode);
+            if (v != null && v.length() > 0) {
+                try {
+                    stepDuration = Integer.parseInt(v.trim());
+                } catch (NumberFormatException e) {
+                    throw new ConfigurationException(
+                            "<stepDuration> must be an integer.");
+                }
+            }
+            if (rates.length > 1 && stepDuration <= 0) {
+                throw new ConfigurationException("<stepDuration> must be " +
+                        "positive for stepped arrival rates.");
+            }
+            return new ArrivalRate(poisson, rates, stepDuration);
+        }
+
+        /**
+         * Parses the driver thread stack size.
+         * @param str The stack size in KB
+         * @return The stack size
+         * @throws ConfigurationException If the size is not a
+         *         non-negative integer
+         */
+        static int parseStackSize(String str) throws ConfigurationException {
+            int size;
+            try {
+                size = Integer.parseInt(str.trim());
+            } catch (NumberFormatException e) {
+                throw new ConfigurationException(
+                        "<stackSize> must be an integer.");
+            }
+            if (size < 0) {
+                throw new ConfigurationException(
+                        "<stackSize> must not be negative.");
+            }
+            return size;
+        }
+
         static boolean relaxedParseBoolean(String str) {
             String newStr = str.toLowerCase();
             boolean retVal;
@@ -24,6 +24,10 @@
 package com.sun.faban.driver.engine;
 
 import com.sun.faban.driver.util.PairwiseAggregator;
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.util.Formatter;
 import java.util.logging.Level;
@@ -38,7 +42,7 @@ import java.util.logging.Logger;
 public class RuntimeMetrics implements Serializable, 
         PairwiseAggregator.Aggregable<RuntimeMetrics> {
 
-    private static final long serialVersionUID = 33009l;
+    private static final long serialVersionUID = 33010l;
 
     /** Index for current thruput label. */
     public static final int C_THRUPUT = 0;
@@ -137,7 +141,37 @@ public class RuntimeMetrics implements Serializable,
     protected double[] sumSquaresTotal;
 
     /** Response time histogram. */
-    protected int[][] respHist;
+    protected transient int[][] respHist;
+
+    /**
+     * Writes the histogram in the compact array format after the other
+     * fields.
+     * @param out The object output
+     * @throws IOException Error writing
+     * @see ArrayCodec
+     */
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        out.defaultWriteObject();
+        out.writeByte(Metrics.FORMAT_VERSION);
+        ArrayCodec.writeSparse(out, respHist);
+    }
+
+    /**
+     * Reads the runtime metrics written by writeObject.
+     * @param in The object input
+     * @throws IOException Error reading or unsupported format
+     * @throws ClassNotFoundException Class of a field not found
+     */
+    private void readObject(ObjectInputStream in)
+            throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        int version = in.readUnsignedByte();
+        if (version != Metrics.FORMAT_VERSION) {
+            throw new InvalidObjectException(
+                    "Unsupported RuntimeMetrics format version " + version);
+        }
+        respHist = ArrayCodec.readSparse(in);
+    }
 
     /**
      * Only classes in this package can instantiate the RuntimeMetrics.
@@ -170,48 +204,38 @@ public class RuntimeMetrics implements Serializable,
             respHist = new int[txTypes][m.respHist[0].length];
         }
 
-        for (int i = 0; i < txTypes; i++) {
-            // Add the sum squares before adding the count and response sum.
-            // The values of count and sum have to be unchanged at this point.
-            sumSquaresStdy[i] = m.sumSquaresStdy[i];
-            sumSquaresTotal[i] = m.sumSquaresTotal[i];
-            txCntStdy[i] = m.txCntStdy[i];
-            txCntTotal[i] = m.txCntTotal[i];
-            errCntStdy[i] = m.errCntStdy[i];
-            errCntTotal[i] = m.errCntTotal[i];
-            respSumStdy[i] = m.respSumStdy[i];
-            respSumTotal[i] = m.respSumTotal[i];
-            hiRespSumStdy[i] = m.hiRespSumStdy[i];
-            for (int j = 0; j < m.respHist[i].length; j++)
-                respHist[i][j] = m.respHist[i][j];
+        // The driver thread keeps updating m. Repeat until we got a
+        // consistent copy.
+        int seq = m.beginSnapshot();
+        for (;;) {
+            for (int i = 0; i < txTypes; i++) {
+                sumSquaresStdy[i] = m.sumSquaresStdy[i];
+                sumSquaresTotal[i] = m.sumSquaresTotal[i];
+                txCntStdy[i] = m.txCntStdy[i];
+                txCntTotal[i] = m.txCntTotal[i];
+                errCntStdy[i] = m.errCntStdy[i];
+                errCntTotal[i] = m.errCntTotal[i];
+                respSumStdy[i] = m.respSumStdy[i];
+                respSumTotal[i] = m.respSumTotal[i];
+                hiRespSumStdy[i] = m.hiRespSumStdy[i];
+                System.arraycopy(m.respHist[i], 0, respHist[i], 0,
+                                 respHist[i].length);
+            }
+            if (m.validateSnapshot(seq))
+                break;
+            seq = m.beginSnapshot();
         }
     }
 
     /**
-     * Adds a metrics to this RuntimeMetrics.
+     * Adds a metrics to this RuntimeMetrics, using a consistent copy
+     * of the metrics.
      * @param m The metrics to add
      */
     public void add(Metrics m) {
-
-        for (int i = 0; i < txTypes; i++) {
-            // Add the sum squares before adding the count and response sum.
-            // The values of count and sum have to be unchanged at this point.
-            sumSquaresStdy[i] = Metrics.addSumSquare(
-                    sumSquaresStdy[i], txCntStdy[i], respSumStdy[i],
-                    m.sumSquaresStdy[i], m.txCntStdy[i], m.respSumStdy[i]);
-            sumSquaresTotal[i] = Metrics.addSumSquare(
-                    sumSquaresTotal[i], txCntTotal[i], respSumTotal[i],
-                    m.sumSquaresTotal[i], m.txCntTotal[i], m.respSumTotal[i]);
-            txCntStdy[i] += m.txCntStdy[i];
-            txCntTotal[i] += m.txCntTotal[i];
-            errCntStdy[i] += m.errCntStdy[i];
-            errCntTotal[i] += m.errCntTotal[i];
-            respSumStdy[i] += m.respSumStdy[i];
-            respSumTotal[i] += m.respSumTotal[i];
-            hiRespSumStdy[i] += m.hiRespSumStdy[i];
-            for (int j = 0; j < m.respHist[i].length; j++)
-                respHist[i][j] += m.respHist[i][j];
-        }
+        RuntimeMetrics snapshot = new RuntimeMetrics();
+        snapshot.copy(m);
+        add(snapshot);
     }
 
     /**
@@ -0,0 +1,306 @@
+/* The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://www.sun.com/cddl/cddl.html or
+ * install_dir/legal/LICENSE
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at install_dir/legal/LICENSE.
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ *
+ * $Id$
+ *
+ * Copyright 2005-2009 Sun Microsystems Inc. All Rights Reserved
+ */
+package com.sun.faban.driver.engine;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Exports the runtime stats computed by the master in structured form,
+ * so long runs can be watched live without scraping the log. Each interval
+ * is appended to a CSV time-series file in the run output directory, one
+ * row per driver and operation. Optionally, the latest interval of each
+ * driver is served over HTTP in the Prometheus text exposition format.<p>
+ * The columns and metrics follow RuntimeMetrics.LABELS. Response times
+ * are in the response time unit of the driver. Values not available for
+ * an interval are left empty in the CSV file and not exposed over HTTP.
+ */
+class RuntimeStatsExporter {
+
+    /** The name of the time-series file in the run output directory. */
+    static final String FILE_NAME = "runtimestats.csv";
+
+    /** The HTTP path serving the metrics. */
+    static final String HTTP_PATH = "/metrics";
+
+    /** The Prometheus metric names, by RuntimeMetrics label index. */
+    static final String[] METRIC_NAMES = {
+        "faban_throughput_current", "faban_throughput_overall",
+        "faban_error_rate_current", "faban_response_time_mean_current",
+        "faban_response_time_mean_overall", "faban_response_time_sd_current",
+        "faban_response_time_sd_overall", "faban_response_time_p90_current",
+        "faban_response_time_p90_overall"
+    };
+
+    private static final String[] METRIC_HELP = {
+        "Operations per second in the last interval.",
+        "Operations per second over steady state.",
+        "Errors per second in the last interval.",
+        "Mean response time in the last interval.",
+        "Mean response time over steady state.",
+        "Response time standard deviation in the last interval.",
+        "Response time standard deviation over steady state.",
+        "90th percentile response time in the last interval.",
+        "90th percentile response time over steady state."
+    };
+
+    private static Logger logger =
+            Logger.getLogger(RuntimeStatsExporter.class.getName());
+
+    private BufferedWriter writer;
+    private HttpServer server;
+
+    /** The latest interval of each driver, in the order first seen. */
+    private final Map<String, Interval> latest =
+            new LinkedHashMap<String, Interval>();
+
+    /**
+     * Creates the exporter, opening the time-series file and starting the
+     * HTTP endpoint if requested. Failures are logged, the run continues
+     * without the failed sink.
+     * @param outputDir The run output directory
+     * @param httpPort The HTTP port, or 0 for no HTTP endpoint
+     */
+    RuntimeStatsExporter(String outputDir, int httpPort) {
+        File file = new File(outputDir, FILE_NAME);
+        try {
+            writer = new BufferedWriter(new FileWriter(file, true));
+            if (file.length() == 0) {
+                writer.write("time,driver,operation");
+                for (String label : RuntimeMetrics.LABELS) {
+                    writer.write(',');
+                    writer.write(label);
+                }
+                writer.newLine();
+                writer.flush();
+            }
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Cannot write runtime stats to " +
+                    file + '.', e);
+            closeWriter();
+        }
+        if (httpPort > 0) {
+            try {
+                server = HttpServer.create(new InetSocketAddress(httpPort), 0);
+                server.createContext(HTTP_PATH, new HttpHandler() {
+                    public void handle(HttpExchange exchange)
+                            throws IOException {
+                        serve(exchange);
+                    }
+                });
+                server.start();
+                logger.info("Runtime stats available on port " +
+                        getPort() + " at " + HTTP_PATH + '.');
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "Cannot serve runtime stats on " +
+                        "port " + httpPort + '.', e);
+                server = null;
+            }
+        }
+    }
+
+    /**
+     * Obtains the port the HTTP endpoint is bound to.
+     * @return The port, or -1 if there is no HTTP endpoint
+     */
+    int getPort() {
+        if (server == null)
+            return -1;
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * Exports the results of one runtime stats interval.
+     * @param timestamp The time from the start of rampup, in ms
+     * @param driver The driver name
+     * @param operations The operation names
+     * @param results The results from RuntimeMetrics.getResults
+     */
+    void export(int timestamp, String driver, String[] operations,
+                double[][] results) {
+        synchronized (latest) {
+            latest.put(driver, new Interval(timestamp, operations, results));
+        }
+        if (writer == null)
+            return;
+        try {
+            StringBuilder b = new StringBuilder();
+            for (int j = 0; j < operations.length; j++) {
+                b.setLength(0);
+                b.append(timestamp / 1000d).append(',');
+                appendCsv(b, driver);
+                b.append(',');
+                appendCsv(b, operations[j]);
+                for (int i = 0; i < results.length; i++) {
+                    b.append(',');
+                    if (!Double.isNaN(results[i][j]))
+                        b.append(results[i][j]);
+                }
+                writer.write(b.toString());
+                writer.newLine();
+            }
+            // Make each interval visible to readers as it completes.
+            writer.flush();
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Error writing runtime stats. " +
+                    "Time-series file disabled.", e);
+            closeWriter();
+        }
+    }
+
+    /**
+     * Formats the latest interval of each driver in the Prometheus text
+     * exposition format.
+     * @return The formatted metrics
+     */
+    String format() {
+        StringBuilder b = new StringBuilder();
+        synchronized (latest) {
+            b.append("# HELP faban_runtime_timestamp_seconds ").
+                    append("Time of the latest interval from start of ").
+                    append("rampup.\n");
+            b.append("# TYPE faban_runtime_timestamp_seconds gauge\n");
+            for (Map.Entry<String, Interval> entry : latest.entrySet()) {
+                b.append("faban_runtime_timestamp_seconds{driver=\"");
+                appendLabel(b, entry.getKey());
+                b.append("\"} ").append(entry.getValue().timestamp / 1000d).
+                        append('\n');
+            }
+            for (int i = 0; i < METRIC_NAMES.length; i++) {
+                b.append("# HELP ").append(METRIC_NAMES[i]).append(' ').
+                        append(METRIC_HELP[i]).append('\n');
+                b.append("# TYPE ").append(METRIC_NAMES[i]).
+                        append(" gauge\n");
+                for (Map.Entry<String, Interval> entry : latest.entrySet()) {
+                    Interval interval = entry.getValue();
+                    if (i >= interval.results.length)
+                        continue;
+                    for (int j = 0; j < interval.operations.length; j++) {
+                        double value = interval.results[i][j];
+                        if (Double.isNaN(value))
+                            continue;
+                        b.append(METRIC_NAMES[i]).append("{driver=\"");
+                        appendLabel(b, entry.getKey());
+                        b.append("\",operation=\"");
+                        appendLabel(b, interval.operations[j]);
+                        b.append("\"} ").append(value).append('\n');
+                    }
+                }
+            }
+        }
+        return b.toString();
+    }
+
+    /**
+     * Closes the time-series file and stops the HTTP endpoint.
+     */
+    void close() {
+        closeWriter();
+        if (server != null) {
+            server.stop(0);
+            server = null;
+        }
+    }
+
+    private void serve(HttpExchange exchange) throws IOException {
+        try {
+            byte[] body = format().getBytes("UTF-8");
+            exchange.getResponseHeaders().set("Content-Type",
+                    "text/plain; version=0.0.4; charset=utf-8");
+            exchange.sendResponseHeaders(200, body.length);
+            OutputStream out = exchange.getResponseBody();
+            out.write(body);
+            out.close();
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void closeWriter() {
+        if (writer != null) {
+            try {
+                writer.close();
+            } catch (IOException e) {
+                logger.log(Level.FINE, "Error closing runtime stats file.", e);
+            }
+            writer = null;
+        }
+    }
+
+    private static void appendCsv(StringBuilder b, String value) {
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 &&
+                value.indexOf('\n') < 0) {
+            b.append(value);
+            return;
+        }
+        b.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"')
+                b.append('"');
+            b.append(c);
+        }
+        b.append('"');
+    }
+
+    private static void appendLabel(StringBuilder b, String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '\\' : b.append("\\\\"); break;
+                case '"'  : b.append("\\\""); break;
+                case '\n' : b.append("\\n"); break;
+                default   : b.append(c);
+            }
+        }
+    }
+
+    /**
+     * The results of one interval of a driver.
+     */
+    private static class Interval {
+
+        final int timestamp;
+        final String[] operations;
+        final double[][] results;
+
+        Interval(int timestamp, String[] operations, double[][] results) {
+            this.timestamp = timestamp;
+            this.operations = operations;
+            this.results = results;
+        }
+    }
+}
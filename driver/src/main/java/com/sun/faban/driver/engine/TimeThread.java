@@ -109,7 +109,9 @@ public class TimeThread extends AgentThread {
 
             if (runInfo.variableLoad) {
                 if (id >= agent.runningThreads) {
-                    logger.log(Level.FINE, String.format("Current load level: (%d) Thread %d sleeping.", agent.runningThreads, id));
+                    if (logger.isLoggable(Level.FINE)) {
+                        logger.fine(String.format("Current load level: (%d) Thread %d sleeping.", agent.runningThreads, id));
+                    }
                     timer.wakeupAt(agent.loadSwitchTime);
                     // Reset ops and don't record first cycle
                     currentOperation = -1;
@@ -150,21 +152,27 @@ public class TimeThread extends AgentThread {
                 break driverLoop;
             }
 
-            logger.finest(String.format("%s: Invoking %s at time %d. Ramp down ends at time %d.", name, op.getName(), invokeTime, endRampDown));
+            // Only build trace messages if they get logged. Formatting
+            // them for every operation creates garbage on the hot path.
+            boolean trace = logger.isLoggable(Level.FINEST);
+            if (trace) {
+                logger.finest(String.format("%s: Invoking %s at time %d. Ramp down ends at time %d.", name, op.getName(), invokeTime, endRampDown));
+            }
+            trace = trace && id == 0;
 
             driverContext.setInvokeTime(invokeTime);
 
             // Invoke the operation
             try {
-                if (id == 0) {
+                if (trace) {
                     logger.finest(String.format("Invoking %s at %d", op.getName(), System.nanoTime()));
                 }
-                op.getMethod().invoke(driver);
-                if (id == 0) {
+                op.getInvoker().invoke(driver);
+                if (trace) {
                     logger.finest(String.format("Returned from %s (OK) at %d", op.getName(), System.nanoTime()));
                 }
                 validateTimeCompletion(op);
-                if (id == 0) {
+                if (trace) {
                     TimingInfo t = driverContext.timingInfo;
                     logger.finest(String.format("Invoke: %d, Respond: %d, Pause: %d", t.getInvokeTime(), t.getRespondTime(), t.getPauseTime()));
                 }
@@ -173,7 +181,7 @@ public class TimeThread extends AgentThread {
                 metrics.recordDelayTime();
             }
             catch (InvocationTargetException e) {
-                if (id == 0) {
+                if (trace) {
                     logger.finest(String.format("Returned from %s (Err) at %d", op.getName(), System.nanoTime()));
                 }
                 // An invocation target exception is caused by another
@@ -230,7 +238,7 @@ public class TimeThread extends AgentThread {
                 }
             }
             catch (IllegalAccessException e) {
-                logger.log(Level.SEVERE, String.format("%s.%s: %d", name, op.getMethod().getName(), e.getMessage()), e);
+                logger.log(Level.SEVERE, String.format("%s.%s: %s", name, op.getMethod().getName(), e.getMessage()), e);
                 agent.abortRun();
                 return;
             }
@@ -121,7 +121,9 @@ public class TimeThreadWithBackground extends TimeThread {
         while (!stopped) {
             if (runInfo.variableLoad) {
                 if (id >= agent.runningThreads) {
-                    logger.log(Level.FINE, String.format("Current load level: (%d) Thread %d sleeping.", agent.runningThreads, id));
+                    if (logger.isLoggable(Level.FINE)) {
+                        logger.fine(String.format("Current load level: (%d) Thread %d sleeping.", agent.runningThreads, id));
+                    }
                     timer.wakeupAt(agent.loadSwitchTime);
                     // Reset ops and don't record first cycle
                     mixOperation[0] = -1;
@@ -188,7 +190,7 @@ public class TimeThreadWithBackground extends TimeThread {
 
             // Invoke the operation
             try {
-                op[mixId].getMethod().invoke(driver);
+                op[mixId].getInvoker().invoke(driver);
                 validateTimeCompletion(op[mixId]);
                 checkRamp();
                 metrics.recordTx();
@@ -210,7 +212,7 @@ public class TimeThreadWithBackground extends TimeThread {
                 // The lastRespondTime may be set, though. if so, propagate
                 // it back to respondTime.
                 if (!timingInfo.hasRespondTime() && timingInfo.hasLastRespondTime()) {
-                    logger.fine(String.format("Potential open request in operation %d.", op[mixId].getMethod().getName()));
+                    logger.fine(String.format("Potential open request in operation %s.", op[mixId].getMethod().getName()));
                     timingInfo.setRespondTime(timingInfo.getLastRespondTime());
                 }
                 // If it never waited, we'll see whether we can just use
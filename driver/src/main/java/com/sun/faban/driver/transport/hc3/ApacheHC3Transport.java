@@ -24,6 +24,11 @@
 package com.sun.faban.driver.transport.hc3;
 
 import com.sun.faban.driver.HttpTransport;
+import com.sun.faban.driver.engine.DriverContext;
+import com.sun.faban.driver.engine.TimingInfo;
+import com.sun.faban.driver.transport.util.BodySink;
+import com.sun.faban.driver.transport.util.ResponseMatcher;
+import com.sun.faban.driver.util.ContentSizeStats;
 import org.apache.commons.httpclient.*;
 import org.apache.commons.httpclient.cookie.CookiePolicy;
 import org.apache.commons.httpclient.methods.*;
@@ -35,6 +40,7 @@ import org.apache.commons.httpclient.protocol.ProtocolSocketFactory;
 
 import java.io.*;
 import java.net.URL;
+import java.nio.charset.Charset;
 import java.util.*;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -60,12 +66,29 @@ import java.util.regex.Pattern;
  * </ul>
  * Currenly, the ApacheHC3Transport class does not provide a way to keep binary
  * data for further analysis. This function can and will be added if there is a
- * use case for keeping such binary data.
+ * use case for keeping such binary data.<p>
+ *
+ * By default, each transport has its own connections, like a browser of
+ * a single user. Workloads that do not need per-user connections can
+ * share a bounded connection pool between all transports instead. Enable
+ * it by calling useSharedConnectionPool before creating the transports, or
+ * by setting the system property faban.http.sharedPool=true. The pool
+ * limits can then be set with faban.http.maxConnectionsPerHost,
+ * faban.http.maxConnections and faban.http.idleTimeout, in ms.
  *
  * @author Akara Sucharitakul
  */
 public class ApacheHC3Transport extends HttpTransport {
 
+    /** The default connections per host in the shared pool. */
+    public static final int DEFAULT_MAX_CONNECTIONS_PER_HOST = 100;
+
+    /** The default total connections in the shared pool. */
+    public static final int DEFAULT_MAX_CONNECTIONS = 1000;
+
+    /** The default time to keep idle connections in the shared pool, in ms. */
+    public static final long DEFAULT_IDLE_TIMEOUT = 60000l;
+
     static {
         final Protocol http =
                 new Protocol("http", new ProtocolTimedSocketFactory(), 80);
@@ -77,9 +100,26 @@ public class ApacheHC3Transport extends HttpTransport {
 
         CookiePolicy.registerCookieSpec(CookiePolicy.DEFAULT,
                                         FabanCookieSpec.class);
+
+        if (Boolean.getBoolean("faban.http.sharedPool"))
+            useSharedConnectionPool(
+                    Integer.getInteger("faban.http.maxConnectionsPerHost",
+                                       DEFAULT_MAX_CONNECTIONS_PER_HOST),
+                    Integer.getInteger("faban.http.maxConnections",
+                                       DEFAULT_MAX_CONNECTIONS),
+                    Long.getLong("faban.http.idleTimeout",
+                                 DEFAULT_IDLE_TIMEOUT));
     }
 
-    private HttpClient hc = new HttpClient();
+    private HttpClient hc;
+
+    /** The use of the shared pool, null if connections are per transport. */
+    private ConnectionPoolStats poolStats;
+
+    /** Reads page resources concurrently, created on first use. */
+    private ResourceFetcher resourceFetcher;
+
+    private ContentSizeStats contentStats;
 
 
     /** The main appendable buffer for the total results. */
@@ -111,12 +151,46 @@ public class ApacheHC3Transport extends HttpTransport {
      * Constructs a new ApacheHC3Transport object.
      */
     public ApacheHC3Transport() {
-        hc.getHttpConnectionManager().getParams().setConnectionTimeout(30000);
+        SharedConnectionPool pool = SharedConnectionPool.getInstance();
+        if (pool == null) {
+            hc = new HttpClient();
+            hc.getHttpConnectionManager().getParams().
+                    setConnectionTimeout(30000);
+        } else {
+            poolStats = new ConnectionPoolStats();
+            hc = new HttpClient(pool.newView(poolStats));
+        }
 
     	texttypes = new HashSet<String>();
         texttypes.add("application/json");
     }
 
+    /**
+     * Makes the transports created from now on share one connection pool,
+     * instead of having their own connections. Transports created before
+     * keep their own connections. Calling this again changes the limits
+     * of the pool.
+     * @param maxPerHost The maximum connections to each host
+     * @param maxTotal The maximum connections in total
+     * @param idleTimeout The time after which idle connections are
+     *        closed, in ms
+     */
+    public static void useSharedConnectionPool(int maxPerHost, int maxTotal,
+                                               long idleTimeout) {
+        SharedConnectionPool.configure(maxPerHost, maxTotal, idleTimeout);
+    }
+
+    /**
+     * Obtains the stats of this transport's use of the shared connection
+     * pool. Attach them to the driver context to report them.
+     * @return The stats, or null if this transport has its own connections
+     * @see com.sun.faban.driver.DriverContext#attachMetrics(String,
+     *      com.sun.faban.driver.CustomMetrics)
+     */
+    public ConnectionPoolStats getConnectionPoolStats() {
+        return poolStats;
+    }
+
     /**
      * Sets whether the client should retry or not.
      * @param retry Whether to retry failed attempts
@@ -341,6 +415,55 @@ public class ApacheHC3Transport extends HttpTransport {
         return readURL(url.toString(), postRequest, headers);
     }
 
+    /**
+     * Reads data from the URL into the sink, without decoding.
+     * @param url The URL to read from
+     * @param sink The sink receiving the data
+     * @param headers The request headers
+     * @return The number of bytes read
+     * @throws java.io.IOException
+     */
+    public int readURL(URL url, BodySink sink, Map<String, String> headers)
+            throws IOException {
+        GetMethod method = new GetMethod(url.toString());
+        method.setFollowRedirects(followRedirects);
+        setHeaders(method, headers);
+        try {
+            responseCode = hc.executeMethod(method);
+            buildResponseHeaders(method);
+            contentSize = sink.read(method.getResponseBodyAsStream());
+            return contentSize;
+        } finally {
+            method.releaseConnection();
+        }
+    }
+
+    /**
+     * Makes a POST request to the URL and reads the data back into the
+     * sink. Note that the POST request will be URL encoded.
+     * @param url The URL to read from
+     * @param postRequest The post request string
+     * @param sink The sink receiving the data
+     * @param headers The request headers, or null
+     * @return The number of bytes read
+     * @throws java.io.IOException
+     */
+    public int readURL(URL url, String postRequest, BodySink sink,
+                       Map<String, String> headers) throws IOException {
+        PostMethod method = new PostMethod(url.toString());
+        method.setFollowRedirects(followRedirects);
+        setHeaders(method, headers);
+        setParameters(method, postRequest);
+        try {
+            responseCode = hc.executeMethod(method);
+            buildResponseHeaders(method);
+            contentSize = sink.read(method.getResponseBodyAsStream());
+            return contentSize;
+        } finally {
+            method.releaseConnection();
+        }
+    }
+
     /**
      * Makes a POST request to the URL without encoding the data (the
      * header type is application/octet-stream).
@@ -742,47 +865,38 @@ public class ApacheHC3Transport extends HttpTransport {
         return fetchURL(url.toString(), parts, headers);
     }
 
-    /*
-     * Method not implemented. Makes a GET request. Fetches the main page
-     * and all other image or resource pages based on the given URLs.
-     *
-     * @param page The page URL
-     * @param images The image or other resource URLs to fetch with page
-     * @return The buffer of the main page
-     * @throws IOException If an I/O error occurred
-     *
-	public StringBuilder fetchPage(URL page, URL[] images) throws IOException {
-        // TODO: implement method
-        return null;
-    }
-    */
-
-    /*
-     * Fetch page and images in the same call. Currently not used.
-     *
-    public StringBuilder fetchPage(String page, String[] images)
-            throws IOException {
-        URL[] imgURLs = new URL[images.length];
-        for (int i = 0; i < imgURLs.length; i++)
-            imgURLs[i] = new URL(images[i]);
-        return fetchPage(new URL(page), imgURLs);
-    }
-    */
-
     /**
-     * Method not implemented. Makes a POST request. Fetches the main page
-     * and all other image or resource pages based on the given URLs.
+     * Fetches the main page, with a POST request if a post string is given,
+     * and then reads all other image or resource pages based on the given
+     * URLs concurrently, over up to faban.http.resourceConnections
+     * keep-alive connections per host. The respond time is the end of the
+     * last resource.
      *
      * @param page The page URL
      * @param images The image or other resource URLs to fetch with page
-     * @param postRequest The post string
+     * @param postRequest The post string, or null for a GET request
      * @return The buffer of the main page
      * @throws java.io.IOException If an I/O error occurred
      */
 	public StringBuilder fetchURL(URL page, URL[] images, String postRequest)
             throws IOException {
-        // TODO: implement method
-        return null;
+        StringBuilder buffer;
+        if (postRequest == null)
+            buffer = fetchURL(page);
+        else
+            buffer = fetchURL(page, postRequest);
+        if (resourceFetcher == null)
+            resourceFetcher = new ResourceFetcher(hc.getState());
+        long lastByteTime = resourceFetcher.fetch(images, followRedirects);
+        DriverContext ctx = DriverContext.getContext();
+        if (ctx != null) {
+            if (lastByteTime != TimingInfo.TIME_NOT_SET)
+                ctx.recordEndTime(lastByteTime);
+            if (contentStats != null && ctx.isTxSteadyState())
+                contentStats.addResources(ctx.getOperationId(),
+                        resourceFetcher.sizes, images.length);
+        }
+        return buffer;
     }
 
     /**
@@ -1141,6 +1255,98 @@ public class ApacheHC3Transport extends HttpTransport {
         return matchResponse(regex);
     }
 
+    /**
+     * Matches the response fetched from the URL while the response arrives.
+     * The response is not kept in the response buffer. The rest of the
+     * response is still read after a match. Only text responses are
+     * matched. The content size is the size in bytes.
+     * @param url The source of the data
+     * @param matcher The compiled matcher
+     * @param headers The request headers
+     * @return True if the match succeeds, false otherwise
+     * @throws java.io.IOException
+     */
+    public boolean matchURL(URL url, ResponseMatcher matcher,
+                            Map<String, String> headers) throws IOException {
+        GetMethod method = new GetMethod(url.toString());
+        method.setFollowRedirects(followRedirects);
+        setHeaders(method, headers);
+        try {
+            responseCode = hc.executeMethod(method);
+            buildResponseHeaders(method);
+            return matchResponse(method, matcher);
+        } finally {
+            method.releaseConnection();
+        }
+    }
+
+    /**
+     * Matches the response fetched from the post request made to the URL
+     * while the response arrives.
+     * @param url The source of the data
+     * @param postRequest The post request string
+     * @param matcher The compiled matcher
+     * @param headers The request headers, or null
+     * @return True if the match succeeds, false otherwise
+     * @throws java.io.IOException
+     * @see #matchURL(URL, ResponseMatcher, Map)
+     */
+    public boolean matchURL(URL url, String postRequest,
+                            ResponseMatcher matcher,
+                            Map<String, String> headers) throws IOException {
+        PostMethod method = new PostMethod(url.toString());
+        method.setFollowRedirects(followRedirects);
+        setHeaders(method, headers);
+        setParameters(method, postRequest);
+        try {
+            responseCode = hc.executeMethod(method);
+            buildResponseHeaders(method);
+            return matchResponse(method, matcher);
+        } finally {
+            method.releaseConnection();
+        }
+    }
+
+    private boolean matchResponse(HttpMethod method, ResponseMatcher matcher)
+            throws IOException {
+        Header contentTypeHdr = method.getResponseHeader("content-type");
+        String contentType = null;
+        if (contentTypeHdr != null)
+            contentType = contentTypeHdr.getValue();
+        String hdr = "charset=";
+        String encoding = "ISO-8859-1";
+        if (contentType != null) {
+            StringTokenizer t = new StringTokenizer(contentType, ";");
+            contentType = t.nextToken().trim();
+            while (t.hasMoreTokens()) {
+                String param = t.nextToken().trim();
+                if (param.startsWith(hdr)) {
+                    encoding = param.substring(hdr.length());
+                    break;
+                }
+            }
+        }
+        if (contentType != null && (contentType.startsWith("text/") ||
+                                    texttypes.contains(contentType))) {
+            Charset charset;
+            try {
+                charset = Charset.forName(encoding);
+            } catch (IllegalArgumentException e) {
+                throw new UnsupportedEncodingException(encoding);
+            }
+            InputStream is = method.getResponseBodyAsStream();
+            if (is == null) {
+                contentSize = 0;
+                return false;
+            }
+            contentSize = matcher.read(is, charset);
+            is.close();
+            return matcher.isMatched();
+        }
+        readResponse(method);
+        return false;
+    }
+
     /**
      * Makes a PUT request to the URL. Reads data back and returns the data
      * read. Note that this method only works with text data as it does the
@@ -1450,9 +1656,21 @@ public class ApacheHC3Transport extends HttpTransport {
      * Close all connections currently not in use. If the only way of using
      * the Apache HttpClient is through this transport, connections will always
      * be released after a request. The close will close all connections in
-     * this case.
+     * this case. Connections in the shared pool are closed by the pool
+     * when idle and are not affected.
      */
     public void closeConnections() {
         hc.getHttpConnectionManager().closeIdleConnections(0);
+        if (resourceFetcher != null)
+            resourceFetcher.closeConnections();
+    }
+
+    /**
+     * Sets the stats to add the sizes of the resources read by fetchPage
+     * to. The sizes are added in steady state only.
+     * @param stats The stats, or null to not collect resource sizes
+     */
+    public void setContentSizeStats(ContentSizeStats stats) {
+        contentStats = stats;
     }
 }
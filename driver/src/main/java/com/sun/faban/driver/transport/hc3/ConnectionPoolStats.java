@@ -0,0 +1,105 @@
+/* The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://www.sun.com/cddl/cddl.html or
+ * install_dir/legal/LICENSE
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at install_dir/legal/LICENSE.
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ *
+ * $Id$
+ *
+ * Copyright 2005-2009 Sun Microsystems Inc. All Rights Reserved
+ */
+package com.sun.faban.driver.transport.hc3;
+
+import com.sun.faban.driver.CustomMetrics;
+
+/**
+ * The ConnectionPoolStats count how the transports of a driver thread use
+ * the shared connection pool. Attach them to the driver context to have
+ * them in the summary report:<pre>
+ *     ctx.attachMetrics("HTTP Connection Pool",
+ *                       transport.getConnectionPoolStats());
+ * </pre>
+ * The counts cover the whole run, not only the steady state.
+ *
+ * @see ApacheHC3Transport#useSharedConnectionPool(int, int, long)
+ */
+public class ConnectionPoolStats implements CustomMetrics {
+
+    private static final long serialVersionUID = 1l;
+
+    /** The number of connections leased from the pool. */
+    public long leases;
+
+    /** The number of leases that found the pool at its limit. */
+    public long waits;
+
+    /** The total time waiting for a connection, in ns. */
+    public long waitTime;
+
+    /** The number of leases that got a new connection. */
+    public long creations;
+
+    /**
+     * Aggregates the stats from another thread with the current one.
+     * @param other The stats from another thread
+     */
+    public void add(CustomMetrics other) {
+        ConnectionPoolStats o = (ConnectionPoolStats) other;
+        leases += o.leases;
+        waits += o.waits;
+        waitTime += o.waitTime;
+        creations += o.creations;
+    }
+
+    /**
+     * The metrics need to be cloneable and not throw any exceptions.
+     * @return The ConnectionPoolStats clone
+     */
+    public Object clone() {
+        ConnectionPoolStats o = new ConnectionPoolStats();
+        o.add(this);
+        return o;
+    }
+
+    /**
+     * Obtains the results of this ConnectionPoolStats as to be reported.
+     * @return The result elements for each metric.
+     */
+    public Element[] getResults() {
+        Element[] e = new Element[5];
+        for (int i = 0; i < e.length; i++) {
+            e[i] = new Element();
+        }
+        e[0].description = "Connection leases";
+        e[0].result = String.valueOf(leases);
+        e[1].description = "Leases waiting for a connection";
+        e[1].result = String.valueOf(waits);
+        e[2].description = "Average wait for a connection (ms)";
+        if (waits > 0)
+            e[2].result = String.format("%.3f", waitTime / (waits * 1e6d));
+        else
+            e[2].result = "N/A";
+        e[3].description = "New connections";
+        e[3].result = String.valueOf(creations);
+        e[4].description = "Connection reuse (%)";
+        if (leases > 0)
+            e[4].result = String.format("%.2f",
+                    100d * (leases - creations) / leases);
+        else
+            e[4].result = "N/A";
+        return e;
+    }
+}
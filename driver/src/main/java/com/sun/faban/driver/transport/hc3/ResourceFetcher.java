@@ -0,0 +1,218 @@
+/* The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://www.sun.com/cddl/cddl.html or
+ * install_dir/legal/LICENSE
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at install_dir/legal/LICENSE.
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ *
+ * $Id$
+ *
+ * Copyright 2005-2009 Sun Microsystems Inc. All Rights Reserved
+ */
+package com.sun.faban.driver.transport.hc3;
+
+import com.sun.faban.driver.HttpTransport;
+import com.sun.faban.driver.engine.TimingInfo;
+import org.apache.commons.httpclient.HttpClient;
+import org.apache.commons.httpclient.HttpState;
+import org.apache.commons.httpclient.MultiThreadedHttpConnectionManager;
+import org.apache.commons.httpclient.methods.GetMethod;
+import org.apache.commons.httpclient.params.HttpConnectionManagerParams;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.URL;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Reads the resources of a page concurrently for one transport, as a
+ * browser does. Each transport has its own small pool of keep-alive
+ * connections for resources, faban.http.resourceConnections per host,
+ * 4 by default, sharing the cookies of the transport. The reads run on
+ * a thread pool shared by all transports, of faban.http.resourceThreads
+ * threads, 64 by default. Reads beyond that wait in a queue. Connections are opened on the
+ * pool threads, which have no driver context, so the reads are not timed
+ * or throttled by the sockets. The caller takes the time of the last
+ * byte instead.
+ */
+final class ResourceFetcher {
+
+    /** The maximum number of connections per host for resources. */
+    static final int CONNECTIONS =
+            Math.max(1, Integer.getInteger("faban.http.resourceConnections", 4));
+
+    /** The number of threads reading resources for all transports. */
+    static final int THREADS =
+            Math.max(1, Integer.getInteger("faban.http.resourceThreads", 64));
+
+    private static ExecutorService executor;
+
+    private final HttpClient client;
+
+    private final byte[][] buffers = new byte[CONNECTIONS][];
+
+    /** The sizes of the resources of the last fetch. */
+    int[] sizes = new int[0];
+
+    /**
+     * Creates a fetcher sharing the cookies of a transport.
+     * @param state The HTTP state of the transport
+     */
+    ResourceFetcher(HttpState state) {
+        MultiThreadedHttpConnectionManager manager =
+                new MultiThreadedHttpConnectionManager();
+        HttpConnectionManagerParams params = manager.getParams();
+        params.setDefaultMaxConnectionsPerHost(CONNECTIONS);
+        params.setMaxTotalConnections(CONNECTIONS * 4);
+        params.setConnectionTimeout(30000);
+        client = new HttpClient(manager);
+        client.setState(state);
+    }
+
+    private static synchronized ExecutorService getExecutor() {
+        if (executor == null) {
+            executor = Executors.newFixedThreadPool(THREADS,
+                                                    new ThreadFactory() {
+                private final AtomicInteger count = new AtomicInteger();
+
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "HttpResourceFetcher-" +
+                                          count.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        }
+        return executor;
+    }
+
+    /**
+     * Reads the resources and discards the data. The sizes are kept in
+     * the sizes array.
+     * @param resources The resource URLs
+     * @param followRedirects Whether to follow redirects
+     * @return The time the last byte was read, in system nanotime, or
+     *         TIME_NOT_SET if there are no resources
+     * @throws IOException If reading a resource failed
+     */
+    long fetch(URL[] resources, boolean followRedirects) throws IOException {
+        if (sizes.length < resources.length)
+            sizes = new int[resources.length];
+        int workers = Math.min(CONNECTIONS, resources.length);
+        if (workers == 0)
+            return TimingInfo.TIME_NOT_SET;
+        Fetch fetch = new Fetch(resources, followRedirects, workers);
+        ExecutorService executor = getExecutor();
+        for (int i = 0; i < workers; i++)
+            executor.execute(fetch);
+        try {
+            fetch.done.await();
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException("Interrupted fetching " +
+                    "page resources.");
+        }
+        if (fetch.error != null)
+            throw fetch.error;
+        return fetch.lastByteTime;
+    }
+
+    /**
+     * Closes the idle resource connections.
+     */
+    void closeConnections() {
+        client.getHttpConnectionManager().closeIdleConnections(0);
+    }
+
+    /**
+     * A fetch of the resources of one page. Each worker takes the next
+     * resource until all are read or one failed.
+     */
+    private class Fetch implements Runnable {
+
+        final URL[] resources;
+        final boolean followRedirects;
+        final AtomicInteger next = new AtomicInteger();
+        final AtomicInteger worker = new AtomicInteger();
+        final CountDownLatch done;
+        long lastByteTime = TimingInfo.TIME_NOT_SET;
+        volatile IOException error;
+
+        Fetch(URL[] resources, boolean followRedirects, int workers) {
+            this.resources = resources;
+            this.followRedirects = followRedirects;
+            done = new CountDownLatch(workers);
+        }
+
+        public void run() {
+            int w = worker.getAndIncrement();
+            if (buffers[w] == null)
+                buffers[w] = new byte[HttpTransport.BUFFER_SIZE];
+            byte[] buffer = buffers[w];
+            long last = TimingInfo.TIME_NOT_SET;
+            try {
+                int i;
+                while (error == null &&
+                        (i = next.getAndIncrement()) < resources.length) {
+                    sizes[i] = read(resources[i], buffer);
+                    last = System.nanoTime();
+                }
+            } catch (IOException e) {
+                fail(e);
+            } catch (RuntimeException e) {
+                // E.g. a malformed or unsupported resource URL.
+                IOException ioe = new IOException("Error fetching " +
+                        "resource: " + e.getMessage());
+                ioe.initCause(e);
+                fail(ioe);
+            } finally {
+                synchronized (this) {
+                    if (last > lastByteTime)
+                        lastByteTime = last;
+                }
+                done.countDown();
+            }
+        }
+
+        private synchronized void fail(IOException e) {
+            if (error == null)
+                error = e;
+        }
+
+        private int read(URL url, byte[] buffer) throws IOException {
+            GetMethod get = new GetMethod(url.toString());
+            get.setFollowRedirects(followRedirects);
+            get.setRequestHeader("Accept-Language", "en-us,en;q=0.5");
+            try {
+                client.executeMethod(get);
+                int size = 0;
+                InputStream in = get.getResponseBodyAsStream();
+                if (in != null) {
+                    int length;
+                    while ((length = in.read(buffer)) != -1)
+                        size += length;
+                    in.close();
+                }
+                return size;
+            } finally {
+                get.releaseConnection();
+            }
+        }
+    }
+}
@@ -0,0 +1,244 @@
+/* The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://www.sun.com/cddl/cddl.html or
+ * install_dir/legal/LICENSE
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at install_dir/legal/LICENSE.
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ *
+ * $Id$
+ *
+ * Copyright 2005-2009 Sun Microsystems Inc. All Rights Reserved
+ */
+package com.sun.faban.driver.transport.hc3;
+
+import org.apache.commons.httpclient.ConnectionPoolTimeoutException;
+import org.apache.commons.httpclient.HostConfiguration;
+import org.apache.commons.httpclient.HttpConnection;
+import org.apache.commons.httpclient.HttpConnectionManager;
+import org.apache.commons.httpclient.HttpException;
+import org.apache.commons.httpclient.MultiThreadedHttpConnectionManager;
+import org.apache.commons.httpclient.params.HttpConnectionManagerParams;
+import org.apache.commons.httpclient.util.IdleConnectionTimeoutThread;
+
+import java.util.HashMap;
+import java.util.logging.Logger;
+
+/**
+ * The connection pool shared by all ApacheHC3Transport instances in this
+ * JVM, if enabled. It is bounded per host and in total, and idle
+ * connections are closed by a reaper thread. Each transport gets its own
+ * view of the pool which counts its use in the transport's
+ * ConnectionPoolStats.
+ */
+final class SharedConnectionPool {
+
+    private static Logger logger =
+            Logger.getLogger(SharedConnectionPool.class.getName());
+
+    private static SharedConnectionPool instance;
+
+    final MultiThreadedHttpConnectionManager manager =
+            new MultiThreadedHttpConnectionManager();
+
+    private final IdleConnectionTimeoutThread reaper =
+            new IdleConnectionTimeoutThread();
+
+    // The connections in use, by host and in total. The manager only
+    // counts the connections in the pool, idle or not.
+    private final HashMap<String, Integer> inUse =
+            new HashMap<String, Integer>();
+    private int totalInUse = 0;
+
+    private SharedConnectionPool() {
+        manager.getParams().setConnectionTimeout(30000);
+        reaper.setName("HttpConnectionReaper");
+        reaper.addConnectionManager(manager);
+    }
+
+    /**
+     * Enables the shared pool or changes its limits.
+     * @param maxPerHost The maximum connections per host
+     * @param maxTotal The maximum connections in total
+     * @param idleTimeout The time after which idle connections are
+     *        closed, in ms
+     */
+    static synchronized void configure(int maxPerHost, int maxTotal,
+                                       long idleTimeout) {
+        if (maxPerHost < 1 || maxTotal < 1 || idleTimeout < 1)
+            throw new IllegalArgumentException("Connection pool limits " +
+                    "and idle timeout must be positive.");
+        boolean start = instance == null;
+        if (start)
+            instance = new SharedConnectionPool();
+        HttpConnectionManagerParams params = instance.manager.getParams();
+        params.setDefaultMaxConnectionsPerHost(maxPerHost);
+        params.setMaxTotalConnections(maxTotal);
+        instance.reaper.setConnectionTimeout(idleTimeout);
+        instance.reaper.setTimeoutInterval(Math.min(idleTimeout, 1000l));
+        if (start)
+            instance.reaper.start(); // The reaper is a daemon thread.
+        logger.fine("Shared HTTP connection pool: " + maxPerHost +
+                " connections per host, " + maxTotal + " in total, " +
+                idleTimeout + " ms idle timeout.");
+    }
+
+    /**
+     * Obtains the shared pool, if enabled.
+     * @return The shared pool, or null if connections are per transport
+     */
+    static synchronized SharedConnectionPool getInstance() {
+        return instance;
+    }
+
+    /**
+     * Closes all connections of the shared pool and disables it. The
+     * transports created so far must no longer be used. Mainly for tests.
+     */
+    static synchronized void shutdown() {
+        if (instance != null) {
+            instance.reaper.shutdown();
+            instance.manager.shutdown();
+            instance = null;
+        }
+    }
+
+    /**
+     * Creates a view of the pool counting into the given stats.
+     * @param stats The stats of the transport
+     * @return The connection manager for the transport's HttpClient
+     */
+    HttpConnectionManager newView(ConnectionPoolStats stats) {
+        return new View(stats);
+    }
+
+    private static String key(String host, int port) {
+        return host + ':' + port;
+    }
+
+    /**
+     * Counts a lease.
+     * @return Whether the pool was at its limit for the host
+     */
+    private synchronized boolean lease(String key, int maxPerHost,
+                                       int maxTotal) {
+        Integer count = inUse.get(key);
+        int n = count == null ? 0 : count;
+        boolean full = n >= maxPerHost || totalInUse >= maxTotal;
+        inUse.put(key, n + 1);
+        ++totalInUse;
+        return full;
+    }
+
+    private synchronized void release(String key) {
+        Integer count = inUse.get(key);
+        if (count == null)
+            return;
+        if (count > 1)
+            inUse.put(key, count - 1);
+        else
+            inUse.remove(key);
+        --totalInUse;
+    }
+
+    /**
+     * A transport's view of the shared pool. The view sets itself as the
+     * manager of each connection it leases, so the release goes through
+     * the view before the shared manager. A connection still managed by
+     * the shared manager itself is new.
+     */
+    private class View implements HttpConnectionManager {
+
+        private final ConnectionPoolStats stats;
+
+        View(ConnectionPoolStats stats) {
+            this.stats = stats;
+        }
+
+        public HttpConnection getConnection(HostConfiguration config) {
+            try {
+                return getConnectionWithTimeout(config, 0l);
+            } catch (ConnectionPoolTimeoutException e) {
+                // Cannot happen without a timeout.
+                throw new IllegalStateException(e.getMessage());
+            }
+        }
+
+        /**
+         * @deprecated Use getConnectionWithTimeout
+         */
+        @Deprecated
+        public HttpConnection getConnection(HostConfiguration config,
+                                            long timeout)
+                throws HttpException {
+            try {
+                return getConnectionWithTimeout(config, timeout);
+            } catch (ConnectionPoolTimeoutException e) {
+                throw new HttpException(e.getMessage());
+            }
+        }
+
+        public HttpConnection getConnectionWithTimeout(
+                HostConfiguration config, long timeout)
+                throws ConnectionPoolTimeoutException {
+            HttpConnectionManagerParams params = manager.getParams();
+            String key = key(config.getHost(), config.getPort());
+            boolean full = lease(key, params.getMaxConnectionsPerHost(config),
+                                 params.getMaxTotalConnections());
+            long start = System.nanoTime();
+            HttpConnection connection;
+            try {
+                connection = manager.getConnectionWithTimeout(config,
+                                                              timeout);
+            } catch (ConnectionPoolTimeoutException e) {
+                release(key);
+                throw e;
+            } catch (RuntimeException e) {
+                release(key);
+                throw e;
+            }
+            ++stats.leases;
+            if (full) {
+                ++stats.waits;
+                stats.waitTime += System.nanoTime() - start;
+            }
+            if (connection.getHttpConnectionManager() == manager)
+                ++stats.creations;
+            connection.setHttpConnectionManager(this);
+            return connection;
+        }
+
+        public void releaseConnection(HttpConnection connection) {
+            release(key(connection.getHost(), connection.getPort()));
+            manager.releaseConnection(connection);
+        }
+
+        /**
+         * Idle connections of the shared pool are closed by the reaper,
+         * not by single transports.
+         * @param idleTimeout Ignored
+         */
+        public void closeIdleConnections(long idleTimeout) {
+        }
+
+        public HttpConnectionManagerParams getParams() {
+            return manager.getParams();
+        }
+
+        public void setParams(HttpConnectionManagerParams params) {
+            throw new UnsupportedOperationException("Parameters of the " +
+                    "shared connection pool cannot be replaced.");
+        }
+    }
+}
@@ -0,0 +1,147 @@
+/* The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://www.sun.com/cddl/cddl.html or
+ * install_dir/legal/LICENSE
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at install_dir/legal/LICENSE.
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ *
+ * $Id$
+ *
+ * Copyright 2005-2009 Sun Microsystems Inc. All Rights Reserved
+ */
+package com.sun.faban.driver.transport.nio;
+
+import com.sun.faban.driver.HttpTransport;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A selector thread serving the connections of many transports. The
+ * number of event loops is set by the faban.nio.threads property and
+ * defaults to the number of processors, at most 4. Each loop keeps a
+ * pool of direct buffers of HttpTransport.BUFFER_SIZE bytes which are
+ * only held by connections while an exchange is in progress, so idle
+ * users do not hold buffers. The pool keeps at most faban.nio.buffers
+ * buffers per loop, 256 by default.
+ */
+final class EventLoop implements Runnable {
+
+    private static Logger logger = Logger.getLogger(EventLoop.class.getName());
+
+    private static final int MAX_BUFFERS =
+            Integer.getInteger("faban.nio.buffers", 256);
+
+    private static EventLoop[] loops;
+
+    private static int next;
+
+    final Selector selector;
+
+    /** A small buffer to check idle connections for a close. */
+    final ByteBuffer scratch = ByteBuffer.allocateDirect(64);
+
+    private final ConcurrentLinkedQueue<Runnable> tasks =
+            new ConcurrentLinkedQueue<Runnable>();
+
+    private final ArrayDeque<ByteBuffer> buffers = new ArrayDeque<ByteBuffer>();
+
+    private EventLoop() throws IOException {
+        selector = Selector.open();
+    }
+
+    /**
+     * Obtains the event loop for a new connection. Connections are
+     * spread round-robin over the loops, which are started on first use.
+     * @return The event loop
+     * @throws IOException If the selectors cannot be opened
+     */
+    static synchronized EventLoop next() throws IOException {
+        if (loops == null) {
+            int threads = Integer.getInteger("faban.nio.threads", Math.min(
+                    4, Runtime.getRuntime().availableProcessors()));
+            EventLoop[] l = new EventLoop[Math.max(1, threads)];
+            for (int i = 0; i < l.length; i++) {
+                l[i] = new EventLoop();
+                Thread t = new Thread(l[i], "NioHttpTransport-" + i);
+                t.setDaemon(true);
+                t.start();
+            }
+            loops = l;
+            logger.fine("Started " + l.length + " HTTP event loops.");
+        }
+        EventLoop loop = loops[next];
+        next = (next + 1) % loops.length;
+        return loop;
+    }
+
+    /**
+     * Runs a task on the event loop thread.
+     * @param task The task
+     */
+    void execute(Runnable task) {
+        tasks.add(task);
+        selector.wakeup();
+    }
+
+    /**
+     * Takes a buffer from the pool, only called on the event loop thread.
+     * @return A cleared direct buffer
+     */
+    ByteBuffer acquireBuffer() {
+        ByteBuffer buffer = buffers.poll();
+        if (buffer == null)
+            return ByteBuffer.allocateDirect(HttpTransport.BUFFER_SIZE);
+        buffer.clear();
+        return buffer;
+    }
+
+    /**
+     * Returns a buffer to the pool, only called on the event loop thread.
+     * @param buffer The buffer
+     */
+    void releaseBuffer(ByteBuffer buffer) {
+        if (buffers.size() < MAX_BUFFERS)
+            buffers.push(buffer);
+    }
+
+    public void run() {
+        for (;;) {
+            try {
+                selector.select();
+                Runnable task;
+                while ((task = tasks.poll()) != null)
+                    task.run();
+                Iterator<SelectionKey> keys =
+                        selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    ((NioConnection) key.attachment()).ready(key);
+                }
+            } catch (Throwable t) {
+                logger.log(Level.SEVERE, "Unexpected error in HTTP event " +
+                        "loop " + Thread.currentThread().getName(), t);
+            }
+        }
+    }
+}
@@ -0,0 +1,314 @@
+/* The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://www.sun.com/cddl/cddl.html or
+ * install_dir/legal/LICENSE
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at install_dir/legal/LICENSE.
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ *
+ * $Id$
+ *
+ * Copyright 2005-2009 Sun Microsystems Inc. All Rights Reserved
+ */
+package com.sun.faban.driver.transport.nio;
+
+import com.sun.faban.driver.transport.util.BodySink;
+import com.sun.faban.driver.transport.util.ResponseMatcher;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A single HTTP request and its response. The driver thread creates
+ * the exchange and waits for it, the event loop fills in the response.
+ * The completion latch publishes the response to the driver thread.
+ */
+final class Exchange {
+
+    final String method;
+    final byte[] request;
+
+    /** The text types to keep the body for, or null to discard the body. */
+    private final Set<String> textTypes;
+
+    /** The body, if kept. */
+    byte[] body;
+
+    /** The number of body bytes received. */
+    int length;
+
+    private boolean keepBody;
+
+    /** The matcher for text bodies, or null to keep them. */
+    private final ResponseMatcher matcher;
+
+    private boolean matching;
+
+    /** The sink for all bodies, or null. */
+    private final BodySink sink;
+
+    int status;
+    String statusLine;
+    boolean http11;
+    boolean keepAlive;
+    final Map<String, List<String>> headers =
+            new TreeMap<String, List<String>>(String.CASE_INSENSITIVE_ORDER);
+
+    /** The time of the first and last response bytes, in system nanotime. */
+    long firstByteTime;
+    long lastByteTime;
+    boolean started;
+
+    /** The number of response bytes received, headers included. */
+    int received;
+
+    private IOException error;
+    private final CountDownLatch done = new CountDownLatch(1);
+
+    /**
+     * Creates an exchange.
+     * @param method The request method
+     * @param request The complete request, head and body
+     * @param textTypes The MIME types other than text/* to keep the body
+     *        for, or null to discard the body
+     * @param body A buffer for the body, may be grown
+     * @param matcher The matcher to run over text bodies instead of
+     *        keeping them, or null
+     * @param sink The sink receiving the body, or null
+     */
+    Exchange(String method, byte[] request, Set<String> textTypes,
+             byte[] body, ResponseMatcher matcher, BodySink sink) {
+        this.method = method;
+        this.request = request;
+        this.textTypes = textTypes;
+        this.body = body;
+        this.matcher = matcher;
+        this.sink = sink;
+    }
+
+    /**
+     * Obtains the first value of a response header.
+     * @param name The header name
+     * @return The value, or null if not present
+     */
+    String getHeader(String name) {
+        List<String> values = headers.get(name);
+        if (values == null)
+            return null;
+        return values.get(0);
+    }
+
+    void addHeader(String line) throws IOException {
+        int colon = line.indexOf(':');
+        if (colon <= 0)
+            throw new IOException("Bad HTTP header: " + line);
+        String name = line.substring(0, colon).trim();
+        List<String> values = headers.get(name);
+        if (values == null) {
+            values = new ArrayList<String>(1);
+            headers.put(name, values);
+        }
+        values.add(line.substring(colon + 1).trim());
+    }
+
+    /**
+     * Obtains the MIME type of the response, without parameters.
+     * @return The MIME type, or null if not set
+     */
+    String getMimeType() {
+        String contentType = getHeader("Content-Type");
+        if (contentType == null)
+            return null;
+        int semicolon = contentType.indexOf(';');
+        if (semicolon >= 0)
+            contentType = contentType.substring(0, semicolon);
+        return contentType.trim();
+    }
+
+    /**
+     * Obtains the charset of the response, ISO-8859-1 if not given.
+     * @return The charset
+     * @throws UnsupportedEncodingException If the charset is not supported
+     */
+    Charset getCharset() throws UnsupportedEncodingException {
+        String contentType = getHeader("Content-Type");
+        String encoding = "ISO-8859-1";
+        if (contentType != null) {
+            String hdr = "charset=";
+            int idx = contentType.toLowerCase(Locale.US).indexOf(hdr);
+            if (idx >= 0) {
+                encoding = contentType.substring(idx + hdr.length());
+                int end = encoding.indexOf(';');
+                if (end >= 0)
+                    encoding = encoding.substring(0, end);
+                encoding = encoding.trim();
+                if (encoding.length() > 1 && encoding.charAt(0) == '"')
+                    encoding = encoding.substring(1, encoding.length() - 1);
+            }
+        }
+        try {
+            return Charset.forName(encoding);
+        } catch (IllegalArgumentException ex) { // Illegal or unsupported
+            throw new UnsupportedEncodingException(encoding);
+        }
+    }
+
+    /**
+     * Checks whether the response is text to keep, called when the
+     * headers are complete.
+     * @return Whether the body is kept
+     */
+    boolean isText() {
+        if (textTypes == null)
+            return false;
+        String type = getMimeType();
+        return type != null &&
+                (type.startsWith("text/") || textTypes.contains(type));
+    }
+
+    /**
+     * Starts receiving the body. Text bodies are kept or matched.
+     * @throws UnsupportedEncodingException If matching a text body in an
+     *         unsupported charset
+     */
+    void startBody() throws UnsupportedEncodingException {
+        boolean text = isText();
+        keepBody = text && matcher == null;
+        matching = text && matcher != null;
+        if (matching)
+            matcher.reset(getCharset());
+        if (sink != null)
+            sink.reset();
+        length = 0;
+    }
+
+    /**
+     * Receives body bytes from the buffer, keeping, matching, passing to
+     * the sink or skipping them. Bytes after a match or not needed by the
+     * sink are skipped.
+     * @param buffer The buffer, positioned at the bytes
+     * @param n The number of bytes to receive
+     */
+    void receive(ByteBuffer buffer, int n) {
+        if (keepBody) {
+            if (length + n > body.length) {
+                byte[] b = new byte[Math.max(body.length * 2, length + n)];
+                System.arraycopy(body, 0, b, 0, length);
+                body = b;
+            }
+            buffer.get(body, length, n);
+            length += n;
+            return;
+        }
+        length += n;
+        // The body buffer serves as the heap copy for the matcher and sink.
+        if (sink != null) {
+            while (n > 0 && sink.needsData()) {
+                int m = Math.min(n, body.length);
+                buffer.get(body, 0, m);
+                sink.update(body, 0, m);
+                n -= m;
+            }
+            sink.skip(n);
+        }
+        while (matching && n > 0 && !matcher.isMatched()) {
+            int m = Math.min(n, body.length);
+            buffer.get(body, 0, m);
+            matcher.update(body, 0, m);
+            n -= m;
+        }
+        buffer.position(buffer.position() + n);
+    }
+
+    /**
+     * Ends the body, called when the response is complete.
+     */
+    void endBody() {
+        if (matching)
+            matcher.finish();
+        if (sink != null)
+            sink.finish();
+    }
+
+    /**
+     * Checks whether the body was matched, after the exchange completed.
+     * @return True if the body is text and matched, false otherwise
+     */
+    boolean isMatched() {
+        return matching && matcher.isMatched();
+    }
+
+    /**
+     * Checks whether the body was kept.
+     * @return True if the body bytes are in the body buffer
+     */
+    boolean isBodyKept() {
+        return keepBody;
+    }
+
+    /**
+     * Completes the exchange, called by the event loop.
+     * @param error The error, or null if the response is complete
+     */
+    void done(IOException error) {
+        this.error = error;
+        done.countDown();
+    }
+
+    /**
+     * Waits for the exchange to complete.
+     * @param timeout The maximum time to wait, in ms
+     * @return True if complete, false if timed out
+     * @throws IOException If the exchange failed
+     */
+    boolean await(long timeout) throws IOException {
+        try {
+            if (!done.await(timeout, TimeUnit.MILLISECONDS))
+                return false;
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException("Interrupted waiting for " +
+                    "the HTTP response.");
+        }
+        if (error != null)
+            throw error;
+        return true;
+    }
+
+    /**
+     * Waits for an aborted exchange to complete. The event loop does not
+     * use the body, matcher or sink of a completed exchange any more.
+     * @param timeout The maximum time to wait, in ms
+     * @return True if complete, false if timed out
+     * @throws InterruptedIOException If interrupted while waiting
+     */
+    boolean awaitAbort(long timeout) throws InterruptedIOException {
+        try {
+            return done.await(timeout, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException("Interrupted aborting " +
+                    "the HTTP exchange.");
+        }
+    }
+}
@@ -0,0 +1,469 @@
+/* The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://www.sun.com/cddl/cddl.html or
+ * install_dir/legal/LICENSE
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at install_dir/legal/LICENSE.
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ *
+ * $Id$
+ *
+ * Copyright 2005-2009 Sun Microsystems Inc. All Rights Reserved
+ */
+package com.sun.faban.driver.transport.nio;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Locale;
+
+/**
+ * A keep-alive HTTP/1.1 connection to one host, served by an event loop.
+ * The driver thread hands an exchange to the connection and waits for it;
+ * all socket I/O and the response parsing happen on the event loop
+ * thread. A connection serves one exchange at a time, exchanges sent
+ * while it is busy are queued. A request on a reused connection the
+ * server closed in the meantime is sent again once on a new connection.
+ */
+final class NioConnection {
+
+    private static final int MAX_LINE = 65536;
+
+    // The response parser states.
+    private static final int STATUS = 0;
+    private static final int HEADERS = 1;
+    private static final int BODY = 2;
+    private static final int BODY_TO_CLOSE = 3;
+    private static final int CHUNK_SIZE = 4;
+    private static final int CHUNK_DATA = 5;
+    private static final int CHUNK_END = 6;
+    private static final int TRAILERS = 7;
+
+    final InetSocketAddress address;
+
+    private final EventLoop loop;
+
+    // The following fields are only accessed by the event loop thread.
+    private SocketChannel channel;
+    private SelectionKey key;
+    private boolean connected;
+    private Exchange exchange;
+    private ByteBuffer buffer;
+    private int requestOffset;
+    private boolean reused;
+    private boolean retried;
+    private int state;
+    private long remaining;
+    private final StringBuilder line = new StringBuilder(128);
+    private final ArrayDeque<Exchange> queue = new ArrayDeque<Exchange>();
+
+    /**
+     * Creates a connection, not connected yet.
+     * @param address The resolved server address
+     * @param loop The event loop serving this connection
+     */
+    NioConnection(InetSocketAddress address, EventLoop loop) {
+        this.address = address;
+        this.loop = loop;
+    }
+
+    /**
+     * Sends the exchange on this connection. The caller waits on the
+     * exchange for the response.
+     * @param e The exchange
+     */
+    void send(final Exchange e) {
+        loop.execute(new Runnable() {
+            public void run() {
+                if (exchange == null)
+                    start(e);
+                else
+                    queue.add(e);
+            }
+        });
+    }
+
+    /**
+     * Aborts the exchange if still in progress or queued, after the caller
+     * gave up waiting. The connection is closed if the exchange is in
+     * progress, as the response state is unknown.
+     * @param e The exchange
+     */
+    void abort(final Exchange e) {
+        loop.execute(new Runnable() {
+            public void run() {
+                IOException timeout = new SocketTimeoutException(
+                        "HTTP response timed out.");
+                if (exchange == e) {
+                    closeChannel();
+                    finish(timeout);
+                } else if (queue.remove(e)) {
+                    e.done(timeout);
+                }
+            }
+        });
+    }
+
+    /**
+     * Closes the connection once idle.
+     */
+    void close() {
+        loop.execute(new Runnable() {
+            public void run() {
+                if (exchange == null)
+                    closeChannel();
+            }
+        });
+    }
+
+    private void start(Exchange e) {
+        exchange = e;
+        buffer = loop.acquireBuffer();
+        retried = false;
+        begin();
+        try {
+            if (connected) {
+                reused = true;
+                key.interestOps(SelectionKey.OP_WRITE);
+            } else {
+                connect();
+            }
+        } catch (IOException ex) {
+            failed(ex);
+        }
+    }
+
+    /**
+     * Resets the request and response state for sending the exchange.
+     */
+    private void begin() {
+        requestOffset = 0;
+        buffer.clear();
+        buffer.limit(0);
+        state = STATUS;
+        line.setLength(0);
+        exchange.headers.clear();
+        exchange.started = false;
+        exchange.received = 0;
+    }
+
+    private void connect() throws IOException {
+        closeChannel();
+        reused = false;
+        channel = SocketChannel.open();
+        channel.configureBlocking(false);
+        channel.socket().setTcpNoDelay(true);
+        if (channel.connect(address)) {
+            connected = true;
+            key = channel.register(loop.selector, SelectionKey.OP_WRITE, this);
+        } else {
+            key = channel.register(loop.selector, SelectionKey.OP_CONNECT,
+                                   this);
+        }
+    }
+
+    private void closeChannel() {
+        connected = false;
+        if (key != null) {
+            key.cancel();
+            key = null;
+        }
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                // Nothing to do, the connection is gone either way.
+            }
+            channel = null;
+        }
+    }
+
+    /**
+     * Handles the readiness of the channel, called by the event loop.
+     * @param k The selected key
+     */
+    void ready(SelectionKey k) {
+        if (!k.isValid() || k != key)
+            return;
+        try {
+            if (exchange == null) {
+                idleRead();
+            } else if (k.isConnectable()) {
+                if (channel.finishConnect()) {
+                    connected = true;
+                    k.interestOps(SelectionKey.OP_WRITE);
+                }
+            } else if (k.isWritable()) {
+                write();
+            } else if (k.isReadable()) {
+                read();
+            }
+        } catch (IOException e) {
+            failed(e);
+        }
+    }
+
+    private void write() throws IOException {
+        for (;;) {
+            if (!buffer.hasRemaining()) {
+                int length = exchange.request.length - requestOffset;
+                if (length == 0) { // Request sent, wait for the response.
+                    key.interestOps(SelectionKey.OP_READ);
+                    return;
+                }
+                length = Math.min(length, buffer.capacity());
+                buffer.clear();
+                buffer.put(exchange.request, requestOffset, length);
+                buffer.flip();
+                requestOffset += length;
+            }
+            if (channel.write(buffer) == 0)
+                return; // Socket buffer is full, wait until writable.
+        }
+    }
+
+    private void read() throws IOException {
+        buffer.clear();
+        int bytes = channel.read(buffer);
+        if (bytes < 0) {
+            if (state == BODY_TO_CLOSE)
+                complete(false);
+            else
+                throw new EOFException("Connection closed before the end " +
+                        "of the HTTP response.");
+            return;
+        }
+        if (bytes == 0)
+            return;
+        long now = System.nanoTime();
+        if (!exchange.started) {
+            exchange.started = true;
+            exchange.firstByteTime = now;
+        }
+        exchange.lastByteTime = now;
+        exchange.received += bytes;
+        buffer.flip();
+        parse();
+    }
+
+    /**
+     * Reads from an idle connection. The server may only close it,
+     * anything else leaves the connection in an unknown state.
+     */
+    private void idleRead() {
+        ByteBuffer scratch = loop.scratch;
+        scratch.clear();
+        try {
+            if (channel.read(scratch) != 0)
+                closeChannel();
+        } catch (IOException e) {
+            closeChannel();
+        }
+    }
+
+    private void failed(IOException e) {
+        if (exchange == null)
+            return;
+        if (reused && !retried && !exchange.started) {
+            // The server closed the kept-alive connection, try once more.
+            retried = true;
+            begin();
+            try {
+                connect();
+                return;
+            } catch (IOException ex) {
+                e = ex;
+            }
+        }
+        closeChannel();
+        finish(e);
+    }
+
+    private void complete(boolean keepAlive) {
+        exchange.endBody();
+        if (keepAlive)
+            key.interestOps(SelectionKey.OP_READ); // Watch for a close.
+        else
+            closeChannel();
+        finish(null);
+    }
+
+    private void finish(IOException error) {
+        Exchange e = exchange;
+        exchange = null;
+        loop.releaseBuffer(buffer);
+        buffer = null;
+        e.done(error);
+        Exchange next = queue.poll();
+        if (next != null)
+            start(next);
+    }
+
+    private void parse() throws IOException {
+        while (exchange != null && buffer.hasRemaining()) {
+            int n;
+            switch (state) {
+                case STATUS:
+                    if (readLine()) {
+                        parseStatus();
+                        state = HEADERS;
+                    }
+                    break;
+                case HEADERS:
+                    if (readLine()) {
+                        if (line.length() == 0)
+                            headersDone();
+                        else
+                            exchange.addHeader(line.toString());
+                        line.setLength(0);
+                    }
+                    break;
+                case BODY:
+                    n = (int) Math.min(remaining, buffer.remaining());
+                    exchange.receive(buffer, n);
+                    remaining -= n;
+                    if (remaining == 0)
+                        bodyDone();
+                    break;
+                case BODY_TO_CLOSE:
+                    exchange.receive(buffer, buffer.remaining());
+                    break;
+                case CHUNK_SIZE:
+                    if (readLine()) {
+                        remaining = parseChunkSize();
+                        line.setLength(0);
+                        state = remaining == 0 ? TRAILERS : CHUNK_DATA;
+                    }
+                    break;
+                case CHUNK_DATA:
+                    n = (int) Math.min(remaining, buffer.remaining());
+                    exchange.receive(buffer, n);
+                    remaining -= n;
+                    if (remaining == 0)
+                        state = CHUNK_END;
+                    break;
+                case CHUNK_END:
+                    if (readLine()) {
+                        line.setLength(0);
+                        state = CHUNK_SIZE;
+                    }
+                    break;
+                case TRAILERS:
+                    if (readLine()) {
+                        if (line.length() == 0)
+                            bodyDone();
+                        line.setLength(0);
+                    }
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Reads the buffer up to the end of a line, without the line end.
+     * @return True if the line is complete, false if more data is needed
+     * @throws IOException If the line is too long
+     */
+    private boolean readLine() throws IOException {
+        while (buffer.hasRemaining()) {
+            char c = (char) (buffer.get() & 0xff);
+            if (c == '\n') {
+                int length = line.length();
+                if (length > 0 && line.charAt(length - 1) == '\r')
+                    line.setLength(length - 1);
+                return true;
+            }
+            if (line.length() >= MAX_LINE)
+                throw new IOException("HTTP response line too long.");
+            line.append(c);
+        }
+        return false;
+    }
+
+    private void parseStatus() throws IOException {
+        String status = line.toString();
+        line.setLength(0);
+        int space = status.indexOf(' ');
+        if (!status.startsWith("HTTP/") || space < 0 ||
+                status.length() < space + 4)
+            throw new IOException("Bad HTTP status line: " + status);
+        try {
+            exchange.status = Integer.parseInt(
+                    status.substring(space + 1, space + 4));
+        } catch (NumberFormatException e) {
+            throw new IOException("Bad HTTP status line: " + status);
+        }
+        exchange.statusLine = status;
+        exchange.http11 = !status.startsWith("HTTP/1.0");
+    }
+
+    private void headersDone() throws IOException {
+        int status = exchange.status;
+        if (status / 100 == 1) { // Interim response, the real one follows.
+            exchange.headers.clear();
+            state = STATUS;
+            return;
+        }
+        String connection = exchange.getHeader("Connection");
+        if (exchange.http11)
+            exchange.keepAlive = !"close".equalsIgnoreCase(connection);
+        else
+            exchange.keepAlive = "keep-alive".equalsIgnoreCase(connection);
+        exchange.startBody();
+        if ("HEAD".equals(exchange.method) || status == 204 || status == 304) {
+            bodyDone();
+            return;
+        }
+        String encoding = exchange.getHeader("Transfer-Encoding");
+        String length = exchange.getHeader("Content-Length");
+        if (encoding != null &&
+                encoding.toLowerCase(Locale.US).indexOf("chunked") >= 0) {
+            state = CHUNK_SIZE;
+        } else if (length != null) {
+            try {
+                remaining = Long.parseLong(length.trim());
+            } catch (NumberFormatException e) {
+                throw new IOException("Bad Content-Length: " + length);
+            }
+            if (remaining > 0)
+                state = BODY;
+            else
+                bodyDone();
+        } else {
+            exchange.keepAlive = false;
+            state = BODY_TO_CLOSE;
+        }
+    }
+
+    private long parseChunkSize() throws IOException {
+        int end = line.indexOf(";");
+        String size = (end < 0 ? line.toString() : line.substring(0, end)).
+                trim();
+        try {
+            return Long.parseLong(size, 16);
+        } catch (NumberFormatException e) {
+            throw new IOException("Bad chunk size: " + line);
+        }
+    }
+
+    private void bodyDone() {
+        // Data beyond the response leaves the connection unusable.
+        complete(exchange.keepAlive && !buffer.hasRemaining());
+    }
+}
@@ -0,0 +1,1317 @@
+/* The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://www.sun.com/cddl/cddl.html or
+ * install_dir/legal/LICENSE
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at install_dir/legal/LICENSE.
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ *
+ * $Id$
+ *
+ * Copyright 2005-2009 Sun Microsystems Inc. All Rights Reserved
+ */
+package com.sun.faban.driver.transport.nio;
+
+import com.sun.faban.driver.HttpTransport;
+import com.sun.faban.driver.engine.DriverContext;
+import com.sun.faban.driver.engine.TimingInfo;
+import com.sun.faban.driver.transport.util.BodySink;
+import com.sun.faban.driver.transport.util.ResponseMatcher;
+import com.sun.faban.driver.transport.util.Throttle;
+import com.sun.faban.driver.util.ContentSizeStats;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The NioHttpTransport provides the HTTP protocol over non-blocking
+ * sockets. The socket I/O of all transports is multiplexed over a few
+ * event loop threads, so the number of virtual users is not bound by
+ * the threads blocked in socket reads. Select it with:<pre>
+ *     HttpTransport.setProvider(
+ *             "com.sun.faban.driver.transport.nio.NioHttpTransport");
+ * </pre>
+ * The method name conventions are the same as in SunHttpTransport:
+ * "read..." methods discard the response data, "fetch..." methods keep
+ * and decode text data, and "match..." methods fetch and match the data.
+ * <p>
+ * Each transport keeps one keep-alive HTTP/1.1 connection per host, a
+ * few more for the resources of pages, and its own cookies. Cookies are
+ * matched by domain and path and expire by Max-Age or Expires, other
+ * attributes are ignored. Only http URLs are
+ * supported. The invoke time is taken before the request is sent and the
+ * respond time when the last response byte arrives, and up- and download
+ * speeds are throttled as for the other transports. Responses not
+ * complete within faban.nio.timeout ms, 120000 by default, fail with a
+ * SocketTimeoutException.
+ *
+ * @see EventLoop
+ */
+public class NioHttpTransport extends HttpTransport {
+
+    private static final long TIMEOUT =
+            Long.getLong("faban.nio.timeout", 120000l);
+
+    private static final int MAX_REDIRECTS = 10;
+
+    private static final int RESOURCE_CONNECTIONS =
+            Math.max(1, Integer.getInteger("faban.http.resourceConnections", 4));
+
+    private static final String FORM_TYPE = "application/x-www-form-urlencoded";
+
+    private static final String BINARY_TYPE = "application/octet-stream";
+
+    /** The main appendable buffer for the total results. */
+    private StringBuilder charBuffer;
+
+    /** The response code of the last response. */
+    private int responseCode;
+
+    /** The status line of the last response. */
+    private String statusLine;
+
+    /** The response headers of the last response. */
+    private Map<String, List<String>> responseHeader;
+
+    /** The content size of the last read page. */
+    private int contentSize;
+
+    /** The body of the last fetched response, grown as needed. */
+    private byte[] body = new byte[BUFFER_SIZE];
+
+    /** The char used for the reads in fetch* methods. */
+    private char[] charReadBuffer = new char[BUFFER_SIZE];
+
+    /** The buffer to build request heads in. */
+    private StringBuilder requestBuffer = new StringBuilder(512);
+
+    /** A cache for already-compiled regex patterns. */
+    private HashMap<String, Pattern> patternCache;
+
+    /** The connections of this transport, by host and port. */
+    private HashMap<String, NioConnection> connections =
+            new HashMap<String, NioConnection>();
+
+    /** The connections for page resources, by page connection. */
+    private HashMap<NioConnection, NioConnection[]> resourceConnections =
+            new HashMap<NioConnection, NioConnection[]>();
+
+    /** The sizes of the resources read by the last fetchPage. */
+    private int[] resourceSizes = new int[0];
+
+    private ContentSizeStats contentStats;
+
+    private ArrayList<Cookie> cookies = new ArrayList<Cookie>();
+
+    private SimpleDateFormat[] dateFormats;
+
+    private boolean followRedirects = false;
+
+    private HashSet<String> texttypes;
+
+    private DriverContext ctx;
+
+    private Throttle throttle;
+
+    /**
+     * Constructs a new NioHttpTransport object.
+     */
+    public NioHttpTransport() {
+        texttypes = new HashSet<String>();
+        texttypes.add("application/json");
+        ctx = DriverContext.getContext();
+        if (ctx != null)
+            throttle = new Throttle(ctx);
+    }
+
+    /**
+     * Sets the http connections managed by this transport to follow or
+     * not follow HTTP redirects.
+     * @param follow True if HTTP redirects should be automatically followed,
+     *        false otherwise
+     */
+    public void setFollowRedirects(boolean follow) {
+        followRedirects = follow;
+    }
+
+    /**
+     * Add a MIME type to the list of text types. If the response is of this
+     * type the fetchULR() methods will return the response data.
+     *
+     * @param texttype The content type of a HTTP response that contains text.
+     */
+    public void addTextType(String texttype) {
+        texttypes.add(texttype);
+    }
+
+    /**
+     * Checks whether the connections managed by this transport follows
+     * redirects or not.
+     * @return True if redirects are followed, false otherwise
+     */
+    public boolean isFollowRedirects() {
+        return followRedirects;
+    }
+
+    /**
+     * Initializes or re-initializes the buffer.
+     * @param size The size of the buffer
+     */
+    private void reInitBuffer(int size) {
+        if (charBuffer == null)
+            charBuffer = new StringBuilder(size);
+        else
+            charBuffer.setLength(0);
+    }
+
+    /**
+     * Obtains the reference of the current response buffer.
+     * @return The response buffer
+     */
+    public StringBuilder getResponseBuffer() {
+        return charBuffer;
+    }
+
+    /**
+     * Reads data from the URL and discards it, keeping just the size of the
+     * total read. This is useful for ensuring receival of binary or text
+     * data that do not need further analysis.
+     * @param url The URL to read from
+     * @param headers The request headers
+     * @return The number of bytes read
+     * @throws IOException
+     */
+    public int readURL(URL url, Map<String, String> headers)
+            throws IOException {
+        return readResponse(execute(url, null, null, headers, false));
+    }
+
+    /**
+     * Reads data from the URL and discards it, keeping just the size of the
+     * total read. This is useful for ensuring receival of binary or text
+     * data that do not need further analysis.
+     * @param url The URL to read from
+     * @return The number of bytes read
+     * @throws IOException
+     */
+    public int readURL(URL url) throws IOException {
+        return readURL(url, (Map<String, String>) null);
+    }
+
+    /**
+     * Reads data from the URL and discards it, keeping just the size of the
+     * total read. This is useful for ensuring receival of binary or text
+     * data that do not need further analysis.
+     * @param url The URL to read from
+     * @param headers The request headers
+     * @return The number of bytes read
+     * @throws IOException
+     */
+    public int readURL(String url, Map<String, String> headers)
+            throws IOException {
+        return readURL(new URL(url), headers);
+    }
+
+    /**
+     * Reads data from the URL and discards it, keeping just the size of the
+     * total read. This is useful for ensuring receival of binary or text
+     * data that do not need further analysis.
+     * @param url The URL to read from
+     * @return The number of bytes read
+     * @throws IOException
+     */
+    public int readURL(String url) throws IOException {
+        return readURL(new URL(url));
+    }
+
+    /**
+     * Makes a POST request to the URL. Reads data back and discards the data,
+     * keeping just the size of the total read. This is useful for ensuring
+     * receival of binary or text data that do not need further analysis.
+     * @param url The URL to read from
+     * @param postRequest The post request string
+     * @return The number of bytes read
+     * @throws IOException
+     */
+    public int readURL(URL url, String postRequest) throws IOException {
+        return readURL(url, postRequest, null);
+    }
+
+    /**
+     * Makes a POST request to the URL. Reads data back and discards the data,
+     * keeping just the size of the total read. This is useful for ensuring
+     * receival of binary or text data that do not need further analysis.
+     * Note that the POST request will be URL encoded.
+     * @param url The URL to read from
+     * @param postRequest The post request string
+     * @param headers The request headers
+     * @return The number of bytes read
+     * @throws IOException
+     */
+    public int readURL(URL url, String postRequest, Map<String, String> headers)
+            throws IOException {
+        return readResponse(execute(url, postRequest.getBytes("UTF-8"),
+                                    FORM_TYPE, headers, false));
+    }
+
+    /**
+     * Makes a POST request to the URL without encoding the data (the
+     * header type is application/octet-stream).
+     *
+     * @param url The URL to read from
+     * @param postRequest The binary data to send
+     * @param headers The request headers
+     * @return The number of bytes read
+     * @throws IOException
+     */
+    public int readURL(URL url, byte[] postRequest, Map<String, String> headers)
+            throws IOException {
+        return readResponse(execute(url, postRequest, BINARY_TYPE, headers,
+                                    false));
+    }
+
+    /**
+     * Makes a POST request to the URL without encoding the data (the
+     * header type is application/octet-stream).
+     *
+     * @param url The URL to read from
+     * @param postRequest The binary data to send
+     * @return The number of bytes read
+     * @throws IOException
+     */
+    public int readURL(String url, byte[] postRequest) throws IOException {
+        return readURL(new URL(url), postRequest, null);
+    }
+
+    /**
+     * Makes a POST request to the URL. Reads data back and discards the data,
+     * keeping just the size of the total read. This is useful for ensuring
+     * receival of binary or text data that do not need further analysis.
+     *
+     * @param url The URL to read from
+     * @param postRequest The post request string
+     * @return The number of bytes read
+     * @throws IOException
+     */
+    public int readURL(String url, String postRequest) throws IOException {
+        return readURL(new URL(url), postRequest);
+    }
+
+    /**
+     * Makes a POST request to the URL. Reads data back and discards the data,
+     * keeping just the size of the total read. This is useful for ensuring
+     * receival of binary or text data that do not need further analysis.
+     *
+     * @param url The URL to read from
+     * @param postRequest The post request string
+     * @param headers The request headers
+     * @return The number of bytes read
+     * @throws IOException
+     */
+    public int readURL(String url, String postRequest,
+                       Map<String, String> headers) throws IOException {
+        return readURL(new URL(url), postRequest, headers);
+    }
+
+    /**
+     * Reads data from the URL into the sink, without decoding. The event
+     * loop passes the data to the sink as it is received.
+     * @param url The URL to read from
+     * @param sink The sink receiving the data
+     * @param headers The request headers
+     * @return The number of bytes read
+     * @throws IOException
+     */
+    public int readURL(URL url, BodySink sink, Map<String, String> headers)
+            throws IOException {
+        return readResponse(execute(url, null, null, headers, false, null,
+                                    sink));
+    }
+
+    /**
+     * Makes a POST request to the URL and reads the data back into the
+     * sink. Note that the POST request will be URL encoded.
+     * @param url The URL to read from
+     * @param postRequest The post request string
+     * @param sink The sink receiving the data
+     * @param headers The request headers, or null
+     * @return The number of bytes read
+     * @throws IOException
+     */
+    public int readURL(URL url, String postRequest, BodySink sink,
+                       Map<String, String> headers) throws IOException {
+        return readResponse(execute(url, postRequest.getBytes("UTF-8"),
+                                    FORM_TYPE, headers, false, null, sink));
+    }
+
+    /**
+     * Reads data from the URL and returns the data read. Note that this
+     * method only works with text data as it does the byte-to-char
+     * conversion. This method will return null for responses with binary
+     * MIME types. The addTextType(String) method is used to register
+     * additional MIME types as text types.
+     *
+     * @param url The URL to read from
+     * @param headers The request headers
+     * @return The StringBuilder buffer containing the resulting document
+     * @throws IOException
+     * @see #addTextType(String)
+     * @see #getContentSize()
+     */
+    public StringBuilder fetchURL(URL url, Map<String, String> headers)
+            throws IOException {
+        return fetchResponse(execute(url, null, null, headers, true));
+    }
+
+    /**
+     * Reads data from the URL and returns the data read. Note that this
+     * method only works with text data as it does the byte-to-char
+     * conversion. This method will return null for responses with binary
+     * MIME types. The addTextType(String) method is used to register
+     * additional MIME types as text types. Use getContentSize()
+     * to obtain the bytes of binary data read.
+     *
+     * @param url The URL to read from
+     * @return The StringBuilder buffer containing the resulting document
+     * @throws IOException
+     * @see #addTextType(String)
+     * @see #getContentSize()
+     */
+    public StringBuilder fetchURL(URL url) throws IOException {
+        return fetchURL(url, (Map<String, String>) null);
+    }
+
+    /**
+     * Reads data from the URL and returns the data read. Note that this
+     * method only works with text data as it does the byte-to-char
+     * conversion. This method will return null for responses with binary
+     * MIME types. The addTextType(String) method is used to register
+     * additional MIME types as text types. Use getContentSize()
+     * to obtain the bytes of binary data read.
+     *
+     * @param url The URL to read from
+     * @param headers The request headers
+     * @return The StringBuilder buffer containing the resulting document
+     * @throws IOException
+     * @see #addTextType(String)
+     * @see #getContentSize()
+     */
+    public StringBuilder fetchURL(String url, Map<String, String> headers)
+            throws IOException {
+        return fetchURL(new URL(url), headers);
+    }
+
+    /**
+     * Reads data from the URL and returns the data read. Note that this
+     * method only works with text data as it does the byte-to-char
+     * conversion. This method will return null for responses with binary
+     * MIME types. The addTextType(String) method is used to register
+     * additional MIME types as text types. Use getContentSize()
+     * to obtain the bytes of binary data read.
+     *
+     * @param url The URL to read from
+     * @return The StringBuilder buffer containing the resulting document
+     * @throws IOException
+     * @see #addTextType(String)
+     * @see #getContentSize()
+     */
+    public StringBuilder fetchURL(String url) throws IOException {
+        return fetchURL(new URL(url));
+    }
+
+    /**
+     * Makes a POST request to the URL. Reads data back and returns the data
+     * read. Note that this method only works with text data as it does the
+     * byte-to-char conversion. This method will return null for responses
+     * with binary MIME types. The addTextType(String) method is used to
+     * register additional MIME types as text types. Use getContentSize()
+     * to obtain the bytes of binary data read.
+     *
+     * @param url The URL to read from
+     * @param postRequest The post request string
+     * @return The StringBuilder buffer containing the resulting document
+     * @throws IOException
+     * @see #addTextType(String)
+     * @see #getContentSize()
+     */
+    public StringBuilder fetchURL(String url, String postRequest)
+            throws IOException {
+        return fetchURL(new URL(url), postRequest);
+    }
+
+    /**
+     * Makes a POST request to the URL. Reads data back and returns the data
+     * read. Note that this method only works with text data as it does the
+     * byte-to-char conversion. This method will return null for responses
+     * with binary MIME types. The addTextType(String) method is used to
+     * register additional MIME types as text types. Use getContentSize()
+     * to obtain the bytes of binary data read.
+     *
+     * @param url The URL to read from
+     * @param postRequest The post request string
+     * @param headers The request headers
+     * @return The StringBuilder buffer containing the resulting document
+     * @throws IOException
+     * @see #addTextType(String)
+     * @see #getContentSize()
+     */
+    public StringBuilder fetchURL(String url, String postRequest,
+                                  Map<String, String> headers)
+            throws IOException {
+        return fetchURL(new URL(url), postRequest, headers);
+    }
+
+    /**
+     * Makes a POST request to the URL. Reads data back and returns the data
+     * read. Note that this method only works with text data as it does the
+     * byte-to-char conversion. This method will return null for responses
+     * with binary MIME types. The addTextType(String) method is used to
+     * register additional MIME types as text types. Use getContentSize()
+     * to obtain the bytes of binary data read.
+     *
+     * @param url The URL to read from
+     * @param postRequest The post request string
+     * @param headers The request headers
+     * @return The StringBuilder buffer containing the resulting document
+     * @throws IOException
+     * @see #addTextType(String)
+     * @see #getContentSize()
+     */
+    public StringBuilder fetchURL(URL url, String postRequest,
+                                  Map<String, String> headers)
+            throws IOException {
+        return fetchResponse(execute(url, postRequest.getBytes("UTF-8"),
+                                     FORM_TYPE, headers, true));
+    }
+
+    /**
+     * Makes a POST request to the URL. Reads data back and returns the data
+     * read. Note that this method only works with text data as it does the
+     * byte-to-char conversion. This method will return null for responses
+     * with binary MIME types. The addTextType(String) method is used to
+     * register additional MIME types as text types. Use getContentSize()
+     * to obtain the bytes of binary data read.
+     *
+     * @param url The URL to read from
+     * @param postRequest The post request string
+     * @return The StringBuilder buffer containing the resulting document
+     * @throws IOException
+     * @see #addTextType(String)
+     * @see #getContentSize()
+     */
+    public StringBuilder fetchURL(URL url, String postRequest)
+            throws IOException {
+        return fetchURL(url, postRequest, null);
+    }
+
+    /**
+     * Fetches the main page, making a POST request if a post string is
+     * given, and then reads all other image or resource pages based on
+     * the given URLs concurrently. The resources are spread over up to
+     * faban.http.resourceConnections keep-alive connections per host,
+     * 4 by default, the first one being the connection of the page.
+     * Redirects of resources are not followed. The respond time is the
+     * arrival of the last byte of the last resource.
+     *
+     * @param page The page URL
+     * @param images The image or other resource URLs to fetch with page
+     * @param postRequest The post string, or null for a GET request
+     * @return The buffer of the main page
+     * @throws IOException If an I/O error occurred
+     */
+    public StringBuilder fetchURL(URL page, URL[] images, String postRequest)
+            throws IOException {
+        StringBuilder buffer;
+        if (postRequest == null)
+            buffer = fetchURL(page);
+        else
+            buffer = fetchURL(page, postRequest);
+        if (images.length > 0)
+            readResources(images);
+        return buffer;
+    }
+
+    /**
+     * Reads the resources of a page concurrently. All requests are queued
+     * on the connections at once and the event loops send each as soon as
+     * its connection is free.
+     * @param resources The resource URLs
+     * @throws IOException If reading a resource failed
+     */
+    private void readResources(URL[] resources) throws IOException {
+        if (resourceSizes.length < resources.length)
+            resourceSizes = new int[resources.length];
+        Exchange[] exchanges = new Exchange[resources.length];
+        NioConnection[] used = new NioConnection[resources.length];
+        int requestBytes = 0;
+        for (int i = 0; i < resources.length; i++) {
+            URL url = resources[i];
+            checkProtocol(url);
+            used[i] = getResourceConnection(url, i);
+            exchanges[i] = new Exchange("GET",
+                    buildRequest("GET", url, null, null, null), null, null,
+                    null, null);
+            requestBytes += exchanges[i].request.length;
+        }
+        if (ctx != null && throttle.isThrottled(Throttle.UP))
+            throttle.throttle(requestBytes, System.nanoTime(), Throttle.UP);
+        for (int i = 0; i < resources.length; i++)
+            used[i].send(exchanges[i]);
+
+        long deadline = System.currentTimeMillis() + TIMEOUT;
+        long firstByteTime = Long.MAX_VALUE;
+        long lastByteTime = TimingInfo.TIME_NOT_SET;
+        int received = 0;
+        IOException error = null;
+        for (int i = 0; i < resources.length; i++) {
+            Exchange e = exchanges[i];
+            try {
+                long timeout = Math.max(1l,
+                        deadline - System.currentTimeMillis());
+                if (!e.await(timeout)) {
+                    used[i].abort(e);
+                    throw new SocketTimeoutException("No HTTP response " +
+                            "from " + resources[i] + " within " + TIMEOUT +
+                            " ms.");
+                }
+            } catch (IOException ex) {
+                if (error == null)
+                    error = ex;
+                continue;
+            }
+            resourceSizes[i] = e.length;
+            storeCookies(resources[i], e);
+            if (e.started) {
+                firstByteTime = Math.min(firstByteTime, e.firstByteTime);
+                lastByteTime = Math.max(lastByteTime, e.lastByteTime);
+                received += e.received;
+            }
+        }
+        if (error != null)
+            throw error;
+        if (ctx != null && lastByteTime != TimingInfo.TIME_NOT_SET) {
+            if (throttle.isThrottled(Throttle.DOWN)) {
+                throttle.throttle(received, firstByteTime, Throttle.DOWN);
+                ctx.recordEndTime();
+            } else {
+                ctx.recordEndTime(lastByteTime);
+            }
+            if (contentStats != null && ctx.isTxSteadyState())
+                contentStats.addResources(ctx.getOperationId(),
+                        resourceSizes, resources.length);
+        }
+    }
+
+    /**
+     * Makes a POST request, fetches the main page and all other image or
+     * resource pages.
+     *
+     * @param page The page URL
+     * @param images The image or other resource URLs to fetch with page
+     * @param postRequest The post string
+     * @return The buffer of the main page
+     * @throws IOException If an I/O error occurred
+     */
+    public StringBuilder fetchPage(String page, String[] images,
+                                  String postRequest) throws IOException {
+        URL[] imgURLs = new URL[images.length];
+        for (int i = 0; i < imgURLs.length; i++)
+            imgURLs[i] = new URL(images[i]);
+        return fetchURL(new URL(page), imgURLs, postRequest);
+    }
+
+    /**
+     * Obtains the size of the last read page or resource. The result is in
+     * bytes for non-decoded content and in characters for decoded content.
+     * All binary content is not decoded. Text content is decoded only using
+     * the fetch or match commands.
+     * @return The size, in bytes, of the last page read
+     */
+    public int getContentSize() {
+        return contentSize;
+    }
+
+    /**
+     * Fetches the data from the stream, converts to char, and returns it as
+     * a StringBuilder.
+     * @param stream The stream to read from
+     * @return The resulting data
+     * @throws IOException
+     */
+    public StringBuilder fetchResponseData(InputStream stream)
+            throws IOException {
+        return fetchResponseData(new InputStreamReader(stream));
+    }
+
+    /**
+     * Fetches the data from the reader and returns it as a StringBuilder.
+     * @param reader The reader to read from
+     * @return The resulting data
+     * @throws IOException
+     */
+    public StringBuilder fetchResponseData(Reader reader) throws IOException {
+        int totalLength = 0;
+        int length = reader.read(charReadBuffer, 0, charReadBuffer.length);
+        if (length > 0)
+            reInitBuffer(length);
+        else
+            reInitBuffer(2048);
+
+        while (length != -1) {
+            totalLength += length;
+            charBuffer.append(charReadBuffer, 0, length);
+            length = reader.read(charReadBuffer, 0, charReadBuffer.length);
+        }
+        contentSize = totalLength;
+        return charBuffer;
+    }
+
+    /**
+     * Maches the regular expression against the data in the current buffer.
+     * @param regex The regular expression to match
+     * @return True if the match succeeds, false otherwise
+     */
+    public boolean matchResponse(String regex) {
+        if (patternCache == null)
+            patternCache = new HashMap<String, Pattern>();
+        Pattern pattern = patternCache.get(regex);
+        if (pattern == null) {
+            pattern = Pattern.compile(regex);
+            patternCache.put(regex, pattern);
+        }
+        Matcher matcher = pattern.matcher(charBuffer);
+        return matcher.find();
+    }
+
+    /**
+     * Matches the regular expression against the data read from the stream.
+     * @param stream The source of the data
+     * @param regex The regular expression to match
+     * @return True if the match succeeds, false otherwise
+     * @throws IOException
+     */
+    public boolean matchResponse(InputStream stream, String regex)
+            throws IOException {
+        fetchResponseData(stream);
+        return matchResponse(regex);
+    }
+
+    /**
+     * Matches the regular expression against the data read from the reader.
+     * @param reader The source of the data
+     * @param regex The regular expression to match
+     * @return True if the match succeeds, false otherwise
+     * @throws IOException
+     */
+    public boolean matchResponse(Reader reader, String regex)
+            throws IOException {
+        fetchResponseData(reader);
+        return matchResponse(regex);
+    }
+
+    /**
+     * Reads data from the URL and matches the regular expression.
+     * @param url The URL to read from
+     * @param regex The regular expression to match
+     * @return True if the match succeeds, false otherwise
+     * @throws IOException
+     */
+    public boolean matchURL(String url, String regex) throws IOException {
+        return fetchURL(url) != null && matchResponse(regex);
+    }
+
+    /**
+     * Reads data from the URL and matches the regular expression.
+     * @param url The URL to read from
+     * @param regex The regular expression to match
+     * @param headers The request headers
+     * @return True if the match succeeds, false otherwise
+     * @throws IOException
+     */
+    public boolean matchURL(String url, String regex,
+                            Map<String, String> headers) throws IOException {
+        return fetchURL(url, headers) != null && matchResponse(regex);
+    }
+
+    /**
+     * Reads data from the URL and matches the regular expression.
+     * @param url The URL to read from
+     * @param regex The regular expression to match
+     * @return True if the match succeeds, false otherwise
+     * @throws IOException
+     */
+    public boolean matchURL(URL url, String regex) throws IOException {
+        return fetchURL(url) != null && matchResponse(regex);
+    }
+
+    /**
+     * Reads data from the URL and matches the regular expression.
+     * @param url The URL to read from
+     * @param regex The regular expression to match
+     * @param headers The request headers
+     * @return True if the match succeeds, false otherwise
+     * @throws IOException
+     */
+    public boolean matchURL(URL url, String regex, Map<String, String> headers)
+            throws IOException {
+        return fetchURL(url, headers) != null && matchResponse(regex);
+    }
+
+    /**
+     * Makes a POST request to the URL and matches the regular expression
+     * against the response.
+     * @param url The URL to read from
+     * @param postRequest The post request string
+     * @param regex The regular expression to match
+     * @return True if the match succeeds, false otherwise
+     * @throws IOException
+     */
+    public boolean matchURL(URL url, String postRequest, String regex)
+            throws IOException {
+        return fetchURL(url, postRequest) != null && matchResponse(regex);
+    }
+
+    /**
+     * Makes a POST request to the URL and matches the regular expression
+     * against the response.
+     * @param url The URL to read from
+     * @param postRequest The post request string
+     * @param regex The regular expression to match
+     * @param headers The request headers
+     * @return True if the match succeeds, false otherwise
+     * @throws IOException
+     */
+    public boolean matchURL(URL url, String postRequest, String regex,
+                            Map<String, String> headers) throws IOException {
+        return fetchURL(url, postRequest, headers) != null &&
+                matchResponse(regex);
+    }
+
+    /**
+     * Makes a POST request to the URL and matches the regular expression
+     * against the response.
+     * @param url The URL to read from
+     * @param postRequest The post request string
+     * @param regex The regular expression to match
+     * @return True if the match succeeds, false otherwise
+     * @throws IOException
+     */
+    public boolean matchURL(String url, String postRequest, String regex)
+            throws IOException {
+        return fetchURL(url, postRequest) != null && matchResponse(regex);
+    }
+
+    /**
+     * Makes a POST request to the URL and matches the regular expression
+     * against the response.
+     * @param url The URL to read from
+     * @param postRequest The post request string
+     * @param regex The regular expression to match
+     * @param headers The request headers
+     * @return True if the match succeeds, false otherwise
+     * @throws IOException
+     */
+    public boolean matchURL(String url, String postRequest, String regex,
+                            Map<String, String> headers) throws IOException {
+        return fetchURL(url, postRequest, headers) != null &&
+                matchResponse(regex);
+    }
+
+    /**
+     * Matches the response fetched from the URL while the response arrives.
+     * The event loop runs the matcher over the body as it is received,
+     * the response is not kept in the response buffer. The content size is
+     * the size in bytes.
+     * @param url The source of the data
+     * @param matcher The compiled matcher
+     * @param headers The request headers
+     * @return True if the match succeeds, false otherwise
+     * @throws IOException
+     */
+    public boolean matchURL(URL url, ResponseMatcher matcher,
+                            Map<String, String> headers) throws IOException {
+        return matchResponse(execute(url, null, null, headers, true, matcher,
+                                     null));
+    }
+
+    /**
+     * Matches the response fetched from the post request made to the URL
+     * while the response arrives.
+     * @param url The source of the data
+     * @param postRequest The post request string
+     * @param matcher The compiled matcher
+     * @param headers The request headers, or null
+     * @return True if the match succeeds, false otherwise
+     * @throws IOException
+     * @see #matchURL(URL, ResponseMatcher, Map)
+     */
+    public boolean matchURL(URL url, String postRequest,
+                            ResponseMatcher matcher,
+                            Map<String, String> headers) throws IOException {
+        return matchResponse(execute(url, postRequest.getBytes("UTF-8"),
+                                     FORM_TYPE, headers, true, matcher,
+                                     null));
+    }
+
+    /**
+     * Obtains the list of cookie values by the name of the cookies.
+     * @param name The cookie name
+     * @return An array of non-duplicating cookie values.
+     */
+    public String[] getCookieValuesByName(String name) {
+        LinkedHashSet<String> values = new LinkedHashSet<String>();
+        for (Cookie cookie : cookies)
+            if (cookie.name.equals(name))
+                values.add(cookie.value);
+        return values.toArray(new String[values.size()]);
+    }
+
+    /**
+     * Obtains the header fields of the last request's response.
+     * @param name The response header field of interest
+     * @return An array of response header values, or null if the header
+     *         is not present
+     */
+    public String[] getResponseHeader(String name) {
+        List<String> values = responseHeader.get(name);
+        if (values == null)
+            return null;
+        return values.toArray(new String[values.size()]);
+    }
+
+    /**
+     * Utility class to get responseHeaders as a string.  The formatting is
+     * not localized
+     *
+     * @return responseHeaders
+     */
+    public String dumpResponseHeaders() {
+        StringBuilder s = new StringBuilder();
+        s.append(statusLine).append('\n');
+        for (Map.Entry<String, List<String>> entry :
+                responseHeader.entrySet()) {
+            for (String value : entry.getValue()) {
+                s.append(entry.getKey());
+                s.append(": ");
+                s.append(value);
+                s.append('\n');
+            }
+        }
+        return s.toString();
+    }
+
+    /**
+     * Obtains the response code of the previous request.
+     * @return responseCode The response code
+     */
+    public int getResponseCode() {
+        return responseCode;
+    }
+
+    /**
+     * Sets the stats to add the sizes of the resources read by fetchPage
+     * to. The sizes are added in steady state only.
+     * @param stats The stats, or null to not collect resource sizes
+     */
+    public void setContentSizeStats(ContentSizeStats stats) {
+        contentStats = stats;
+    }
+
+    /**
+     * Closes the idle connections of this transport. Later requests open
+     * new connections.
+     */
+    public void closeConnections() {
+        for (NioConnection connection : connections.values())
+            connection.close();
+        connections.clear();
+        for (NioConnection[] hostConnections : resourceConnections.values())
+            for (int i = 1; i < hostConnections.length; i++)
+                if (hostConnections[i] != null)
+                    hostConnections[i].close();
+        resourceConnections.clear();
+    }
+
+    /**
+     * Executes a request, following redirects if set.
+     * @param url The URL
+     * @param data The POST data, or null for a GET request
+     * @param contentType The default content type of the POST data
+     * @param headers The request headers, may be null
+     * @param fetch Whether to keep text responses
+     * @return The completed exchange
+     * @throws IOException If the request failed
+     */
+    private Exchange execute(URL url, byte[] data, String contentType,
+                             Map<String, String> headers, boolean fetch)
+            throws IOException {
+        return execute(url, data, contentType, headers, fetch, null, null);
+    }
+
+    /**
+     * Executes a request, matching text responses or passing responses to
+     * a sink on the event loop instead of keeping them.
+     * @param matcher The matcher, or null
+     * @param sink The sink, or null
+     * @see #execute(URL, byte[], String, Map, boolean)
+     */
+    private Exchange execute(URL url, byte[] data, String contentType,
+                             Map<String, String> headers, boolean fetch,
+                             ResponseMatcher matcher, BodySink sink)
+            throws IOException {
+        for (int redirects = 0;; redirects++) {
+            Exchange e = send(url, data, contentType, headers, fetch,
+                              matcher, sink);
+            int status = e.status;
+            if (!followRedirects || redirects >= MAX_REDIRECTS ||
+                    (status < 301 || status > 303) && status != 307 &&
+                    status != 308)
+                return e;
+            String location = e.getHeader("Location");
+            if (location == null)
+                return e;
+            url = new URL(url, location);
+            if (status < 307) // Browsers redirect with a GET.
+                data = null;
+        }
+    }
+
+    private Exchange send(URL url, byte[] data, String contentType,
+                          Map<String, String> headers, boolean fetch,
+                          ResponseMatcher matcher, BodySink sink)
+            throws IOException {
+        checkProtocol(url);
+        NioConnection connection = getConnection(url);
+        String method = data == null ? "GET" : "POST";
+        Exchange e = new Exchange(method,
+                buildRequest(method, url, data, contentType, headers),
+                fetch ? texttypes : null, body, matcher, sink);
+
+        if (ctx != null) {
+            long startWriteAt = ctx.recordStartTime();
+            if (throttle.isThrottled(Throttle.UP)) {
+                if (startWriteAt == TimingInfo.TIME_NOT_SET)
+                    startWriteAt = System.nanoTime();
+                throttle.throttle(e.request.length, startWriteAt, Throttle.UP);
+            }
+        }
+        connection.send(e);
+        if (!e.await(TIMEOUT)) {
+            connection.abort(e);
+            // The abort happens on the event loop, which may still write
+            // into the body, matcher and sink of this exchange until then.
+            // If the loop is stuck, the next exchange gets its own body.
+            if (!e.awaitAbort(TIMEOUT))
+                body = new byte[BUFFER_SIZE];
+            throw new SocketTimeoutException("No HTTP response from " + url +
+                    " within " + TIMEOUT + " ms.");
+        }
+        body = e.body;
+        if (ctx != null && e.started) {
+            // The response arrived on the event loop, so the respond time
+            // is the arrival of the last byte, or the end of the throttled
+            // download.
+            if (throttle.isThrottled(Throttle.DOWN)) {
+                throttle.throttle(e.received, e.firstByteTime, Throttle.DOWN);
+                ctx.recordEndTime();
+            } else {
+                ctx.recordEndTime(e.lastByteTime);
+            }
+        }
+        responseCode = e.status;
+        statusLine = e.statusLine;
+        responseHeader = e.headers;
+        storeCookies(url, e);
+        return e;
+    }
+
+    private static void checkProtocol(URL url) throws IOException {
+        if (!"http".equalsIgnoreCase(url.getProtocol()))
+            throw new IOException("NioHttpTransport does not support " +
+                    url.getProtocol() + " URLs.");
+    }
+
+    private NioConnection getConnection(URL url) throws IOException {
+        String host = url.getHost();
+        int port = url.getPort();
+        if (port == -1)
+            port = url.getDefaultPort();
+        String key = host + ':' + port;
+        NioConnection connection = connections.get(key);
+        if (connection == null) {
+            InetSocketAddress address = new InetSocketAddress(host, port);
+            if (address.isUnresolved())
+                throw new UnknownHostException(host);
+            connection = new NioConnection(address, EventLoop.next());
+            connections.put(key, connection);
+        }
+        return connection;
+    }
+
+    /**
+     * Obtains a connection for the nth resource of a page. The page
+     * connection to the host is the first of the resource connections.
+     */
+    private NioConnection getResourceConnection(URL url, int n)
+            throws IOException {
+        NioConnection first = getConnection(url);
+        NioConnection[] hostConnections = resourceConnections.get(first);
+        if (hostConnections == null) {
+            hostConnections = new NioConnection[RESOURCE_CONNECTIONS];
+            hostConnections[0] = first;
+            resourceConnections.put(first, hostConnections);
+        }
+        int i = n % hostConnections.length;
+        if (hostConnections[i] == null)
+            hostConnections[i] = new NioConnection(first.address,
+                                                   EventLoop.next());
+        return hostConnections[i];
+    }
+
+    /**
+     * Builds the request. The Accept-Language header is added if not given,
+     * as by SunHttpTransport.
+     */
+    private byte[] buildRequest(String method, URL url, byte[] data,
+                                String contentType,
+                                Map<String, String> headers) {
+        StringBuilder b = requestBuffer;
+        b.setLength(0);
+        String file = url.getFile();
+        b.append(method).append(' ').append(file.length() == 0 ? "/" : file).
+                append(" HTTP/1.1\r\nHost: ").append(url.getHost());
+        if (url.getPort() != -1)
+            b.append(':').append(url.getPort());
+        b.append("\r\n");
+        boolean language = false;
+        if (headers != null) {
+            for (Map.Entry<String, String> entry : headers.entrySet()) {
+                String name = entry.getKey();
+                if ("Content-Length".equalsIgnoreCase(name))
+                    continue;
+                if ("Accept-Language".equalsIgnoreCase(name))
+                    language = true;
+                else if ("Content-Type".equalsIgnoreCase(name))
+                    contentType = null;
+                b.append(name).append(": ").append(entry.getValue()).
+                        append("\r\n");
+            }
+        }
+        if (!language)
+            b.append("Accept-Language: en-us,en;q=0.5\r\n");
+        if (data != null) {
+            if (contentType != null)
+                b.append("Content-Type: ").append(contentType).append("\r\n");
+            b.append("Content-Length: ").append(data.length).append("\r\n");
+        }
+        appendCookies(b, url);
+        b.append("\r\n");
+
+        int headLength = b.length();
+        byte[] request = new byte[headLength +
+                                  (data == null ? 0 : data.length)];
+        for (int i = 0; i < headLength; i++)
+            request[i] = (byte) b.charAt(i);
+        if (data != null)
+            System.arraycopy(data, 0, request, headLength, data.length);
+        return request;
+    }
+
+    private void storeCookies(URL url, Exchange e) {
+        List<String> setCookies = e.headers.get("Set-Cookie");
+        if (setCookies != null)
+            for (String setCookie : setCookies)
+                addCookie(url, setCookie);
+    }
+
+    private int readResponse(Exchange e) {
+        contentSize = e.length;
+        return contentSize;
+    }
+
+    private boolean matchResponse(Exchange e) {
+        contentSize = e.length;
+        return e.isMatched();
+    }
+
+    /**
+     * Decodes a kept text response into the response buffer.
+     * @param e The exchange
+     * @return The response buffer, or null for binary responses
+     * @throws IOException If the charset is not supported
+     */
+    private StringBuilder fetchResponse(Exchange e) throws IOException {
+        if (!e.isBodyKept()) {
+            contentSize = e.length;
+            return null;
+        }
+        CharsetDecoder decoder = e.getCharset().newDecoder().
+                onMalformedInput(CodingErrorAction.REPLACE).
+                onUnmappableCharacter(CodingErrorAction.REPLACE);
+        ByteBuffer in = ByteBuffer.wrap(e.body, 0, e.length);
+        CharBuffer out = CharBuffer.wrap(charReadBuffer);
+        reInitBuffer(e.length);
+        CoderResult result;
+        do {
+            result = decoder.decode(in, out, true);
+            appendDecoded(out);
+        } while (result.isOverflow());
+        do {
+            result = decoder.flush(out);
+            appendDecoded(out);
+        } while (result.isOverflow());
+        contentSize = charBuffer.length();
+        return charBuffer;
+    }
+
+    private void appendDecoded(CharBuffer out) {
+        out.flip();
+        charBuffer.append(charReadBuffer, 0, out.limit());
+        out.clear();
+    }
+
+    /**
+     * Stores a cookie from a Set-Cookie header. Cookies for other domains
+     * are rejected.
+     */
+    private void addCookie(URL url, String setCookie) {
+        String[] parts = setCookie.split(";");
+        int eq = parts[0].indexOf('=');
+        if (eq <= 0)
+            return;
+        Cookie cookie = new Cookie();
+        cookie.name = parts[0].substring(0, eq).trim();
+        cookie.value = parts[0].substring(eq + 1).trim();
+        String host = url.getHost().toLowerCase(Locale.US);
+        cookie.domain = host;
+        cookie.hostOnly = true;
+        String path = url.getPath();
+        int slash = path.lastIndexOf('/');
+        cookie.path = slash > 0 ? path.substring(0, slash) : "/";
+        boolean expired = false;
+        for (int i = 1; i < parts.length; i++) {
+            String attr = parts[i].trim();
+            String value = "";
+            eq = attr.indexOf('=');
+            if (eq >= 0) {
+                value = attr.substring(eq + 1).trim();
+                attr = attr.substring(0, eq).trim();
+            }
+            if ("domain".equalsIgnoreCase(attr) && value.length() > 0) {
+                String domain = value.toLowerCase(Locale.US);
+                if (domain.charAt(0) == '.')
+                    domain = domain.substring(1);
+                if (!host.equals(domain) && !host.endsWith('.' + domain))
+                    return;
+                cookie.domain = domain;
+                cookie.hostOnly = false;
+            } else if ("path".equalsIgnoreCase(attr) &&
+                    value.startsWith("/")) {
+                cookie.path = value;
+            } else if ("max-age".equalsIgnoreCase(attr)) {
+                try {
+                    expired = Long.parseLong(value) <= 0;
+                } catch (NumberFormatException e) {
+                    // Ignore the attribute, as browsers do.
+                }
+            } else if ("expires".equalsIgnoreCase(attr)) {
+                Date expires = parseDate(value);
+                if (expires != null)
+                    expired = expires.getTime() <= System.currentTimeMillis();
+            }
+        }
+        for (Iterator<Cookie> iter = cookies.iterator(); iter.hasNext();) {
+            Cookie c = iter.next();
+            if (c.name.equals(cookie.name) && c.domain.equals(cookie.domain) &&
+                    c.path.equals(cookie.path))
+                iter.remove();
+        }
+        if (!expired)
+            cookies.add(cookie);
+    }
+
+    private Date parseDate(String date) {
+        if (dateFormats == null) {
+            dateFormats = new SimpleDateFormat[] {
+                new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz",
+                                     Locale.US),
+                new SimpleDateFormat("EEE, dd-MMM-yyyy HH:mm:ss zzz",
+                                     Locale.US),
+                new SimpleDateFormat("EEE, dd-MMM-yy HH:mm:ss zzz", Locale.US)
+            };
+        }
+        for (SimpleDateFormat format : dateFormats) {
+            try {
+                return format.parse(date);
+            } catch (ParseException e) {
+                // Try the next format.
+            }
+        }
+        return null;
+    }
+
+    private void appendCookies(StringBuilder b, URL url) {
+        String host = url.getHost().toLowerCase(Locale.US);
+        String path = url.getPath();
+        if (path.length() == 0)
+            path = "/";
+        boolean first = true;
+        for (Cookie cookie : cookies) {
+            if (!path.startsWith(cookie.path))
+                continue;
+            if (cookie.hostOnly ? !host.equals(cookie.domain) :
+                    !host.equals(cookie.domain) &&
+                    !host.endsWith('.' + cookie.domain))
+                continue;
+            b.append(first ? "Cookie: " : "; ");
+            b.append(cookie.name).append('=').append(cookie.value);
+            first = false;
+        }
+        if (!first)
+            b.append("\r\n");
+    }
+
+    /** A cookie received by this transport. */
+    private static class Cookie {
+        String name;
+        String value;
+        String domain;
+        String path;
+        boolean hostOnly;
+    }
+}
@@ -25,11 +25,16 @@
 package com.sun.faban.driver.transport.sunhttp;
 
 import com.sun.faban.driver.HttpTransport;
+import com.sun.faban.driver.engine.DriverContext;
+import com.sun.faban.driver.transport.util.BodySink;
+import com.sun.faban.driver.transport.util.ResponseMatcher;
+import com.sun.faban.driver.util.ContentSizeStats;
 
 import java.io.*;
 import java.net.HttpURLConnection;
 import java.net.URL;
 import java.net.URLConnection;
+import java.nio.charset.Charset;
 import java.util.*;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -105,6 +110,11 @@ public class SunHttpTransport extends HttpTransport {
 
     private HashSet<String> texttypes;
 
+    /** The sizes of the resources read by the last fetchPage. */
+    private int[] resourceSizes = new int[0];
+
+    private ContentSizeStats contentStats;
+
     /**
      * Constructs a new SunHttpTransport object.
      */
@@ -362,6 +372,46 @@ public class SunHttpTransport extends HttpTransport {
         return readURL(new URL(url), postRequest, headers);
     }
 
+    /**
+     * Reads data from the URL into the sink, without decoding.
+     * @param url The URL to read from
+     * @param sink The sink receiving the data
+     * @param headers The request headers
+     * @return The number of bytes read
+     * @throws IOException
+     */
+    public int readURL(URL url, BodySink sink, Map<String, String> headers)
+            throws IOException {
+        HttpURLConnection c = getConnection(url);
+        setHeaders(c, headers);
+        return readResponse(c, sink);
+    }
+
+    /**
+     * Makes a POST request to the URL and reads the data back into the
+     * sink. Note that the POST request will be URL encoded.
+     * @param url The URL to read from
+     * @param postRequest The post request string
+     * @param sink The sink receiving the data
+     * @param headers The request headers, or null
+     * @return The number of bytes read
+     * @throws IOException
+     */
+    public int readURL(URL url, String postRequest, BodySink sink,
+                       Map<String, String> headers) throws IOException {
+        return readResponse(postConnection(url, postRequest, headers), sink);
+    }
+
+    private int readResponse(HttpURLConnection connection, BodySink sink)
+            throws IOException {
+        responseCode = connection.getResponseCode();
+        responseHeader = connection.getHeaderFields();
+        InputStream is = connection.getInputStream();
+        contentSize = sink.read(is);
+        is.close();
+        return contentSize;
+    }
+
     /**
      * Reads data from the URL and returns the data read. Note that this
      * method only works with text data as it does the byte-to-char
@@ -501,6 +551,20 @@ public class SunHttpTransport extends HttpTransport {
     public StringBuilder fetchURL(URL url, String postRequest,
                                   Map<String, String> headers)
             throws IOException {
+        return fetchResponse(postConnection(url, postRequest, headers));
+    }
+
+    /**
+     * Makes a form POST request to the URL.
+     * @param url The URL to post to
+     * @param postRequest The post request string
+     * @param headers The request headers, or null
+     * @return The connection, ready for reading the response
+     * @throws IOException
+     */
+    private HttpURLConnection postConnection(URL url, String postRequest,
+                                             Map<String, String> headers)
+            throws IOException {
         String postHeader = "Content-Type";
         String postHeaderValue = "application/x-www-form-urlencoded";
         if (headers == null) {
@@ -517,7 +581,7 @@ public class SunHttpTransport extends HttpTransport {
         HttpURLConnection c = getConnection(url);
         setHeaders(c, headers);
         postRequest(c, postRequest.getBytes("UTF-8"));
-        return fetchResponse(c);
+        return c;
     }
 
     /**
@@ -540,47 +604,53 @@ public class SunHttpTransport extends HttpTransport {
         return fetchURL(url, postRequest, null);
     }
 
-    /*
-     * Method not implemented. Makes a GET request. Fetches the main page
-     * and all other image or resource pages based on the given URLs.
+    /**
+     * Fetches the main page, with a POST request if a post string is given,
+     * and then reads all other image or resource pages based on the given
+     * URLs. The keep-alive connections and cookies of this transport belong
+     * to the calling thread, so the resources are read one after the other.
+     * Use ApacheHC3Transport or NioHttpTransport to read them concurrently.
      *
      * @param page The page URL
      * @param images The image or other resource URLs to fetch with page
+     * @param postRequest The post string, or null for a GET request
      * @return The buffer of the main page
      * @throws IOException If an I/O error occurred
-     *
-	public StringBuilder fetchPage(URL page, URL[] images) throws IOException {
-        // TODO: implement method
-        return null;
-    }
-    */
-
-    /*
-     * Fetch page and images in the same call. Currently not used.
-     *
-    public StringBuilder fetchPage(String page, String[] images)
+     */
+	public StringBuilder fetchURL(URL page, URL[] images, String postRequest)
             throws IOException {
-        URL[] imgURLs = new URL[images.length];
-        for (int i = 0; i < imgURLs.length; i++)
-            imgURLs[i] = new URL(images[i]);
-        return fetchPage(new URL(page), imgURLs);
+        StringBuilder buffer;
+        if (postRequest == null)
+            buffer = fetchURL(page);
+        else
+            buffer = fetchURL(page, postRequest);
+
+        // Keep the response state of the page.
+        int pageResponseCode = responseCode;
+        Map<String, List<String>> pageResponseHeader = responseHeader;
+        int pageContentSize = contentSize;
+        if (resourceSizes.length < images.length)
+            resourceSizes = new int[images.length];
+        for (int i = 0; i < images.length; i++)
+            resourceSizes[i] = readURL(images[i]);
+        responseCode = pageResponseCode;
+        responseHeader = pageResponseHeader;
+        contentSize = pageContentSize;
+
+        DriverContext ctx = DriverContext.getContext();
+        if (contentStats != null && ctx != null && ctx.isTxSteadyState())
+            contentStats.addResources(ctx.getOperationId(), resourceSizes,
+                                      images.length);
+        return buffer;
     }
-    */
 
     /**
-     * Method not implemented. Makes a POST request. Fetches the main page
-     * and all other image or resource pages based on the given URLs.
-     *
-     * @param page The page URL
-     * @param images The image or other resource URLs to fetch with page
-     * @param postRequest The post string
-     * @return The buffer of the main page
-     * @throws IOException If an I/O error occurred
+     * Sets the stats to add the sizes of the resources read by fetchPage
+     * to. The sizes are added in steady state only.
+     * @param stats The stats, or null to not collect resource sizes
      */
-	public StringBuilder fetchURL(URL page, URL[] images, String postRequest)
-            throws IOException {
-        // TODO: implement method
-        return null;
+    public void setContentSizeStats(ContentSizeStats stats) {
+        contentStats = stats;
     }
 
     /**
@@ -899,6 +969,78 @@ public class SunHttpTransport extends HttpTransport {
         return matchResponse(regex);
     }
 
+    /**
+     * Matches the response fetched from the URL while the response arrives.
+     * The response is not kept in the response buffer. The rest of the
+     * response is still read after a match. Only text responses are
+     * matched. The content size is the size in bytes.
+     * @param url The source of the data
+     * @param matcher The compiled matcher
+     * @param headers The request headers
+     * @return True if the match succeeds, false otherwise
+     * @throws IOException
+     */
+    public boolean matchURL(URL url, ResponseMatcher matcher,
+                            Map<String, String> headers) throws IOException {
+        HttpURLConnection c = getConnection(url);
+        setHeaders(c, headers);
+        return matchResponse(c, matcher);
+    }
+
+    /**
+     * Matches the response fetched from the post request made to the URL
+     * while the response arrives.
+     * @param url The source of the data
+     * @param postRequest The post request string
+     * @param matcher The compiled matcher
+     * @param headers The request headers, or null
+     * @return True if the match succeeds, false otherwise
+     * @throws IOException
+     * @see #matchURL(URL, ResponseMatcher, Map)
+     */
+    public boolean matchURL(URL url, String postRequest,
+                            ResponseMatcher matcher,
+                            Map<String, String> headers) throws IOException {
+        return matchResponse(postConnection(url, postRequest, headers),
+                             matcher);
+    }
+
+    private boolean matchResponse(HttpURLConnection connection,
+                                  ResponseMatcher matcher)
+            throws IOException {
+        responseCode = connection.getResponseCode();
+        responseHeader = connection.getHeaderFields();
+        String contentType = connection.getContentType();
+        String hdr = "charset=";
+        String encoding = "ISO-8859-1";
+        if (contentType != null) {
+            StringTokenizer t = new StringTokenizer(contentType, ";");
+            contentType = t.nextToken().trim();
+            while (t.hasMoreTokens()) {
+                String param = t.nextToken().trim();
+                if (param.startsWith(hdr)) {
+                    encoding = param.substring(hdr.length());
+                    break;
+                }
+            }
+        }
+        if (contentType != null && (contentType.startsWith("text/") ||
+                                    texttypes.contains(contentType))) {
+            Charset charset;
+            try {
+                charset = Charset.forName(encoding);
+            } catch (IllegalArgumentException e) {
+                throw new UnsupportedEncodingException(encoding);
+            }
+            InputStream is = connection.getInputStream();
+            contentSize = matcher.read(is, charset);
+            is.close();
+            return matcher.isMatched();
+        }
+        readResponse(connection);
+        return false;
+    }
+
     /**
      * Obtains the list of cookie values by the name of the cookies.
      * @param name The cookie name
@@ -0,0 +1,291 @@
+/* The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://www.sun.com/cddl/cddl.html or
+ * install_dir/legal/LICENSE
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at install_dir/legal/LICENSE.
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ *
+ * $Id$
+ *
+ * Copyright 2005-2009 Sun Microsystems Inc. All Rights Reserved
+ */
+package com.sun.faban.driver.transport.util;
+
+import com.sun.faban.driver.HttpTransport;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.zip.CRC32;
+
+/**
+ * A BodySink receives the response body bytes of the readURL methods
+ * taking a sink, for drivers that need less than the decoded text of
+ * the fetch methods. The modes are:<ul>
+ * <li>DISCARD drops the body.</li>
+ * <li>COUNT keeps the size of the body.</li>
+ * <li>CRC32 keeps the size and the CRC-32 checksum of the body.</li>
+ * <li>MD5 keeps the size and the MD5 digest of the body.</li>
+ * <li>CAPTURE keeps the size and the first bytes of the body, up to a
+ *     limit.</li>
+ * </ul>
+ * Create a sink once per thread and pass it to each request. Resetting
+ * and updating the sink allocates nothing, the results are valid until
+ * the next request:<pre>
+ *     BodySink md5 = BodySink.md5();
+ *     ...
+ *     http.readURL(url, md5);
+ *     if (!Arrays.equals(expected, md5.getDigest()))
+ *         throw new Exception("Bad content");
+ * </pre>
+ * Sinks are not thread safe.
+ */
+public final class BodySink {
+
+    /** The sink modes. */
+    public enum Mode { DISCARD, COUNT, CRC32, MD5, CAPTURE }
+
+    private final Mode mode;
+    private final CRC32 crc;
+    private final MessageDigest md;
+    private final byte[] digest;
+    private final byte[] captured;
+    private int capturedLength;
+    private long size;
+    private byte[] readBuffer;
+
+    private BodySink(Mode mode, int capture) {
+        this.mode = mode;
+        crc = mode == Mode.CRC32 ? new CRC32() : null;
+        if (mode == Mode.MD5) {
+            try {
+                md = MessageDigest.getInstance("MD5");
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException("MD5 not available.", e);
+            }
+            digest = new byte[md.getDigestLength()];
+        } else {
+            md = null;
+            digest = null;
+        }
+        captured = mode == Mode.CAPTURE ? new byte[capture] : null;
+    }
+
+    /**
+     * Creates a sink dropping the body.
+     * @return The sink
+     */
+    public static BodySink discard() {
+        return new BodySink(Mode.DISCARD, 0);
+    }
+
+    /**
+     * Creates a sink keeping the body size.
+     * @return The sink
+     */
+    public static BodySink count() {
+        return new BodySink(Mode.COUNT, 0);
+    }
+
+    /**
+     * Creates a sink keeping the CRC-32 checksum of the body.
+     * @return The sink
+     */
+    public static BodySink crc32() {
+        return new BodySink(Mode.CRC32, 0);
+    }
+
+    /**
+     * Creates a sink keeping the MD5 digest of the body.
+     * @return The sink
+     */
+    public static BodySink md5() {
+        return new BodySink(Mode.MD5, 0);
+    }
+
+    /**
+     * Creates a sink keeping the first bytes of the body.
+     * @param limit The maximum number of bytes to keep
+     * @return The sink
+     */
+    public static BodySink capture(int limit) {
+        if (limit < 0)
+            throw new IllegalArgumentException("Negative capture limit.");
+        return new BodySink(Mode.CAPTURE, limit);
+    }
+
+    /**
+     * Obtains the mode of this sink.
+     * @return The mode
+     */
+    public Mode getMode() {
+        return mode;
+    }
+
+    /**
+     * Starts a new body.
+     */
+    public void reset() {
+        size = 0;
+        capturedLength = 0;
+        if (crc != null)
+            crc.reset();
+        if (md != null)
+            md.reset();
+    }
+
+    /**
+     * Checks whether the sink still uses the data of the body. If not,
+     * the rest of the body may be passed to skip instead of update.
+     * @return True if the sink uses the data, false otherwise
+     */
+    public boolean needsData() {
+        switch (mode) {
+            case CRC32:
+            case MD5:
+                return true;
+            case CAPTURE:
+                return capturedLength < captured.length;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Receives the next part of the body.
+     * @param b The buffer holding the data
+     * @param off The offset of the data
+     * @param len The length of the data
+     */
+    public void update(byte[] b, int off, int len) {
+        switch (mode) {
+            case DISCARD:
+                return;
+            case CRC32:
+                crc.update(b, off, len);
+                break;
+            case MD5:
+                md.update(b, off, len);
+                break;
+            case CAPTURE:
+                int n = Math.min(len, captured.length - capturedLength);
+                System.arraycopy(b, off, captured, capturedLength, n);
+                capturedLength += n;
+                break;
+        }
+        size += len;
+    }
+
+    /**
+     * Receives the next part of the body without the data, if the sink
+     * does not need the data.
+     * @param len The length of the part
+     * @see #needsData()
+     */
+    public void skip(long len) {
+        if (mode != Mode.DISCARD)
+            size += len;
+    }
+
+    /**
+     * Ends the body.
+     */
+    public void finish() {
+        if (md != null) {
+            try {
+                md.digest(digest, 0, digest.length);
+            } catch (DigestException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    /**
+     * Obtains the size of the body. Discarding sinks report 0, use the
+     * content size of the transport instead.
+     * @return The size in bytes
+     */
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * Obtains the CRC-32 checksum of the body.
+     * @return The checksum
+     * @throws IllegalStateException If the sink is not a CRC32 sink
+     */
+    public long getChecksum() {
+        if (crc == null)
+            throw new IllegalStateException("Not a CRC32 sink.");
+        return crc.getValue();
+    }
+
+    /**
+     * Obtains the MD5 digest of the body. The array is reused for the
+     * next body.
+     * @return The digest
+     * @throws IllegalStateException If the sink is not a MD5 sink
+     */
+    public byte[] getDigest() {
+        if (digest == null)
+            throw new IllegalStateException("Not a MD5 sink.");
+        return digest;
+    }
+
+    /**
+     * Obtains the captured bytes. The array is reused for the next body,
+     * only the first getCapturedLength() bytes are valid.
+     * @return The captured bytes
+     * @throws IllegalStateException If the sink is not a CAPTURE sink
+     */
+    public byte[] getCaptured() {
+        if (captured == null)
+            throw new IllegalStateException("Not a CAPTURE sink.");
+        return captured;
+    }
+
+    /**
+     * Obtains the number of captured bytes.
+     * @return The number of captured bytes
+     */
+    public int getCapturedLength() {
+        return capturedLength;
+    }
+
+    /**
+     * Reads the stream to its end into the sink. A null stream is an
+     * empty body.
+     * @param in The stream
+     * @return The number of bytes read
+     * @throws IOException If reading failed
+     */
+    public int read(InputStream in) throws IOException {
+        if (readBuffer == null)
+            readBuffer = new byte[HttpTransport.BUFFER_SIZE];
+        reset();
+        int total = 0;
+        if (in != null) {
+            int length;
+            while ((length = in.read(readBuffer)) != -1) {
+                update(readBuffer, 0, length);
+                total += length;
+            }
+        }
+        finish();
+        return total;
+    }
+}
@@ -0,0 +1,137 @@
+/* The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://www.sun.com/cddl/cddl.html or
+ * install_dir/legal/LICENSE
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at install_dir/legal/LICENSE.
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ *
+ * $Id$
+ *
+ * Copyright 2005-2009 Sun Microsystems Inc. All Rights Reserved
+ */
+package com.sun.faban.driver.transport.util;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.util.regex.Pattern;
+
+/**
+ * The base of the literal matchers. The literals are encoded in the
+ * charset of the response and searched in the bytes. For charsets where
+ * that is not exact, the literals are matched as a quoted regular
+ * expression on the decoded text instead. The compiled search is kept
+ * until the charset changes.
+ */
+abstract class ByteLiteralMatcher extends ResponseMatcher {
+
+    private final String[] literals;
+    private Charset charset;
+    private boolean byteSearch;
+    private WindowRegexMatcher fallback;
+
+    ByteLiteralMatcher(String[] literals) {
+        if (literals.length == 0)
+            throw new IllegalArgumentException("No literals to match.");
+        for (String literal : literals)
+            if (literal.length() == 0)
+                throw new IllegalArgumentException("Empty literal.");
+        this.literals = literals.clone();
+    }
+
+    /**
+     * Compiles the search for the encoded literals.
+     * @param patterns The encoded literals, null for literals that cannot
+     *                 be encoded and therefore never match
+     */
+    abstract void compile(byte[][] patterns);
+
+    /**
+     * Starts a new search.
+     */
+    abstract void restart();
+
+    /**
+     * Searches the next part of the response, setting matched if found.
+     * @param b The buffer holding the data
+     * @param off The offset of the data
+     * @param len The length of the data
+     */
+    abstract void search(byte[] b, int off, int len);
+
+    public final void reset(Charset charset) {
+        matched = false;
+        if (!charset.equals(this.charset)) {
+            this.charset = charset;
+            byteSearch = isByteSearchable(charset);
+            if (byteSearch)
+                compile(encode(charset));
+        }
+        if (byteSearch) {
+            restart();
+        } else {
+            if (fallback == null)
+                fallback = quote();
+            fallback.reset(charset);
+        }
+    }
+
+    public final void update(byte[] b, int off, int len) {
+        if (matched)
+            return;
+        if (byteSearch) {
+            search(b, off, len);
+        } else {
+            fallback.update(b, off, len);
+            matched = fallback.isMatched();
+        }
+    }
+
+    public final void finish() {
+        if (!byteSearch && !matched) {
+            fallback.finish();
+            matched = fallback.isMatched();
+        }
+    }
+
+    private byte[][] encode(Charset charset) {
+        CharsetEncoder encoder = charset.newEncoder();
+        byte[][] patterns = new byte[literals.length][];
+        for (int i = 0; i < literals.length; i++) {
+            try {
+                ByteBuffer b = encoder.encode(CharBuffer.wrap(literals[i]));
+                patterns[i] = new byte[b.remaining()];
+                b.get(patterns[i]);
+            } catch (CharacterCodingException e) {
+                patterns[i] = null; // Not in the charset, cannot occur.
+            }
+        }
+        return patterns;
+    }
+
+    private WindowRegexMatcher quote() {
+        StringBuilder regex = new StringBuilder();
+        int window = 0;
+        for (String literal : literals) {
+            if (regex.length() > 0)
+                regex.append('|');
+            regex.append(Pattern.quote(literal));
+            window = Math.max(window, literal.length());
+        }
+        return new WindowRegexMatcher(regex.toString(), window);
+    }
+}
@@ -0,0 +1,104 @@
+/* The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://www.sun.com/cddl/cddl.html or
+ * install_dir/legal/LICENSE
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at install_dir/legal/LICENSE.
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ *
+ * $Id$
+ *
+ * Copyright 2005-2009 Sun Microsystems Inc. All Rights Reserved
+ */
+package com.sun.faban.driver.transport.util;
+
+import java.util.Arrays;
+
+/**
+ * Searches one literal with the Boyer-Moore-Horspool algorithm. The last
+ * bytes of each part are kept so a literal spanning two parts is found.
+ */
+final class LiteralMatcher extends ByteLiteralMatcher {
+
+    private byte[] pattern;
+    private final int[] shift = new int[256];
+    private byte[] tail;
+    private byte[] spare;
+    private int tailLength;
+
+    LiteralMatcher(String literal) {
+        super(new String[] { literal });
+    }
+
+    void compile(byte[][] patterns) {
+        pattern = patterns[0];
+        if (pattern == null)
+            return;
+        int last = pattern.length - 1;
+        Arrays.fill(shift, pattern.length);
+        for (int i = 0; i < last; i++)
+            shift[pattern[i] & 0xff] = last - i;
+        tail = new byte[last];
+        spare = new byte[last];
+    }
+
+    void restart() {
+        tailLength = 0;
+    }
+
+    void search(byte[] b, int off, int len) {
+        if (pattern == null)
+            return;
+        int last = pattern.length - 1;
+        int n = tailLength + len; // The kept tail followed by this part.
+        int pos = 0;
+
+        // Positions starting in the tail.
+        while (pos < tailLength && pos + last < n) {
+            int j = last;
+            while (at(b, off, pos + j) == pattern[j]) {
+                if (j-- == 0) {
+                    matched = true;
+                    return;
+                }
+            }
+            pos += shift[at(b, off, pos + last) & 0xff];
+        }
+
+        // Positions within this part.
+        int base = off - tailLength;
+        while (pos + last < n) {
+            int j = last;
+            while (b[base + pos + j] == pattern[j]) {
+                if (j-- == 0) {
+                    matched = true;
+                    return;
+                }
+            }
+            pos += shift[b[base + pos + last] & 0xff];
+        }
+
+        int keep = Math.min(last, n);
+        for (int i = 0; i < keep; i++)
+            spare[i] = at(b, off, n - keep + i);
+        byte[] t = tail;
+        tail = spare;
+        spare = t;
+        tailLength = keep;
+    }
+
+    private byte at(byte[] b, int off, int i) {
+        return i < tailLength ? tail[i] : b[off + i - tailLength];
+    }
+}
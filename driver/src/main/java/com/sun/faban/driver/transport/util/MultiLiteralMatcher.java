@@ -0,0 +1,126 @@
+/* The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://www.sun.com/cddl/cddl.html or
+ * install_dir/legal/LICENSE
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at install_dir/legal/LICENSE.
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ *
+ * $Id$
+ *
+ * Copyright 2005-2009 Sun Microsystems Inc. All Rights Reserved
+ */
+package com.sun.faban.driver.transport.util;
+
+import java.util.Arrays;
+
+/**
+ * Searches several literals at once with an Aho-Corasick automaton. The
+ * automaton is a complete transition table over byte classes, bytes not
+ * in any literal share one class. The state carries over from one part
+ * to the next.
+ */
+final class MultiLiteralMatcher extends ByteLiteralMatcher {
+
+    private final int[] classOf = new int[256];
+    private int classes;
+
+    // States are kept times classes. Transitions are indexed by state
+    // plus class, acceptance by state.
+    private int[] next;
+    private boolean[] accept;
+    private int state;
+
+    MultiLiteralMatcher(String[] literals) {
+        super(literals);
+    }
+
+    void compile(byte[][] patterns) {
+        Arrays.fill(classOf, 0);
+        classes = 1;
+        int states = 1;
+        for (byte[] pattern : patterns) {
+            if (pattern == null)
+                continue;
+            states += pattern.length;
+            for (byte c : pattern)
+                if (classOf[c & 0xff] == 0)
+                    classOf[c & 0xff] = classes++;
+        }
+
+        // The trie.
+        next = new int[states * classes];
+        Arrays.fill(next, -1);
+        accept = new boolean[states * classes];
+        int count = 1;
+        for (byte[] pattern : patterns) {
+            if (pattern == null)
+                continue;
+            int s = 0;
+            for (byte c : pattern) {
+                int i = s + classOf[c & 0xff];
+                if (next[i] < 0)
+                    next[i] = count++ * classes;
+                s = next[i];
+            }
+            accept[s] = true;
+        }
+
+        // Fill in the failure transitions breadth first.
+        int[] fail = new int[count];
+        int[] queue = new int[count];
+        int head = 0;
+        int tail = 0;
+        for (int c = 0; c < classes; c++) {
+            int t = next[c];
+            if (t < 0) {
+                next[c] = 0;
+            } else {
+                fail[t / classes] = 0;
+                queue[tail++] = t;
+            }
+        }
+        while (head < tail) {
+            int s = queue[head++];
+            int f = fail[s / classes];
+            if (accept[f])
+                accept[s] = true;
+            for (int c = 0; c < classes; c++) {
+                int t = next[s + c];
+                if (t < 0) {
+                    next[s + c] = next[f + c];
+                } else {
+                    fail[t / classes] = next[f + c];
+                    queue[tail++] = t;
+                }
+            }
+        }
+    }
+
+    void restart() {
+        state = 0;
+    }
+
+    void search(byte[] b, int off, int len) {
+        int s = state;
+        for (int i = off, end = off + len; i < end; i++) {
+            s = next[s + classOf[b[i] & 0xff]];
+            if (accept[s]) {
+                matched = true;
+                return;
+            }
+        }
+        state = s;
+    }
+}
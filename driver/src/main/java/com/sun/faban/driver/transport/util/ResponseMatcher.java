@@ -0,0 +1,183 @@
+/* The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://www.sun.com/cddl/cddl.html or
+ * install_dir/legal/LICENSE
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at install_dir/legal/LICENSE.
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ *
+ * $Id$
+ *
+ * Copyright 2005-2009 Sun Microsystems Inc. All Rights Reserved
+ */
+package com.sun.faban.driver.transport.util;
+
+import com.sun.faban.driver.HttpTransport;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+
+/**
+ * A ResponseMatcher checks the response data for a marker while the data
+ * arrives, without keeping the response. Literals are searched in the
+ * encoded bytes, so the response is not decoded at all for ASCII
+ * compatible charsets like ISO-8859-1 and UTF-8. Regular expressions are
+ * matched against a bounded window of the decoded text. Once matched,
+ * the rest of the response is still read, but not searched, so the
+ * response time covers the whole response.<p>
+ *
+ * Compile the matcher once and use it with the matchURL methods of the
+ * transport:<pre>
+ *     ResponseMatcher welcome = ResponseMatcher.compile("Welcome");
+ *     ...
+ *     if (!http.matchURL(url, welcome))
+ *         throw new Exception("Welcome page not found");
+ * </pre>
+ * Matchers keep the state of the current response and are not thread
+ * safe, each driver thread needs its own.
+ */
+public abstract class ResponseMatcher {
+
+    /** The default window of regular expression matchers, in chars. */
+    public static final int DEFAULT_WINDOW = 4096;
+
+    private static final String META_CHARS = "\\[](){}.*+?^$|";
+
+    /** Whether the current response matched. */
+    protected boolean matched;
+
+    private byte[] readBuffer;
+
+    /**
+     * Compiles a regular expression into a matcher. Expressions without
+     * meta characters, or quoted in \Q...\E as a whole, are searched as
+     * literals. Other expressions are matched with the default window.
+     * @param regex The regular expression
+     * @return The matcher
+     * @see #regex(String, int)
+     */
+    public static ResponseMatcher compile(String regex) {
+        if (regex.startsWith("\\Q") && regex.endsWith("\\E") &&
+                regex.indexOf("\\E") == regex.length() - 2)
+            return literal(regex.substring(2, regex.length() - 2));
+        for (int i = 0; i < regex.length(); i++)
+            if (META_CHARS.indexOf(regex.charAt(i)) >= 0)
+                return regex(regex, DEFAULT_WINDOW);
+        return literal(regex);
+    }
+
+    /**
+     * Creates a matcher for a literal, using a Boyer-Moore-Horspool search.
+     * @param literal The literal
+     * @return The matcher
+     */
+    public static ResponseMatcher literal(String literal) {
+        return new LiteralMatcher(literal);
+    }
+
+    /**
+     * Creates a matcher for any of the given literals, using an
+     * Aho-Corasick automaton. The response matches if it contains at
+     * least one of the literals.
+     * @param literals The literals
+     * @return The matcher
+     */
+    public static ResponseMatcher anyOf(String... literals) {
+        return new MultiLiteralMatcher(literals);
+    }
+
+    /**
+     * Creates a matcher for a regular expression, matched against a
+     * window of the decoded response. Matches up to window chars long are
+     * found. Anchors and look-behind only see the window.
+     * @param regex The regular expression
+     * @param window The window size, in chars
+     * @return The matcher
+     */
+    public static ResponseMatcher regex(String regex, int window) {
+        return new WindowRegexMatcher(regex, window);
+    }
+
+    /**
+     * Starts matching a new response.
+     * @param charset The charset of the response
+     */
+    public abstract void reset(Charset charset);
+
+    /**
+     * Matches the next part of the response. Parts are ignored once
+     * matched.
+     * @param b The buffer holding the data
+     * @param off The offset of the data
+     * @param len The length of the data
+     */
+    public abstract void update(byte[] b, int off, int len);
+
+    /**
+     * Ends the response. Matchers buffering data match the rest here.
+     */
+    public void finish() {
+    }
+
+    /**
+     * Checks whether the current response matched.
+     * @return True if matched, false otherwise
+     */
+    public boolean isMatched() {
+        return matched;
+    }
+
+    /**
+     * Reads the stream to its end and matches the data read.
+     * @param in The stream
+     * @param charset The charset of the data
+     * @return The number of bytes read
+     * @throws IOException If reading failed
+     * @see #isMatched()
+     */
+    public int read(InputStream in, Charset charset) throws IOException {
+        if (readBuffer == null)
+            readBuffer = new byte[HttpTransport.BUFFER_SIZE];
+        reset(charset);
+        int total = 0;
+        int length;
+        while ((length = in.read(readBuffer)) != -1) {
+            if (!matched)
+                update(readBuffer, 0, length);
+            total += length;
+        }
+        finish();
+        return total;
+    }
+
+    /**
+     * Checks whether literals can be searched in the encoded bytes. This
+     * is the case if ASCII chars are encoded as themselves and, if
+     * chars take more than one byte, no byte of a multi-byte char
+     * looks like an ASCII char or the start of another char.
+     * @param charset The charset
+     * @return True if byte search is exact, false otherwise
+     */
+    static boolean isByteSearchable(Charset charset) {
+        if (!charset.canEncode())
+            return false;
+        String name = charset.name();
+        if (!"UTF-8".equals(name) &&
+                charset.newEncoder().maxBytesPerChar() > 1f)
+            return false;
+        byte[] b = " 09AZaz<>/=\"".getBytes(charset);
+        return b.length == 12 && b[1] == '0' && b[5] == 'a' && b[9] == '/';
+    }
+}
@@ -56,15 +56,27 @@ import java.io.InputStream;
 /**
  * A pass-through input stream that records the time of the input.
  * Note that the client-side time recording for reads is
- * always after the read happens.
+ * always after the read happens.<p>
+ * Small reads, including single-byte reads done by header parsers, are
+ * served from an internal buffer. The time is only taken when the buffer
+ * is filled from the underlying stream, which is when the data actually
+ * arrives. So the timing overhead depends on the network reads, not on
+ * the read pattern of the caller.
  *
  * @author Akara Sucharitakul
  */
 public class TimedInputStream extends FilterInputStream {
 
+    /** Size of the read buffer. Larger reads bypass the buffer. */
+    static final int BUFFER_SIZE = 8192;
+
     DriverContext ctx;
     private Throttle throttle;
 
+    private byte[] buf; // Allocated on first buffered read.
+    private int pos;
+    private int count;
+
     /**
      * Creates a <code>FilterInputStream</code>
      * by assigning the  argument <code>in</code>
@@ -90,8 +102,8 @@ public class TimedInputStream extends FilterInputStream {
      * is available, the end of the stream is detected, or an exception
      * is thrown.
      * <p/>
-     * This method
-     * simply performs <code>in.read()</code> and returns the result.
+     * This method serves the byte from the buffer, filling it from
+     * the underlying stream if needed.
      *
      * @return the next byte of data, or <code>-1</code> if the end of the
      *         stream is reached.
@@ -100,20 +112,9 @@ public class TimedInputStream extends FilterInputStream {
      */
     @Override
 	public int read() throws IOException {
-        long startReadAt = 0L;
-        boolean isThrottled = false;
-        if (ctx != null) {
-            isThrottled = throttle.isThrottled(Throttle.DOWN);
-            if (isThrottled)
-	    	    startReadAt = ctx.getNanoTime();
-        }
-        int b = super.read();
-        if (ctx != null && b != -1) {
-            ctx.recordEndTime();
-			if (isThrottled)
-	    		throttle.throttle(1, startReadAt, Throttle.DOWN);
-        }
-        return b;
+        if (pos >= count && fill() <= 0)
+            return -1;
+        return buf[pos++] & 0xff;
     }
 
     /**
@@ -147,8 +148,9 @@ public class TimedInputStream extends FilterInputStream {
      * into an array of bytes. This method blocks until some input is
      * available.
      * <p/>
-     * This method simply performs <code>in.read(b, off, len)</code>
-     * and returns the result.
+     * Buffered data is returned first. Reads smaller than the buffer
+     * go through the buffer, larger reads go to the underlying stream
+     * directly.
      *
      * @param b   the buffer into which the data is read.
      * @param off the start offset of the data.
@@ -161,6 +163,103 @@ public class TimedInputStream extends FilterInputStream {
      */
     @Override
 	public int read(byte b[], int off, int len) throws IOException {
+        if (len <= 0 || (pos >= count && len >= BUFFER_SIZE))
+            return timedRead(b, off, len);
+        if (pos >= count) {
+            int bytes = fill();
+            if (bytes <= 0)
+                return bytes;
+        }
+        int bytes = Math.min(count - pos, len);
+        System.arraycopy(buf, pos, b, off, bytes);
+        pos += bytes;
+        return bytes;
+    }
+
+    /**
+     * Skips over and discards <code>n</code> bytes of data from the
+     * input stream. Buffered data is skipped first.
+     *
+     * @param n the number of bytes to be skipped.
+     * @return the actual number of bytes skipped.
+     * @throws IOException if an I/O error occurs.
+     */
+    @Override
+    public long skip(long n) throws IOException {
+        int buffered = count - pos;
+        if (buffered <= 0)
+            return super.skip(n);
+        if (n <= 0)
+            return 0;
+        int skipped = (int) Math.min(buffered, n);
+        pos += skipped;
+        return skipped;
+    }
+
+    /**
+     * Returns the number of bytes that can be read from this input
+     * stream without blocking, including the buffered bytes.
+     *
+     * @return the number of bytes that can be read without blocking.
+     * @throws IOException if an I/O error occurs.
+     */
+    @Override
+    public int available() throws IOException {
+        return (count - pos) + super.available();
+    }
+
+    /**
+     * Mark and reset are not supported, as the buffered data would be
+     * lost to the underlying stream.
+     *
+     * @return false
+     */
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    /**
+     * Does nothing, mark is not supported.
+     *
+     * @param readlimit Ignored
+     */
+    @Override
+    public void mark(int readlimit) {
+    }
+
+    /**
+     * Always fails, reset is not supported.
+     *
+     * @throws IOException Always
+     */
+    @Override
+    public void reset() throws IOException {
+        throw new IOException("mark/reset not supported");
+    }
+
+    /**
+     * Fills the buffer from the underlying stream.
+     *
+     * @return the number of bytes read, or -1 at the end of the stream
+     * @throws IOException if an I/O error occurs.
+     */
+    private int fill() throws IOException {
+        if (buf == null)
+            buf = new byte[BUFFER_SIZE];
+        pos = 0;
+        count = 0;
+        int bytes = timedRead(buf, 0, BUFFER_SIZE);
+        if (bytes > 0)
+            count = bytes;
+        return bytes;
+    }
+
+    /**
+     * Reads from the underlying stream, recording the time and
+     * throttling if needed.
+     */
+    private int timedRead(byte b[], int off, int len) throws IOException {
         long startReadAt = 0L;
         boolean isThrottled = false;
         if (ctx != null) {
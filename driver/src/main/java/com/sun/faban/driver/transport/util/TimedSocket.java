@@ -73,6 +73,9 @@ public class TimedSocket extends Socket {
 
     static final int BUFFER_SIZE = bufferSize;
 
+    // The input stream buffers, so it is created once per socket.
+    private InputStream in;
+
     private void verifyReceiveBufferSize() {
         if (BUFFER_SIZE != -1)
             try {
@@ -333,9 +336,11 @@ public class TimedSocket extends Socket {
      *                             using {@link #shutdownInput()}
      */
     @Override
-	public InputStream getInputStream() throws IOException {
-        // The streams returned areall timed.
-        return new TimedInputStream(super.getInputStream());
+	public synchronized InputStream getInputStream() throws IOException {
+        // The streams returned are all timed.
+        if (in == null)
+            in = new TimedInputStream(super.getInputStream());
+        return in;
     }
 
     /**
@@ -47,6 +47,9 @@ public class TimedSocketWrapper extends Socket {
 
     private Socket delegate;
 
+    // The input stream buffers, so it is created once per socket.
+    private InputStream in;
+
     /**
      * Creates a TimedSocketWrapper wrapping an existing socket.
      * @param socket The existing socket
@@ -70,8 +73,9 @@ public class TimedSocketWrapper extends Socket {
      * after the no-arg constructor is called. 
      * @param socket The existing socket
      */
-    public void setSocket(Socket socket) {
+    public synchronized void setSocket(Socket socket) {
         delegate = socket;
+        in = null;
     }
 
     /**
@@ -114,9 +118,11 @@ public class TimedSocketWrapper extends Socket {
      *                             using {@link #shutdownInput()}
      */
     @Override
-	public InputStream getInputStream() throws IOException {
+	public synchronized InputStream getInputStream() throws IOException {
         // The streams returned are all timed.
-        return new TimedInputStream(delegate.getInputStream());
+        if (in == null)
+            in = new TimedInputStream(delegate.getInputStream());
+        return in;
     }
 
     /**
@@ -0,0 +1,122 @@
+/* The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://www.sun.com/cddl/cddl.html or
+ * install_dir/legal/LICENSE
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at install_dir/legal/LICENSE.
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ *
+ * $Id$
+ *
+ * Copyright 2005-2009 Sun Microsystems Inc. All Rights Reserved
+ */
+package com.sun.faban.driver.transport.util;
+
+import com.sun.faban.driver.HttpTransport;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Matches a regular expression against a sliding window of the decoded
+ * response. Each part is decoded and appended to the text kept from the
+ * previous parts, then searched. If not found, only the last window chars
+ * are kept, so a match of up to window chars spanning parts is found.
+ */
+final class WindowRegexMatcher extends ResponseMatcher {
+
+    private final Matcher matcher;
+    private final int window;
+    private final StringBuilder text;
+    private final ByteBuffer in = ByteBuffer.allocate(HttpTransport.BUFFER_SIZE);
+    private final CharBuffer out = CharBuffer.allocate(HttpTransport.BUFFER_SIZE);
+    private Charset charset;
+    private CharsetDecoder decoder;
+
+    WindowRegexMatcher(String regex, int window) {
+        if (window < 1)
+            throw new IllegalArgumentException("Window must be positive.");
+        matcher = Pattern.compile(regex).matcher("");
+        this.window = window;
+        text = new StringBuilder(window + HttpTransport.BUFFER_SIZE);
+    }
+
+    public void reset(Charset charset) {
+        matched = false;
+        if (!charset.equals(this.charset)) {
+            this.charset = charset;
+            decoder = charset.newDecoder().
+                    onMalformedInput(CodingErrorAction.REPLACE).
+                    onUnmappableCharacter(CodingErrorAction.REPLACE);
+        }
+        decoder.reset();
+        in.clear();
+        out.clear();
+        text.setLength(0);
+    }
+
+    public void update(byte[] b, int off, int len) {
+        while (len > 0 && !matched) {
+            int n = Math.min(len, in.remaining());
+            in.put(b, off, n);
+            off += n;
+            len -= n;
+            in.flip();
+            decode(false);
+            in.compact(); // Keeps an incomplete char for the next part.
+            find();
+        }
+    }
+
+    public void finish() {
+        if (matched)
+            return;
+        in.flip();
+        decode(true);
+        while (decoder.flush(out).isOverflow())
+            append();
+        append();
+        in.clear();
+        find();
+    }
+
+    private void decode(boolean endOfInput) {
+        CoderResult result;
+        do {
+            result = decoder.decode(in, out, endOfInput);
+            append();
+        } while (result.isOverflow());
+    }
+
+    private void append() {
+        out.flip();
+        text.append(out.array(), out.arrayOffset() + out.position(),
+                    out.remaining());
+        out.clear();
+    }
+
+    private void find() {
+        matcher.reset(text);
+        if (matcher.find())
+            matched = true;
+        else if (text.length() > window)
+            text.delete(0, text.length() - window);
+    }
+}
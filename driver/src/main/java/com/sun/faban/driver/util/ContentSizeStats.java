@@ -26,6 +26,8 @@ package com.sun.faban.driver.util;
 import com.sun.faban.driver.CustomMetrics;
 import com.sun.faban.driver.Result;
 
+import java.util.ArrayList;
+
 /**
  * The ContentSizeStats collects the content size metrics for the FabanHTTPBench
  * or othe standard Http drivers.
@@ -37,12 +39,37 @@ public class ContentSizeStats implements CustomMetrics {
     /** The sum of content sizes. */
     public long[] sumContentSize;
 
+    /** The sum of the sizes of resources fetched with pages. */
+    public long[] sumResourceSize;
+
+    /** The number of resources fetched with pages. */
+    public long[] resourceCount;
+
     /**
      * Constructs the ContentSizeStats for the given number of operations.
      * @param opCount The number of operations.
      */
     public ContentSizeStats(int opCount) {
         sumContentSize = new long[opCount];
+        sumResourceSize = new long[opCount];
+        resourceCount = new long[opCount];
+    }
+
+    /**
+     * Adds the sizes of the resources fetched with a page. This is called
+     * by HttpTransport.fetchPage in steady state if the stats are set on
+     * the transport.
+     * @param opId The operation id
+     * @param sizes The resource sizes, in bytes
+     * @param count The number of resources in sizes
+     * @see com.sun.faban.driver.HttpTransport#setContentSizeStats
+     */
+    public void addResources(int opId, int[] sizes, int count) {
+        long sum = 0l;
+        for (int i = 0; i < count; i++)
+            sum += sizes[i];
+        sumResourceSize[opId] += sum;
+        resourceCount[opId] += count;
     }
 
     /**
@@ -52,8 +79,11 @@ public class ContentSizeStats implements CustomMetrics {
      */
     public void add(CustomMetrics other) {
         ContentSizeStats o = (ContentSizeStats) other;
-        for (int i = 0; i < sumContentSize.length; i++)
+        for (int i = 0; i < sumContentSize.length; i++) {
             sumContentSize[i] += o.sumContentSize[i];
+            sumResourceSize[i] += o.sumResourceSize[i];
+            resourceCount[i] += o.resourceCount[i];
+        }
     }
 
     /**
@@ -62,29 +92,48 @@ public class ContentSizeStats implements CustomMetrics {
      */
     public Object clone() {
         ContentSizeStats o = new ContentSizeStats(sumContentSize.length);
-        for (int i = 0; i < sumContentSize.length; i++)
-            o.sumContentSize[i] = sumContentSize[i];
+        o.add(this);
         return o;
     }
 
     /**
      * Obtains the results of this ContentSizeStats as to be reported.
+     * Resource results are only reported for operations fetching
+     * resources.
      * @return The result elements for each metric.
      */
     public Element[] getResults() {
-        Element[] e = new Element[sumContentSize.length];
+        ArrayList<Element> e = new ArrayList<Element>();
         Result r = Result.getInstance();
         String[] opsNames = r.getOpsNames();
         int[] counts = r.getOpsCountSteady();
-        for (int i = 0; i < e.length; i++) {
-            e[i] = new Element();
-            e[i].description = "Average Content Size for " + opsNames[i];
+        for (int i = 0; i < sumContentSize.length; i++) {
+            Element c = new Element();
+            c.description = "Average Content Size for " + opsNames[i];
             if (counts[i] != 0)
-                e[i].result = String.format("%.2f",
+                c.result = String.format("%.2f",
                                 sumContentSize[i] / (double) counts[i]);
             else
-                e[i].result = "N/A";
+                c.result = "N/A";
+            e.add(c);
+        }
+        for (int i = 0; i < resourceCount.length; i++) {
+            if (resourceCount[i] == 0)
+                continue;
+            Element c = new Element();
+            c.description = "Average Resources for " + opsNames[i];
+            if (counts[i] != 0)
+                c.result = String.format("%.2f",
+                                resourceCount[i] / (double) counts[i]);
+            else
+                c.result = "N/A";
+            e.add(c);
+            c = new Element();
+            c.description = "Average Resource Size for " + opsNames[i];
+            c.result = String.format("%.2f",
+                            sumResourceSize[i] / (double) resourceCount[i]);
+            e.add(c);
         }
-        return e;
+        return e.toArray(new Element[e.size()]);
     }
 }
@@ -0,0 +1,276 @@
+/* The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://www.sun.com/cddl/cddl.html or
+ * install_dir/legal/LICENSE
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at install_dir/legal/LICENSE.
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ *
+ * $Id$
+ *
+ * Copyright 2005-2009 Sun Microsystems Inc. All Rights Reserved
+ */
+package com.sun.faban.driver.util;
+
+/**
+ * Helpers for log-linear histograms with bounded relative error, in the
+ * style of HdrHistogram. A histogram is an array of {@link #CHUNKS}
+ * int arrays, so it can be embedded in the existing array-based metrics
+ * and added up bucket by bucket.<p>
+ *
+ * Values below 2 * {@link #SUB_BUCKETS} get their own bucket. Above that,
+ * each power of two range is split into {@link #SUB_BUCKETS} equally sized
+ * buckets. Reporting the bucket midpoint keeps the relative error below
+ * 1 / (2 * SUB_BUCKETS), or 0.78%. Values from {@link #MAX_VALUE} up are
+ * counted in the last bucket. For nanosecond values this limit is about
+ * 18 minutes. No bounds need to be known in advance.<p>
+ *
+ * Each chunk holds the {@link #SUB_BUCKETS} counters of one power of two
+ * range and is only allocated when the first value in the range is
+ * recorded. Response times mostly fall into a few ranges, so a histogram
+ * per operation and thread takes a small fraction of the 9KB of all
+ * {@link #BUCKETS} counters, and recording allocates nothing once the
+ * ranges are in use. For transfer, a histogram converts to and from the
+ * flat array of all buckets.
+ */
+public final class LogLinearHistogram {
+
+    /** Number of bits used for the sub-buckets of each power of two. */
+    static final int SUB_BUCKET_BITS = 6;
+
+    /** The number of sub-buckets in each power of two range. */
+    public static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    /** The highest value bit covered by the histogram. */
+    static final int MAX_VALUE_BITS = 40;
+
+    /** The smallest value that only fits the overflow bucket. */
+    public static final long MAX_VALUE = 1l << MAX_VALUE_BITS;
+
+    private static final long SUB_BUCKET_MASK = (SUB_BUCKETS << 1) - 1;
+
+    /** The number of buckets in a histogram, including the overflow. */
+    public static final int BUCKETS = bucketIndex(MAX_VALUE - 1) + 2;
+
+    /** The number of chunks in a histogram. */
+    public static final int CHUNKS = ((BUCKETS - 1) >>> SUB_BUCKET_BITS) + 1;
+
+    private LogLinearHistogram() {
+    }
+
+    /**
+     * Creates an empty histogram.
+     * @return The histogram chunks, none allocated yet
+     */
+    public static int[][] create() {
+        return new int[CHUNKS][];
+    }
+
+    /**
+     * Copies a histogram.
+     * @param histogram The histogram
+     * @return The copy
+     */
+    public static int[][] copy(int[][] histogram) {
+        int[][] copy = new int[CHUNKS][];
+        for (int i = 0; i < CHUNKS; i++) {
+            if (histogram[i] != null) {
+                copy[i] = histogram[i].clone();
+            }
+        }
+        return copy;
+    }
+
+    /**
+     * Obtains the counters of all buckets of a histogram.
+     * @param histogram The histogram
+     * @return The {@link #BUCKETS} counters
+     */
+    public static int[] toArray(int[][] histogram) {
+        int[] counts = new int[BUCKETS];
+        for (int i = 0; i < CHUNKS; i++) {
+            if (histogram[i] != null) {
+                int start = i << SUB_BUCKET_BITS;
+                System.arraycopy(histogram[i], 0, counts, start,
+                        Math.min(SUB_BUCKETS, BUCKETS - start));
+            }
+        }
+        return counts;
+    }
+
+    /**
+     * Creates a histogram from the counters of all buckets. Only the
+     * chunks with counts are allocated.
+     * @param counts The {@link #BUCKETS} counters
+     * @return The histogram
+     * @throws IllegalArgumentException If the number of counters is wrong
+     */
+    public static int[][] fromArray(int[] counts) {
+        if (counts.length != BUCKETS) {
+            throw new IllegalArgumentException("Expected " + BUCKETS +
+                    " buckets, got " + counts.length);
+        }
+        int[][] histogram = new int[CHUNKS][];
+        for (int i = 0; i < BUCKETS; i++) {
+            if (counts[i] != 0) {
+                chunk(histogram, i)[i & (SUB_BUCKETS - 1)] = counts[i];
+            }
+        }
+        return histogram;
+    }
+
+    /**
+     * Obtains the chunk holding a bucket, allocating it if needed.
+     */
+    private static int[] chunk(int[][] histogram, int index) {
+        int[] chunk = histogram[index >>> SUB_BUCKET_BITS];
+        if (chunk == null) {
+            chunk = new int[SUB_BUCKETS];
+            histogram[index >>> SUB_BUCKET_BITS] = chunk;
+        }
+        return chunk;
+    }
+
+    /**
+     * Obtains the bucket index for a value. Negative values are counted
+     * in bucket 0.
+     * @param value The value
+     * @return The bucket index
+     */
+    public static int bucketIndex(long value) {
+        if (value < 0l) {
+            return 0;
+        }
+        if (value >= MAX_VALUE) {
+            return BUCKETS - 1;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value | SUB_BUCKET_MASK) - SUB_BUCKET_BITS;
+        return (shift << SUB_BUCKET_BITS) + (int) (value >>> shift);
+    }
+
+    /**
+     * Obtains the smallest value counted in a bucket.
+     * @param index The bucket index
+     * @return The lower bound of the bucket
+     */
+    public static long lowerBound(int index) {
+        if (index >= BUCKETS - 1) {
+            return MAX_VALUE;
+        }
+        int shift = (index >>> SUB_BUCKET_BITS) - 1;
+        if (shift <= 0) {
+            return index;
+        }
+        return (long) (index - (shift << SUB_BUCKET_BITS)) << shift;
+    }
+
+    /**
+     * Obtains the width of a bucket. The overflow bucket has no upper
+     * bound and reports a width of 0.
+     * @param index The bucket index
+     * @return The number of values counted in the bucket
+     */
+    public static long width(int index) {
+        if (index >= BUCKETS - 1) {
+            return 0l;
+        }
+        int shift = (index >>> SUB_BUCKET_BITS) - 1;
+        return shift <= 0 ? 1l : 1l << shift;
+    }
+
+    /**
+     * Obtains the representative value of a bucket, its midpoint.
+     * @param index The bucket index
+     * @return The representative value
+     */
+    public static long midpoint(int index) {
+        return lowerBound(index) + (width(index) >>> 1);
+    }
+
+    /**
+     * Records a value into the histogram.
+     * @param histogram The histogram
+     * @param value The value to record
+     */
+    public static void record(int[][] histogram, long value) {
+        int index = bucketIndex(value);
+        ++chunk(histogram, index)[index & (SUB_BUCKETS - 1)];
+    }
+
+    /**
+     * Adds the counts of one histogram to another.
+     * @param histogram The histogram to add to
+     * @param other The histogram to add
+     */
+    public static void add(int[][] histogram, int[][] other) {
+        for (int i = 0; i < CHUNKS; i++) {
+            if (other[i] == null) {
+                continue;
+            }
+            if (histogram[i] == null) {
+                histogram[i] = other[i].clone();
+                continue;
+            }
+            for (int j = 0; j < SUB_BUCKETS; j++) {
+                histogram[i][j] += other[i][j];
+            }
+        }
+    }
+
+    /**
+     * Calculates a percentile from the histogram. The result is the
+     * midpoint of the bucket holding the nth value, but never more
+     * than the known max value. If the nth value is in the overflow
+     * bucket, {@link #MAX_VALUE} is returned.
+     * @param histogram The histogram
+     * @param count The number of values recorded in the histogram
+     * @param pct The percentile, between 0 and 100
+     * @param max The max value recorded, or Long.MAX_VALUE if unknown
+     * @return The percentile value, or -1 if the histogram is empty
+     * @see #isOverflow(long)
+     */
+    public static long percentile(int[][] histogram, long count, double pct, long max) {
+        if (count <= 0l) {
+            return -1l;
+        }
+        // Tolerate floating point noise, i.e. 1000 * 0.999 = 999.0000001
+        long rank = (long) Math.ceil(count * (pct / 100d) - 1e-6d);
+        if (rank < 1l) {
+            rank = 1l;
+        }
+        long sum = 0l;
+        for (int i = 0; i < BUCKETS - 1; i++) {
+            int[] chunk = histogram[i >>> SUB_BUCKET_BITS];
+            if (chunk == null) {
+                i |= SUB_BUCKETS - 1; // Skip the chunk.
+                continue;
+            }
+            sum += chunk[i & (SUB_BUCKETS - 1)];
+            if (sum >= rank) {
+                return Math.min(midpoint(i), max);
+            }
+        }
+        return MAX_VALUE;
+    }
+
+    /**
+     * Checks whether a percentile value is beyond the range of the
+     * histogram, and therefore only a lower bound.
+     * @param value The percentile value
+     * @return Whether the value is in the overflow bucket
+     */
+    public static boolean isOverflow(long value) {
+        return value >= MAX_VALUE;
+    }
+}
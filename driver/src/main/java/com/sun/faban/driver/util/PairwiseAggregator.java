@@ -70,8 +70,77 @@ public class PairwiseAggregator<T extends PairwiseAggregator.Aggregable<T>> {
             this.extraPairIdxs[i] = extraPairIdxs.get(i);
         }
 
-        levelStore = (T[]) java.lang.reflect.Array.newInstance(
-                provider.getComponentClass(), this.extraPairIdxs.length);
+        levelStore = newStore(this.extraPairIdxs.length);
+    }
+
+    /**
+     * Creates a PairwiseAggregator for objects arriving one at a time,
+     * when the number of objects is not known upfront. Objects are passed
+     * to add as they arrive and are aggregated pairwise right away, so at
+     * most one object per level of the tree is kept.
+     * @param provider The provider, used for recycling objects
+     */
+    public PairwiseAggregator(Provider<T> provider) {
+        this.provider = provider;
+        levelStore = newStore(8);
+    }
+
+    // Array.newInstance of the component class is checked at runtime.
+    @SuppressWarnings("unchecked")
+    private T[] newStore(int length) {
+        return (T[]) java.lang.reflect.Array.newInstance(
+                provider.getComponentClass(), length);
+    }
+
+    /**
+     * Adds an arriving object in streaming mode. The aggregator takes
+     * ownership of the object and may modify it.
+     * @param object The mutable object to add
+     */
+    public void add(T object) {
+        ++nodeCount;
+        T m0 = object;
+        for (int j = 0;; j++) {
+            if (j == levelStore.length) {
+                T[] store = newStore(j * 2);
+                System.arraycopy(levelStore, 0, store, 0, j);
+                levelStore = store;
+            }
+            T m1 = levelStore[j];
+            if (m1 == null) {
+                levelStore[j] = m0;
+                break;
+            }
+            // Two subtrees of the same size, add them and push up.
+            m1.add(m0);
+            provider.recycle(m0);
+            levelStore[j] = null;
+            m0 = m1;
+        }
+    }
+
+    /**
+     * Obtains the aggregate of all objects added in streaming mode. The
+     * remaining subtrees are added from the smallest up. This ends the
+     * aggregation, the aggregator is empty afterwards.
+     * @return The aggregated object, or null if none were added
+     */
+    public T getResult() {
+        T m = null;
+        for (int j = 0; j < levelStore.length; j++) {
+            T m1 = levelStore[j];
+            if (m1 == null) {
+                continue;
+            }
+            levelStore[j] = null;
+            if (m != null) {
+                m1.add(m);
+                provider.recycle(m);
+            }
+            m = m1;
+        }
+        nodeCount = 0;
+        return m;
     }
 
     private void reset() {
@@ -25,19 +25,34 @@ package com.sun.faban.driver.util;
 
 import java.util.GregorianCalendar;
 import java.util.Calendar;
+import java.util.concurrent.atomic.AtomicLong;
 
 
 /**
  * RandNum is a random number/value generator. This
  * is a primitive facility for RandomValues.
  * RandomValues and all subclasses generate
- * application-specific random values.
+ * application-specific random values.<p>
+ *
+ * The generator is a SplitMix64 sequence kept in a plain long. Unlike
+ * java.util.Random, it does not update an atomic seed on every draw.
+ * An instance is therefore not thread-safe and each thread should use
+ * its own, as the driver threads do.
  *
  * @author Shanti Subramanyam
  */
 public class Random {
 
-    private java.util.Random        r;
+    private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15l;
+
+    // Seeds the instances created without a seed.
+    private static final AtomicLong seeder =
+            new AtomicLong(mix(System.currentTimeMillis() ^ System.nanoTime()));
+
+    private long seed;
+
+    private static char[] digits =
+        {'0', '1', '2', '3', '4', '5', '6', '7', '8', '9'};
     private static char[] alpha =
         {'0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'A', 'B', 'C', 'D',
          'E', 'F', 'G', 'H', 'I', 'J', 'K', 'L', 'M', 'N', 'O', 'P', 'Q', 'R',
@@ -52,7 +67,7 @@ public class Random {
      * Constructs the random value generator.
      */
     public Random() {
-        r = new java.util.Random();
+        this(seeder.getAndAdd(2 * GOLDEN_GAMMA));
     }
 
     /**
@@ -60,7 +75,43 @@ public class Random {
      * @param seed The seed for the random value generator
      */
     public Random(long seed) {
-        r = new java.util.Random(seed);
+        this.seed = mix(seed);
+    }
+
+    /**
+     * Derives a seed for one of many generators from a common seed, so
+     * that a run can be reproduced with each generator getting its own,
+     * independent sequence.
+     * @param seed The common seed
+     * @param group The group of the generator, e.g. the driver type
+     * @param id The id of the generator within the group
+     * @return The seed for the generator
+     */
+    public static long seed(long seed, int group, int id) {
+        return mix(mix(seed + group * GOLDEN_GAMMA) + id * GOLDEN_GAMMA);
+    }
+
+    /**
+     * The SplitMix64 finalizer.
+     */
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9l;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebl;
+        return z ^ (z >>> 31);
+    }
+
+    /**
+     * Returns the next 64 random bits.
+     */
+    private long nextLong() {
+        return mix(seed += GOLDEN_GAMMA);
+    }
+
+    /**
+     * Returns a random index uniformly distributed between 0 and n - 1.
+     */
+    private int nextIndex(int n) {
+        return (int) (((nextLong() >>> 32) * n) >>> 32);
     }
 
     /**
@@ -78,7 +129,9 @@ public class Random {
             y = x;
             x = t;
         }
-        return x + Math.abs(r.nextInt() % (y - x + 1));
+        // Scale 32 random bits to the range, without a division.
+        long range = (long) y - x + 1;
+        return (int) (x + (((nextLong() >>> 32) * range) >>> 32));
     }
 
     /*
@@ -100,7 +153,15 @@ public class Random {
             y = x;
             x = t;
         }
-        return x + Math.abs(r.nextLong() % (y - x + 1));
+        long range = y - x + 1;
+        if (range <= 0) { // Wider than Long.MAX_VALUE
+            long r;
+            do {
+                r = nextLong();
+            } while (r < x || r > y);
+            return r;
+        }
+        return x + (nextLong() >>> 1) % range;
     }
 
     /**
@@ -112,7 +173,8 @@ public class Random {
      * @return the random value between x and y, exclusive
      */
     public double drandom(double x, double y) {
-        return (x + (r.nextDouble() * (y - x)));
+        double d = (nextLong() >>> 11) * 0x1.0p-53;
+        return (x + (d * (y - x)));
     }
 
     /**
@@ -154,14 +216,40 @@ public class Random {
         }
 
         char[] buffer = new char[len];
-
-        for (int i = 0; i < len; i++) {
-            int j = random(0, alpha.length - 1);
-            buffer[i] = alpha[j];
-        }
+        fill(buffer, 0, len, alpha);
         return new String(buffer);
     }
 
+    /**
+     * Generates a random alphanumeric string like makeAString, into
+     * the given buffer. This avoids allocating a string per call.
+     *
+     * @param x the minimum length
+     * @param y the maximum length
+     * @param buffer the buffer to write into
+     * @param offset the offset in the buffer to start writing at
+     * @return the length of the string written
+     * @throws ArrayIndexOutOfBoundsException the buffer is too small
+     */
+    public int makeAString(int x, int y, char[] buffer, int offset) {
+        int len = x == y ? x : random(x, y);
+        fill(buffer, offset, len, alpha);
+        return len;
+    }
+
+    /**
+     * Generates a random alphanumeric string like makeAString,
+     * appending it to the given builder.
+     *
+     * @param x the minimum length
+     * @param y the maximum length
+     * @param sb the builder to append to
+     * @return the builder
+     */
+    public StringBuilder makeAString(int x, int y, StringBuilder sb) {
+        return append(sb, x == y ? x : random(x, y), alpha);
+    }
+
     /**
      * makeCString [x..y] generates a random string of only alpahabet
      * characters of random length of mininum x, maximum y and
@@ -182,13 +270,38 @@ public class Random {
         }
 
         char[] buffer = new char[len];
+        fill(buffer, 0, len, characs);
+        return new String(buffer);
+    }
 
-        for (int i = 0; i < len; i++) {
-            int j = random(0, characs.length - 1);
-            buffer[i] = characs[j];
-        }
+    /**
+     * Generates a random alphabetic string like makeCString, into
+     * the given buffer. This avoids allocating a string per call.
+     *
+     * @param x the minimum length
+     * @param y the maximum length
+     * @param buffer the buffer to write into
+     * @param offset the offset in the buffer to start writing at
+     * @return the length of the string written
+     * @throws ArrayIndexOutOfBoundsException the buffer is too small
+     */
+    public int makeCString(int x, int y, char[] buffer, int offset) {
+        int len = x == y ? x : random(x, y);
+        fill(buffer, offset, len, characs);
+        return len;
+    }
 
-        return new String(buffer);
+    /**
+     * Generates a random alphabetic string like makeCString,
+     * appending it to the given builder.
+     *
+     * @param x the minimum length
+     * @param y the maximum length
+     * @param sb the builder to append to
+     * @return the builder
+     */
+    public StringBuilder makeCString(int x, int y, StringBuilder sb) {
+        return append(sb, x == y ? x : random(x, y), characs);
     }
 
  	/**
@@ -277,8 +390,7 @@ public class Random {
      */
     public String makeNString(int x, int y) {
 
-        int    len, i;
-        //String str = "";
+        int    len;
 
         if (x == y) {
             len = x;
@@ -287,12 +399,57 @@ public class Random {
         }
 
         char[] buffer = new char[len];
+        fill(buffer, 0, len, digits);
+        return new String(buffer);
+    }
 
-        for (i = 0; i < len; i++) {
-            buffer[i] = (char) random('0', '9');
+    /**
+     * Generates a random numeric string like makeNString, into
+     * the given buffer. This avoids allocating a string per call.
+     *
+     * @param x the minimum length
+     * @param y the maximum length
+     * @param buffer the buffer to write into
+     * @param offset the offset in the buffer to start writing at
+     * @return the length of the string written
+     * @throws ArrayIndexOutOfBoundsException the buffer is too small
+     */
+    public int makeNString(int x, int y, char[] buffer, int offset) {
+        int len = x == y ? x : random(x, y);
+        fill(buffer, offset, len, digits);
+        return len;
+    }
+
+    /**
+     * Generates a random numeric string like makeNString,
+     * appending it to the given builder.
+     *
+     * @param x the minimum length
+     * @param y the maximum length
+     * @param sb the builder to append to
+     * @return the builder
+     */
+    public StringBuilder makeNString(int x, int y, StringBuilder sb) {
+        return append(sb, x == y ? x : random(x, y), digits);
+    }
+
+    private void fill(char[] buffer, int offset, int len, char[] chars) {
+        if (offset < 0 || len > buffer.length - offset) {
+            throw new ArrayIndexOutOfBoundsException(
+                    "Cannot write " + len + " chars at " + offset +
+                    " into buffer of " + buffer.length);
+        }
+        for (int i = offset; i < offset + len; i++) {
+            buffer[i] = chars[nextIndex(chars.length)];
         }
+    }
 
-        return new String(buffer);
+    private StringBuilder append(StringBuilder sb, int len, char[] chars) {
+        sb.ensureCapacity(sb.length() + len);
+        for (int i = 0; i < len; i++) {
+            sb.append(chars[nextIndex(chars.length)]);
+        }
+        return sb;
     }
 }
 
@@ -28,6 +28,7 @@ import com.sun.faban.driver.util.timermeter.TimerMeter;
 
 import java.io.Serializable;
 import java.util.Random;
+import java.util.concurrent.locks.LockSupport;
 import java.util.logging.Logger;
 
 /**
@@ -50,6 +51,9 @@ public class Timer implements Serializable {
     private double deviation = 5000000d; // for both fields.
     private Boolean debug = null;
 
+    // The final slice of a wakeup to spin for, from the host's profile.
+    private transient long spinTime = 0l;
+
     /**
      * Default Constructor which saves the current time
      * as epochMillis and epochNanos (the start of the benchmark).
@@ -389,9 +393,13 @@ public class Timer implements Serializable {
      * by this timer. Timer.sleep is not a minimum sleep time as in
      * Thread.sleep, but rather a calibrated and compensated sleep
      * time which gives the best statistical opportunity to wake up
-     * at the required time. The actual wakeup can be slightly before
-     * or slightly after the wakeup time but the average discrepancy
-     * should be close to zero.
+     * at the required time.<p>
+     *
+     * The thread first sleeps coarsely, up to the sleep compensation
+     * before the wakeup time. It then parks until the spin time from the
+     * host's timer profile is left, and spins for this final slice. So it
+     * does not wake up before the wakeup time and short delays of a few
+     * milliseconds stay accurate.
      * @param wakeupTime The time this thread is supposed to wakeup.
      */
     public void wakeupAt(long wakeupTime) {
@@ -406,14 +414,34 @@ public class Timer implements Serializable {
                 // If we get an interrupt, the run is killed/terminated.
                 // Just stop sleeping.
             }
+        long spin = spinTime;
+        long parkTime;
+        while ((parkTime = wakeupTime - System.nanoTime() - spin) > 0l) {
+            LockSupport.parkNanos(parkTime);
+            if (Thread.interrupted())
+                throw new RuntimeException(
+                        "Sleep interrupted. Run terminating.");
+        }
+        while (System.nanoTime() < wakeupTime)
+            ; // Spin for the final slice
+    }
+
+    /**
+     * Sets the timer profile of this host, which determines how long
+     * wakeupAt spins before the wakeup time.
+     * @param profile The timer profile
+     */
+    void setProfile(TimerProfile profile) {
+        spinTime = profile.getSpinTime();
     }
 
+    /**
+     * Checks the idle timer and sets up the timer for this host. The
+     * timer profile is measured only the first time on each host.
+     * @param id The agent identifier - used for logging purposes.
+     */
     public void idleTimerCheck(String id) {
-        // Currently, this is only informational. In the future,
-        // we could use the results to adjust the timer.
-        logger.info(id + ": Performing idle timer check");
-        logger.info(id + ": Idle timer characteristics:\n" + new TimerMeter(
-                1000000, 10, 1000, 2, 100, 2).printTimerCharacterization());
+        setProfile(TimerProfile.getInstance(id));
     }
 
     /**
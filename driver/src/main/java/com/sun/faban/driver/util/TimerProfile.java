@@ -0,0 +1,244 @@
+/* The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://www.sun.com/cddl/cddl.html or
+ * install_dir/legal/LICENSE
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at install_dir/legal/LICENSE.
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ *
+ * $Id$
+ *
+ * Copyright 2005-2009 Sun Microsystems Inc. All Rights Reserved
+ */
+package com.sun.faban.driver.util;
+
+import com.sun.faban.driver.util.timermeter.TimerCharacterisation;
+import com.sun.faban.driver.util.timermeter.TimerMeter;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.util.Arrays;
+import java.util.Properties;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The timer profile of a host, used by Timer.wakeupAt to decide how
+ * long to park and how long to spin before the wakeup time. The profile
+ * is measured once per host with the TimerMeter and a short park test,
+ * and cached in the faban temp directory so later runs on the same host
+ * and JVM start calibrated. Set faban.timer.recalibrate=true to measure
+ * it again.
+ */
+public class TimerProfile {
+
+    /** The default maximum spin time, in ns. */
+    static final long MAX_SPIN = 200000l;
+
+    private static final String PREFIX = "faban.timer.";
+
+    private static Logger logger =
+            Logger.getLogger(TimerProfile.class.getName());
+
+    private static TimerProfile instance;
+
+    /** The cost of a System.nanoTime call, in ns. */
+    long invocationCost;
+
+    /** The accuracy of System.nanoTime, in ns. */
+    long accuracy;
+
+    /** The 90th percentile of the LockSupport.parkNanos overshoot, in ns. */
+    long parkOvershoot;
+
+    /** The JVM and OS this profile was measured on. */
+    String platform;
+
+    TimerProfile() {
+    }
+
+    /**
+     * Obtains the profile of this host, loading it from the cache or
+     * measuring it if it is not cached yet.
+     * @param id The agent identifier, used for logging purposes
+     * @return The timer profile
+     */
+    public static synchronized TimerProfile getInstance(String id) {
+        if (instance == null) {
+            File cache = getCacheFile();
+            if (!Boolean.getBoolean(PREFIX + "recalibrate")) {
+                instance = load(cache);
+            }
+            if (instance == null) {
+                logger.info(id + ": Performing idle timer check");
+                instance = measure();
+                store(instance, cache);
+            } else {
+                logger.info(id + ": Using timer profile from " + cache);
+            }
+            logger.info(id + ": " + instance);
+        }
+        return instance;
+    }
+
+    /**
+     * Obtains the time to spin before a wakeup, after parking. This
+     * covers the park overshoot and the timer accuracy, but is limited
+     * by faban.timer.maxSpin, in ns, to keep the CPU cost of spinning
+     * driver threads low.
+     * @return The spin time, in ns
+     */
+    public long getSpinTime() {
+        long spin = parkOvershoot + Math.max(accuracy, invocationCost);
+        long maxSpin = Long.getLong(PREFIX + "maxSpin", MAX_SPIN);
+        return Math.max(0l, Math.min(spin, maxSpin));
+    }
+
+    /**
+     * Measures the timer profile of this host.
+     * @return The timer profile
+     */
+    static TimerProfile measure() {
+        TimerProfile profile = new TimerProfile();
+        profile.platform = getPlatform();
+        TimerCharacterisation ch =
+                new TimerMeter(1000000, 10, 1000, 2, 100, 2).characterize();
+        logger.fine("Idle timer characteristics:\n" + ch);
+        profile.invocationCost =
+                Math.round(ch.getInvocationCost().getMedian());
+        profile.accuracy = ch.getAccuracy();
+        if (profile.accuracy == Long.MAX_VALUE) { // No clusters found
+            profile.accuracy = profile.invocationCost;
+        }
+        profile.parkOvershoot = measureParkOvershoot();
+        return profile;
+    }
+
+    /**
+     * Measures how late LockSupport.parkNanos returns, parking for 50 to
+     * 500 microseconds at a time.
+     * @return The 90th percentile of the overshoot, in ns
+     */
+    static long measureParkOvershoot() {
+        Random random = new Random();
+        long[] overshoot = new long[200];
+        for (int i = 0; i < overshoot.length; i++) {
+            long parkTime = random.lrandom(50000l, 500000l);
+            long start = System.nanoTime();
+            LockSupport.parkNanos(parkTime);
+            overshoot[i] = Math.max(0l, System.nanoTime() - start - parkTime);
+        }
+        Arrays.sort(overshoot);
+        return overshoot[overshoot.length * 9 / 10];
+    }
+
+    /**
+     * Loads a profile from the cache, if it was measured on this platform.
+     * @param cache The cache file
+     * @return The profile, or null if there is none
+     */
+    static TimerProfile load(File cache) {
+        if (!cache.isFile()) {
+            return null;
+        }
+        Properties props = new Properties();
+        try {
+            InputStream in = new FileInputStream(cache);
+            try {
+                props.load(in);
+            } finally {
+                in.close();
+            }
+            if (!getPlatform().equals(props.getProperty("platform"))) {
+                return null;
+            }
+            TimerProfile profile = new TimerProfile();
+            profile.platform = props.getProperty("platform");
+            profile.invocationCost =
+                    Long.parseLong(props.getProperty("invocationCost"));
+            profile.accuracy = Long.parseLong(props.getProperty("accuracy"));
+            profile.parkOvershoot =
+                    Long.parseLong(props.getProperty("parkOvershoot"));
+            return profile;
+        } catch (Exception e) { // Missing fields are NPEs here
+            logger.log(Level.FINE, "Ignoring bad timer profile " + cache, e);
+            return null;
+        }
+    }
+
+    /**
+     * Stores a profile in the cache. Failures are logged and ignored.
+     * @param profile The profile
+     * @param cache The cache file
+     */
+    static void store(TimerProfile profile, File cache) {
+        Properties props = new Properties();
+        props.setProperty("platform", profile.platform);
+        props.setProperty("invocationCost",
+                String.valueOf(profile.invocationCost));
+        props.setProperty("accuracy", String.valueOf(profile.accuracy));
+        props.setProperty("parkOvershoot",
+                String.valueOf(profile.parkOvershoot));
+        try {
+            OutputStream out = new FileOutputStream(cache);
+            try {
+                props.store(out, "Faban timer profile");
+            } finally {
+                out.close();
+            }
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Cannot cache timer profile in " +
+                    cache, e);
+        }
+    }
+
+    private static File getCacheFile() {
+        String tmpDir = System.getProperty("faban.tmpdir");
+        if (tmpDir == null) {
+            tmpDir = System.getProperty("java.io.tmpdir");
+        }
+        String host;
+        try {
+            host = InetAddress.getLocalHost().getHostName();
+        } catch (IOException e) {
+            host = "localhost";
+        }
+        return new File(tmpDir, "faban-timer-" + host + ".properties");
+    }
+
+    static String getPlatform() {
+        return System.getProperty("java.vm.name") + ' ' +
+                System.getProperty("java.vm.version") + ", " +
+                System.getProperty("os.name") + ' ' +
+                System.getProperty("os.version") + ' ' +
+                System.getProperty("os.arch");
+    }
+
+    /**
+     * Provides a string representation of this profile.
+     * @return The string representation
+     */
+    @Override
+    public String toString() {
+        return "Timer profile: nanoTime cost " + invocationCost +
+                " ns, accuracy " + accuracy + " ns, park overshoot " +
+                parkOvershoot + " ns, spin time " + getSpinTime() + " ns.";
+    }
+}
@@ -297,10 +297,17 @@ public class TimerMeter implements Runnable {
         return allResults;
     }
 
-    public String printTimerCharacterization() {
-        TimerCharacterisation ch = computeTimerCharacterization(
+    /**
+     * Measures and characterizes the timer.
+     * @return The timer characterization
+     */
+    public TimerCharacterisation characterize() {
+        return computeTimerCharacterization(
                         obtainMeasurementsUsingDirectInvocation(), false);
-        return ch.toString();
+    }
+
+    public String printTimerCharacterization() {
+        return characterize().toString();
     }
 
     public void run() {
@@ -0,0 +1,167 @@
+package com.sun.faban.driver.engine;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.rmi.server.UnicastRemoteObject;
+
+import com.sun.faban.driver.util.LogLinearHistogram;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests the compact wire format of Metrics and RuntimeMetrics.
+ */
+public class ArrayCodecTest {
+
+    @Test
+    public void testVarInts() throws IOException {
+        int[] ints = { 0, 1, 127, 128, 16383, 16384, Integer.MAX_VALUE,
+                       -1, Integer.MIN_VALUE };
+        long[] longs = { 0l, 1l, 127l, 128l, Long.MAX_VALUE, -1l,
+                         Long.MIN_VALUE };
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        for (int v : ints) {
+            ArrayCodec.writeVarInt(out, v);
+        }
+        for (long v : longs) {
+            ArrayCodec.writeVarLong(out, v);
+        }
+        DataInputStream in = new DataInputStream(
+                new ByteArrayInputStream(bytes.toByteArray()));
+        for (int v : ints) {
+            assertEquals(v, ArrayCodec.readVarInt(in));
+        }
+        for (long v : longs) {
+            assertEquals(v, ArrayCodec.readVarLong(in));
+        }
+        assertEquals(-1, in.read());
+    }
+
+    @Test
+    public void testArrays() throws IOException {
+        int[][] hist = { new int[100], { 3, 0, 0, -5, 0, 7 }, new int[0] };
+        hist[0][99] = 1;
+        int[][] graph = { { 10, 12, 9, 9, 0, 0 }, new int[50],
+                          { Integer.MIN_VALUE, Integer.MAX_VALUE } };
+        long[][] respGraph = { { 1000000000000l, 999999999999l, 0l },
+                               { Long.MIN_VALUE, Long.MAX_VALUE, 0l, 1l } };
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        ArrayCodec.writeSparse(out, hist);
+        ArrayCodec.writeSparse(out, null);
+        ArrayCodec.writeDelta(out, graph);
+        ArrayCodec.writeDelta(out, respGraph);
+        ArrayCodec.writeDelta(out, (long[][]) null);
+
+        DataInputStream in = new DataInputStream(
+                new ByteArrayInputStream(bytes.toByteArray()));
+        assertArrayEquals(hist, ArrayCodec.readSparse(in));
+        assertNull(ArrayCodec.readSparse(in));
+        assertArrayEquals(graph, ArrayCodec.readDeltaInts(in));
+        long[][] readGraph = ArrayCodec.readDeltaLongs(in);
+        assertEquals(respGraph.length, readGraph.length);
+        for (int i = 0; i < respGraph.length; i++) {
+            assertArrayEquals(respGraph[i], readGraph[i]);
+        }
+        assertNull(ArrayCodec.readDeltaLongs(in));
+        assertEquals(-1, in.read());
+    }
+
+    @Test
+    public void testMetricsRoundTrip() throws Exception {
+        AgentThread thread = DriverTestSupport.startThread();
+        Metrics m;
+        RuntimeMetrics rtm = new RuntimeMetrics();
+        try {
+            Thread.sleep(200);
+            thread.stopExecution();
+            thread.join(10000);
+            m = thread.metrics;
+            rtm.copy(m);
+        } finally {
+            UnicastRemoteObject.unexportObject(thread.agent, true);
+        }
+        assertTrue(m.txCntStdy[0] > 0);
+        int recorded = 0;
+        for (int count : LogLinearHistogram.toArray(m.respPctHist[0]))
+            recorded += count;
+        assertEquals(m.txCntStdy[0], recorded);
+
+        byte[] bytes = serialize(m);
+        Metrics copy = (Metrics) deserialize(bytes);
+        assertArrayEquals(m.txCntStdy, copy.txCntStdy);
+        assertArrayEquals(m.respHist, copy.respHist);
+        assertArrayEquals(m.respPctHist, copy.respPctHist);
+        assertArrayEquals(m.delayHist, copy.delayHist);
+        assertArrayEquals(m.targetedDelayHist, copy.targetedDelayHist);
+        assertArrayEquals(m.thruputGraph, copy.thruputGraph);
+        for (int i = 0; i < m.respGraph.length; i++) {
+            assertArrayEquals(m.respGraph[i], copy.respGraph[i]);
+        }
+        assertEquals(m.getTps(), copy.getTps(), 0d);
+
+        // The arrays alone take much more in the default format.
+        int dense = serialize(m.respHist).length +
+                serialize(m.respPctHist).length +
+                serialize(m.delayHist).length +
+                serialize(m.targetedDelayHist).length +
+                serialize(m.thruputGraph).length +
+                serialize(m.respGraph).length;
+        assertTrue(bytes.length * 4 < dense);
+
+        RuntimeMetrics rtmCopy = (RuntimeMetrics) deserialize(serialize(rtm));
+        assertArrayEquals(rtm.txCntTotal, rtmCopy.txCntTotal);
+        assertArrayEquals(rtm.respHist, rtmCopy.respHist);
+
+        // A missing histogram makes the percentiles of the sum unknown.
+        assertTrue(m.getPercentile(0, 90d) > 0l);
+        Metrics missing = (Metrics) m.clone();
+        missing.respPctHist = null;
+        Metrics sum = (Metrics) m.clone();
+        sum.add(missing);
+        assertNull(sum.respPctHist);
+        assertEquals(-1l, sum.getPercentile(0, 90d));
+        assertNull(((Metrics) deserialize(serialize(sum))).respPctHist);
+    }
+
+    @Test
+    public void testUnsupportedVersion() throws Exception {
+        RuntimeMetrics rtm = new RuntimeMetrics();
+        rtm.respHist = new int[][] { { 1 } };
+        byte[] bytes = serialize(rtm);
+        // The version byte is followed by the 5 bytes of the histogram
+        // and the end of block data marker.
+        int versionIdx = bytes.length - 7;
+        assertEquals(Metrics.FORMAT_VERSION, bytes[versionIdx]);
+        bytes[versionIdx] = (byte) (Metrics.FORMAT_VERSION + 1);
+        try {
+            deserialize(bytes);
+            fail("Unsupported version not detected");
+        } catch (InvalidObjectException e) {
+            // Expected.
+        }
+    }
+
+    private static byte[] serialize(Object o) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(o);
+        out.close();
+        return bytes.toByteArray();
+    }
+
+    private static Object deserialize(byte[] bytes) throws Exception {
+        ObjectInputStream in = new ObjectInputStream(
+                new ByteArrayInputStream(bytes));
+        return in.readObject();
+    }
+}
@@ -0,0 +1,152 @@
+package com.sun.faban.driver.engine;
+
+import java.rmi.server.UnicastRemoteObject;
+
+import com.sun.faban.driver.BenchmarkDriver;
+import com.sun.faban.driver.BenchmarkOperation;
+import com.sun.faban.driver.CycleType;
+import com.sun.faban.driver.Timing;
+import com.sun.faban.driver.util.Random;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests the open-loop arrival schedule and driver thread.
+ */
+public class ArrivalRateTest {
+
+    static final long SEC = 1000000000l;
+
+    @Test
+    public void testConstantRate() {
+        ArrivalRate rate = new ArrivalRate(false, new double[] { 100d }, 0);
+        Random random = new Random(1);
+        assertEquals(SEC / 100, rate.next(0l, 1, random));
+        assertEquals(SEC + SEC / 100, rate.next(SEC, 1, random));
+        // Four agents share the rate.
+        assertEquals(SEC / 25, rate.next(0l, 4, random));
+    }
+
+    @Test
+    public void testSteppedRate() {
+        ArrivalRate rate = new ArrivalRate(false,
+                new double[] { 10d, 0d, 1000d }, 5);
+        Random random = new Random(1);
+        assertEquals(SEC / 10, rate.next(0l, 1, random));
+        // The idle step is skipped.
+        assertEquals(10 * SEC, rate.next(5 * SEC, 1, random));
+        assertEquals(10 * SEC + SEC / 1000, rate.next(10 * SEC, 1, random));
+        // The last rate stays in effect.
+        assertEquals(1000d, rate.getRate(3600 * SEC), 0d);
+
+        rate = new ArrivalRate(false, new double[] { 10d, 0d }, 5);
+        assertEquals(Long.MAX_VALUE, rate.next(5 * SEC, 1, random));
+    }
+
+    @Test
+    public void testPoissonRate() {
+        ArrivalRate rate = new ArrivalRate(true, new double[] { 1000d }, 0);
+        Random random = new Random(1);
+        long time = 0l;
+        int count = 100000;
+        for (int i = 0; i < count; i++) {
+            time = rate.next(time, 1, random);
+        }
+        // The mean inter-arrival time is 1ms.
+        assertEquals(SEC / 1000, time / count, SEC / 1000 / 50);
+    }
+
+    @Test
+    public void testDispatcher() {
+        ArrivalDispatcher dispatcher = new ArrivalDispatcher(
+                new ArrivalRate(false, new double[] { 100d }, 0), 1);
+        assertEquals(Long.MAX_VALUE, dispatcher.next());
+        dispatcher.start(SEC);
+        long first = dispatcher.next();
+        assertTrue(first >= SEC && first <= SEC + SEC / 100);
+        assertEquals(first + SEC / 100, dispatcher.next());
+        assertEquals(first + 2 * SEC / 100, dispatcher.next());
+    }
+
+    @Test
+    public void testOverloaded() throws Exception {
+        // One thread, 10ms per op, scheduled at 200 ops/sec.
+        AgentThread thread = DriverTestSupport.startThread(SlowDriver.class,
+                new ArrivalRate(false, new double[] { 200d }, 0));
+        try {
+            assertTrue(thread instanceof ArrivalRateThread);
+            Thread.sleep(1000);
+            thread.stopExecution();
+            thread.join(10000);
+            Metrics m = thread.metrics;
+            int count = m.txCntStdy[0] + m.errCntStdy[0];
+            assertTrue(count > 10);
+            assertTrue(count < 150);
+            // All but the first arrival were late.
+            assertTrue(m.missedCntStdy[0] >= count - 2);
+            // Latency includes the wait for the thread. By the end of the
+            // second, arrivals are about half a second late.
+            assertTrue(m.respMax[0] > SEC / 4);
+        } finally {
+            UnicastRemoteObject.unexportObject(thread.agent, true);
+        }
+    }
+
+    @Test
+    public void testUnderloaded() throws Exception {
+        // One thread, 10ms per op, scheduled at 20 ops/sec.
+        AgentThread thread = DriverTestSupport.startThread(SlowDriver.class,
+                new ArrivalRate(false, new double[] { 20d }, 0));
+        try {
+            Thread.sleep(1000);
+            thread.stopExecution();
+            thread.join(10000);
+            Metrics m = thread.metrics;
+            int count = m.txCntStdy[0] + m.errCntStdy[0];
+            assertTrue(count >= 15);
+            assertTrue(count <= 25);
+            // Only the first operations may be late, while warming up.
+            assertTrue(m.missedCntStdy[0] <= 5);
+            assertTrue(m.respSumStdy[0] / m.txCntStdy[0] < SEC / 20);
+        } finally {
+            UnicastRemoteObject.unexportObject(thread.agent, true);
+        }
+    }
+
+    /**
+     * A driver with one operation taking 10ms.
+     */
+    @com.sun.faban.driver.BenchmarkDefinition (
+        name    = "Arrival Rate Test",
+        version = "1.0"
+    )
+    @BenchmarkDriver (
+        name           = "SlowDriver",
+        threadPerScale = 1
+    )
+    @com.sun.faban.driver.FlatMix (
+        operations = { "Op1" },
+        mix        = { 100 },
+        deviation  = 5
+    )
+    @com.sun.faban.driver.FixedTime (
+        cycleType      = CycleType.THINKTIME,
+        cycleTime      = 0,
+        cycleDeviation = 5
+    )
+    public static class SlowDriver {
+
+        @BenchmarkOperation (
+            name    = "Op1",
+            max90th = 1,
+            timing  = Timing.MANUAL
+        )
+        public void doOp1() throws InterruptedException {
+            DriverContext ctx = DriverContext.getContext();
+            ctx.recordTime();
+            Thread.sleep(10);
+            ctx.recordTime();
+        }
+    }
+}
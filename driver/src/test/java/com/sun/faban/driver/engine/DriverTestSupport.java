@@ -0,0 +1,132 @@
+package com.sun.faban.driver.engine;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.util.concurrent.CountDownLatch;
+
+import com.sun.faban.driver.BenchmarkDriver;
+import com.sun.faban.driver.BenchmarkOperation;
+import com.sun.faban.driver.CycleType;
+import com.sun.faban.driver.RunControl;
+import com.sun.faban.driver.Timing;
+import com.sun.faban.driver.util.Timer;
+
+/**
+ * Runs driver threads in-process for tests, without a master.
+ */
+class DriverTestSupport {
+
+    /**
+     * Sets up the run info and an agent, and starts one driver thread
+     * running the FastDriver. The caller has to stop the thread and
+     * unexport the agent.
+     * @return The running driver thread
+     * @throws Exception If the setup fails
+     */
+    static AgentThread startThread() throws Exception {
+        return startThread(FastDriver.class, null);
+    }
+
+    /**
+     * Sets up the run info and an agent, and starts one driver thread
+     * running the given driver. The caller has to stop the thread and
+     * unexport the agent.
+     * @param driverClass The driver class
+     * @param arrivalRate The arrival rate for an open-loop run, or null
+     * @return The running driver thread
+     * @throws Exception If the setup fails
+     */
+    static AgentThread startThread(Class<?> driverClass,
+                                   ArrivalRate arrivalRate) throws Exception {
+        RunInfo runInfo = createRunInfo(driverClass);
+        runInfo.driverConfig.arrivalRate = arrivalRate;
+        runInfo.driverConfig.numAgents = 1;
+        AgentImpl agent = new AgentImpl("FastDriver", "0");
+        agent.runInfo = runInfo;
+        agent.host = "localhost";
+        agent.threadStartLatch = new CountDownLatch(1);
+        agent.timeSetLatch = new CountDownLatch(0);
+        agent.startTime = System.nanoTime();
+        if (arrivalRate != null) {
+            agent.arrivals = new ArrivalDispatcher(arrivalRate, 1);
+            agent.arrivals.start(agent.startTime);
+        }
+
+        AgentThread thread = AgentThread.getInstance("FastDriver",
+                "0", 0, driverClass, new Timer(), agent);
+        thread.start();
+        agent.threadStartLatch.await();
+        return thread;
+    }
+
+    private static RunInfo createRunInfo(Class<?> driverClass)
+            throws Exception {
+        BenchmarkDefinition def =
+                BenchmarkDefinition.read(driverClass.getName());
+
+        Constructor<RunInfo> c = RunInfo.class.getDeclaredConstructor();
+        c.setAccessible(true);
+        RunInfo runInfo = c.newInstance();
+        runInfo.rampUp = 0;
+        runInfo.stdyState = 3600;
+        runInfo.rampDown = 0;
+        runInfo.driverConfig = new RunInfo.DriverConfig(def.drivers[0]);
+        runInfo.driverConfig.runControl = RunControl.TIME;
+        runInfo.driverConfig.graphInterval = 10;
+        runInfo.driverConfigs = new RunInfo.DriverConfig[] {
+            runInfo.driverConfig
+        };
+
+        Field instance = RunInfo.class.getDeclaredField("instance");
+        instance.setAccessible(true);
+        instance.set(null, runInfo);
+        return runInfo;
+    }
+
+    /**
+     * A driver with zero think time and manual timing, so the driver
+     * loop is the only thing measured.
+     */
+    @com.sun.faban.driver.BenchmarkDefinition (
+        name    = "Driver Test",
+        version = "1.0"
+    )
+    @BenchmarkDriver (
+        name           = "FastDriver",
+        threadPerScale = 1
+    )
+    @com.sun.faban.driver.FlatMix (
+        operations = { "Op1", "Op2" },
+        mix        = { 50, 50 },
+        deviation  = 5
+    )
+    @com.sun.faban.driver.FixedTime (
+        cycleType      = CycleType.THINKTIME,
+        cycleTime      = 0,
+        cycleDeviation = 5
+    )
+    public static class FastDriver {
+
+        @BenchmarkOperation (
+            name    = "Op1",
+            max90th = 1,
+            timing  = Timing.MANUAL
+        )
+        public void doOp1() {
+            DriverContext ctx = DriverContext.getContext();
+            ctx.recordTime();
+            ctx.recordTime();
+        }
+
+        @BenchmarkOperation (
+            name    = "Op2",
+            max90th = 1,
+            timing  = Timing.MANUAL
+        )
+        public void doOp2() {
+            DriverContext ctx = DriverContext.getContext();
+            ctx.recordTime();
+            ctx.recordTime();
+        }
+    }
+}
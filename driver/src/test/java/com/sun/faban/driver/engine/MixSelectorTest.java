@@ -0,0 +1,99 @@
+package com.sun.faban.driver.engine;
+
+import com.sun.faban.driver.util.Random;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests that the mix selectors pick the same operations as a linear scan
+ * of the cumulative mix, for the same seed.
+ */
+public class MixSelectorTest {
+
+    static final double[][] MIXES = {
+        { 1d },
+        { 0.5d, 0.5d },
+        { 0d, 0.25d, 0d, 0.75d },
+        { 0.1d, 0.2d, 0d, 0d, 0.3d, 0.1d, 0.05d, 0.05d, 0.2d, 0d },
+        { 0d, 0d, 1d },
+        { 0.2d, 0.2d, 0.2d }, // Does not add up to 1
+    };
+
+    @Test
+    public void testSearch() {
+        double[] cumulative = { 0d, 0.25d, 0.25d, 1d };
+        assertEquals(0, Mix.Selector.search(cumulative, 0d));
+        assertEquals(1, Mix.Selector.search(cumulative, 0.1d));
+        assertEquals(1, Mix.Selector.search(cumulative, 0.25d));
+        assertEquals(3, Mix.Selector.search(cumulative, 0.26d));
+        assertEquals(3, Mix.Selector.search(cumulative, 1d));
+        assertEquals(4, Mix.Selector.search(cumulative, 1.1d));
+        assertEquals(0, Mix.Selector.search(new double[0], 0.5d));
+    }
+
+    @Test
+    public void testFlatMix() {
+        for (double[] mix : MIXES) {
+            double[] cumulative = cumulate(mix);
+            for (long seed = 1; seed <= 20; seed++) {
+                FlatMix.Selector selector =
+                        new FlatMix.Selector(new Random(seed), mix);
+                Random random = new Random(seed);
+                for (int i = 0; i < 1000; i++) {
+                    int expected = linearScan(cumulative,
+                            random.drandom(0, 1));
+                    if (expected == cumulative.length) {
+                        expected = -1;
+                    }
+                    assertEquals(expected, selector.select());
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testMatrixMix() {
+        double[][] mix = {
+            { 0d, 0.5d, 0.5d, 0d },
+            { 0.1d, 0d, 0.2d, 0.7d },
+            { 0.25d, 0.25d, 0.25d, 0.25d },
+            { 1d, 0d, 0d, 0d }
+        };
+        double[][] cumulative = new double[mix.length][];
+        for (int i = 0; i < mix.length; i++) {
+            cumulative[i] = cumulate(mix[i]);
+        }
+        for (long seed = 1; seed <= 20; seed++) {
+            MatrixMix.Selector selector =
+                    new MatrixMix.Selector(new Random(seed), mix);
+            Random random = new Random(seed);
+            assertEquals(0, selector.select());
+            int op = 0;
+            for (int i = 0; i < 1000; i++) {
+                op = linearScan(cumulative[op], random.drandom(0, 1));
+                assertEquals(op, selector.select());
+            }
+        }
+    }
+
+    private static double[] cumulate(double[] mix) {
+        double[] cumulative = new double[mix.length];
+        double sum = 0d;
+        for (int i = 0; i < mix.length; i++) {
+            sum += mix[i];
+            cumulative[i] = sum;
+        }
+        return cumulative;
+    }
+
+    private static int linearScan(double[] cumulative, double val) {
+        int i;
+        for (i = 0; i < cumulative.length; i++) {
+            if (val <= cumulative[i]) {
+                break;
+            }
+        }
+        return i;
+    }
+}
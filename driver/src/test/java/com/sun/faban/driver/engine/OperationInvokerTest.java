@@ -0,0 +1,91 @@
+package com.sun.faban.driver.engine;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests the generated and reflective operation invokers.
+ */
+public class OperationInvokerTest {
+
+    @Test
+    public void testGeneratedInvoker() throws Exception {
+        OperationInvoker invoker = OperationInvoker.getInstance(TestDriver.class.getMethod("doVoid"));
+        assertFalse(invoker instanceof OperationInvoker.Reflective);
+        TestDriver driver = new TestDriver();
+        invoker.invoke(driver);
+        invoker.invoke(driver);
+        assertEquals(2, driver.count);
+    }
+
+    @Test
+    public void testReturnValues() throws Exception {
+        TestDriver driver = new TestDriver();
+        for (String name : new String[] { "doInt", "doLong", "doDouble", "doObject" }) {
+            OperationInvoker invoker = OperationInvoker.getInstance(TestDriver.class.getMethod(name));
+            assertFalse(invoker instanceof OperationInvoker.Reflective);
+            invoker.invoke(driver);
+        }
+        assertEquals(4, driver.count);
+    }
+
+    @Test
+    public void testExceptionWrapping() throws Exception {
+        OperationInvoker invoker = OperationInvoker.getInstance(TestDriver.class.getMethod("doThrow"));
+        try {
+            invoker.invoke(new TestDriver());
+            fail("Expected InvocationTargetException");
+        }
+        catch (InvocationTargetException e) {
+            assertTrue(e.getCause() instanceof IOException);
+        }
+    }
+
+    @Test
+    public void testReflectiveFallback() throws Exception {
+        OperationInvoker invoker = OperationInvoker.getInstance(HiddenDriver.class.getMethod("doVoid"));
+        assertTrue(invoker instanceof OperationInvoker.Reflective);
+        HiddenDriver driver = new HiddenDriver();
+        invoker.invoke(driver);
+        assertEquals(1, driver.count);
+    }
+
+    public static class TestDriver {
+        int count;
+
+        public void doVoid() {
+            ++count;
+        }
+
+        public int doInt() {
+            return ++count;
+        }
+
+        public long doLong() {
+            return ++count;
+        }
+
+        public double doDouble() {
+            return ++count;
+        }
+
+        public Object doObject() {
+            return String.valueOf(++count);
+        }
+
+        public void doThrow() throws IOException {
+            throw new IOException("Test");
+        }
+    }
+
+    static class HiddenDriver {
+        int count;
+
+        public void doVoid() {
+            ++count;
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package com.sun.faban.driver.engine;
+
+import java.rmi.server.UnicastRemoteObject;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests that runtime metrics copies are consistent while the driver
+ * thread keeps recording.
+ */
+public class RuntimeMetricsTest {
+
+    @Test
+    public void testConsistentCopy() throws Exception {
+        AgentThread thread = DriverTestSupport.startThread();
+        try {
+            RuntimeMetrics rtm = new RuntimeMetrics();
+            int[] lastCount = null;
+            long end = System.currentTimeMillis() + 1000l;
+            int copies = 0;
+            while (System.currentTimeMillis() < end) {
+                rtm.copy(thread.metrics);
+                ++copies;
+                if (lastCount == null)
+                    lastCount = new int[rtm.txTypes];
+                for (int i = 0; i < rtm.txTypes; i++) {
+                    // The histogram must always add up to the count.
+                    int histCount = 0;
+                    for (int j = 0; j < rtm.respHist[i].length; j++) {
+                        histCount += rtm.respHist[i][j];
+                    }
+                    assertEquals(rtm.txCntStdy[i], histCount);
+                    assertTrue(rtm.txCntTotal[i] >= rtm.txCntStdy[i]);
+                    assertTrue(rtm.txCntStdy[i] >= lastCount[i]);
+                    lastCount[i] = rtm.txCntStdy[i];
+                }
+            }
+            assertTrue(copies > 0);
+            assertTrue(lastCount[0] > 0);
+            thread.stopExecution();
+            thread.join(10000);
+        } finally {
+            UnicastRemoteObject.unexportObject(thread.agent, true);
+        }
+    }
+}
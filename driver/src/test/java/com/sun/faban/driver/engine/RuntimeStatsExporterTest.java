@@ -0,0 +1,142 @@
+package com.sun.faban.driver.engine;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
+import java.net.ServerSocket;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests the runtime stats time-series file and HTTP endpoint.
+ */
+public class RuntimeStatsExporterTest {
+
+    static final String[] OPS = { "Login", "Browse,Search" };
+
+    File dir;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = File.createTempFile("runtimestats", "");
+        dir.delete();
+        dir.mkdir();
+    }
+
+    @After
+    public void tearDown() {
+        new File(dir, RuntimeStatsExporter.FILE_NAME).delete();
+        dir.delete();
+    }
+
+    @Test
+    public void testTimeSeriesFile() throws IOException {
+        RuntimeStatsExporter exporter = new RuntimeStatsExporter(
+                dir.getPath(), 0);
+        assertEquals(-1, exporter.getPort());
+        exporter.export(5000, "WebDriver", OPS, results(1d));
+        exporter.export(10000, "WebDriver", OPS, results(2d));
+        List<String> lines = readFile();
+        exporter.close();
+
+        assertEquals(5, lines.size());
+        assertTrue(lines.get(0).startsWith("time,driver,operation,CThru,"));
+        assertEquals("5.0,WebDriver,Login,1.0,,1.0,1.0,1.0,1.0,1.0,1.0,1.0",
+                lines.get(1));
+        assertEquals("5.0,WebDriver,\"Browse,Search\",1.5,1.5,1.5,1.5," +
+                "1.5,1.5,1.5,1.5,1.5", lines.get(2));
+        assertTrue(lines.get(3).startsWith("10.0,WebDriver,Login,2.0,,"));
+
+        // Appending to an existing file does not repeat the header.
+        exporter = new RuntimeStatsExporter(dir.getPath(), 0);
+        exporter.export(15000, "WebDriver", OPS, results(3d));
+        exporter.close();
+        lines = readFile();
+        assertEquals(7, lines.size());
+        assertTrue(lines.get(5).startsWith("15.0,"));
+    }
+
+    @Test
+    public void testHttpEndpoint() throws IOException {
+        RuntimeStatsExporter exporter = new RuntimeStatsExporter(
+                dir.getPath(), findFreePort());
+        try {
+            exporter.export(5000, "WebDriver", OPS, results(1d));
+            exporter.export(10000, "WebDriver", OPS, results(2d));
+            exporter.export(10000, "Web\"Driver", OPS, results(4d));
+
+            URL url = new URL("http://localhost:" + exporter.getPort() +
+                    RuntimeStatsExporter.HTTP_PATH);
+            HttpURLConnection c = (HttpURLConnection) url.openConnection();
+            assertEquals(200, c.getResponseCode());
+            assertTrue(c.getContentType().startsWith("text/plain"));
+            String body = read(c.getInputStream());
+
+            assertTrue(body.contains(
+                    "# TYPE faban_throughput_current gauge\n"));
+            assertTrue(body.contains("faban_throughput_current{driver=" +
+                    "\"WebDriver\",operation=\"Login\"} 2.0\n"));
+            assertTrue(body.contains("faban_throughput_current{driver=" +
+                    "\"Web\\\"Driver\",operation=\"Browse,Search\"} 6.0\n"));
+            assertTrue(body.contains("faban_runtime_timestamp_seconds{" +
+                    "driver=\"WebDriver\"} 10.0\n"));
+            // Only the latest interval is exposed, NaN values are left out.
+            assertFalse(body.contains("} 1.0\n"));
+            assertFalse(body.contains("faban_throughput_overall{driver=" +
+                    "\"WebDriver\",operation=\"Login\"}"));
+        } finally {
+            exporter.close();
+        }
+    }
+
+    private static double[][] results(double value) {
+        double[][] s = new double[RuntimeMetrics.LABELS.length][OPS.length];
+        for (int i = 0; i < s.length; i++) {
+            s[i][0] = value;
+            s[i][1] = value * 1.5d;
+        }
+        s[RuntimeMetrics.O_THRUPUT][0] = Double.NaN;
+        return s;
+    }
+
+    private List<String> readFile() throws IOException {
+        BufferedReader reader = new BufferedReader(new FileReader(
+                new File(dir, RuntimeStatsExporter.FILE_NAME)));
+        List<String> lines = new ArrayList<String>();
+        String line;
+        while ((line = reader.readLine()) != null) {
+            lines.add(line);
+        }
+        reader.close();
+        return lines;
+    }
+
+    private static String read(InputStream in) throws IOException {
+        StringBuilder b = new StringBuilder();
+        InputStreamReader reader = new InputStreamReader(in, "UTF-8");
+        char[] buffer = new char[1024];
+        int count;
+        while ((count = reader.read(buffer)) != -1) {
+            b.append(buffer, 0, count);
+        }
+        reader.close();
+        return b.toString();
+    }
+
+    private static int findFreePort() throws IOException {
+        ServerSocket socket = new ServerSocket(0);
+        int port = socket.getLocalPort();
+        socket.close();
+        return port;
+    }
+}
@@ -0,0 +1,62 @@
+package com.sun.faban.driver.engine;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+
+import com.sun.faban.driver.ConfigurationException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests the driver thread stack size configuration.
+ */
+public class ThreadStackSizeTest {
+
+    private Field instance;
+    private Object saved;
+
+    @Before
+    public void setUp() throws Exception {
+        instance = RunInfo.class.getDeclaredField("instance");
+        instance.setAccessible(true);
+        saved = instance.get(null);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        instance.set(null, saved);
+    }
+
+    @Test
+    public void testParse() throws Exception {
+        assertEquals(256, RunInfo.ConfigurationReader.parseStackSize("256"));
+        assertEquals(0, RunInfo.ConfigurationReader.parseStackSize(" 0 "));
+    }
+
+    @Test(expected = ConfigurationException.class)
+    public void testParseNegative() throws Exception {
+        RunInfo.ConfigurationReader.parseStackSize("-1");
+    }
+
+    @Test(expected = ConfigurationException.class)
+    public void testParseNotInteger() throws Exception {
+        RunInfo.ConfigurationReader.parseStackSize("256k");
+    }
+
+    @Test
+    public void testStackSize() throws Exception {
+        instance.set(null, null);
+        assertEquals(0l, AgentThread.stackSize());
+
+        Constructor<RunInfo> c = RunInfo.class.getDeclaredConstructor();
+        c.setAccessible(true);
+        RunInfo runInfo = c.newInstance();
+        instance.set(null, runInfo);
+        assertEquals(0l, AgentThread.stackSize());
+
+        runInfo.threadStackSize = 256;
+        assertEquals(256l * 1024l, AgentThread.stackSize());
+    }
+}
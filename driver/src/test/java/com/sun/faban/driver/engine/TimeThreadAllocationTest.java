@@ -0,0 +1,68 @@
+package com.sun.faban.driver.engine;
+
+import java.lang.management.ManagementFactory;
+import java.rmi.server.UnicastRemoteObject;
+import java.util.logging.Logger;
+
+import org.junit.Assume;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Checks that the TimeThread driver loop does not allocate memory
+ * per operation in steady state. Garbage created for each operation
+ * causes young GC pauses that distort the response times.
+ */
+public class TimeThreadAllocationTest {
+
+    static Logger logger =
+            Logger.getLogger(TimeThreadAllocationTest.class.getName());
+
+    /** Max average bytes allocated per operation, allows for noise. */
+    static final double MAX_BYTES_PER_OP = 8d;
+
+    @Test
+    public void testSteadyStateAllocation() throws Exception {
+        java.lang.management.ThreadMXBean mxBean =
+                ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(mxBean instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean threadBean =
+                (com.sun.management.ThreadMXBean) mxBean;
+        Assume.assumeTrue(threadBean.isThreadAllocatedMemorySupported());
+        threadBean.setThreadAllocatedMemoryEnabled(true);
+
+        AgentThread thread = DriverTestSupport.startThread();
+        try {
+            assertTrue(thread instanceof TimeThread);
+
+            // Warm up, then measure.
+            Thread.sleep(1000);
+            long ops0 = countOps(thread.metrics);
+            long bytes0 = threadBean.getThreadAllocatedBytes(thread.getId());
+            Thread.sleep(1000);
+            long ops1 = countOps(thread.metrics);
+            long bytes1 = threadBean.getThreadAllocatedBytes(thread.getId());
+
+            thread.stopExecution();
+            thread.join(10000);
+
+            long ops = ops1 - ops0;
+            double bytesPerOp = (bytes1 - bytes0) / (double) ops;
+            logger.info("Executed " + ops + " ops, allocated " +
+                    (bytes1 - bytes0) + " bytes, " + bytesPerOp + " bytes/op.");
+            assertTrue("No operations executed", ops > 0);
+            assertTrue("Allocated " + bytesPerOp + " bytes per operation",
+                    bytesPerOp < MAX_BYTES_PER_OP);
+        } finally {
+            UnicastRemoteObject.unexportObject(thread.agent, true);
+        }
+    }
+
+    private static long countOps(Metrics metrics) {
+        long count = 0;
+        for (int i = 0; i < metrics.txCntTotal.length; i++) {
+            count += metrics.txCntTotal[i];
+        }
+        return count;
+    }
+}
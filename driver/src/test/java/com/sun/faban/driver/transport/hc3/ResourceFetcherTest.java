@@ -0,0 +1,89 @@
+package com.sun.faban.driver.transport.hc3;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.Executors;
+
+import com.sun.faban.driver.engine.TimingInfo;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.apache.commons.httpclient.HttpState;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests reading page resources concurrently.
+ */
+public class ResourceFetcherTest {
+
+    @Test
+    public void testFetch() throws Exception {
+        final Set<Integer> clientPorts =
+                Collections.synchronizedSet(new HashSet<Integer>());
+        HttpServer server = HttpServer.create(
+                new InetSocketAddress("localhost", 0), 0);
+        server.setExecutor(Executors.newFixedThreadPool(8));
+        server.createContext("/", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                clientPorts.add(exchange.getRemoteAddress().getPort());
+                try {
+                    Thread.sleep(200);
+                } catch (InterruptedException e) {
+                    throw new IOException(e.getMessage());
+                }
+                int size = Integer.parseInt(
+                        exchange.getRequestURI().getPath().substring(1));
+                exchange.getResponseHeaders().set("Content-Type", "image/gif");
+                exchange.sendResponseHeaders(200, size);
+                OutputStream out = exchange.getResponseBody();
+                out.write(new byte[size]);
+                out.close();
+            }
+        });
+        server.start();
+        String base = "http://localhost:" + server.getAddress().getPort();
+        try {
+            ResourceFetcher fetcher = new ResourceFetcher(new HttpState());
+            assertEquals(TimingInfo.TIME_NOT_SET,
+                         fetcher.fetch(new URL[0], false));
+
+            URL[] resources = new URL[8];
+            for (int i = 0; i < resources.length; i++)
+                resources[i] = new URL(base + '/' + (i + 1) * 100);
+            long start = System.nanoTime();
+            long lastByteTime = fetcher.fetch(resources, false);
+            long time = System.nanoTime() - start;
+            for (int i = 0; i < resources.length; i++)
+                assertEquals((i + 1) * 100, fetcher.sizes[i]);
+            assertTrue(lastByteTime > start);
+            assertTrue("Took " + time / 1000000 + " ms", time < 1200000000l);
+            assertEquals(ResourceFetcher.CONNECTIONS, clientPorts.size());
+
+            // Failures are reported.
+            try {
+                fetcher.fetch(new URL[] {new URL("http://localhost:1/")},
+                              false);
+                fail("Expected an IOException");
+            } catch (IOException e) {
+                // Connection refused.
+            }
+            try {
+                fetcher.fetch(new URL[] {new URL("ftp://localhost/")},
+                              false);
+                fail("Expected an IOException");
+            } catch (IOException e) {
+                // Unsupported protocol.
+            }
+            fetcher.closeConnections();
+        } finally {
+            server.stop(0);
+        }
+    }
+}
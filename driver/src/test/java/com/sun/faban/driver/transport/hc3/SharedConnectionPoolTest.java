@@ -0,0 +1,171 @@
+package com.sun.faban.driver.transport.hc3;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.apache.commons.httpclient.HostConfiguration;
+import org.apache.commons.httpclient.HttpConnection;
+import org.apache.commons.httpclient.HttpConnectionManager;
+import org.junit.After;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests sharing connections between ApacheHC3Transport instances.
+ */
+public class SharedConnectionPoolTest {
+
+    @After
+    public void tearDown() {
+        SharedConnectionPool.shutdown();
+    }
+
+    @Test
+    public void testSharedPool() throws Exception {
+        final AtomicInteger connections = new AtomicInteger();
+        final AtomicInteger lastPort = new AtomicInteger();
+        HttpServer server = HttpServer.create(
+                new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                // Count the connections by their client port.
+                int port = exchange.getRemoteAddress().getPort();
+                if (lastPort.getAndSet(port) != port)
+                    connections.incrementAndGet();
+                byte[] body = "hello".getBytes("US-ASCII");
+                exchange.getResponseHeaders().set("Content-Type",
+                                                  "text/plain");
+                exchange.sendResponseHeaders(200, body.length);
+                OutputStream out = exchange.getResponseBody();
+                out.write(body);
+                out.close();
+            }
+        });
+        server.start();
+        String url = "http://localhost:" + server.getAddress().getPort() +
+                     "/test";
+        try {
+            // Per-user connections are the default.
+            ApacheHC3Transport own = new ApacheHC3Transport();
+            assertNull(own.getConnectionPoolStats());
+            assertEquals("hello", own.fetchURL(url).toString());
+
+            ApacheHC3Transport.useSharedConnectionPool(2, 4, 60000l);
+            ApacheHC3Transport t1 = new ApacheHC3Transport();
+            ApacheHC3Transport t2 = new ApacheHC3Transport();
+            assertEquals("hello", t1.fetchURL(url).toString());
+            assertEquals("hello", t2.fetchURL(url).toString());
+            t1.closeConnections(); // Does not close shared connections.
+            assertEquals("hello", t1.fetchURL(url).toString());
+
+            ConnectionPoolStats s1 = t1.getConnectionPoolStats();
+            ConnectionPoolStats s2 = t2.getConnectionPoolStats();
+            assertEquals(2, s1.leases);
+            assertEquals(1, s1.creations);
+            assertEquals(1, s2.leases);
+            assertEquals(0, s2.creations); // Reused t1's connection.
+            assertEquals(0, s1.waits + s2.waits);
+            // The own connection and the shared one.
+            assertEquals(2, connections.get());
+
+            ConnectionPoolStats total = (ConnectionPoolStats) s1.clone();
+            total.add(s2);
+            assertEquals(3, total.leases);
+            assertEquals("66.67", total.getResults()[4].result);
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    @Test
+    public void testWaits() throws Exception {
+        ApacheHC3Transport.useSharedConnectionPool(2, 10, 60000l);
+        final SharedConnectionPool pool = SharedConnectionPool.getInstance();
+        // The connections are opened, as the reaper deletes closed ones.
+        // The backlog takes them without accepting.
+        ServerSocket server = new ServerSocket(0);
+        try {
+            final HostConfiguration config = new HostConfiguration();
+            config.setHost("localhost", server.getLocalPort());
+
+            // Idle connections in the pool are no reason to wait.
+            ConnectionPoolStats stats = new ConnectionPoolStats();
+            HttpConnectionManager view = pool.newView(stats);
+            for (int i = 0; i < 3; i++) {
+                HttpConnection c1 = lease(view, config);
+                HttpConnection c2 = lease(view, config);
+                c1.releaseConnection();
+                c2.releaseConnection();
+            }
+            assertEquals(6, stats.leases);
+            assertEquals(0, stats.waits);
+            assertEquals(2, stats.creations);
+            testWaits(pool, config);
+        } finally {
+            server.close();
+        }
+    }
+
+    private static HttpConnection lease(HttpConnectionManager view,
+                                        HostConfiguration config)
+            throws IOException {
+        HttpConnection c = view.getConnectionWithTimeout(config, 10000l);
+        if (!c.isOpen())
+            c.open();
+        return c;
+    }
+
+    private void testWaits(final SharedConnectionPool pool,
+                           final HostConfiguration config) throws Exception {
+        // Four threads holding a connection each, two at a time.
+        final int threads = 4;
+        final ConnectionPoolStats[] threadStats =
+                new ConnectionPoolStats[threads];
+        final CountDownLatch started = new CountDownLatch(threads);
+        final AtomicInteger held = new AtomicInteger();
+        final AtomicInteger maxHeld = new AtomicInteger();
+        Thread[] t = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            final ConnectionPoolStats s = threadStats[i] =
+                    new ConnectionPoolStats();
+            t[i] = new Thread() {
+                public void run() {
+                    HttpConnectionManager v = pool.newView(s);
+                    started.countDown();
+                    try {
+                        started.await();
+                        HttpConnection c = lease(v, config);
+                        int n = held.incrementAndGet();
+                        int max;
+                        while (n > (max = maxHeld.get()) &&
+                                !maxHeld.compareAndSet(max, n));
+                        Thread.sleep(200);
+                        held.decrementAndGet();
+                        c.releaseConnection();
+                    } catch (Exception e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            };
+            t[i].start();
+        }
+        for (Thread thread : t)
+            thread.join();
+        ConnectionPoolStats total = new ConnectionPoolStats();
+        for (ConnectionPoolStats s : threadStats)
+            total.add(s);
+        assertEquals(2, maxHeld.get());
+        assertEquals(4, total.leases);
+        assertEquals(2, total.waits);
+        assertTrue(total.waitTime > 100000000l);
+        assertEquals(0, total.creations);
+    }
+}
@@ -0,0 +1,205 @@
+package com.sun.faban.driver.transport.nio;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.sun.faban.driver.transport.util.BodySink;
+import com.sun.faban.driver.transport.util.ResponseMatcher;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests the NioHttpTransport against the JDK HTTP server.
+ */
+public class NioHttpTransportTest {
+
+    private HttpServer server;
+    private String base;
+    private final Set<Integer> clientPorts =
+            Collections.synchronizedSet(new HashSet<Integer>());
+
+    @Before
+    public void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.setExecutor(Executors.newFixedThreadPool(8));
+        server.createContext("/", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                clientPorts.add(exchange.getRemoteAddress().getPort());
+                String path = exchange.getRequestURI().getPath();
+                InputStream in = exchange.getRequestBody();
+                ByteArrayOutputStream request = new ByteArrayOutputStream();
+                byte[] b = new byte[1024];
+                int n;
+                while ((n = in.read(b)) > 0)
+                    request.write(b, 0, n);
+                String cookie = exchange.getRequestHeaders().
+                        getFirst("Cookie");
+
+                byte[] body;
+                if (path.equals("/slow")) {
+                    try {
+                        Thread.sleep(200);
+                    } catch (InterruptedException e) {
+                        throw new IOException(e.getMessage());
+                    }
+                    exchange.getResponseHeaders().set("Content-Type",
+                                                      "image/gif");
+                    body = new byte[1000];
+                } else if (path.equals("/image")) {
+                    exchange.getResponseHeaders().set("Content-Type",
+                                                      "image/gif");
+                    body = new byte[3000];
+                } else if (path.equals("/redirect")) {
+                    exchange.getResponseHeaders().set("Location", "/text");
+                    exchange.sendResponseHeaders(302, -1);
+                    exchange.close();
+                    return;
+                } else if (path.equals("/login")) {
+                    exchange.getResponseHeaders().add("Set-Cookie",
+                            "session=abc; Path=/");
+                    exchange.getResponseHeaders().add("Set-Cookie",
+                            "old=x; Max-Age=0");
+                    body = new byte[0];
+                } else {
+                    exchange.getResponseHeaders().set("Content-Type",
+                            "text/plain; charset=UTF-8");
+                    String text = "hello " + exchange.getRequestMethod() +
+                            ' ' + request.toString("UTF-8") + ' ' + cookie +
+                            " é";
+                    body = text.getBytes("UTF-8");
+                }
+                // The chunked path sends a chunked response.
+                exchange.sendResponseHeaders(200,
+                        path.equals("/chunked") ? 0 : body.length);
+                OutputStream out = exchange.getResponseBody();
+                out.write(body);
+                out.close();
+            }
+        });
+        server.start();
+        base = "http://localhost:" + server.getAddress().getPort();
+    }
+
+    @After
+    public void stopServer() {
+        server.stop(0);
+    }
+
+    @Test
+    public void testRequests() throws Exception {
+        NioHttpTransport t = new NioHttpTransport();
+        assertEquals("hello GET  null é",
+                     t.fetchURL(base + "/text").toString());
+        assertEquals(200, t.getResponseCode());
+        assertEquals("text/plain; charset=UTF-8",
+                     t.getResponseHeader("content-type")[0]);
+        assertEquals(17, t.getContentSize());
+
+        assertNull(t.fetchURL(base + "/image"));
+        assertEquals(3000, t.getContentSize());
+        assertEquals(3000, t.readURL(base + "/image"));
+
+        assertTrue(t.matchURL(base + "/text", "a=1&b=2", "POST a=1&b=2"));
+        assertEquals("hello GET  null é",
+                     t.fetchURL(base + "/chunked").toString());
+
+        ResponseMatcher matcher = ResponseMatcher.compile("null é");
+        assertTrue(t.matchURL(base + "/chunked", matcher));
+        assertEquals(18, t.getContentSize()); // In bytes.
+        assertFalse(t.matchURL(base + "/image", matcher));
+        assertTrue(t.matchURL(new URL(base + "/text"), "a=1",
+                   ResponseMatcher.anyOf("POST a=1", "x"), null));
+
+        BodySink sink = BodySink.capture(5);
+        assertEquals(3000, t.readURL(base + "/image", sink));
+        assertEquals(3000, sink.getSize());
+        assertEquals(5, sink.getCapturedLength());
+        assertEquals(18, t.readURL(new URL(base + "/chunked"), sink, null));
+        assertEquals("hello", new String(sink.getCaptured(), 0, 5, "UTF-8"));
+
+        // All on one kept-alive connection.
+        assertEquals(1, clientPorts.size());
+    }
+
+    @Test
+    public void testRedirectsAndCookies() throws Exception {
+        NioHttpTransport t = new NioHttpTransport();
+        t.readURL(base + "/redirect");
+        assertEquals(302, t.getResponseCode());
+        t.setFollowRedirects(true);
+        assertTrue(t.matchURL(base + "/redirect", "hello GET"));
+        assertEquals(200, t.getResponseCode());
+
+        t.readURL(base + "/login");
+        assertArrayEquals(new String[] {"abc"},
+                          t.getCookieValuesByName("session"));
+        assertEquals(0, t.getCookieValuesByName("old").length);
+        assertTrue(t.matchURL(base + "/text", "session=abc"));
+    }
+
+    @Test
+    public void testFetchPage() throws Exception {
+        NioHttpTransport t = new NioHttpTransport();
+        String[] resources = new String[8];
+        for (int i = 0; i < resources.length; i++)
+            resources[i] = base + "/slow";
+        long start = System.nanoTime();
+        assertEquals("hello GET  null é",
+                     t.fetchPage(base + "/text", resources, null).toString());
+        long time = System.nanoTime() - start;
+        // The page state is kept.
+        assertEquals(17, t.getContentSize());
+        assertEquals(200, t.getResponseCode());
+        // Two rounds of 200ms on four connections, the first being the
+        // page connection.
+        assertTrue("Took " + time / 1000000 + " ms", time < 1200000000l);
+        assertEquals(4, clientPorts.size());
+        t.closeConnections();
+    }
+
+    @Test
+    public void testManyUsers() throws Exception {
+        final AtomicInteger ok = new AtomicInteger();
+        final AtomicReference<IOException> error =
+                new AtomicReference<IOException>();
+        Thread[] users = new Thread[200];
+        for (int i = 0; i < users.length; i++) {
+            users[i] = new Thread() {
+                public void run() {
+                    NioHttpTransport t = new NioHttpTransport();
+                    try {
+                        for (int j = 0; j < 5; j++) {
+                            if (t.readURL(base + "/image") != 3000)
+                                return;
+                        }
+                        ok.incrementAndGet();
+                    } catch (IOException e) {
+                        error.compareAndSet(null, e);
+                    } finally {
+                        t.closeConnections();
+                    }
+                }
+            };
+            users[i].start();
+        }
+        for (Thread user : users)
+            user.join();
+        assertEquals(String.valueOf(error.get()), users.length, ok.get());
+    }
+}
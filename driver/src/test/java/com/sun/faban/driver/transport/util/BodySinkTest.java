@@ -0,0 +1,76 @@
+package com.sun.faban.driver.transport.util;
+
+import java.io.ByteArrayInputStream;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.CRC32;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests the body sinks.
+ */
+public class BodySinkTest {
+
+    private final byte[] data = new byte[100000];
+
+    public BodySinkTest() {
+        new Random(42).nextBytes(data);
+    }
+
+    @Test
+    public void testDigests() throws Exception {
+        CRC32 crc = new CRC32();
+        crc.update(data);
+        byte[] md5 = MessageDigest.getInstance("MD5").digest(data);
+
+        BodySink crcSink = BodySink.crc32();
+        BodySink md5Sink = BodySink.md5();
+        // Twice, to check the reset.
+        for (int i = 0; i < 2; i++) {
+            assertEquals(data.length,
+                         crcSink.read(new ByteArrayInputStream(data)));
+            assertEquals(crc.getValue(), crcSink.getChecksum());
+            assertEquals(data.length, crcSink.getSize());
+            md5Sink.read(new ByteArrayInputStream(data));
+            assertArrayEquals(md5, md5Sink.getDigest());
+        }
+    }
+
+    @Test
+    public void testCapture() throws Exception {
+        BodySink sink = BodySink.capture(1000);
+        assertEquals(data.length, sink.read(new ByteArrayInputStream(data)));
+        assertEquals(1000, sink.getCapturedLength());
+        assertEquals(data.length, sink.getSize());
+        assertFalse(sink.needsData());
+        assertArrayEquals(Arrays.copyOf(data, 1000),
+                          Arrays.copyOf(sink.getCaptured(), 1000));
+
+        sink.read(new ByteArrayInputStream(data, 0, 10));
+        assertEquals(10, sink.getCapturedLength());
+        assertTrue(sink.needsData());
+    }
+
+    @Test
+    public void testCountAndDiscard() throws Exception {
+        BodySink count = BodySink.count();
+        count.read(new ByteArrayInputStream(data));
+        assertEquals(data.length, count.getSize());
+        assertFalse(count.needsData());
+        count.skip(5);
+        assertEquals(data.length + 5, count.getSize());
+
+        BodySink discard = BodySink.discard();
+        assertEquals(data.length, discard.read(new ByteArrayInputStream(data)));
+        assertEquals(0, discard.getSize());
+        assertEquals(0, discard.read(null));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testWrongMode() {
+        BodySink.count().getDigest();
+    }
+}
@@ -0,0 +1,129 @@
+package com.sun.faban.driver.transport.util;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.Charset;
+import java.util.Random;
+import java.util.regex.Pattern;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests the streaming response matchers against Pattern.find over the
+ * whole text, with the text split into random parts.
+ */
+public class ResponseMatcherTest {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final Random random = new Random(42);
+
+    /**
+     * Feeds the text to the matcher in random parts.
+     */
+    private boolean match(ResponseMatcher matcher, String text,
+                          Charset charset) {
+        byte[] b = text.getBytes(charset);
+        matcher.reset(charset);
+        int off = 0;
+        while (off < b.length) {
+            int len = Math.min(b.length - off, 1 + random.nextInt(7));
+            matcher.update(b, off, len);
+            off += len;
+        }
+        matcher.finish();
+        return matcher.isMatched();
+    }
+
+    private String randomText(int length, String alphabet) {
+        StringBuilder b = new StringBuilder(length);
+        for (int i = 0; i < length; i++)
+            b.append(alphabet.charAt(random.nextInt(alphabet.length())));
+        return b.toString();
+    }
+
+    @Test
+    public void testLiteral() {
+        String[] literals = { "a", "ab", "aab", "baba", "é", "aéb" };
+        for (String literal : literals) {
+            ResponseMatcher matcher = ResponseMatcher.literal(literal);
+            for (int i = 0; i < 500; i++) {
+                String text = randomText(random.nextInt(40), "abé");
+                assertEquals(literal + " in " + text, text.contains(literal),
+                             match(matcher, text, UTF8));
+            }
+        }
+    }
+
+    @Test
+    public void testAnyOf() {
+        String[] literals = { "abc", "bc", "cab", "é" };
+        ResponseMatcher matcher = ResponseMatcher.anyOf(literals);
+        for (int i = 0; i < 2000; i++) {
+            String text = randomText(random.nextInt(30), "abcé");
+            boolean expected = false;
+            for (String literal : literals)
+                expected |= text.contains(literal);
+            assertEquals(text, expected, match(matcher, text, UTF8));
+        }
+    }
+
+    @Test
+    public void testRegex() {
+        String regex = "a[bc]+d";
+        ResponseMatcher matcher = ResponseMatcher.regex(regex, 16);
+        Pattern pattern = Pattern.compile(regex);
+        for (int i = 0; i < 2000; i++) {
+            String text = randomText(random.nextInt(60), "abcdé");
+            assertEquals(text, pattern.matcher(text).find(),
+                         match(matcher, text, UTF8));
+        }
+    }
+
+    @Test
+    public void testCompile() {
+        assertTrue(ResponseMatcher.compile("Welcome") instanceof
+                   LiteralMatcher);
+        assertTrue(ResponseMatcher.compile("\\Qa.b\\E") instanceof
+                   LiteralMatcher);
+        assertTrue(ResponseMatcher.compile("a.b") instanceof
+                   WindowRegexMatcher);
+        assertTrue(match(ResponseMatcher.compile("\\Qa.b\\E"), "xa.b", UTF8));
+        assertFalse(match(ResponseMatcher.compile("\\Qa.b\\E"), "xaxb", UTF8));
+    }
+
+    @Test
+    public void testCharsets() {
+        Charset utf16 = Charset.forName("UTF-16");
+        Charset latin1 = Charset.forName("ISO-8859-1");
+        assertTrue(ResponseMatcher.isByteSearchable(UTF8));
+        assertTrue(ResponseMatcher.isByteSearchable(latin1));
+        assertFalse(ResponseMatcher.isByteSearchable(utf16));
+
+        // Literals fall back to decoding for UTF-16, and are re-encoded
+        // when the charset changes.
+        ResponseMatcher matcher = ResponseMatcher.anyOf("hé", "xyz");
+        assertTrue(match(matcher, "say hé!", utf16));
+        assertTrue(match(matcher, "say hé!", latin1));
+        assertFalse(match(matcher, "say he!", utf16));
+        assertTrue(match(matcher, "say hé!", UTF8));
+
+        // Not in the charset, never matches.
+        assertFalse(match(ResponseMatcher.literal("€"), "abc?", latin1));
+    }
+
+    @Test
+    public void testRead() throws Exception {
+        StringBuilder b = new StringBuilder();
+        for (int i = 0; i < 10000; i++)
+            b.append("line ").append(i).append('\n');
+        byte[] data = b.toString().getBytes(UTF8);
+        ResponseMatcher matcher = ResponseMatcher.compile("line 9999");
+        // The whole stream is read, even after the match.
+        assertEquals(data.length,
+                     matcher.read(new ByteArrayInputStream(data), UTF8));
+        assertTrue(matcher.isMatched());
+        matcher.read(new ByteArrayInputStream(data, 0, data.length - 3), UTF8);
+        assertFalse(matcher.isMatched());
+    }
+}
@@ -0,0 +1,132 @@
+package com.sun.faban.driver.transport.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.Socket;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests the buffered read paths of TimedInputStream.
+ */
+public class TimedInputStreamTest {
+
+    @Test
+    public void testSingleByteReadsAreBuffered() throws IOException {
+        byte[] data = createData(100000);
+        CountingInputStream counter = new CountingInputStream(data, 1500);
+        TimedInputStream in = new TimedInputStream(counter);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        int b;
+        while ((b = in.read()) != -1) {
+            out.write(b);
+        }
+        assertArrayEquals(data, out.toByteArray());
+        // One read per network chunk, plus the final end of stream.
+        assertEquals(data.length / 1500 + 2, counter.reads);
+    }
+
+    @Test
+    public void testMixedReads() throws IOException {
+        byte[] data = createData(50000);
+        CountingInputStream counter = new CountingInputStream(data, 3000);
+        TimedInputStream in = new TimedInputStream(counter);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[2 * TimedInputStream.BUFFER_SIZE];
+        int[] sizes = { 1, 7, 100, buffer.length, 0, 1 };
+        for (int i = 0; ; i++) {
+            int len = sizes[i % sizes.length];
+            if (len == 1) {
+                int b = in.read();
+                if (b == -1) {
+                    break;
+                }
+                out.write(b);
+            }
+            else {
+                int bytes = in.read(buffer, 0, len);
+                if (bytes == -1) {
+                    break;
+                }
+                out.write(buffer, 0, bytes);
+            }
+        }
+        assertArrayEquals(data, out.toByteArray());
+    }
+
+    @Test
+    public void testSocketStreamIsCached() throws IOException {
+        final byte[] data = createData(10000);
+        Socket socket = new Socket() {
+            InputStream raw = new ByteArrayInputStream(data);
+
+            @Override
+            public InputStream getInputStream() {
+                return raw;
+            }
+        };
+        TimedSocketWrapper wrapper = new TimedSocketWrapper(socket);
+        InputStream first = wrapper.getInputStream();
+        assertEquals(data[0] & 0xff, first.read());
+        // The bytes buffered by the first read must not get lost.
+        InputStream second = wrapper.getInputStream();
+        assertSame(first, second);
+        assertEquals(data[1] & 0xff, second.read());
+    }
+
+    @Test
+    public void testSkipAndAvailable() throws IOException {
+        byte[] data = createData(1000);
+        TimedInputStream in = new TimedInputStream(
+                new CountingInputStream(data, 400));
+        assertEquals(data[0], (byte) in.read());
+        assertEquals(399, in.available());
+        assertEquals(399, in.skip(1000));
+        assertEquals(data[400], (byte) in.read());
+        assertFalse(in.markSupported());
+    }
+
+    private static byte[] createData(int size) {
+        byte[] data = new byte[size];
+        for (int i = 0; i < size; i++) {
+            data[i] = (byte) (i * 31);
+        }
+        return data;
+    }
+
+    /**
+     * Returns at most chunk bytes per read, like a socket would,
+     * and counts the reads.
+     */
+    static class CountingInputStream extends InputStream {
+
+        private final ByteArrayInputStream in;
+        private final int chunk;
+        int reads;
+
+        CountingInputStream(byte[] data, int chunk) {
+            in = new ByteArrayInputStream(data);
+            this.chunk = chunk;
+        }
+
+        @Override
+        public int read() throws IOException {
+            ++reads;
+            return in.read();
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            ++reads;
+            return in.read(b, off, Math.min(len, chunk));
+        }
+
+        @Override
+        public int available() {
+            return 0;
+        }
+    }
+}
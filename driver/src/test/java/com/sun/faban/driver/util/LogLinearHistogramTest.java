@@ -0,0 +1,93 @@
+package com.sun.faban.driver.util;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests the LogLinearHistogram helpers.
+ */
+public class LogLinearHistogramTest {
+
+    @Test
+    public void testBucketBounds() {
+        for (int i = 0; i < LogLinearHistogram.BUCKETS - 1; i++) {
+            long lower = LogLinearHistogram.lowerBound(i);
+            long upper = lower + LogLinearHistogram.width(i) - 1;
+            assertEquals(i, LogLinearHistogram.bucketIndex(lower));
+            assertEquals(i, LogLinearHistogram.bucketIndex(upper));
+            assertEquals(i + 1, LogLinearHistogram.bucketIndex(upper + 1));
+        }
+        assertEquals(LogLinearHistogram.BUCKETS - 1, LogLinearHistogram.bucketIndex(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void testPercentileError() {
+        java.util.Random r = new java.util.Random(4711);
+        long[] values = new long[100000];
+        int[][] histogram = LogLinearHistogram.create();
+        long max = 0l;
+        for (int i = 0; i < values.length; i++) {
+            // Log-normal like distribution from microseconds to seconds.
+            values[i] = (long) Math.exp(r.nextGaussian() * 2d + 14d);
+            LogLinearHistogram.record(histogram, values[i]);
+            max = Math.max(max, values[i]);
+        }
+        Arrays.sort(values);
+        for (double pct : new double[] { 50d, 90d, 99d, 99.9d, 99.99d }) {
+            long exact = values[(int) Math.ceil(values.length * pct / 100d) - 1];
+            long estimate = LogLinearHistogram.percentile(histogram, values.length, pct, max);
+            assertEquals(exact, estimate, exact * 0.01d);
+        }
+        assertEquals(max, LogLinearHistogram.percentile(histogram, values.length, 100d, max));
+    }
+
+    @Test
+    public void testAdd() {
+        int[][] h1 = LogLinearHistogram.create();
+        int[][] h2 = LogLinearHistogram.create();
+        for (long v = 1; v < 1000000l; v *= 3) {
+            LogLinearHistogram.record(h1, v);
+            LogLinearHistogram.record(h2, v * 2);
+        }
+        LogLinearHistogram.add(h1, h2);
+        int sum = 0;
+        for (int count : LogLinearHistogram.toArray(h1)) {
+            sum += count;
+        }
+        assertEquals(26, sum);
+    }
+
+    @Test
+    public void testSparse() {
+        int[][] histogram = LogLinearHistogram.create();
+        // About 1ms to 4ms in ns spans two powers of two.
+        int count = 0;
+        for (long v = 1l << 20; v < 1l << 22; v += 1000l) {
+            LogLinearHistogram.record(histogram, v);
+            ++count;
+        }
+        LogLinearHistogram.record(histogram, Long.MAX_VALUE);
+        ++count;
+        int chunks = 0;
+        for (int[] chunk : histogram) {
+            if (chunk != null) {
+                ++chunks;
+            }
+        }
+        assertEquals(3, chunks);
+
+        int[] counts = LogLinearHistogram.toArray(histogram);
+        assertEquals(LogLinearHistogram.BUCKETS, counts.length);
+        assertEquals(1, counts[LogLinearHistogram.BUCKETS - 1]);
+        int[][] copy = LogLinearHistogram.fromArray(counts);
+        assertTrue(Arrays.deepEquals(histogram, copy));
+        assertTrue(Arrays.deepEquals(histogram,
+                                     LogLinearHistogram.copy(histogram)));
+        assertEquals(LogLinearHistogram.MAX_VALUE, LogLinearHistogram.
+                percentile(histogram, count, 100d, Long.MAX_VALUE));
+        assertEquals(2000000d, LogLinearHistogram.percentile(histogram,
+                count, 30d, Long.MAX_VALUE), 2000000d * 0.01d);
+    }
+}
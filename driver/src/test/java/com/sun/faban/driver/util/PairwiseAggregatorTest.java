@@ -30,6 +30,22 @@ public class PairwiseAggregatorTest extends TestCase {
         }
     }
 
+    public void testStreaming() {
+        ElementProvider provider = new ElementProvider();
+        PairwiseAggregator<Element> aggregator =
+                new PairwiseAggregator<Element>(provider);
+        assertNull(aggregator.getResult());
+        for (int count = 1; count <= 5000; count++) {
+            for (int i = 0; i < count; i++) {
+                aggregator.add(new Element(1));
+            }
+            // Each object is added exactly once.
+            assertEquals(count, aggregator.getResult().value);
+            assertEquals(count - 1, provider.recycled);
+            provider.recycled = 0;
+        }
+    }
+
     private class Element implements PairwiseAggregator.Aggregable<Element> {
 
         public int value;
@@ -46,6 +62,8 @@ public class PairwiseAggregatorTest extends TestCase {
     private class ElementProvider
             implements PairwiseAggregator.Provider<Element> {
 
+        int recycled;
+
         public Element getMutableMetrics(int idx) {
             return new Element(1);
         }
@@ -54,11 +72,12 @@ public class PairwiseAggregatorTest extends TestCase {
             ++instance.value;
         }
 
-        public Class getComponentClass() {
+        public Class<Element> getComponentClass() {
             return Element.class;
         }
 
         public void recycle(Element e) {
+            ++recycled;
         }
     }
 }
\ No newline at end of file
@@ -0,0 +1,156 @@
+package com.sun.faban.driver.util;
+
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests the ranges, distribution and seeding of each Random generator.
+ */
+public class RandomTest {
+
+    static final int COUNT = 100000;
+
+    @Test
+    public void testSeeding() {
+        Random r1 = new Random(4711);
+        Random r2 = new Random(4711);
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(r1.lrandom(Long.MIN_VALUE, Long.MAX_VALUE),
+                         r2.lrandom(Long.MIN_VALUE, Long.MAX_VALUE));
+        }
+        assertEquals(Random.seed(4711, 0, 3), Random.seed(4711, 0, 3));
+        assertFalse(Random.seed(4711, 0, 3) == Random.seed(4711, 0, 4));
+        assertFalse(Random.seed(4711, 0, 3) == Random.seed(4711, 1, 3));
+        assertFalse(new Random().random(0, Integer.MAX_VALUE) ==
+                    new Random().random(0, Integer.MAX_VALUE) &&
+                    new Random().random(0, Integer.MAX_VALUE) ==
+                    new Random().random(0, Integer.MAX_VALUE));
+    }
+
+    @Test
+    public void testRandom() {
+        Random r = new Random(1);
+        int[] counts = new int[10];
+        for (int i = 0; i < COUNT; i++) {
+            int v = r.random(5, 14);
+            assertTrue(v >= 5 && v <= 14);
+            ++counts[v - 5];
+        }
+        for (int count : counts) {
+            assertEquals(COUNT / 10, count, COUNT / 100);
+        }
+        assertEquals(3, r.random(3, 3));
+        int v = r.random(10, -10); // Reversed
+        assertTrue(v >= -10 && v <= 10);
+        long sum = 0l;
+        for (int i = 0; i < COUNT; i++) {
+            sum += r.random(Integer.MIN_VALUE, Integer.MAX_VALUE);
+        }
+        assertEquals(0d, (double) sum / COUNT, Integer.MAX_VALUE / 100d);
+    }
+
+    @Test
+    public void testLRandom() {
+        Random r = new Random(2);
+        long sum = 0l;
+        for (int i = 0; i < COUNT; i++) {
+            long v = r.lrandom(-1000000000000l, 1000000000000l);
+            assertTrue(v >= -1000000000000l && v <= 1000000000000l);
+            sum += v;
+        }
+        assertEquals(0d, (double) sum / COUNT, 1000000000000l / 100d);
+        for (int i = 0; i < 1000; i++) {
+            long v = r.lrandom(-1l, Long.MAX_VALUE);
+            assertTrue(v >= -1l);
+        }
+    }
+
+    @Test
+    public void testDRandom() {
+        Random r = new Random(3);
+        double sum = 0d;
+        for (int i = 0; i < COUNT; i++) {
+            double v = r.drandom(0, 1);
+            assertTrue(v >= 0d && v < 1d);
+            sum += v;
+        }
+        assertEquals(0.5d, sum / COUNT, 0.01d);
+        double v = r.drandom(-2, 2);
+        assertTrue(v >= -2d && v < 2d);
+    }
+
+    @Test
+    public void testNURand() {
+        Random r = new Random(4);
+        for (int i = 0; i < COUNT; i++) {
+            int v = r.NURand(1023, 1, 3000);
+            assertTrue(v >= 1 && v <= 3000);
+        }
+    }
+
+    @Test
+    public void testStrings() {
+        Random r = new Random(5);
+        for (int i = 0; i < 1000; i++) {
+            String s = r.makeAString(3, 8);
+            assertTrue(s.length() >= 3 && s.length() <= 8);
+            assertTrue(s.matches("[0-9A-Za-z]*"));
+            s = r.makeCString(5, 5);
+            assertEquals(5, s.length());
+            assertTrue(s.matches("[a-z]*"));
+            s = r.makeNString(0, 4);
+            assertTrue(s.length() <= 4);
+            assertTrue(s.matches("[0-9]*"));
+        }
+    }
+
+    @Test
+    public void testBufferStrings() {
+        Random r1 = new Random(6);
+        Random r2 = new Random(6);
+        char[] buffer = new char[20];
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            int len = r1.makeAString(3, 8, buffer, 2);
+            assertEquals(r2.makeAString(3, 8), new String(buffer, 2, len));
+            len = r1.makeCString(1, 20, buffer, 0);
+            assertEquals(r2.makeCString(1, 20), new String(buffer, 0, len));
+            sb.setLength(0);
+            sb.append('x');
+            r1.makeNString(0, 10, sb);
+            assertEquals('x' + r2.makeNString(0, 10), sb.toString());
+            sb.setLength(0);
+            assertEquals(r2.makeAString(4, 4),
+                         r1.makeAString(4, 4, sb).toString());
+            sb.setLength(0);
+            assertEquals(r2.makeCString(2, 6),
+                         r1.makeCString(2, 6, sb).toString());
+            len = r1.makeNString(7, 7, buffer, 13);
+            assertEquals(r2.makeNString(7, 7), new String(buffer, 13, len));
+        }
+        try {
+            r1.makeAString(8, 8, buffer, 13);
+            fail("Buffer overflow not detected");
+        } catch (ArrayIndexOutOfBoundsException e) {
+            // Expected.
+        }
+    }
+
+    @Test
+    public void testDates() {
+        Random r = new Random(7);
+        Calendar ref = new GregorianCalendar(2009, Calendar.JANUARY, 1);
+        for (int i = 0; i < 1000; i++) {
+            Calendar c = r.makeCalendarInInterval(ref, -10, 10,
+                                                  Calendar.DATE);
+            assertTrue(Math.abs(c.getTimeInMillis() - ref.getTimeInMillis())
+                       <= 10 * 86400000l);
+            java.sql.Date d = r.makeDateInInterval(
+                    new java.sql.Date(ref.getTimeInMillis()), 1, 5);
+            assertTrue(d.getTime() > ref.getTimeInMillis());
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package com.sun.faban.driver.util;
+
+import java.io.File;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests the timer profile and the precision of Timer.wakeupAt.
+ */
+public class TimerTest {
+
+    @Test
+    public void testProfileCache() throws Exception {
+        TimerProfile profile = new TimerProfile();
+        profile.invocationCost = 25l;
+        profile.accuracy = 1000l;
+        profile.parkOvershoot = 60000l;
+        profile.platform = TimerProfile.getPlatform();
+        assertEquals(61000l, profile.getSpinTime());
+        profile.parkOvershoot = 10000000l;
+        assertEquals(TimerProfile.MAX_SPIN, profile.getSpinTime());
+
+        File cache = File.createTempFile("faban-timer", ".properties");
+        try {
+            TimerProfile.store(profile, cache);
+            TimerProfile loaded = TimerProfile.load(cache);
+            assertEquals(profile.invocationCost, loaded.invocationCost);
+            assertEquals(profile.accuracy, loaded.accuracy);
+            assertEquals(profile.parkOvershoot, loaded.parkOvershoot);
+
+            // Profiles from other platforms are not used.
+            profile.platform = "Other VM";
+            TimerProfile.store(profile, cache);
+            assertNull(TimerProfile.load(cache));
+        } finally {
+            cache.delete();
+        }
+        assertNull(TimerProfile.load(cache));
+    }
+
+    @Test
+    public void testShortWakeups() {
+        Timer timer = new Timer();
+        timer.setProfile(TimerProfile.measure());
+        Random random = new Random();
+        long errorSum = 0l;
+        int count = 200;
+        for (int i = 0; i < count; i++) {
+            long wakeupTime = System.nanoTime() +
+                              random.lrandom(1000000l, 3000000l);
+            timer.wakeupAt(wakeupTime);
+            long error = System.nanoTime() - wakeupTime;
+            assertTrue("Woke up " + -error + " ns early", error >= 0l);
+            errorSum += error;
+        }
+        // Without parking, short delays below the initial 5ms sleep
+        // compensation would not wait at all.
+        assertTrue("Mean error " + errorSum / count + " ns",
+                   errorSum / count < 500000l);
+    }
+}
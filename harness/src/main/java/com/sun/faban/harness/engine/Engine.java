@@ -129,6 +129,7 @@ public class Engine {
 
             // Share the thread pool for other uses, too.
             Config.THREADPOOL = logServer.config.threadPool;
+            Config.LOG_WRITER = logServer.config.logWriter;
 
             logServer.start();
         }
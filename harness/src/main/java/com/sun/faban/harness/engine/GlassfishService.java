@@ -276,14 +276,21 @@ import java.text.SimpleDateFormat;
      */
     public void xferLogs(int totalRunTime) {
 
+        // copy the error_logs to the master
+        String[] errlogFiles = new String[myServers.length];
+        String[] outFiles = new String[myServers.length];
         for (int i = 0; i < myServers.length; i++) {
-            String outFile = getOutDir() + "server_log." +
-                    getHostName(myServers[i]);
+            errlogFiles[i] = errlogFile;
+            outFiles[i] = getOutDir() + "server_log." +
+                          getHostName(myServers[i]);
+        }
+        boolean[] copied = getFiles(myServers, errlogFiles, outFiles);
 
-            // copy the error_log to the master
-            if (!getFile(myServers[i], errlogFile, outFile)) {
+        for (int i = 0; i < myServers.length; i++) {
+            String outFile = outFiles[i];
+            if (!copied[i]) {
                 logger.warning("Could not copy " + errlogFile + " to " + outFile);
-                return;
+                continue;
             }
 
 
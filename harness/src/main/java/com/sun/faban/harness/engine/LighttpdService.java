@@ -345,14 +345,22 @@ import java.util.logging.Logger;
      */
     public void xferLogs(int totalRunTime) {
 
+        // copy the error_logs to the master
+        String[] errlogFiles = new String[myServers.length];
+        String[] outFiles = new String[myServers.length];
         for (int i = 0; i < myServers.length; i++) {
-            String outFile = RunContext.getOutDir() + "httpd_err.log." +
-                             RunContext.getHostName(myServers[i]);
+            errlogFiles[i] = errlogFile;
+            outFiles[i] = RunContext.getOutDir() + "httpd_err.log." +
+                          RunContext.getHostName(myServers[i]);
+        }
+        boolean[] copied = RunContext.getFiles(myServers, errlogFiles,
+                                               outFiles);
 
-            // copy the error_log to the master
-            if (!RunContext.getFile(myServers[i], errlogFile, outFile)) {
+        for (int i = 0; i < myServers.length; i++) {
+            String outFile = outFiles[i];
+            if (!copied[i]) {
                 logger.warning("Could not copy " + errlogFile + " to " + outFile);
-                return;
+                continue;
             }
 
             try {
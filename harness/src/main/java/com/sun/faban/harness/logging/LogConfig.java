@@ -74,6 +74,15 @@ public class LogConfig {
     /** The read buffer size. */
     public int readBufferSize = 2048;
 
+    /** The size of the buffer collecting records for the log file. */
+    public int writeBufferSize = 65536;
+
+    /** The max time records stay buffered, in milliseconds. */
+    public int flushInterval = 1000;
+
+    /** The log file writer. */
+    public LogWriter logWriter = null;
+
     /**
      * Constructs the log server configuration.
      */
@@ -121,6 +130,14 @@ public class LogConfig {
                 if (v != null && v.length() > 0)
                     readBufferSize = Integer.parseInt(v);
 
+                v = xPath.evaluate("writeBuffer/size", logServer);
+                if (v != null && v.length() > 0)
+                    writeBufferSize = Integer.parseInt(v);
+
+                v = xPath.evaluate("writeBuffer/flushInterval", logServer);
+                if (v != null && v.length() > 0)
+                    flushInterval = Integer.parseInt(v);
+
             } catch (Exception e) {
                 logger.log(Level.WARNING, "Error reading harness " +
                                             "configuration file. " +
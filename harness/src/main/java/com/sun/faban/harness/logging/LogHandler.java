@@ -23,9 +23,6 @@
  */
 package com.sun.faban.harness.logging;
 
-import com.sun.faban.harness.common.Config;
-
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.SelectionKey;
@@ -38,6 +35,7 @@ public class LogHandler implements ProtocolHandler {
 
     private FlexBuffer xBuffer;
     private byte[] writeBuffer;
+    private LogWriter logWriter;
 
     /**
      * Sets the config object.
@@ -45,6 +43,7 @@ public class LogHandler implements ProtocolHandler {
      */
     public void setConfig(LogConfig config) {
         xBuffer = new FlexBuffer(config.readBufferSize);
+        logWriter = config.logWriter;
    }
 
     /**
@@ -97,14 +96,8 @@ public class LogHandler implements ProtocolHandler {
 
                 xBuffer.getBytes(0, writeBuffer, 0, writeSize);
 
-                //Open the log file and dump the record/s
-                String logFile = System.getProperty("faban.log.file");
-                if(logFile == null)
-                    logFile = Config.TMP_DIR + "log.xml";
-                FileOutputStream logStream = new FileOutputStream(logFile, true);
-                logStream.write(writeBuffer, 0, writeSize);
-                logStream.flush();
-                logStream.close();
+                // Hand the record/s to the shared log writer.
+                logWriter.write(writeBuffer, 0, writeSize);
             } catch(IOException e) {
                 // if (debug != null)
                 //    e.printStackTrace(debug);
@@ -92,6 +92,12 @@ public class LogServer extends Thread {
         logger.finer("Service thread pool created.");
         }
 
+        if (config.logWriter == null) {
+            config.logWriter = new LogWriter(config.writeBufferSize,
+                                             config.flushInterval);
+            logger.finer("Log writer created.");
+        }
+
         acceptor = new Acceptor(conf, acceptQueue, selector);
         Thread t = new Thread(acceptor);
         t.setName("Acceptor");
@@ -147,8 +153,37 @@ public class LogServer extends Thread {
         }
 
         config.threadPool.shutdown();
+        config.logWriter.close();
+        logger.info("Log writer received " + getWriteCount() +
+                " records, " + getByteCount() + " bytes, written in " +
+                getFlushCount() + " file writes.");
 
         logger.info("LogServer Shutdown Complete");
     }
 
+    /**
+     * Obtains the number of log record writes received so far.
+     * @return The write count
+     */
+    public long getWriteCount() {
+        return config.logWriter.getWriteCount();
+    }
+
+    /**
+     * Obtains the number of log record bytes received so far.
+     * @return The byte count
+     */
+    public long getByteCount() {
+        return config.logWriter.getByteCount();
+    }
+
+    /**
+     * Obtains the number of writes to the log files so far. Together
+     * with the write count, this shows how well records are batched.
+     * @return The file write count
+     */
+    public long getFlushCount() {
+        return config.logWriter.getFlushCount();
+    }
+
 }
@@ -0,0 +1,245 @@
+/* The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://www.sun.com/cddl/cddl.html or
+ * install_dir/legal/LICENSE
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at install_dir/legal/LICENSE.
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ *
+ * $Id$
+ *
+ * Copyright 2005-2009 Sun Microsystems Inc. All Rights Reserved
+ */
+package com.sun.faban.harness.logging;
+
+import com.sun.faban.harness.common.Config;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.Flushable;
+import java.io.IOException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The long-lived, buffered writer for the log records received by the
+ * log server. Records from all connections are collected in one buffer
+ * and written to the log file in one go, either when the buffer fills
+ * up or when the flush interval expires. The log file stays open between
+ * writes.<p>
+ * The target file is given by the faban.log.file system property, which
+ * the run daemon switches at the start and end of each run. Buffered
+ * records are flushed to the old file before the writer moves on to the
+ * new one. Before closing the old file, the run daemon flushes the writer
+ * and holds its lock until the property is switched, so no record gets
+ * written after the end of the old log. The harness file handler appends to the same file, so the
+ * file is opened in append mode and only whole records are written.
+ */
+public class LogWriter implements Flushable {
+
+    private static Logger logger =
+            Logger.getLogger(LogWriter.class.getName());
+
+    private final byte[] buffer;
+    private int count;
+    private final long flushInterval;
+    private long lastFlush;
+
+    private String path;
+    private File file;
+    private FileOutputStream stream;
+
+    private long writeCount;
+    private long byteCount;
+    private long flushCount;
+
+    private Thread flusher;
+    private boolean closed;
+
+    /**
+     * Constructs the log writer and starts its flusher thread.
+     * @param bufferSize The size of the write buffer, in bytes
+     * @param flushInterval The max time records stay in the buffer, in ms
+     */
+    public LogWriter(int bufferSize, int flushInterval) {
+        buffer = new byte[bufferSize];
+        this.flushInterval = flushInterval;
+        lastFlush = System.currentTimeMillis();
+        flusher = new Thread("LogWriter") {
+            @Override
+            public void run() {
+                runFlusher();
+            }
+        };
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    /**
+     * Writes one or more complete log records to the current log file.
+     * @param b The record bytes
+     * @param off The offset into b
+     * @param len The number of bytes to write
+     * @throws IOException Error writing to the log file
+     */
+    public synchronized void write(byte[] b, int off, int len)
+            throws IOException {
+        if (closed)
+            throw new IOException("Log writer closed");
+        checkTarget();
+        if (count + len > buffer.length)
+            flush();
+        if (len >= buffer.length) {
+            // Too large to buffer, write through.
+            writeStream(b, off, len);
+        } else {
+            System.arraycopy(b, off, buffer, count, len);
+            count += len;
+        }
+        ++writeCount;
+        byteCount += len;
+    }
+
+    /**
+     * Writes all buffered records to the log file.
+     * @throws IOException Error writing to the log file
+     */
+    public synchronized void flush() throws IOException {
+        if (count > 0) {
+            int size = count;
+            count = 0; // Never write the same records twice.
+            writeStream(buffer, 0, size);
+        }
+        lastFlush = System.currentTimeMillis();
+    }
+
+    /**
+     * Flushes the buffered records and closes the log file. The writer
+     * cannot be used after closing.
+     */
+    public void close() {
+        synchronized (this) {
+            try {
+                flush();
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "Error flushing log " + path, e);
+            }
+            closeStream();
+            closed = true;
+            notifyAll();
+        }
+        try {
+            flusher.join(flushInterval * 2);
+        } catch (InterruptedException e) {
+            logger.log(Level.FINE, "Interrupted closing log writer", e);
+        }
+    }
+
+    /**
+     * Obtains the number of record writes received.
+     * @return The write count
+     */
+    public synchronized long getWriteCount() {
+        return writeCount;
+    }
+
+    /**
+     * Obtains the number of record bytes received.
+     * @return The byte count
+     */
+    public synchronized long getByteCount() {
+        return byteCount;
+    }
+
+    /**
+     * Obtains the number of writes to the log files.
+     * @return The flush count
+     */
+    public synchronized long getFlushCount() {
+        return flushCount;
+    }
+
+    private void writeStream(byte[] b, int off, int len) throws IOException {
+        if (stream == null || !file.exists()) {
+            closeStream();
+            file = new File(path);
+            stream = new FileOutputStream(file, true);
+        }
+        ++flushCount;
+        try {
+            stream.write(b, off, len);
+        } catch (IOException e) {
+            // Reopen on the next write.
+            closeStream();
+            throw e;
+        }
+    }
+
+    /**
+     * Moves to a new log file if the target has changed. The records
+     * buffered so far still go to the previous file.
+     */
+    private void checkTarget() {
+        String target = System.getProperty("faban.log.file");
+        if (target == null)
+            target = Config.TMP_DIR + "log.xml";
+        if (!target.equals(path)) {
+            if (path != null) {
+                try {
+                    flush();
+                } catch (IOException e) {
+                    logger.log(Level.WARNING, "Error flushing log " + path, e);
+                }
+                closeStream();
+            }
+            path = target;
+        }
+    }
+
+    private void closeStream() {
+        if (stream != null) {
+            try {
+                stream.close();
+            } catch (IOException e) {
+                logger.log(Level.FINE, "Error closing log " + path, e);
+            }
+            stream = null;
+        }
+    }
+
+    private synchronized void runFlusher() {
+        while (!closed) {
+            try {
+                long now = System.currentTimeMillis();
+                long wait = lastFlush + flushInterval - now;
+                if (wait > 0) {
+                    wait(wait);
+                    continue;
+                }
+                if (count > 0)
+                    flush();
+                else
+                    lastFlush = now;
+
+                // Release the file once the run daemon moved on.
+                if (path != null)
+                    checkTarget();
+            } catch (InterruptedException e) {
+                logger.log(Level.FINE, "Log flusher interrupted", e);
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "Error flushing log " + path, e);
+            }
+        }
+    }
+}
@@ -22,6 +22,7 @@
 package com.sun.faban.harness.webclient;
 
 import com.sun.faban.harness.common.Config;
+import com.sun.faban.harness.util.ContentManifest;
 
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
@@ -111,6 +112,16 @@ public class ContentReader extends HttpServlet {
             return;
         }
 
+        // For a directory manifest, we send the hashes of all files so
+        // agents can fetch just the files they do not have.
+        if (f.isDirectory() && "manifest".equals(request.getQueryString())) {
+            response.setContentType("text/plain");
+            ContentManifest.write(f.getName(), ContentManifest.build(f), out);
+            out.flush();
+            out.close();
+            return;
+        }
+
         // For directory, we send a text list of entries in the directory.
         // This is even easier to parse than XML.
         if (f.isDirectory()) {
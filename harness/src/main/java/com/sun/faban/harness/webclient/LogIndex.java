@@ -0,0 +1,295 @@
+/* The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://www.sun.com/cddl/cddl.html or
+ * install_dir/legal/LICENSE
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at install_dir/legal/LICENSE.
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ *
+ * $Id$
+ *
+ * Copyright 2005-2009 Sun Microsystems Inc. All Rights Reserved
+ */
+package com.sun.faban.harness.webclient;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.io.SequenceInputStream;
+import java.util.Vector;
+
+/**
+ * A record offset index for the log.xml file, kept in a sidecar file
+ * next to the log. The index lets the log viewer seek straight to record
+ * N and parse only the requested window, instead of parsing the whole log
+ * from the beginning for every page.<p>
+ * The log is written by the harness file handler and by the log server
+ * at the same time, so the index is not maintained by the writers. It is
+ * brought up to date when it is used, scanning only the part of the log
+ * appended since the last use. Logs of old runs are indexed on first
+ * access.<p>
+ * The index file holds the log position scanned so far, followed by the
+ * byte offset of each record, all as longs.
+ */
+class LogIndex {
+
+    /** The suffix added to the log file name for the index file. */
+    static final String SUFFIX = ".idx";
+
+    private static final byte[] RECORD_START = {
+        '<', 'r', 'e', 'c', 'o', 'r', 'd', '>'
+    };
+
+    private static final byte[] LOG_END = {
+        '<', '/', 'l', 'o', 'g', '>', '\n'
+    };
+
+    private static final int HEADER_SIZE = 8;
+
+    private static final int SCAN_BUFFER_SIZE = 65536;
+
+    private final File logFile;
+    private final File indexFile;
+    private long recordCount;
+    private long firstRecord = -1l;
+
+    /**
+     * Opens the index for a log file, updating it as needed.
+     * @param logFile The log file
+     * @throws IOException Error reading the log or writing the index
+     */
+    LogIndex(File logFile) throws IOException {
+        this.logFile = logFile;
+        indexFile = new File(logFile.getPath() + SUFFIX);
+        update();
+    }
+
+    /**
+     * Obtains the number of complete or partial records in the log.
+     * @return The record count
+     */
+    long getRecordCount() {
+        return recordCount;
+    }
+
+    /**
+     * Scans the part of the log not yet indexed and appends the new
+     * record offsets to the index file.
+     * @throws IOException Error reading the log or writing the index
+     */
+    private void update() throws IOException {
+        // Concurrent viewers of the same run must not both append.
+        synchronized (LogIndex.class) {
+            RandomAccessFile index = new RandomAccessFile(indexFile, "rw");
+            try {
+                long logLength = logFile.length();
+                long scanned = 0l;
+                long indexLength = index.length();
+                long lastOffset = -1l;
+                if (indexLength >= HEADER_SIZE &&
+                        (indexLength - HEADER_SIZE) % 8 == 0) {
+                    scanned = index.readLong();
+                    recordCount = (indexLength - HEADER_SIZE) / 8;
+                }
+                if (scanned > logLength || recordCount == 0) {
+                    // New, corrupt, or the log has been replaced.
+                    scanned = 0l;
+                    recordCount = 0l;
+                    index.setLength(HEADER_SIZE);
+                }
+                if (recordCount > 0) {
+                    lastOffset = readOffset(index, recordCount - 1);
+                }
+                if (logLength - scanned >= RECORD_START.length) {
+                    ByteArrayOutputStream offsets =
+                            new ByteArrayOutputStream();
+                    scanned = scan(scanned, logLength, lastOffset,
+                                   new DataOutputStream(offsets));
+                    // Offsets first, then the scanned position. If we fail
+                    // in between, the lastOffset check avoids duplicates.
+                    index.seek(index.length());
+                    index.write(offsets.toByteArray());
+                    index.seek(0l);
+                    index.writeLong(scanned);
+                    recordCount = (index.length() - HEADER_SIZE) / 8;
+                }
+                if (recordCount > 0) {
+                    firstRecord = readOffset(index, 0);
+                }
+            } finally {
+                index.close();
+            }
+        }
+    }
+
+    /**
+     * Scans the log for record starts.
+     * @param from The position to start scanning
+     * @param to The log length
+     * @param lastOffset The last record offset already indexed
+     * @param out The output for new record offsets
+     * @return The position up to which all record starts were found
+     * @throws IOException Error reading the log
+     */
+    private long scan(long from, long to, long lastOffset,
+                      DataOutputStream out) throws IOException {
+        int overlap = RECORD_START.length - 1;
+        byte[] buffer = new byte[SCAN_BUFFER_SIZE];
+        RandomAccessFile log = new RandomAccessFile(logFile, "r");
+        try {
+            long position = from;
+            log.seek(position);
+            int length = 0;  // Valid bytes in buffer, starting at position.
+            while (position + length < to) {
+                int read = log.read(buffer, length, (int) Math.min(
+                        buffer.length - length, to - position - length));
+                if (read < 0)
+                    break;
+                length += read;
+                int limit = length - overlap;
+                for (int i = 0; i < limit; i++) {
+                    if (buffer[i] == '<' && matches(buffer, i) &&
+                            position + i > lastOffset) {
+                        out.writeLong(position + i);
+                    }
+                }
+                if (limit > 0) {
+                    // Keep the tail, a record start may span buffers.
+                    System.arraycopy(buffer, limit, buffer, 0, overlap);
+                    position += limit;
+                    length = overlap;
+                }
+            }
+            return position;
+        } finally {
+            log.close();
+        }
+    }
+
+    private static boolean matches(byte[] buffer, int offset) {
+        for (int i = 1; i < RECORD_START.length; i++) {
+            if (buffer[offset + i] != RECORD_START[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static long readOffset(RandomAccessFile index, long record)
+            throws IOException {
+        index.seek(HEADER_SIZE + record * 8);
+        return index.readLong();
+    }
+
+    /**
+     * Opens a stream of the log containing only the records in the
+     * given window, with the log header and trailer, so it can be parsed
+     * just like the whole log. If the window reaches the end of the log,
+     * the log is streamed to its end as is.
+     * @param first The first record in the window
+     * @param count The number of records, or -1 to read to the end
+     * @return The stream, or null if the log has no records
+     * @throws IOException Error reading the log or the index
+     */
+    InputStream openWindow(long first, long count) throws IOException {
+        if (firstRecord < 0l) {
+            return null;
+        }
+        long start;
+        long end = -1l;
+        RandomAccessFile index = new RandomAccessFile(indexFile, "r");
+        try {
+            if (first >= recordCount) {
+                start = -1l;
+            } else {
+                start = readOffset(index, first);
+                if (count >= 0 && first + count < recordCount) {
+                    end = readOffset(index, first + count);
+                }
+            }
+        } finally {
+            index.close();
+        }
+
+        Vector<InputStream> streams = new Vector<InputStream>(3);
+        streams.add(new RangeInputStream(logFile, 0l, firstRecord));
+        if (start >= 0l) {
+            long length = end < 0l ? Long.MAX_VALUE : end - start;
+            streams.add(new RangeInputStream(logFile, start, length));
+        }
+        if (end >= 0l || start < 0l) {
+            streams.add(new ByteArrayInputStream(LOG_END));
+        }
+        return new SequenceInputStream(streams.elements());
+    }
+
+    /**
+     * A stream reading a range of a file.
+     */
+    static class RangeInputStream extends FilterInputStream {
+
+        private long remaining;
+
+        RangeInputStream(File file, long offset, long length)
+                throws IOException {
+            super(new FileInputStream(file));
+            ((FileInputStream) in).getChannel().position(offset);
+            remaining = length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (remaining <= 0)
+                return -1;
+            int b = in.read();
+            if (b >= 0)
+                --remaining;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (remaining <= 0)
+                return -1;
+            int count = in.read(b, off, (int) Math.min(len, remaining));
+            if (count > 0)
+                remaining -= count;
+            return count;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = in.skip(Math.min(n, remaining));
+            if (skipped > 0)
+                remaining -= skipped;
+            return skipped;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return (int) Math.min(in.available(), remaining);
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+    }
+}
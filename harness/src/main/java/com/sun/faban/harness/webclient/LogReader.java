@@ -40,11 +40,14 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 /**
  * A servlet to read the sometimes incomplete log file, complete it, and
  * translate it into readable html format. This servlet does not currntly
  * contain any log filtering options but these can be added in the future.
+ * Only the requested window of records is parsed, using the log index.
  *
  * @author Akara Sucharitakul
  */
@@ -75,12 +78,11 @@ public class LogReader extends HttpServlet {
             return;
         }
 
-        String logFilePath = Config.OUT_DIR + runId +
-                File.separator + Config.LOG_FILE;
-        InputStream is = new FileInputStream(logFilePath);
-        if (is == null) {
+        File logFile = new File(Config.OUT_DIR + runId +
+                File.separator + Config.LOG_FILE);
+        if (!logFile.isFile()) {
             response.sendError(HttpServletResponse.SC_NOT_FOUND,
-                    "Logfile " + logFilePath + " not found");
+                    "Logfile " + logFile + " not found");
             return;
         }
 
@@ -98,6 +100,36 @@ public class LogReader extends HttpServlet {
             showException = true;
         }
 
+        // Find the window of records to parse from the index.
+        long first = 0l;
+        long count = -1l;
+        if (showException) {
+            count = 1l;
+        } else if (Config.LOG_VIEW_BUFFER_SIZE > 0) {
+            count = Config.LOG_VIEW_BUFFER_SIZE;
+        }
+        InputStream is = null;
+        try {
+            LogIndex index = new LogIndex(logFile);
+            if (start == -1l) {
+                // The last page, read to the end.
+                if (count > 0l)
+                    first = Math.max(0l, index.getRecordCount() - count);
+                count = -1l;
+            } else {
+                first = start;
+            }
+            is = index.openWindow(first, count);
+        } catch (IOException e) {
+            // Cannot index, we'll just parse the whole log.
+            Logger.getLogger(LogReader.class.getName()).log(Level.FINE,
+                    "Cannot index log " + logFile, e);
+        }
+        if (is == null) {
+            first = 0l;
+            is = new FileInputStream(logFile);
+        }
+
         ServletOutputStream out = response.getOutputStream();
         LogParseHandler handler = null;
 
@@ -115,6 +147,7 @@ public class LogReader extends HttpServlet {
                 handler = new TableHandler(start, request, out, runId);
             else
                 handler = new RecordHandler(start, request, out, runId);
+            handler.recordCount = first;
             parser.parse(is, handler);
             handler.xmlComplete = true; // If we get here, the XML is good.
         } catch (ParserConfigurationException e) {
@@ -128,6 +161,8 @@ public class LogReader extends HttpServlet {
             handler.xmlComplete = false;
         } catch (SAXException e) {
             throw new ServletException(e);
+        } finally {
+            is.close();
         }
 
         response.setContentType("text/html");
@@ -223,10 +223,6 @@
                                     <td class="tablecell"><xsl:value-of select="avg"/></td>
                                     <td class="tablecell"><xsl:value-of select="max"/></td>
                                     <td class="tablecell"><xsl:value-of select="sd"/></td>
-                                    <xsl:if test="@r90th">
-                                        <td class="tablecell"><xsl:value-of select="p90th"/></td>
-                                        <td class="tablecell"><xsl:value-of select="@r90th"/></td>
-                                    </xsl:if>
                                     <xsl:if test="percentile">
                                         <xsl:for-each select="percentile">
                                             <td class="tablecell"><xsl:value-of select="."/></td>
@@ -236,6 +232,10 @@
                                         </xsl:if>
                                         </xsl:for-each>
                                     </xsl:if>
+                                    <xsl:if test="@r90th">
+                                        <td class="tablecell"><xsl:value-of select="p90th"/></td>
+                                        <td class="tablecell"><xsl:value-of select="@r90th"/></td>
+                                    </xsl:if>
                                     <xsl:choose>
                                         <xsl:when test="passed='true'">
                                             <td class="tablecell" style="color: rgb(0, 192, 0);">PASSED</td>
@@ -261,6 +261,7 @@
                                 <th class="header" style="text-align: left;">Type</th>
                                 <th class="header">Targeted Avg</th>
                                 <th class="header">Actual Avg</th>
+                                <th class="header">Avg Error</th>
                                 <th class="header">Min</th>
                                 <th class="header">Max</th>
                                 <th class="header">Pass/Fail</th>
@@ -278,6 +279,7 @@
                                     <td class="tablecell" style="text-align: left;"><xsl:value-of select="@name"/></td>
                                     <td class="tablecell"><xsl:value-of select="targetedAvg"/></td>
                                     <td class="tablecell"><xsl:value-of select="actualAvg"/></td>
+                                    <td class="tablecell"><xsl:value-of select="avgError"/></td>
                                     <td class="tablecell"><xsl:value-of select="min"/></td>
                                     <td class="tablecell"><xsl:value-of select="max"/></td>
                                     <xsl:choose>
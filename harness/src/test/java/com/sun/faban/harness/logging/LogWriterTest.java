@@ -0,0 +1,117 @@
+package com.sun.faban.harness.logging;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.logging.FileHandler;
+import java.util.logging.LogRecord;
+import java.util.logging.Level;
+import javax.xml.parsers.DocumentBuilderFactory;
+import org.w3c.dom.Document;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests the buffered log writer.
+ */
+public class LogWriterTest {
+
+    static final byte[] RECORD = "<record>\n</record>\n".getBytes();
+
+    File log1;
+    File log2;
+    String savedLogFile;
+
+    @Before
+    public void setUp() throws IOException {
+        log1 = File.createTempFile("log1", ".xml");
+        log2 = File.createTempFile("log2", ".xml");
+        savedLogFile = System.getProperty("faban.log.file");
+        System.setProperty("faban.log.file", log1.getPath());
+    }
+
+    @After
+    public void tearDown() {
+        if (savedLogFile == null)
+            System.clearProperty("faban.log.file");
+        else
+            System.setProperty("faban.log.file", savedLogFile);
+        log1.delete();
+        log2.delete();
+    }
+
+    @Test
+    public void testGroupCommit() throws IOException {
+        LogWriter writer = new LogWriter(RECORD.length * 10, 60000);
+        for (int i = 0; i < 25; i++) {
+            writer.write(RECORD, 0, RECORD.length);
+        }
+        // Two full buffers written, five records still buffered.
+        assertEquals(RECORD.length * 20, log1.length());
+        assertEquals(2, writer.getFlushCount());
+        writer.close();
+        assertEquals(RECORD.length * 25, log1.length());
+        assertEquals(25, writer.getWriteCount());
+        assertEquals(RECORD.length * 25, writer.getByteCount());
+    }
+
+    @Test
+    public void testFlushInterval() throws Exception {
+        LogWriter writer = new LogWriter(65536, 50);
+        writer.write(RECORD, 0, RECORD.length);
+        assertEquals(0, log1.length());
+        for (int i = 0; i < 100 && log1.length() == 0; i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(RECORD.length, log1.length());
+        writer.close();
+    }
+
+    @Test
+    public void testSwitchLogFile() throws IOException {
+        LogWriter writer = new LogWriter(65536, 60000);
+        writer.write(RECORD, 0, RECORD.length);
+        writer.write(RECORD, 0, RECORD.length);
+        System.setProperty("faban.log.file", log2.getPath());
+        writer.write(RECORD, 0, RECORD.length);
+        // The old file gets its records when the target switches.
+        assertEquals(RECORD.length * 2, log1.length());
+        writer.close();
+        assertEquals(RECORD.length, log2.length());
+    }
+
+    @Test
+    public void testSwitchKeepsLogWellFormed() throws Exception {
+        LogWriter writer = new LogWriter(65536, 60000);
+        FileHandler handler = new FileHandler(log1.getPath(), true);
+        handler.setFormatter(new XMLFormatter());
+        handler.publish(new LogRecord(Level.INFO, "Local"));
+        handler.flush();
+        writer.write(RECORD, 0, RECORD.length);
+
+        // Switch the log the way the run daemon does.
+        synchronized (writer) {
+            writer.flush();
+            handler.close();
+            System.setProperty("faban.log.file", log2.getPath());
+        }
+        writer.write(RECORD, 0, RECORD.length);
+        writer.close();
+
+        Document doc = DocumentBuilderFactory.newInstance().
+                newDocumentBuilder().parse(log1);
+        assertEquals(2, doc.getDocumentElement().
+                getElementsByTagName("record").getLength());
+        assertEquals(RECORD.length, log2.length());
+    }
+
+    @Test
+    public void testLargeWrite() throws IOException {
+        LogWriter writer = new LogWriter(16, 60000);
+        writer.write(RECORD, 0, RECORD.length);
+        assertEquals(RECORD.length, log1.length());
+        writer.close();
+    }
+}
@@ -0,0 +1,134 @@
+package com.sun.faban.harness.webclient;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.parsers.SAXParserFactory;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+import static org.junit.Assert.*;
+
+/**
+ * Tests the log record index.
+ */
+public class LogIndexTest {
+
+    File logFile;
+
+    @Before
+    public void setUp() throws IOException {
+        logFile = File.createTempFile("log", ".xml");
+        append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<log>\n");
+    }
+
+    @After
+    public void tearDown() {
+        logFile.delete();
+        new File(logFile.getPath() + LogIndex.SUFFIX).delete();
+    }
+
+    @Test
+    public void testWindow() throws Exception {
+        appendRecords(0, 1000);
+        append("</log>\n");
+        LogIndex index = new LogIndex(logFile);
+        assertEquals(1000, index.getRecordCount());
+        assertEquals(messages(500, 10), parse(index.openWindow(500, 10)));
+        assertEquals(messages(995, 5), parse(index.openWindow(995, -1)));
+        assertEquals(messages(999, 1), parse(index.openWindow(999, 10)));
+        assertEquals(messages(0, 0), parse(index.openWindow(1000, 10)));
+    }
+
+    @Test
+    public void testIncrementalUpdate() throws Exception {
+        appendRecords(0, 100);
+        assertEquals(100, new LogIndex(logFile).getRecordCount());
+
+        // A partial record, split right in the record start tag.
+        append("<reco");
+        assertEquals(100, new LogIndex(logFile).getRecordCount());
+        append("rd>\n<message>msg 100</message>\n</record>\n");
+        appendRecords(101, 50);
+        LogIndex index = new LogIndex(logFile);
+        assertEquals(151, index.getRecordCount());
+        assertEquals(messages(98, 4), parse(index.openWindow(98, 4)));
+        assertEquals(messages(140, 11), parse(index.openWindow(140, -1)));
+    }
+
+    @Test
+    public void testReplacedLog() throws Exception {
+        appendRecords(0, 100);
+        assertEquals(100, new LogIndex(logFile).getRecordCount());
+        logFile.delete();
+        append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<log>\n");
+        appendRecords(0, 3);
+        LogIndex index = new LogIndex(logFile);
+        assertEquals(3, index.getRecordCount());
+        assertEquals(messages(1, 2), parse(index.openWindow(1, 5)));
+    }
+
+    @Test
+    public void testNoRecords() throws Exception {
+        assertNull(new LogIndex(logFile).openWindow(0, 10));
+    }
+
+    private void appendRecords(int first, int count) throws IOException {
+        StringBuilder b = new StringBuilder();
+        for (int i = first; i < first + count; i++) {
+            b.append("<record>\n  <level>INFO</level>\n  <message>msg ").
+                    append(i).append("</message>\n</record>\n");
+        }
+        append(b.toString());
+    }
+
+    private void append(String s) throws IOException {
+        FileOutputStream out = new FileOutputStream(logFile, true);
+        out.write(s.getBytes("UTF-8"));
+        out.close();
+    }
+
+    private static List<String> messages(int first, int count) {
+        List<String> messages = new ArrayList<String>();
+        for (int i = first; i < first + count; i++) {
+            messages.add("msg " + i);
+        }
+        return messages;
+    }
+
+    private static List<String> parse(InputStream in) throws Exception {
+        final List<String> messages = new ArrayList<String>();
+        try {
+            SAXParserFactory.newInstance().newSAXParser().parse(in,
+                    new DefaultHandler() {
+                StringBuilder buffer = new StringBuilder();
+
+                @Override
+                public void characters(char[] ch, int start, int length) {
+                    buffer.append(ch, start, length);
+                }
+
+                @Override
+                public void endElement(String uri, String localName,
+                                       String qName) {
+                    if ("message".equals(qName)) {
+                        messages.add(buffer.toString().trim());
+                    }
+                    buffer.setLength(0);
+                }
+            });
+        } catch (SAXException e) {
+            // The log to the end is incomplete if it has no </log>.
+        } finally {
+            in.close();
+        }
+        return messages;
+    }
+}
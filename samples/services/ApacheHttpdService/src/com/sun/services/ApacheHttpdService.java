@@ -34,6 +34,7 @@ import com.sun.faban.harness.util.FileHelper;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -305,34 +306,44 @@ public class ApacheHttpdService {
      */
     @GetLogs public void getLogs() {
         String outDir = RunContext.getOutDir();
+        ArrayList<String> hosts = new ArrayList<String>();
+        ArrayList<String> files = new ArrayList<String>();
+        ArrayList<String> outFiles = new ArrayList<String>();
         for (int i = 0; i < myServers.length; i++) {
-            String outFile = outDir + "httpd_err.log." +
-                             RunContext.getHostName(myServers[i]);
+            String hostName = RunContext.getHostName(myServers[i]);
 
             // copy the error_log to the master
-            if (!RunContext.getFile(myServers[i], errlogFile, outFile)) {
-                logger.warning("Could not copy " + errlogFile + " to " +
-                        outFile);
-                return;
-            }
+            hosts.add(myServers[i]);
+            files.add(errlogFile);
+            outFiles.add(outDir + "httpd_err.log." + hostName);
+
             // copy the php.ini file if it has been specified
             if(iniFile != null && iniFile.trim().length() > 0) {
-                String outIniFile = outDir + "php_ini.log." +
-                                 RunContext.getHostName(myServers[i]);
-                if (!RunContext.getFile(myServers[i], iniFile, outIniFile)) {
-                    logger.warning("Could not copy " + iniFile + " to " + outIniFile);
-                }
+                hosts.add(myServers[i]);
+                files.add(iniFile);
+                outFiles.add(outDir + "php_ini.log." + hostName);
             }
             // copy the httpd.conf file if it has been specified
             if(confFile != null && confFile.trim().length() > 0) {
-                outFile = outDir + "httpd_conf.log." +
-                                 RunContext.getHostName(myServers[i]);
-                if (!RunContext.getFile(myServers[i], confFile, outFile)) {
-                    logger.warning("Could not copy " + confFile + " to " + outFile);
-                }
+                hosts.add(myServers[i]);
+                files.add(confFile);
+                outFiles.add(outDir + "httpd_conf.log." + hostName);
+            }
+        }
+
+        // The files of all servers are copied in parallel.
+        boolean[] copied = RunContext.getFiles(
+                hosts.toArray(new String[hosts.size()]),
+                files.toArray(new String[files.size()]),
+                outFiles.toArray(new String[outFiles.size()]));
+        for (int i = 0; i < copied.length; i++) {
+            if (!copied[i]) {
+                logger.warning("Could not copy " + files.get(i) + " to " +
+                        outFiles.get(i));
+            } else if (files.get(i).equals(errlogFile)) {
+                RunContext.truncateFile(hosts.get(i), errlogFile);
+                logger.fine("XferLog Completed for " + hosts.get(i));
             }
-            RunContext.truncateFile(myServers[i], errlogFile);
-            logger.fine("XferLog Completed for " + myServers[i]);
         }
     }
 }
\ No newline at end of file
@@ -220,27 +220,34 @@ public class GlassfishService {
      * Transfer log files.
      */
     @GetLogs public void xferLogs() {
-        for (int i = 0; i < myServers.length; i++) {
-            String outFile = getOutDir() + "glassfish_err.log." +
+        // Copy the error_log and the config file of each server to the
+        // master, all in parallel.
+        int n = myServers.length;
+        String[] hosts = new String[2 * n];
+        String[] files = new String[2 * n];
+        String[] outFiles = new String[2 * n];
+        for (int i = 0; i < n; i++) {
+            hosts[i] = hosts[n + i] = myServers[i];
+            files[i] = errlogFile;
+            outFiles[i] = getOutDir() + "glassfish_err.log." +
+                    getHostName(myServers[i]);
+            files[n + i] = confFile;
+            outFiles[n + i] = getOutDir() + "domain.xml.log." +
                     getHostName(myServers[i]);
+        }
+        boolean[] copied = getFiles(hosts, files, outFiles);
 
-            // copy the error_log to the master
-            if (!getFile(myServers[i], errlogFile, outFile)) {
+        for (int i = 0; i < n; i++) {
+            if (copied[i])
+                RunContext.truncateFile(myServers[i], errlogFile);
+            else
                 logger.warning("Could not copy " + errlogFile + " to " +
-                        outFile);
-                return;
-            }
-            RunContext.truncateFile(myServers[i], errlogFile);
-
-			// Copy the config file to master
-			outFile = getOutDir() + "domain.xml.log." + 
-                    getHostName(myServers[i]);
-            if (!getFile(myServers[i], confFile, outFile)) {
+                        outFiles[i]);
+            if (!copied[n + i])
                 logger.warning("Could not copy " + confFile + " to " +
-                        outFile);
-                return;
-            }
-            logger.fine("XferLog Completed for " + myServers[i]);
+                        outFiles[n + i]);
+            if (copied[i] && copied[n + i])
+                logger.fine("XferLog Completed for " + myServers[i]);
         }
     }
 
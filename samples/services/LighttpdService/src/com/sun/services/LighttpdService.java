@@ -300,15 +300,22 @@ public class LighttpdService {
 	 * and keeps only the portion of the log relevant for this run.
      */
     @GetLogs public void xferLogs() {
+        // copy the error_logs to the master, in parallel
+        String[] errlogFiles = new String[myServers.length];
+        String[] outFiles = new String[myServers.length];
         for (int i = 0; i < myServers.length; i++) {
-            String outFile = RunContext.getOutDir() + "httpd_err.log." +
-                             RunContext.getHostName(myServers[i]);
+            errlogFiles[i] = errlogFile;
+            outFiles[i] = RunContext.getOutDir() + "httpd_err.log." +
+                          RunContext.getHostName(myServers[i]);
+        }
+        boolean[] copied = RunContext.getFiles(myServers, errlogFiles,
+                                               outFiles);
 
-            // copy the error_log to the master
-            if (!RunContext.getFile(myServers[i], errlogFile, outFile)) {
+        for (int i = 0; i < myServers.length; i++) {
+            if (!copied[i]) {
                 logger.warning("Could not copy " + errlogFile + " to " +
-                        outFile);
-                return;
+                        outFiles[i]);
+                continue;
             }
             RunContext.truncateFile(myServers[i], errlogFile);
             logger.fine("XferLog Completed for " + myServers[i]);
@@ -189,27 +189,34 @@ public class MySQLService {
      * TODO: Modify code for mysql date/time format
      */
     @GetLogs public void getLogs() {
-        for (int i = 0; i < myServers.length; i++) {
+        // Copy the error logs and the conf files of all servers to the
+        // master, in parallel.
+        int n = myServers.length;
+        boolean getConf = confFile != null && confFile.trim().length() > 0;
+        String[] hosts = new String[getConf ? 2 * n : n];
+        String[] files = new String[hosts.length];
+        String[] outFiles = new String[hosts.length];
+        for (int i = 0; i < n; i++) {
             String myServer = myServers[i];
-            String outFile = RunContext.getOutDir() + "mysql_err.log." + RunContext.getHostName(myServer);
-            String errFile = dataDir + myServers[i] + ".err";
-            // copy the error_log to the master
-            if (!RunContext.getFile(myServer, errFile, outFile)) {
-                logger.warning("Could not copy " + errFile + " to " + outFile);
-                return;
-            }           
-            RunContext.truncateFile(myServer, errFile);
-
-            if(confFile != null && confFile.trim().length() > 0) {
-                String outConfFile = RunContext.getOutDir() + "mysql_conf.log." + RunContext.getHostName(myServer);
-                // copy the conf file to the master
-                if (!RunContext.getFile(myServer, confFile, outConfFile)) {
-                    logger.warning("Could not copy " + confFile + " to " + outConfFile);
-                    return;
-                }
+            hosts[i] = myServer;
+            files[i] = dataDir + myServer + ".err";
+            outFiles[i] = RunContext.getOutDir() + "mysql_err.log." + RunContext.getHostName(myServer);
+            if (getConf) {
+                hosts[n + i] = myServer;
+                files[n + i] = confFile;
+                outFiles[n + i] = RunContext.getOutDir() + "mysql_conf.log." + RunContext.getHostName(myServer);
             }
-            logger.fine("XferLog Completed for " + myServer);
         }
+        boolean[] copied = RunContext.getFiles(hosts, files, outFiles);
 
+        for (int i = 0; i < copied.length; i++) {
+            if (!copied[i])
+                logger.warning("Could not copy " + files[i] + " to " + outFiles[i]);
+            else if (i < n)
+                RunContext.truncateFile(myServers[i], files[i]);
+        }
+        for (int i = 0; i < n; i++)
+            if (copied[i] && (!getConf || copied[n + i]))
+                logger.fine("XferLog Completed for " + myServers[i]);
     }   
 }